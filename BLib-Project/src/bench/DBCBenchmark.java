@@ -0,0 +1,337 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import logic.BookCopy;
+import server.BLibDBC;
+import server.LatencyHistogram;
+
+/**
+ * The DBCBenchmark class measures the hot operations of {@link BLibDBC} against
+ * a database given by a JDBC URL, by default an embedded H2 database in MySQL
+ * mode (the H2 jar must be on the classpath). Every operation runs for a warmup
+ * period and then a measured period at each of the configured thread counts.
+ * The results are written as CSV and JSON so runs of different commits can be
+ * compared. The contendedBorrow operation races all the threads for the same
+ * few copies, and the run exits with status 1 if a copy was ever lent twice.
+ *
+ * Configuration is read from system properties:
+ * <ul>
+ * <li>bench.url, bench.user, bench.password - the database (default an H2
+ * in-memory database)</li>
+ * <li>bench.titles - the catalog size used when the database is empty (default
+ * 2000)</li>
+ * <li>bench.threads - the thread counts, separated by commas (default
+ * 1,4,16)</li>
+ * <li>bench.warmup, bench.seconds - the warmup and measured seconds of every
+ * run (default 2 and 5)</li>
+ * <li>bench.out - the directory of the results (default bench-results)</li>
+ * <li>bench.label - a label of the run, such as the commit (default
+ * "local")</li>
+ * </ul>
+ */
+public class DBCBenchmark {
+
+	/**
+	 * An operation measured by the benchmark. Every call gets the index of the
+	 * calling thread and the number of threads, so operations that change data can
+	 * keep each thread on its own rows.
+	 */
+	private interface Operation {
+		void run(BLibDBC db, int thread, int threads) throws Exception;
+	}
+
+	/**
+	 * The result of a single run of an operation.
+	 */
+	private static class Result {
+		private String operation;
+		private int threads;
+		private long calls;
+		private long errors;
+		private double seconds;
+		private LatencyHistogram latency;
+	}
+
+	private static int maxTitleID; // Highest title ID in the database
+	private static int maxCopyID; // Highest copy ID in the database
+	private static int minSubscriberID; // Lowest subscriber ID in the database
+	private static int maxSubscriberID; // Highest subscriber ID in the database
+	private static final String[] KEYWORDS = { "history", "java", "novel", "science", "art", "zz" };
+	private static final int CONTENDED_COPIES = 16; // Copies all the threads race to borrow
+	private static int[] contendedCopies; // IDs of the raced copies
+	private static AtomicIntegerArray holders; // Threads holding each raced copy, more than 1 is a double lend
+	private static final LongAdder doubleLends = new LongAdder(); // Borrows of a copy that was already lent
+
+	public static void main(String[] args) throws Exception {
+		String url = System.getProperty("bench.url", "jdbc:h2:mem:blib;MODE=MySQL;DB_CLOSE_DELAY=-1");
+		String user = System.getProperty("bench.user", "root");
+		String password = System.getProperty("bench.password", "");
+		int titles = Integer.getInteger("bench.titles", 2000);
+		int warmup = Integer.getInteger("bench.warmup", 2);
+		int seconds = Integer.getInteger("bench.seconds", 5);
+		String label = System.getProperty("bench.label", "local");
+		File outDir = new File(System.getProperty("bench.out", "bench-results"));
+		List<Integer> threadCounts = new ArrayList<>();
+		for (String t : System.getProperty("bench.threads", "1,4,16").split(",")) {
+			threadCounts.add(Integer.parseInt(t.trim()));
+		}
+
+		// Connect through BLibDBC so the schema migrations create the tables
+		if (!BLibDBC.getInstance().connect(url, user, password)) {
+			System.out.println("can't connect to " + url);
+			return;
+		}
+		try (Connection conn = DriverManager.getConnection(url, user, password)) {
+			seedIfEmpty(conn, titles);
+			readIDRanges(conn);
+			readContendedCopies(conn);
+		}
+		System.out.printf("catalog: %d titles, %d copies, %d subscribers%n", maxTitleID, maxCopyID,
+				maxSubscriberID - minSubscriberID + 1);
+
+		LocalDate lastMonth = LocalDate.now().minusMonths(1);
+		Map<String, Operation> operations = new LinkedHashMap<>();
+		operations.put("getTitlesByKeyword",
+				(db, t, n) -> db.getTitlesByKeyword(KEYWORDS[ThreadLocalRandom.current().nextInt(KEYWORDS.length)]));
+		operations.put("getCopyByID", (db, t, n) -> db.getCopyByID(randomID(maxCopyID)));
+		operations.put("getSubscriberActiveBorrows",
+				(db, t, n) -> db.getSubscriberActiveBorrows(db.getSubscriberByID(randomSubscriberID())));
+		operations.put("getTitleAvailability",
+				(db, t, n) -> db.getTitleAvailability(db.getTitleByID(randomID(maxTitleID))));
+		operations.put("createBorrow+returnBook", DBCBenchmark::borrowAndReturn);
+		operations.put("contendedBorrow", DBCBenchmark::contendedBorrow);
+		operations.put("getBorrowTimeOnMonth", (db, t, n) -> db.getBorrowTimeOnMonth(lastMonth));
+		operations.put("getSubscribersStatusOnMonth", (db, t, n) -> db.getSubscribersStatusOnMonth(lastMonth));
+		operations.put("SumNewSubscriber", (db, t, n) -> db.SumNewSubscriber(lastMonth));
+
+		List<Result> results = new ArrayList<>();
+		for (Map.Entry<String, Operation> op : operations.entrySet()) {
+			for (int threads : threadCounts) {
+				run(op.getValue(), threads, warmup); // Warm the JIT and the database caches up
+				Result r = run(op.getValue(), threads, seconds);
+				r.operation = op.getKey();
+				results.add(r);
+				System.out.printf("%-28s %3d threads %10.1f ops/s  p50 %7.3fms  p99 %7.3fms  errors %d%n",
+						r.operation, threads, r.calls / r.seconds, r.latency.getPercentileMillis(50),
+						r.latency.getPercentileMillis(99), r.errors);
+			}
+		}
+		write(results, outDir, label);
+		BLibDBC.getInstance().disconnect();
+
+		// No copy may be lent twice, neither while the threads raced nor in the database after
+		try (Connection conn = DriverManager.getConnection(url, user, password)) {
+			ResultSet rs = conn.prepareStatement("SELECT COUNT(*) FROM (SELECT copy_id FROM borrows "
+					+ "WHERE date_of_return IS NULL GROUP BY copy_id HAVING COUNT(*) > 1) AS a").executeQuery();
+			rs.next();
+			System.out.printf("double lends: %d while racing, %d copies with two open borrows%n", doubleLends.sum(),
+					rs.getInt(1));
+			if (doubleLends.sum() > 0 || rs.getInt(1) > 0)
+				System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs an operation on a number of threads for a period.
+	 *
+	 * @param op      the operation
+	 * @param threads the number of threads
+	 * @param seconds the length of the run
+	 * @return the result of the run
+	 * @throws InterruptedException if the run is interrupted
+	 */
+	private static Result run(Operation op, int threads, int seconds) throws InterruptedException {
+		LatencyHistogram latency = new LatencyHistogram();
+		LongAdder errors = new LongAdder();
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+		long[] window = new long[1];
+
+		for (int i = 0; i < threads; i++) {
+			int thread = i;
+			Thread t = new Thread(() -> {
+				try {
+					start.await();
+					BLibDBC db = BLibDBC.getInstance();
+					while (System.nanoTime() < window[0]) {
+						long begin = System.nanoTime();
+						try {
+							op.run(db, thread, threads);
+						} catch (Exception e) {
+							errors.increment();
+						}
+						latency.record(System.nanoTime() - begin);
+					}
+				} catch (InterruptedException e) {
+				} finally {
+					done.countDown();
+				}
+			});
+			t.setDaemon(true);
+			t.start();
+		}
+		long begin = System.nanoTime();
+		window[0] = begin + seconds * 1_000_000_000L;
+		start.countDown(); // The latch publishes the end of the window to the threads
+		done.await();
+
+		Result r = new Result();
+		r.threads = threads;
+		r.calls = latency.getCount();
+		r.errors = errors.sum();
+		r.seconds = (System.nanoTime() - begin) / 1e9;
+		r.latency = latency;
+		return r;
+	}
+
+	/**
+	 * Borrows a copy and returns it. Each thread borrows only its own share of the
+	 * copies, so threads don't borrow the same copy.
+	 */
+	private static void borrowAndReturn(BLibDBC db, int thread, int threads) throws Exception {
+		int copyID = randomID(maxCopyID / threads) * threads - thread;
+		if (!db.createBorrow(randomSubscriberID(), copyID))
+			throw new Exception("borrow of copy " + copyID + " failed");
+		BookCopy copy = db.getCopyByID(copyID);
+		if (!db.returnBook(copy, false))
+			throw new Exception("return of copy " + copyID + " failed");
+	}
+
+	/**
+	 * Races all the threads for a few copies. A thread that gets a copy checks
+	 * that no other thread holds it and returns it, a thread that loses the race
+	 * gets false from createBorrow. Two threads holding the same copy is a double
+	 * lend.
+	 */
+	private static void contendedBorrow(BLibDBC db, int thread, int threads) throws Exception {
+		if (contendedCopies.length == 0)
+			throw new Exception("no available copy to race for");
+		int i = ThreadLocalRandom.current().nextInt(contendedCopies.length);
+		int copyID = contendedCopies[i];
+		if (!db.createBorrow(randomSubscriberID(), copyID))
+			return; // Another thread holds the copy
+		if (holders.incrementAndGet(i) > 1) {
+			doubleLends.increment();
+			holders.decrementAndGet(i);
+			throw new Exception("copy " + copyID + " was lent twice");
+		}
+		holders.decrementAndGet(i); // Released before the return, so another borrow can't be counted falsely
+		if (!db.returnBook(db.getCopyByID(copyID), false))
+			throw new Exception("return of copy " + copyID + " failed");
+	}
+
+	/**
+	 * @return a random subscriber ID
+	 */
+	private static int randomSubscriberID() {
+		return minSubscriberID + ThreadLocalRandom.current().nextInt(Math.max(1, maxSubscriberID - minSubscriberID + 1));
+	}
+
+	/**
+	 * @return a random ID between 1 and max
+	 */
+	private static int randomID(int max) {
+		return 1 + ThreadLocalRandom.current().nextInt(Math.max(1, max));
+	}
+
+	/**
+	 * Fills an empty database with a library generated by
+	 * {@link DatasetGenerator}.
+	 *
+	 * @param conn   the database connection
+	 * @param titles the number of titles
+	 * @throws SQLException if the data can't be inserted
+	 */
+	private static void seedIfEmpty(Connection conn, int titles) throws SQLException {
+		ResultSet rs = conn.prepareStatement("SELECT COUNT(*) FROM titles").executeQuery();
+		if (rs.next() && rs.getInt(1) > 0)
+			return; // Measure the existing data
+		System.out.println("seeding " + titles + " titles");
+		new DatasetGenerator(titles, Math.max(10, titles / 4)).generate(conn);
+	}
+
+	/**
+	 * Reads the ID ranges of the catalog and the subscribers.
+	 *
+	 * @param conn the database connection
+	 * @throws SQLException if the IDs can't be read
+	 */
+	private static void readIDRanges(Connection conn) throws SQLException {
+		ResultSet rs = conn.prepareStatement("SELECT (SELECT MAX(title_id) FROM titles), (SELECT MAX(copy_id) "
+				+ "FROM copies), (SELECT MIN(subscriber_id) FROM subscribers), (SELECT MAX(subscriber_id) FROM subscribers)")
+				.executeQuery();
+		rs.next();
+		maxTitleID = rs.getInt(1);
+		maxCopyID = rs.getInt(2);
+		minSubscriberID = rs.getInt(3);
+		maxSubscriberID = rs.getInt(4);
+	}
+
+	/**
+	 * Picks the available copies that the threads race for.
+	 *
+	 * @param conn the database connection
+	 * @throws SQLException if the copies can't be read
+	 */
+	private static void readContendedCopies(Connection conn) throws SQLException {
+		ResultSet rs = conn.prepareStatement(
+				"SELECT copy_id FROM copies WHERE is_borrowed = FALSE ORDER BY copy_id LIMIT " + CONTENDED_COPIES)
+				.executeQuery();
+		List<Integer> ids = new ArrayList<>();
+		while (rs.next()) {
+			ids.add(rs.getInt(1));
+		}
+		contendedCopies = ids.stream().mapToInt(Integer::intValue).toArray();
+		holders = new AtomicIntegerArray(contendedCopies.length);
+	}
+
+	/**
+	 * Writes the results as CSV and JSON files named after the time of the run.
+	 *
+	 * @param results the results
+	 * @param outDir  the directory of the files
+	 * @param label   the label of the run
+	 * @throws IOException if the files can't be written
+	 */
+	private static void write(List<Result> results, File outDir, String label) throws IOException {
+		outDir.mkdirs();
+		String name = "dbc-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+		try (PrintWriter csv = new PrintWriter(new File(outDir, name + ".csv"));
+				PrintWriter json = new PrintWriter(new File(outDir, name + ".json"))) {
+			csv.println("label,operation,threads,calls,errors,ops_per_sec,mean_ms,p50_ms,p95_ms,p99_ms,max_ms");
+			json.println("[");
+			for (int i = 0; i < results.size(); i++) {
+				Result r = results.get(i);
+				LatencyHistogram l = r.latency;
+				csv.printf("%s,%s,%d,%d,%d,%.2f,%.4f,%.4f,%.4f,%.4f,%.4f%n", label, r.operation, r.threads, r.calls,
+						r.errors, r.calls / r.seconds, l.getMeanMillis(), l.getPercentileMillis(50),
+						l.getPercentileMillis(95), l.getPercentileMillis(99), l.getMaxMillis());
+				json.printf("  {\"label\": \"%s\", \"operation\": \"%s\", \"threads\": %d, \"calls\": %d, "
+						+ "\"errors\": %d, \"opsPerSec\": %.2f, \"meanMs\": %.4f, \"p50Ms\": %.4f, \"p95Ms\": %.4f, "
+						+ "\"p99Ms\": %.4f, \"maxMs\": %.4f}%s%n", label, r.operation, r.threads, r.calls, r.errors,
+						r.calls / r.seconds, l.getMeanMillis(), l.getPercentileMillis(50), l.getPercentileMillis(95),
+						l.getPercentileMillis(99), l.getMaxMillis(), i < results.size() - 1 ? "," : "");
+			}
+			json.println("]");
+		}
+		System.out.println("results written to " + new File(outDir, name) + ".csv/.json");
+	}
+}
@@ -0,0 +1,469 @@
+package bench;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * The DatasetGenerator class fills a BLib database with a synthetic library of
+ * any size, for scale testing. It simulates the library day by day over a
+ * number of years:
+ * <ul>
+ * <li>subscribers join evenly over the period,</li>
+ * <li>titles are borrowed with a Zipfian popularity, only when a copy of the
+ * title is on the shelf,</li>
+ * <li>a share of the borrows is returned late, and a return a week or more late
+ * freezes the subscriber for a month like the server does,</li>
+ * <li>wanted titles with no copy on the shelf are ordered in the last two
+ * weeks.</li>
+ * </ul>
+ * The denormalized columns (`num_of_copies`, `num_of_orders`, `is_borrowed`,
+ * `subscriber_status`) and the pending commands (due reminders and unfreezes)
+ * match the generated rows. Rows are written with JDBC batches, and the default
+ * MySQL URL enables rewriteBatchedStatements so a batch is sent as a multi-row
+ * insert. With the default behavior a subscriber brings about 24 rows, so
+ * 400000 subscribers make a dataset of about 10M rows.
+ *
+ * Configuration is read from system properties:
+ * <ul>
+ * <li>dataset.url, dataset.user, dataset.dbPassword - the database (default the
+ * local MySQL BLibDB)</li>
+ * <li>dataset.titles, dataset.subscribers - the size of the library (default
+ * 100000 each)</li>
+ * <li>dataset.copiesPerTitle - the average number of copies (default 3)</li>
+ * <li>dataset.years - the simulated period (default 2)</li>
+ * <li>dataset.borrowsPerYear - borrows of a subscriber in a year (default
+ * 12)</li>
+ * <li>dataset.zipf - the exponent of the title popularity (default 1.0)</li>
+ * <li>dataset.overdueRate - the share of late returns (default 0.1)</li>
+ * <li>dataset.severeRate - the share of late returns that are a week or more late
+ * and freeze the subscriber (default 0.3)</li>
+ * <li>dataset.orderRate - the chance that a subscriber who finds no copy orders
+ * the title (default 0.3)</li>
+ * <li>dataset.firstSubscriberID - the ID of the first subscriber (default
+ * 100000)</li>
+ * <li>dataset.password - the password of every subscriber (default "1234")</li>
+ * <li>dataset.truncate - whether to delete the existing library first (default
+ * false)</li>
+ * <li>dataset.seed - the seed of the random generator (default 42)</li>
+ * </ul>
+ */
+public class DatasetGenerator {
+
+	private static final int BATCH_SIZE = 5000; // Rows sent in one batch
+	private static final String[] GENRES = { "novel", "science", "history", "art", "children", "poetry", "biography",
+			"fantasy" };
+	private static final String[] WORDS = { "river", "night", "garden", "stone", "light", "empire", "silent", "java",
+			"ocean", "winter", "secret", "city", "machine", "history", "shadow", "science", "journey", "fire" };
+
+	// The size and the behavior of the simulated library
+	private int titles;
+	private int subscribers;
+	private double copiesPerTitle = Double.parseDouble(System.getProperty("dataset.copiesPerTitle", "3"));
+	private int years = Integer.getInteger("dataset.years", 2);
+	private double borrowsPerYear = Double.parseDouble(System.getProperty("dataset.borrowsPerYear", "12"));
+	private double zipf = Double.parseDouble(System.getProperty("dataset.zipf", "1.0"));
+	private double overdueRate = Double.parseDouble(System.getProperty("dataset.overdueRate", "0.1"));
+	private double severeRate = Double.parseDouble(System.getProperty("dataset.severeRate", "0.3"));
+	private double orderRate = Double.parseDouble(System.getProperty("dataset.orderRate", "0.3"));
+	private int firstSubscriberID = Integer.getInteger("dataset.firstSubscriberID", 100000);
+	private String password = System.getProperty("dataset.password", "1234");
+	private Random random = new Random(Long.getLong("dataset.seed", 42));
+
+	// The state of the simulation
+	private int[] firstCopy; // ID of the first copy of each title, the copies of a title are consecutive
+	private int[] numOfCopies; // Number of copies of each title
+	private int[] numOfOrders; // Number of open orders of each title
+	private double[] popularity; // Cumulative borrow probability of the titles, in popularity order
+	private int[] byPopularity; // Title of each popularity rank
+	private int[] freeFrom; // Day from which each copy is on the shelf
+	private boolean[] borrowed; // Whether each copy is borrowed at the end of the period
+	private int[] frozenUntil; // Day each subscriber gets unfrozen, 0 if not frozen
+	private int numActive; // Number of active subscribers
+	private int numFrozen; // Number of frozen subscribers
+	private long rows; // Number of rows written
+
+	/**
+	 * A future event of the simulation: a return of a copy or an unfreeze.
+	 */
+	private static class Event implements Comparable<Event> {
+		private int day;
+		private boolean isReturn;
+		private int subscriber;
+		private int copy;
+		private int dueDay;
+
+		private Event(int day, boolean isReturn, int subscriber, int copy, int dueDay) {
+			this.day = day;
+			this.isReturn = isReturn;
+			this.subscriber = subscriber;
+			this.copy = copy;
+			this.dueDay = dueDay;
+		}
+
+		@Override
+		public int compareTo(Event o) {
+			return Integer.compare(day, o.day);
+		}
+	}
+
+	/**
+	 * A batched insert that commits every {@link #BATCH_SIZE} rows.
+	 */
+	private class Batch {
+		private PreparedStatement pstmt;
+		private int size = 0;
+
+		private Batch(Connection conn, String sql) throws SQLException {
+			pstmt = conn.prepareStatement(sql);
+		}
+
+		private void add(Object... values) throws SQLException {
+			for (int i = 0; i < values.length; i++) {
+				pstmt.setObject(i + 1, values[i]);
+			}
+			pstmt.addBatch();
+			rows++;
+			if (++size == BATCH_SIZE)
+				flush();
+		}
+
+		private void flush() throws SQLException {
+			if (size > 0) {
+				pstmt.executeBatch();
+				pstmt.getConnection().commit();
+				size = 0;
+			}
+		}
+	}
+
+	/**
+	 * Creates a generator of a library. The other settings are read from the
+	 * system properties.
+	 *
+	 * @param titles      the number of titles
+	 * @param subscribers the number of subscribers
+	 */
+	public DatasetGenerator(int titles, int subscribers) {
+		this.titles = titles;
+		this.subscribers = subscribers;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String url = System.getProperty("dataset.url",
+				"jdbc:mysql://localhost/BLibDB?useSSL=FALSE&serverTimezone=Asia/Jerusalem&rewriteBatchedStatements=true");
+		String user = System.getProperty("dataset.user", "root");
+		String password = System.getProperty("dataset.dbPassword", "");
+		DatasetGenerator generator = new DatasetGenerator(Integer.getInteger("dataset.titles", 100000),
+				Integer.getInteger("dataset.subscribers", 100000));
+		try (Connection conn = DriverManager.getConnection(url, user, password)) {
+			if (Boolean.getBoolean("dataset.truncate"))
+				generator.truncate(conn);
+			long start = System.nanoTime();
+			long rows = generator.generate(conn);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%d rows in %.1fs (%.0f rows/s)%n", rows, seconds, rows / seconds);
+		}
+	}
+
+	/**
+	 * Deletes the existing library and the users of the generated subscribers.
+	 *
+	 * @param conn the database connection
+	 * @throws SQLException if the tables can't be emptied
+	 */
+	public void truncate(Connection conn) throws SQLException {
+		conn.setAutoCommit(false);
+		for (String table : new String[] { "titles", "copies", "subscribers", "borrows", "orders", "history",
+				"commands" }) {
+			conn.prepareStatement("DELETE FROM " + table).execute();
+			conn.commit();
+		}
+		PreparedStatement pstmt = conn.prepareStatement("DELETE FROM users WHERE user_id >= ? AND user_id < ?");
+		pstmt.setInt(1, firstSubscriberID);
+		pstmt.setInt(2, firstSubscriberID + subscribers);
+		pstmt.execute();
+		conn.commit();
+	}
+
+	/**
+	 * Generates the library into empty tables.
+	 *
+	 * @param conn the database connection
+	 * @return the number of rows written
+	 * @throws SQLException if the rows can't be written
+	 */
+	public long generate(Connection conn) throws SQLException {
+		conn.setAutoCommit(false);
+		rows = 0;
+		createCatalog();
+
+		int today = (int) LocalDate.now().toEpochDay();
+		int start = today - years * 365;
+		frozenUntil = new int[subscribers + 1];
+
+		Batch borrows = new Batch(conn, "INSERT INTO borrows(subscriber_id,copy_id,date_of_borrow,due_date,"
+				+ "date_of_return) VALUES(?,?,?,?,?)");
+		Batch history = new Batch(conn, "INSERT INTO history(subscriber_id,activity_type,activity_description,"
+				+ "activity_date) VALUES(?,?,?,?)");
+		Batch orders = new Batch(conn, "INSERT INTO orders(subscriber_id,title_id,order_date) VALUES(?,?,?)");
+		Batch commands = new Batch(conn, "INSERT INTO commands(command,arguments,time_of_execution,identifyer) "
+				+ "VALUES(?,?,?,?)");
+		PriorityQueue<Event> events = new PriorityQueue<>();
+		int joined = 0;
+
+		for (int day = start; day <= today; day++) {
+			Date date = Date.valueOf(LocalDate.ofEpochDay(day));
+
+			// Returns and unfreezes of the day
+			while (!events.isEmpty() && events.peek().day <= day) {
+				Event e = events.poll();
+				int sub = e.subscriber;
+				if (!e.isReturn) {
+					if (frozenUntil[sub] != e.day)
+						continue; // The freeze was extended by a later return
+					frozenUntil[sub] = 0;
+					numFrozen--;
+					numActive++;
+					history.add(id(sub), "unfreeze", "%s got unfrozen on %s;%d;%d".formatted(name(sub), date,
+							numActive, numFrozen), date);
+					continue;
+				}
+				int late = day - e.dueDay;
+				String title = titleName(titleOf(e.copy));
+				if (late <= 0) {
+					history.add(id(sub), "return", "\"%s\" return by %s on %s".formatted(title, name(sub), date), date);
+					continue;
+				}
+				history.add(id(sub), "late return", "\"%s\" late return by %s on %s late by %d days".formatted(title,
+						name(sub), date, late), date);
+				if (late >= 7) {
+					// A week late freezes the subscriber for a month, or extends the freeze
+					if (frozenUntil[sub] == 0) {
+						numFrozen++;
+						numActive--;
+						history.add(id(sub), "freeze", "%s got frozen on %s until %s;%d;%d".formatted(name(sub), date,
+								date.toLocalDate().plusMonths(1), numActive, numFrozen), date);
+					}
+					frozenUntil[sub] = day + 30;
+					events.add(new Event(day + 30, false, sub, 0, 0));
+				}
+			}
+
+			// Subscribers that join on the day
+			int joinedByToday = (int) ((long) subscribers * (day - start + 1) / (today - start + 1));
+			while (joined < joinedByToday) {
+				joined++;
+				numActive++;
+				history.add(id(joined), "new subscriber", "%s is now a subscriber since %s;%d;%d".formatted(
+						name(joined), date, numActive, numFrozen), date);
+			}
+			if (joined == 0)
+				continue;
+
+			// Borrows of the day
+			int borrowsToday = poisson(joined * borrowsPerYear / 365);
+			for (int b = 0; b < borrowsToday; b++) {
+				int sub = 1 + random.nextInt(joined);
+				if (frozenUntil[sub] != 0)
+					continue; // A frozen subscriber can't borrow
+				int title = randomTitle();
+				int copy = freeCopy(title, day);
+				if (copy == 0) {
+					// No copy on the shelf, recent demand turns into an order
+					if (day > today - 14 && numOfOrders[title] < numOfCopies[title] && random.nextDouble() < orderRate) {
+						numOfOrders[title]++;
+						orders.add(id(sub), title, Timestamp.valueOf(LocalDate.ofEpochDay(day).atTime(
+								LocalTime.of(9 + random.nextInt(10), random.nextInt(60)))));
+						history.add(id(sub), "order", "%s ordered the book \"%s\" on %s".formatted(name(sub),
+								titleName(title), date), date);
+					}
+					continue;
+				}
+				int due = day + 14;
+				int returnDay = random.nextDouble() < overdueRate
+						? due + (random.nextDouble() < severeRate ? 7 + random.nextInt(21) : 1 + random.nextInt(6))
+						: day + 1 + random.nextInt(14);
+				freeFrom[copy] = returnDay + 1;
+				history.add(id(sub), "borrow",
+						"\"%s\" borrowed by %s on %s".formatted(titleName(title), name(sub), date), date);
+				if (returnDay <= today) {
+					borrows.add(id(sub), copy, date, Date.valueOf(LocalDate.ofEpochDay(due)),
+							Date.valueOf(LocalDate.ofEpochDay(returnDay)));
+					events.add(new Event(returnDay, true, sub, copy, due));
+				} else {
+					// Still borrowed, the server has a reminder scheduled for the day before
+					// the due date
+					borrowed[copy] = true;
+					borrows.add(id(sub), copy, date, Date.valueOf(LocalDate.ofEpochDay(due)), null);
+					if (due - 1 >= today) {
+						commands.add("sendMessage", "%d;%s;dear %s,\n\nJust a reminder that the book you borrowed "
+								.formatted(id(sub), "Reminder: Book Due Tomorrow", name(sub))
+								+ "(\"%s\") is due tomorrow %s. Please make sure to return it by the due date.\nBraude Library"
+										.formatted(titleName(title), LocalDate.ofEpochDay(due)),
+								Timestamp.valueOf(LocalDate.ofEpochDay(due - 1).atTime(LocalTime.NOON)),
+								"%d;%d".formatted(id(sub), copy));
+					}
+				}
+			}
+		}
+
+		// Subscribers that are still frozen get unfrozen by a command
+		for (int sub = 1; sub <= subscribers; sub++) {
+			if (frozenUntil[sub] != 0) {
+				commands.add("unfreeze", "%d".formatted(id(sub)),
+						Timestamp.valueOf(LocalDate.ofEpochDay(frozenUntil[sub]).atTime(LocalTime.NOON)),
+						"%d".formatted(id(sub)));
+			}
+		}
+		borrows.flush();
+		history.flush();
+		orders.flush();
+		commands.flush();
+
+		writeCatalog(conn);
+		writeSubscribers(conn);
+		return rows;
+	}
+
+	/**
+	 * Chooses the number of copies and the popularity of each title.
+	 */
+	private void createCatalog() {
+		firstCopy = new int[titles + 2];
+		numOfCopies = new int[titles + 1];
+		numOfOrders = new int[titles + 1];
+		firstCopy[1] = 1;
+		for (int t = 1; t <= titles; t++) {
+			numOfCopies[t] = 1 + random.nextInt(Math.max(1, (int) Math.round(2 * copiesPerTitle - 1)));
+			firstCopy[t + 1] = firstCopy[t] + numOfCopies[t];
+		}
+		int copies = firstCopy[titles + 1] - 1;
+		freeFrom = new int[copies + 1];
+		borrowed = new boolean[copies + 1];
+
+		// Shuffle the titles into popularity ranks and build the Zipfian distribution
+		byPopularity = new int[titles];
+		for (int i = 0; i < titles; i++)
+			byPopularity[i] = i + 1;
+		for (int i = titles - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = byPopularity[i];
+			byPopularity[i] = byPopularity[j];
+			byPopularity[j] = tmp;
+		}
+		popularity = new double[titles];
+		double sum = 0;
+		for (int rank = 0; rank < titles; rank++) {
+			sum += 1 / Math.pow(rank + 1, zipf);
+			popularity[rank] = sum;
+		}
+		for (int rank = 0; rank < titles; rank++)
+			popularity[rank] /= sum;
+	}
+
+	/**
+	 * Writes the titles and their copies.
+	 */
+	private void writeCatalog(Connection conn) throws SQLException {
+		Batch titleRows = new Batch(conn, "INSERT INTO titles VALUES(?,?,?,?,?,?,?)");
+		Batch copyRows = new Batch(conn, "INSERT INTO copies VALUES(?,?,?,?)");
+		for (int t = 1; t <= titles; t++) {
+			String genre = GENRES[t % GENRES.length];
+			titleRows.add(t, titleName(t), "Author " + (1 + t % Math.max(1, titles / 4)),
+					"A %s book about %s and %s".formatted(genre, WORDS[(t * 7) % WORDS.length],
+							WORDS[(t * 13) % WORDS.length]),
+					numOfOrders[t], numOfCopies[t], genre);
+			for (int c = firstCopy[t]; c < firstCopy[t + 1]; c++) {
+				copyRows.add(t, c, "%c%d".formatted('A' + t % 26, 1 + t % 50), borrowed[c]);
+			}
+		}
+		titleRows.flush();
+		copyRows.flush();
+	}
+
+	/**
+	 * Writes the subscribers and their users.
+	 */
+	private void writeSubscribers(Connection conn) throws SQLException {
+		Batch subscriberRows = new Batch(conn, "INSERT INTO subscribers VALUES(?,?,?,?,?)");
+		Batch userRows = new Batch(conn, "INSERT INTO users VALUES(?,?,?)");
+		for (int sub = 1; sub <= subscribers; sub++) {
+			subscriberRows.add(id(sub), name(sub), "05%08d".formatted(sub), "subscriber%d@example.com".formatted(id(sub)),
+					frozenUntil[sub] != 0 ? "frozen" : "active");
+			userRows.add(id(sub), password, "subscriber");
+		}
+		subscriberRows.flush();
+		userRows.flush();
+	}
+
+	/**
+	 * @return a title chosen by popularity
+	 */
+	private int randomTitle() {
+		int rank = Arrays.binarySearch(popularity, random.nextDouble());
+		if (rank < 0)
+			rank = -rank - 1;
+		return byPopularity[Math.min(rank, titles - 1)];
+	}
+
+	/**
+	 * Finds a copy of a title that is on the shelf on a day.
+	 *
+	 * @return the ID of the copy, or 0 if every copy is borrowed
+	 */
+	private int freeCopy(int title, int day) {
+		List<Integer> free = new ArrayList<>(numOfCopies[title]);
+		for (int c = firstCopy[title]; c < firstCopy[title + 1]; c++) {
+			if (freeFrom[c] <= day)
+				free.add(c);
+		}
+		return free.isEmpty() ? 0 : free.get(random.nextInt(free.size()));
+	}
+
+	/**
+	 * @return the title of a copy
+	 */
+	private int titleOf(int copy) {
+		int t = Arrays.binarySearch(firstCopy, 1, titles + 1, copy);
+		return t >= 0 ? t : -t - 2;
+	}
+
+	/**
+	 * @return a number of events with a Poisson distribution around a mean
+	 */
+	private int poisson(double mean) {
+		if (mean > 30) // The normal approximation is close enough for large means
+			return Math.max(0, (int) Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+		double limit = Math.exp(-mean), p = random.nextDouble();
+		int n = 0;
+		while (p > limit) {
+			p *= random.nextDouble();
+			n++;
+		}
+		return n;
+	}
+
+	private int id(int sub) {
+		return firstSubscriberID + sub - 1;
+	}
+
+	private String name(int sub) {
+		return "Subscriber " + id(sub);
+	}
+
+	private String titleName(int title) {
+		return "The %s %s %d".formatted(WORDS[title % WORDS.length], WORDS[(title / WORDS.length) % WORDS.length],
+				title);
+	}
+}
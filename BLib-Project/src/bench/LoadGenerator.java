@@ -0,0 +1,306 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import logic.BookCopy;
+import logic.BookTitle;
+import logic.Borrow;
+import logic.Message;
+import logic.Subscriber;
+import ocsf.client.AbstractClient;
+import server.LatencyHistogram;
+
+/**
+ * The LoadGenerator class opens concurrent client connections to a running
+ * BLib server, without JavaFX, and replays a mix of user sessions with think
+ * times between the requests. It reports the throughput, the error rate and the
+ * latency percentiles of every command.
+ *
+ * Configuration is read from system properties:
+ * <ul>
+ * <li>load.host, load.port - the server (default localhost:5555)</li>
+ * <li>load.clients - the number of concurrent connections (default 20)</li>
+ * <li>load.seconds - the length of the run (default 60)</li>
+ * <li>load.thinkMs - the average think time between requests, exponentially
+ * distributed (default 500)</li>
+ * <li>load.mix - the weights of the sessions (default
+ * "search=40,login=15,borrow=15,order=10,history=10,librarian=10")</li>
+ * <li>load.subscribers, load.copies - the highest subscriber and copy IDs in the
+ * database (default 100 and 300)</li>
+ * <li>load.password - the password of the subscribers (default "1234")</li>
+ * <li>load.librarian - the name of the librarian (default "librarian")</li>
+ * <li>load.timeoutMs - how long to wait for a response (default 10000)</li>
+ * <li>load.out - the directory of the CSV result (default bench-results)</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+	// Responses of the server that mean the request was refused
+	private static final Set<String> REJECTIONS = Set.of("failed", "Failed", "loginFail", "searchFailed",
+			"subscriberNotFound", "subscriberFailedUpdated", "borrowNotFound");
+	private static final String[] KEYWORDS = { "history", "java", "novel", "science", "art", "zz" };
+
+	private static String host;
+	private static int port;
+	private static int thinkMs;
+	private static int subscribers;
+	private static int copies;
+	private static long timeoutMs;
+	private static String password;
+	private static String librarian;
+
+	// The statistics of each command
+	private static final Map<String, CommandStats> stats = new ConcurrentHashMap<>();
+
+	/**
+	 * The statistics of a single command.
+	 */
+	private static class CommandStats {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder rejected = new LongAdder(); // Refused by the server
+		private final LongAdder errors = new LongAdder(); // Not answered
+	}
+
+	/**
+	 * A headless client connection. Unlike {@link client.BLibClient}, which keeps
+	 * the response in static fields for its single UI connection, every
+	 * connection here waits for its own response.
+	 */
+	private static class LoadClient extends AbstractClient {
+		private final LinkedBlockingQueue<Object> response = new LinkedBlockingQueue<>();
+
+		private LoadClient(String host, int port) throws IOException {
+			super(host, port);
+			openConnection();
+		}
+
+		@Override
+		protected void handleMessageFromServer(Object msg) {
+			// The cache invalidations the server pushes aren't responses, there is no cache
+			if (msg instanceof Message && ((Message) msg).getCommand().equals("invalidate"))
+				return;
+			response.offer(msg);
+		}
+
+		/**
+		 * Sends a request, waits for its response and records its latency.
+		 *
+		 * @param request the request
+		 * @return the response, or null if it wasn't answered
+		 */
+		private Message request(Message request) {
+			CommandStats s = stats.computeIfAbsent(request.getCommand(), c -> new CommandStats());
+			long start = System.nanoTime();
+			try {
+				response.clear(); // Drop a late response of a request that timed out
+				sendToServer(request);
+				Object msg = response.poll(timeoutMs, TimeUnit.MILLISECONDS);
+				s.latency.record(System.nanoTime() - start);
+				if (!(msg instanceof Message)) {
+					s.errors.increment();
+					return null;
+				}
+				if (REJECTIONS.contains(((Message) msg).getCommand())) {
+					s.rejected.increment();
+				}
+				return (Message) msg;
+			} catch (IOException | InterruptedException e) {
+				s.latency.record(System.nanoTime() - start);
+				s.errors.increment();
+				return null;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		host = System.getProperty("load.host", "localhost");
+		port = Integer.getInteger("load.port", 5555);
+		int clients = Integer.getInteger("load.clients", 20);
+		int seconds = Integer.getInteger("load.seconds", 60);
+		thinkMs = Integer.getInteger("load.thinkMs", 500);
+		subscribers = Integer.getInteger("load.subscribers", 100);
+		copies = Integer.getInteger("load.copies", 300);
+		timeoutMs = Long.getLong("load.timeoutMs", 10000);
+		password = System.getProperty("load.password", "1234");
+		librarian = System.getProperty("load.librarian", "librarian");
+		File outDir = new File(System.getProperty("load.out", "bench-results"));
+
+		// Parse the session mix into cumulative weights
+		TreeMap<Integer, String> mix = new TreeMap<>();
+		int totalWeight = 0;
+		for (String entry : System.getProperty("load.mix", "search=40,login=15,borrow=15,order=10,history=10,librarian=10")
+				.split(",")) {
+			String[] kv = entry.trim().split("=");
+			totalWeight += Integer.parseInt(kv[1]);
+			mix.put(totalWeight, kv[0]);
+		}
+		int weights = totalWeight;
+
+		long end = System.nanoTime() + seconds * 1_000_000_000L;
+		CountDownLatch done = new CountDownLatch(clients);
+		for (int i = 0; i < clients; i++) {
+			int index = i;
+			Thread t = new Thread(() -> {
+				try {
+					LoadClient client = new LoadClient(host, port);
+					while (System.nanoTime() < end) {
+						int pick = ThreadLocalRandom.current().nextInt(weights);
+						String session = mix.higherEntry(pick).getValue();
+						runSession(client, session, index, clients);
+					}
+					client.closeConnection();
+				} catch (IOException e) {
+					stats.computeIfAbsent("connect", c -> new CommandStats()).errors.increment();
+				} finally {
+					done.countDown();
+				}
+			});
+			t.setDaemon(true);
+			t.start();
+		}
+		long start = System.nanoTime();
+		done.await();
+		report((System.nanoTime() - start) / 1e9, clients, outDir);
+	}
+
+	/**
+	 * Runs a user session on a connection.
+	 *
+	 * @param client  the connection
+	 * @param session the name of the session
+	 * @param index   the index of the connection
+	 * @param clients the number of connections
+	 */
+	@SuppressWarnings("unchecked")
+	private static void runSession(LoadClient client, String session, int index, int clients) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int subID = 1 + random.nextInt(subscribers);
+		Message res;
+		switch (session) {
+		case "search": // A guest searches and looks at the copies of a result
+			res = client.request(new Message("getTitlesByKeyword", KEYWORDS[random.nextInt(KEYWORDS.length)]));
+			think();
+			if (res != null && res.getCommand().equals("searchResult")) {
+				List<BookTitle> titles = new ArrayList<>((Set<BookTitle>) res.getArguments().get(0));
+				if (!titles.isEmpty()) {
+					client.request(new Message("getCopiesByTitle", titles.get(random.nextInt(titles.size()))));
+					think();
+				}
+			}
+			break;
+
+		case "login":
+			client.request(new Message("login", subID, password));
+			think();
+			break;
+
+		case "borrow": // Borrow, extend and return a copy of this connection's share
+			int copyID = 1 + random.nextInt(Math.max(1, copies / clients)) * clients + index;
+			if (copyID > copies)
+				copyID = 1 + index % copies;
+			res = client.request(new Message("createBorrow", subID, copyID));
+			think();
+			if (res == null || !res.getCommand().equals("success"))
+				break;
+			res = client.request(new Message("getCopyByID", copyID));
+			if (res == null || !res.getCommand().equals("success"))
+				break;
+			BookCopy copy = (BookCopy) res.getArguments().get(0);
+			res = client.request(new Message("getCopyActiveBorrow", copy));
+			think();
+			if (res != null && res.getCommand().equals("borrowFound")) {
+				client.request(new Message("extend", (Borrow) res.getArguments().get(0), 7, "subscriber"));
+				think();
+			}
+			client.request(new Message("return", copy));
+			think();
+			break;
+
+		case "order": // A subscriber orders the title of a random copy
+			res = client.request(new Message("getSubscriber", subID));
+			if (res == null || !res.getCommand().equals("subscriberFound"))
+				break;
+			Subscriber sub = (Subscriber) res.getArguments().get(0);
+			res = client.request(new Message("getCopyByID", 1 + random.nextInt(copies)));
+			think();
+			if (res != null && res.getCommand().equals("success")) {
+				client.request(new Message("order", sub, ((BookCopy) res.getArguments().get(0)).getTitle()));
+				think();
+			}
+			break;
+
+		case "history":
+			client.request(new Message("history", subID, null, 0, 50));
+			think();
+			break;
+
+		case "librarian": // A librarian looks at the subscribers and the messages
+			client.request(new Message("getAllSubscribers"));
+			think();
+			client.request(new Message("countLibrarianMessages", librarian));
+			client.request(new Message("getLibrarianMessages", librarian, 0));
+			think();
+			break;
+
+		default:
+			throw new IllegalArgumentException("unknown session " + session);
+		}
+	}
+
+	/**
+	 * Sleeps for an exponentially distributed think time.
+	 */
+	private static void think() {
+		if (thinkMs <= 0)
+			return;
+		long ms = (long) (-thinkMs * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * Prints the statistics of every command and writes them as CSV.
+	 *
+	 * @param seconds the length of the run
+	 * @param clients the number of connections
+	 * @param outDir  the directory of the CSV file
+	 * @throws IOException if the file can't be written
+	 */
+	private static void report(double seconds, int clients, File outDir) throws IOException {
+		outDir.mkdirs();
+		String name = "load-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".csv";
+		try (PrintWriter csv = new PrintWriter(new File(outDir, name))) {
+			csv.println("command,clients,calls,rejected,errors,per_sec,p50_ms,p95_ms,p99_ms,max_ms");
+			System.out.printf("%-24s %8s %8s %8s %9s %9s %9s %9s%n", "command", "calls", "rejected", "errors",
+					"per sec", "p50 ms", "p95 ms", "p99 ms");
+			for (Map.Entry<String, CommandStats> e : new TreeMap<>(stats).entrySet()) {
+				CommandStats s = e.getValue();
+				LatencyHistogram l = s.latency;
+				System.out.printf("%-24s %8d %8d %8d %9.2f %9.2f %9.2f %9.2f%n", e.getKey(), l.getCount(),
+						s.rejected.sum(), s.errors.sum(), l.getCount() / seconds, l.getPercentileMillis(50),
+						l.getPercentileMillis(95), l.getPercentileMillis(99));
+				csv.printf("%s,%d,%d,%d,%d,%.2f,%.3f,%.3f,%.3f,%.3f%n", e.getKey(), clients, l.getCount(),
+						s.rejected.sum(), s.errors.sum(), l.getCount() / seconds, l.getPercentileMillis(50),
+						l.getPercentileMillis(95), l.getPercentileMillis(99), l.getMaxMillis());
+			}
+		}
+		System.out.println("results written to " + new File(outDir, name));
+	}
+}
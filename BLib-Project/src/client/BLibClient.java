@@ -2,8 +2,12 @@ package client;
 
 import java.io.IOException;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import javafx.event.Event;
 import javafx.fxml.FXMLLoader;
@@ -27,6 +31,13 @@ public class BLibClient extends AbstractClient {
 	public static Message msg;
 	public static boolean awaitResponse = false;
 
+	// Commands that change the library, after which the cached replies are dropped
+	private static final Set<String> WRITE_COMMANDS = Set.of("createBorrow", "createBorrows", "extend", "return",
+			"returnBooks", "order", "updateSubscriber", "registerSubscriber", "registerSubscribers");
+
+	// Replies of the requests the screens repeat
+	private final ResponseCache cache = new ResponseCache();
+
 	/**
 	 * Constructor to initialize the client and open a connection.
 	 * 
@@ -50,6 +61,12 @@ public class BLibClient extends AbstractClient {
 	 */
 	@Override
 	protected void handleMessageFromServer(Object msg) {
+		if (((Message) msg).getCommand().equals("invalidate")) {
+			// Pushed by the server when the library changed, not a reply
+			List<Object> args = ((Message) msg).getArguments();
+			cache.invalidate((List<Integer>) args.get(0), (List<Integer>) args.get(1), (List<Integer>) args.get(2));
+			return;
+		}
 		BLibClient.msg = (Message) msg; // Update static message variable
 		awaitResponse = false; // Set response status to false
 	}
@@ -71,6 +88,9 @@ public class BLibClient extends AbstractClient {
 					e.printStackTrace(); // Handle interruptions
 				}
 			}
+			// The change may not be pushed back before the next request
+			if (message instanceof Message && WRITE_COMMANDS.contains(((Message) message).getCommand()))
+				cache.clear();
 		} catch (IOException e) {
 			e.printStackTrace(); // Handle errors during communication
 			System.out.println("Could not send message to server: Terminating client." + e);
@@ -78,6 +98,30 @@ public class BLibClient extends AbstractClient {
 		}
 	}
 
+	/**
+	 * Sends a request whose reply is cached, unless the reply is in the cache. The
+	 * reply is left in {@link #msg} like the reply of any request.
+	 * 
+	 * @param request the request
+	 * @param key     the arguments of the request in the cache
+	 * @param success the command of a reply to cache, other replies aren't cached
+	 * @param tags    the entities a reply is about, see {@link ResponseCache#put}
+	 */
+	private void requestCached(Message request, String key, String success, Function<Message, Set<String>> tags) {
+		Message reply = cache.get(request.getCommand(), key);
+		if (reply != null) {
+			msg = reply;
+			return;
+		}
+		// An invalidation handled while the request waits drops the reply, it may be
+		// older than the invalidation
+		long epoch = cache.getEpoch();
+		msg = request;
+		handleMessageFromClientUI(msg); // Send to server
+		if (msg.getCommand().equals(success))
+			cache.put(request.getCommand(), key, msg, tags.apply(msg), epoch);
+	}
+
 	/**
 	 * Terminates the client by closing the connection and exiting the program.
 	 */
@@ -127,8 +171,15 @@ public class BLibClient extends AbstractClient {
 	 * @return a set of book copies for the title, or null if no results are found
 	 */
 	public Set<BookCopy> getCopiesByTitle(BookTitle bt) {
-		msg = new Message("getCopiesByTitle", bt); // Create search message
-		handleMessageFromClientUI(msg); // Send to server
+		// Create search message, answered from the cache until a copy of the title changes
+		requestCached(new Message("getCopiesByTitle", bt), "" + bt.getTitleID(), "searchResult", reply -> {
+			Set<String> tags = new HashSet<>();
+			tags.add("title:" + bt.getTitleID());
+			for (BookCopy copy : (Set<BookCopy>) reply.getArguments().get(0)) {
+				tags.add("copy:" + copy.getCopyID());
+			}
+			return tags;
+		});
 		if (msg.getCommand().equals("searchResult")) {
 			return (Set<BookCopy>) msg.getArguments().get(0);
 		}
@@ -190,13 +241,52 @@ public class BLibClient extends AbstractClient {
 	}
 
 	/**
-	 * Retrieves the subscriber's activity history.
+	 * Borrows a stack of scanned books for a subscriber in one request.
 	 * 
 	 * @param subID the subscriber ID
-	 * @return the list of activities, or null if no activities are found
+	 * @param bookIDs the book IDs in scanning order
+	 * @return the result of each book by book ID in scanning order, a "success" or
+	 *         "failed" message like the result of createBorrow, or null if the
+	 *         request failed
 	 */
-	public List<Activity> getSubscriberHistory(int subID) {
-		msg = new Message("history", subID); // Create history message
+	public Map<Integer, Message> createBorrows(Integer subID, List<Integer> bookIDs) {
+		msg = new Message("createBorrows", subID, new ArrayList<>(bookIDs)); // Create batch borrow message
+		handleMessageFromClientUI(msg); // Send to server
+		if (msg.getCommand().equals("success")) {
+			return (Map<Integer, Message>) msg.getArguments().get(0);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a stack of scanned books in one request.
+	 * 
+	 * @param bookIDs the book IDs in scanning order
+	 * @return the result of each book by book ID in scanning order, a "success" or
+	 *         "failed" message like the result of returnBook, or null if the
+	 *         request failed
+	 */
+	public Map<Integer, Message> returnBooks(List<Integer> bookIDs) {
+		msg = new Message("returnBooks", new ArrayList<>(bookIDs)); // Create batch return message
+		handleMessageFromClientUI(msg); // Send to server
+		if (msg.getCommand().equals("success")) {
+			return (Map<Integer, Message>) msg.getArguments().get(0);
+		}
+		return null;
+	}
+
+	/**
+	 * Retrieves one page of the subscriber's activity history, newest first.
+	 * 
+	 * @param subID the subscriber ID
+	 * @param beforeDate the date of the last activity already received, or null for the first page
+	 * @param beforeID the ID of the last activity already received
+	 * @param pageSize the maximal number of activities in the page
+	 * @return the page of activities (empty when there are no more), or null if the history
+	 *         could not be retrieved
+	 */
+	public List<Activity> getSubscriberHistory(int subID, LocalDate beforeDate, int beforeID, int pageSize) {
+		msg = new Message("history", subID, beforeDate, beforeID, pageSize); // Create history message
 		handleMessageFromClientUI(msg); // Send to server
 		if (msg.getCommand().equals("historyRetrieved")) {
 			return (List<Activity>) msg.getArguments().get(0); // Return activity history
@@ -205,26 +295,48 @@ public class BLibClient extends AbstractClient {
 	}
 
 	/**
-	 * Retrieves all librarian messages.
+	 * Retrieves the librarian's unread messages that arrived after a given message
+	 * ID.
 	 * 
-	 * @return a list of librarian messages, or null if no messages are found
+	 * @param librarian the name of the librarian
+	 * @param afterID the last message ID already known to the caller (0 for none)
+	 * @return a map of message IDs to messages ordered by ID, or null if the
+	 *         messages could not be retrieved
 	 */
-	public List<String> getLibrarianMessages() {
-		msg = new Message("getLibrarianMessages"); // Create message
+	public Map<Integer, String> getLibrarianMessages(String librarian, int afterID) {
+		msg = new Message("getLibrarianMessages", librarian, afterID); // Create message
 		handleMessageFromClientUI(msg); // Send to server
 		if (msg.getCommand().equals("success")) {
-			return (List<String>) msg.getArguments().get(0);
+			return (Map<Integer, String>) msg.getArguments().get(0);
 		}
 		return null; // Placeholder return value
 	}
 
 	/**
-	 * Clears all librarian messages.
+	 * Counts the librarian's unread messages.
 	 * 
+	 * @param librarian the name of the librarian
+	 * @return the number of unread messages, or null if they could not be counted
+	 */
+	public Integer countLibrarianMessages(String librarian) {
+		msg = new Message("countLibrarianMessages", librarian); // Create message
+		handleMessageFromClientUI(msg); // Send to server
+		if (msg.getCommand().equals("success")) {
+			return (Integer) msg.getArguments().get(0);
+		}
+		return null;
+	}
+
+	/**
+	 * Clears the librarian's messages up to a given message ID by marking them as
+	 * read.
+	 * 
+	 * @param librarian the name of the librarian
+	 * @param lastID the ID of the last message the librarian has seen
 	 * @return the result of the clear message request
 	 */
-	public String clearLibrarianMessages() {
-		msg = new Message("clearLibrarianMessages"); // Create message
+	public String clearLibrarianMessages(String librarian, int lastID) {
+		msg = new Message("clearLibrarianMessages", librarian, lastID); // Create message
 		handleMessageFromClientUI(msg); // Send to server
 		return (String) msg.getCommand();
 	}
@@ -251,8 +363,8 @@ public class BLibClient extends AbstractClient {
 	 * @return the subscriber object if found, null otherwise
 	 */
 	public Subscriber getSubscriber(int id) {
-		msg = new Message("getSubscriber", id); // Create getSubscriber message
-		handleMessageFromClientUI(msg); // Send to server
+		// Create getSubscriber message, answered from the cache until the subscriber changes
+		requestCached(new Message("getSubscriber", id), "" + id, "subscriberFound", reply -> Set.of("subscriber:" + id));
 		if (msg.getCommand().equals("subscriberFound")) {
 			return (Subscriber) msg.getArguments().get(0); // Return subscriber
 		}
@@ -323,8 +435,8 @@ public class BLibClient extends AbstractClient {
 	 * @return the book copy if found, null otherwise
 	 */
 	public BookCopy getCopyByID(int id) {
-		msg = new Message("getCopyByID", id);
-		handleMessageFromClientUI(msg);
+		requestCached(new Message("getCopyByID", id), "" + id, "success", reply -> Set.of("copy:" + id,
+				"title:" + ((BookCopy) reply.getArguments().get(0)).getTitle().getTitleID()));
 		if (msg.getCommand().equals("success")) {
 			return (BookCopy) msg.getArguments().get(0);
 		}
@@ -338,8 +450,8 @@ public class BLibClient extends AbstractClient {
 	 * @return the closest return date, or null if not found
 	 */
 	public LocalDate getTitleClosestReturnDate(BookTitle bt) {
-		msg = new Message("getTitleClosestReturnDate", bt);
-		handleMessageFromClientUI(msg);
+		requestCached(new Message("getTitleClosestReturnDate", bt), "" + bt.getTitleID(), "success",
+				reply -> Set.of("title:" + bt.getTitleID()));
 		if (msg.getCommand().equals("success")) {
 			return (LocalDate) msg.getArguments().get(0);
 		}
@@ -360,6 +472,56 @@ public class BLibClient extends AbstractClient {
 		return null;
 	}
 
+	/**
+	 * Retrieves the place of a subscriber in the line of the orders of a title.
+	 * 
+	 * @param subID   the ID of the subscriber
+	 * @param titleID the ID of the title
+	 * @return the place of the subscriber, 1 for the next order or 0 if they have
+	 *         no waiting order of the title, and the number of waiting orders, or
+	 *         null if the request failed
+	 */
+	public Integer[] getOrderPlace(int subID, int titleID) {
+		msg = new Message("getOrderPlace", subID, titleID);
+		handleMessageFromClientUI(msg);
+		if (msg.getCommand().equals("success"))
+			return (Integer[]) msg.getArguments().get(0);
+		return null;
+	}
+
+	/**
+	 * Starts exporting tables of the database to files on the server.
+	 * 
+	 * @param tables   the tables separated by commas, or "all"
+	 * @param format   csv or jsonl
+	 * @param compress whether to gzip the files
+	 * @return the directory of the files on the server, or null if the export
+	 *         didn't start
+	 */
+	public String exportData(String tables, String format, boolean compress) {
+		msg = new Message("exportData", tables, format, compress);
+		handleMessageFromClientUI(msg);
+		if (msg.getCommand().equals("success"))
+			return (String) msg.getArguments().get(0);
+		return null;
+	}
+
+	/**
+	 * Registers a list of new subscribers in one request.
+	 * 
+	 * @param subscribers the subscribers to register
+	 * @return the result of each subscriber in order, a "success" message with
+	 *         their password or a "failed" message with the reason, or null if
+	 *         the request failed
+	 */
+	public List<Message> registerSubscribers(List<Subscriber> subscribers) {
+		msg = new Message("registerSubscribers", new ArrayList<>(subscribers));
+		handleMessageFromClientUI(msg);
+		if (msg.getCommand().equals("success"))
+			return (List<Message>) msg.getArguments().get(0);
+		return null;
+	}
+
 	/**
 	 * Retrieves data for a graph, typically for displaying statistics.
 	 * 
@@ -0,0 +1,167 @@
+package client;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import logic.Message;
+
+/**
+ * The ResponseCache class keeps the replies of the server to the requests the
+ * screens send again and again, like the copies of a title or a subscriber's
+ * details, so going back to a screen doesn't wait for the server.
+ * <ul>
+ * <li>every command has its own time to live, a reply older than it is asked
+ * again,</li>
+ * <li>at most blib.clientCacheSize replies (default 256) are kept, the least
+ * recently used is dropped first,</li>
+ * <li>every reply is tagged with the titles, copies and subscribers it is
+ * about, and dropped when the server tells that one of them changed, or when
+ * this client changes the library itself.</li>
+ * </ul>
+ */
+public class ResponseCache {
+	// Time to live of the replies of each cached command
+	private static final Map<String, Long> TTL_MILLIS = Map.of("getCopiesByTitle", 30_000L,
+			"getTitleClosestReturnDate", 60_000L, "getSubscriber", 60_000L, "getCopyByID", 30_000L);
+	private static final int MAX_ENTRIES = Integer.getInteger("blib.clientCacheSize", 256);
+
+	/**
+	 * A cached reply.
+	 */
+	private static class Entry {
+		private final Message reply;
+		private final long expires; // System.nanoTime() the reply expires at
+		private final Set<String> tags; // The entities the reply is about, like "title:3"
+
+		private Entry(Message reply, long expires, Set<String> tags) {
+			this.reply = reply;
+			this.expires = expires;
+			this.tags = tags;
+		}
+	}
+
+	// Replies by command and arguments, in access order
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private long hits;
+	private long misses;
+	private long epoch; // Number of invalidations so far
+
+	/**
+	 * Retrieves a reply that didn't expire.
+	 *
+	 * @param command the command of the request
+	 * @param key     the arguments of the request
+	 * @return the reply, or null if it isn't cached
+	 */
+	public synchronized Message get(String command, String key) {
+		String k = command + ":" + key;
+		Entry entry = entries.get(k);
+		if (entry == null || entry.expires - System.nanoTime() <= 0) {
+			if (entry != null)
+				entries.remove(k);
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.reply;
+	}
+
+	/**
+	 * Returns the number of invalidations so far, read before a request is sent
+	 * so its reply isn't kept if an invalidation arrived before it was put.
+	 *
+	 * @return the epoch of the cache
+	 */
+	public synchronized long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Keeps a reply for the time to live of its command, unless the cache was
+	 * invalidated since the request was sent: the reply may be older than the
+	 * invalidation, which was handled before the reply was put.
+	 *
+	 * @param command the command of the request
+	 * @param key     the arguments of the request
+	 * @param reply   the reply of the server
+	 * @param tags    the entities the reply is about: "title:ID", "copy:ID" or
+	 *                "subscriber:ID"
+	 * @param epoch   the epoch of the cache when the request was sent
+	 */
+	public synchronized void put(String command, String key, Message reply, Set<String> tags, long epoch) {
+		Long ttl = TTL_MILLIS.get(command);
+		if (ttl == null || epoch != this.epoch)
+			return;
+		entries.put(command + ":" + key, new Entry(reply, System.nanoTime() + ttl * 1_000_000, tags));
+	}
+
+	/**
+	 * Drops the replies about changed entities, as told by the server.
+	 *
+	 * @param titleIDs      the IDs of the changed titles, or null for all titles
+	 * @param copyIDs       the IDs of the changed copies, or null for all copies
+	 * @param subscriberIDs the IDs of the changed subscribers, or null for all
+	 *                      subscribers
+	 */
+	public synchronized void invalidate(List<Integer> titleIDs, List<Integer> copyIDs, List<Integer> subscriberIDs) {
+		epoch++;
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Set<String> tags = it.next().tags;
+			if (matches(tags, "title", titleIDs) || matches(tags, "copy", copyIDs)
+					|| matches(tags, "subscriber", subscriberIDs))
+				it.remove();
+		}
+	}
+
+	/**
+	 * Drops all the replies.
+	 */
+	public synchronized void clear() {
+		epoch++;
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of requests answered from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of cached requests that were sent to the server
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return true if the tags have an entity of the kind that changed
+	 */
+	private static boolean matches(Set<String> tags, String kind, Collection<Integer> ids) {
+		if (ids == null) {
+			for (String tag : tags) {
+				if (tag.startsWith(kind + ":"))
+					return true;
+			}
+			return false;
+		}
+		for (Integer id : ids) {
+			if (tags.contains(kind + ":" + id))
+				return true;
+		}
+		return false;
+	}
+}
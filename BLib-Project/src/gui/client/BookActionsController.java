@@ -1,6 +1,9 @@
 package gui.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -35,20 +38,18 @@ public class BookActionsController {
 
 	/**
 	 * Handles the borrowing process when the librarian clicks the "Borrow" button.
+	 * A stack of books scanned into the Book ID field is borrowed in one request.
 	 *
 	 * @param event The ActionEvent triggered by clicking the Borrow button.
 	 */
 	public void borrowBtn(ActionEvent event) {
-		Integer bookID;
-		// Validate the input fields for the book ID
-	    try {
-	        // Attempt to parse the Book ID from the TextField
-	    	bookID = Integer.valueOf(txtBookId.getText());
-	    } catch (NumberFormatException e) {
+		// Validate the input fields for the book IDs
+		List<Integer> bookIDs = parseBookIDs();
+		if (bookIDs == null) {
 	        // Handle invalid Book ID input
 	        IPController.client.display(lblError,"Invalid Book ID", Color.RED);
 	        return;
-	    }
+		}
 	    
 	    Integer subID;
 		// Validate the input fields for the subscriber ID
@@ -61,8 +62,14 @@ public class BookActionsController {
 	        return;
 	    }
 
+	    // Borrow a stack of scanned books together
+	    if (bookIDs.size() > 1) {
+	    	displayResults(IPController.client.createBorrows(subID, bookIDs), "borrowed");
+	    	return;
+	    }
+
 		// Attempt to create a borrow transaction
-	    Message msg = IPController.client.createBorrow(subID, bookID);
+	    Message msg = IPController.client.createBorrow(subID, bookIDs.get(0));
 	    if(msg.getCommand().equals("failed")) {
 	    	// If the borrow operation fails, display the error message
 	    	IPController.client.display(lblError,(String)msg.getArguments().get(0), Color.RED);
@@ -75,23 +82,27 @@ public class BookActionsController {
 
 	/**
 	 * Handles the returning process when the librarian clicks the "Return" button.
+	 * A stack of books scanned into the Book ID field is returned in one request.
 	 *
 	 * @param event The ActionEvent triggered by clicking the Return button.
 	 */
 	public void returnBtn(ActionEvent event){
-		Integer bookID;
-		// Validate the input fields for the book ID
-	    try {
-	        // Attempt to parse the Book ID from the TextField
-	    	bookID = Integer.valueOf(txtBookId.getText());
-	    } catch (NumberFormatException e) {
+		// Validate the input fields for the book IDs
+		List<Integer> bookIDs = parseBookIDs();
+		if (bookIDs == null) {
 	        // Handle invalid Book ID input
 	        IPController.client.display(lblError,"Invalid Book ID", Color.RED);
 	        return;
+		}
+
+	    // Return a stack of scanned books together
+	    if (bookIDs.size() > 1) {
+	    	displayResults(IPController.client.returnBooks(bookIDs), "returned");
+	    	return;
 	    }
 
 	    // Search for the book copy using the provided Book ID
-	    BookCopy searchedBook = IPController.client.getCopyByID(bookID);
+	    BookCopy searchedBook = IPController.client.getCopyByID(bookIDs.get(0));
 	    
 	    // Attempt to return the book
 	    Message msg = IPController.client.returnBook(searchedBook);
@@ -106,6 +117,49 @@ public class BookActionsController {
 	}
 	
 
+	/**
+	 * Parses the Book ID field, which holds one book ID or a stack of scanned book
+	 * IDs separated by spaces, commas or new lines.
+	 *
+	 * @return The book IDs in scanning order, or null if the field holds an invalid ID.
+	 */
+	private List<Integer> parseBookIDs() {
+		List<Integer> bookIDs = new ArrayList<>();
+		try {
+			for (String id : txtBookId.getText().trim().split("[\\s,]+")) {
+				bookIDs.add(Integer.valueOf(id));
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return bookIDs;
+	}
+
+	/**
+	 * Displays the results of a batch borrow or return: how many books succeeded
+	 * and why each of the others failed.
+	 *
+	 * @param results The result of each book by book ID, or null if the request failed.
+	 * @param action  The past tense of the action, for the summary.
+	 */
+	private void displayResults(Map<Integer, Message> results, String action) {
+		if (results == null) {
+			IPController.client.display(lblError, "DB error", Color.RED);
+			return;
+		}
+		int succeeded = 0;
+		StringBuilder failures = new StringBuilder();
+		for (Map.Entry<Integer, Message> result : results.entrySet()) {
+			if (result.getValue().getCommand().equals("failed")) {
+				failures.append("\n%d: %s".formatted(result.getKey(), result.getValue().getArguments().get(0)));
+			} else {
+				succeeded++;
+			}
+		}
+		IPController.client.display(lblError, "%d of %d books %s".formatted(succeeded, results.size(), action) + failures,
+				failures.length() == 0 ? Color.GREEN : Color.RED);
+	}
+
 	/**
 	 * Handles the Exit button click event. Navigates the user back to the librarian's main menu.
 	 *
@@ -2,7 +2,6 @@ package gui.client;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.List;
 import java.util.ResourceBundle;
 
 import javafx.application.Platform;
@@ -55,11 +54,11 @@ public class LibrarianClientGUIController implements Initializable{
 
 	/**
 	 * updateMessageCount method updates the number of unread messages for the librarian.
-	 * This method retrieves the messages and updates the message count on the UI.
+	 * This method retrieves only the count of unread messages and updates it on the UI.
 	 */
 	public void updateMessageCount() {
-		List<String> messages = IPController.client.getLibrarianMessages(); // Retrieve messages.
-		int totalCount = messages.size(); // Get the total number of messages.
+		Integer count = IPController.client.countLibrarianMessages(AuthenticationController.librarianName); // Count unread messages.
+		int totalCount = count == null ? 0 : count; // Get the total number of unread messages.
 		Platform.runLater(() -> lblNumMessages.setText(String.valueOf(totalCount))); // Update message count in the UI thread.
 	}
 
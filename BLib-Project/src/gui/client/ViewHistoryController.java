@@ -9,9 +9,11 @@ import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Orientation;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.control.Button;
+import javafx.scene.control.ScrollBar;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.cell.PropertyValueFactory;
@@ -23,11 +25,19 @@ import logic.Subscriber;
  * The ViewHistoryController class is responsible for displaying the history of activities 
  * performed by a subscriber. It loads the subscriber's activity history from the server 
  * and presents it in a table with details such as the type, description, and date of the activity.
+ * The history is loaded one page at a time, newest first, and the next page is fetched
+ * when the table is scrolled to its bottom.
  */
 public class ViewHistoryController {
 	
+	private static final int PAGE_SIZE = 50; // Number of activities fetched in each page.
+	
 	private Subscriber subscriber; // Subscriber object to hold the current subscriber's information.
 	
+	private ObservableList<Activity> data; // The activities loaded so far, newest first.
+	
+	private boolean endReached; // True when all of the subscriber's activities were loaded.
+	
 	@FXML
 	private Button btnBack = null; // Button to navigate back to the previous screen.
 	
@@ -44,29 +54,65 @@ public class ViewHistoryController {
 	private TableColumn<Activity, LocalDate> dateColumn; // Column to display the date of the activity.
 
 	/**
-	 * Loads the activity history of the subscriber and displays it in the historyTable.
+	 * Loads the first page of the activity history of the subscriber and displays it in the historyTable.
+	 * The following pages are loaded when the table is scrolled to its bottom.
 	 * 
 	 * @param subscriber The subscriber whose activity history is to be loaded.
 	 */
 	public void loadHistory(Subscriber subscriber) {
 		this.subscriber = subscriber;
-		// Retrieve the subscriber's activity history from the server.
-		List<Activity> activities = IPController.client.getSubscriberHistory(subscriber.getId());
-		ObservableList<Activity> data = FXCollections.observableArrayList();
-		
-		// Populate the table with the retrieved activity data.
-		for (Activity ac : activities) {
-			data.add(ac);
-		}
+		data = FXCollections.observableArrayList();
+		endReached = false;
 		
 		// Set up the columns to display activity details.
 		typeColumn.setCellValueFactory(new PropertyValueFactory<>("type"));
 		descriptionColumn.setCellValueFactory(new PropertyValueFactory<>("description"));
 		dateColumn.setCellValueFactory(new PropertyValueFactory<>("date"));
 		
-		// Bind the data to the table and enable sorting by date.
+		// The activities arrive sorted by date from the server, sorting only the loaded part is misleading.
+		typeColumn.setSortable(false);
+		descriptionColumn.setSortable(false);
+		dateColumn.setSortable(false);
+		
+		// Bind the data to the table and load the first page.
 		historyTable.setItems(data);
-		historyTable.getSortOrder().add(dateColumn);
+		loadNextPage();
+		
+		// Load the next page whenever the vertical scroll bar reaches the bottom.
+		historyTable.skinProperty().addListener((obs, oldSkin, newSkin) -> {
+			for (Node node : historyTable.lookupAll(".scroll-bar")) {
+				if (node instanceof ScrollBar && ((ScrollBar) node).getOrientation() == Orientation.VERTICAL) {
+					ScrollBar bar = (ScrollBar) node;
+					bar.valueProperty().addListener((o, oldValue, newValue) -> {
+						if (newValue.doubleValue() >= bar.getMax()) {
+							loadNextPage();
+						}
+					});
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Retrieves the page of activities that comes after the last loaded activity from the server
+	 * and appends it to the table.
+	 */
+	private void loadNextPage() {
+		if (endReached) {
+			return;
+		}
+		// Continue from the date and ID of the last loaded activity.
+		Activity last = data.isEmpty() ? null : data.get(data.size() - 1);
+		List<Activity> page = IPController.client.getSubscriberHistory(subscriber.getId(),
+				last == null ? null : last.getDate(), last == null ? 0 : last.getId(), PAGE_SIZE);
+		
+		// Populate the table with the retrieved activity data.
+		if (page == null || page.size() < PAGE_SIZE) {
+			endReached = true;
+		}
+		if (page != null) {
+			data.addAll(page);
+		}
 	}
 	
 	/**
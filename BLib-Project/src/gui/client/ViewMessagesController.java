@@ -1,7 +1,8 @@
 package gui.client;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
@@ -18,9 +19,15 @@ import javafx.scene.control.TableView;
  * The ViewMessagesController class is responsible for handling the viewing and clearing of messages 
  * for the librarian. It loads the librarian's messages, displays them in a table, 
  * and provides functionality to clear all messages.
+ * The messages already received are kept between visits, so only the messages that arrived
+ * since the last visit are fetched from the server.
  */
 public class ViewMessagesController {
 	
+	private static String cachedLibrarian; // The librarian whose messages are cached.
+	
+	private static TreeMap<Integer, String> cachedMessages = new TreeMap<>(); // Unread messages received so far, by ID.
+	
 	@FXML
 	private Button btnBack = null; // Button for exiting the application.
 	
@@ -35,12 +42,24 @@ public class ViewMessagesController {
 
 	/**
 	 * Loads the librarian's messages and populates the messageTable.
-	 * Retrieves the messages from the server and displays them in the table.
+	 * Retrieves the messages that arrived since the last loaded message from the server
+	 * and displays them in the table together with the ones already received.
 	 */
 	public void loadMessages() {
-		// Fetch the messages from the server.
-		List<String> messages = IPController.client.getLibrarianMessages();
-		ObservableList<String> data = FXCollections.observableArrayList(messages);
+		String librarian = AuthenticationController.librarianName;
+		// Drop the cached messages if another librarian logged in.
+		if (!librarian.equals(cachedLibrarian)) {
+			cachedLibrarian = librarian;
+			cachedMessages.clear();
+		}
+		
+		// Fetch only the new messages from the server.
+		int lastID = cachedMessages.isEmpty() ? 0 : cachedMessages.lastKey();
+		Map<Integer, String> messages = IPController.client.getLibrarianMessages(librarian, lastID);
+		if (messages != null) {
+			cachedMessages.putAll(messages);
+		}
+		ObservableList<String> data = FXCollections.observableArrayList(cachedMessages.values());
 
 		// Set up the table to display the messages.
 		messageColumn.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue()));
@@ -49,11 +68,15 @@ public class ViewMessagesController {
 
 	/**
 	 * Clears all messages for the librarian and reloads the messages table.
-	 * This action removes all messages from the server and refreshes the table to show the updated data.
+	 * This action marks the displayed messages as read on the server and refreshes the table
+	 * to show the updated data.
 	 */
 	public void clearAllMessages() {
-		// Clear all messages from the server.
-		IPController.client.clearLibrarianMessages();
+		// Mark the displayed messages as read on the server.
+		if (!cachedMessages.isEmpty()) {
+			IPController.client.clearLibrarianMessages(cachedLibrarian, cachedMessages.lastKey());
+			cachedMessages.clear();
+		}
 		// Reload the messages after clearing.
 		loadMessages();
 	}
@@ -18,8 +18,8 @@ import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.Pane;
 import javafx.stage.Stage;
-import server.BLibDBC;
 import server.BLibServer;
+import server.LibraryStorage;
 import server.ServerGUI;
 import javafx.scene.input.KeyEvent;
 
@@ -60,8 +60,8 @@ public class SQLPassController {
 
 	// Method to handle the "Close" button click (exits the application)
 	public void actionOnClose(ActionEvent e) {
-		if(BLibDBC.getInstance() != null) {
-			BLibDBC.getInstance().disconnect();
+		if(LibraryStorage.getInstance() != null) {
+			LibraryStorage.getInstance().disconnect();
 		}
 		System.out.println("exiting..."); // Log message to indicate exit
 		System.exit(0); // Exit the application
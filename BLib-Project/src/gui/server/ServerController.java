@@ -15,7 +15,8 @@ import javafx.scene.control.TextArea;
 
 import javafx.stage.Stage;
 import ocsf.server.ConnectionToClient;
-import server.BLibDBC;
+import server.DBMonitor;
+import server.LibraryStorage;
 import server.ServerGUI;
 
 public class ServerController implements Initializable {
@@ -27,6 +28,10 @@ public class ServerController implements Initializable {
 	private Button exitBtn; // Button to exit the application
 	@FXML
 	private Button refreshBtn; // Button to manually refresh the client list
+	@FXML
+	private Button dbStatsBtn; // Button to switch between the client list and the DB statistics
+
+	private volatile boolean showDBStats = false; // Whether the DB statistics are displayed
 
 	// This method is called when the FXML is loaded
 	@Override
@@ -58,8 +63,14 @@ public class ServerController implements Initializable {
 		}
 	}
 
-	// Method to refresh the list of connected clients
+	// Method to refresh the list of connected clients, or the DB statistics
 	public void refresh(ActionEvent e) throws Exception {
+		if (showDBStats) {
+			// Display the per-statement statistics and the slow query log
+			text.setText(DBMonitor.getInstance().getReport());
+			return;
+		}
+
 		// StringBuilder is used to efficiently construct the output string
 		StringBuilder sb = new StringBuilder("");
 		boolean isEmpty = true; // Flag to check if there are no clients connected
@@ -84,10 +95,17 @@ public class ServerController implements Initializable {
 		text.setText(sb.toString());
 	}
 
+	// Method to switch between the client list and the DB statistics
+	public void toggleDBStats(ActionEvent e) throws Exception {
+		showDBStats = !showDBStats;
+		dbStatsBtn.setText(showDBStats ? "Clients" : "DB Stats");
+		refresh(null);
+	}
+
 	// Method to handle the Exit button action
 	public void exit(ActionEvent e) throws Exception {
-		if(BLibDBC.getInstance() != null) {
-			BLibDBC.getInstance().disconnect();
+		if(LibraryStorage.getInstance() != null) {
+			LibraryStorage.getInstance().disconnect();
 		}
 		System.out.println("exiting..."); // Print message for debugging
 		System.exit(0); // Exit the application
@@ -16,12 +16,18 @@ import java.time.LocalTime;
 import java.time.Month;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import logic.Activity;
 import logic.BookCopy;
@@ -35,13 +41,22 @@ import logic.Subscriber;
  * This class BLibDBC represents a timed singleton database connection manager
  * for the BLibDB database. It handles connecting, disconnecting, and
  * transaction management for the database.
+ * 
+ * It is the default {@link LibraryStorage} of the server.
  */
-public class BLibDBC {
+public class BLibDBC implements LibraryStorage {
 	private static String pass = null; // Password used for connecting to the database
+	// JDBC URL of the database, with the statements of a write sent together in one query
+	private static String url = "jdbc:mysql://localhost/BLibDB?useSSL=FALSE&serverTimezone=Asia/Jerusalem&allowMultiQueries=true";
+	private static String user = "root"; // User used for connecting to the database
 	private static Calendar ILTimeZone; // Timezone for the database connection
 	private static volatile BLibDBC instance;
 	private static Connection conn; // Connection object to interact with the database
-	private static PreparedStatement pstmt; // Statement object for executing SQL queries
+	// Connections of the closed units of work, for the next units
+	private static final ConcurrentLinkedQueue<Connection> idleConnections = new ConcurrentLinkedQueue<>();
+	private static final int MAX_IDLE_CONNECTIONS = 8;
+	// Every connection opened for the units of work and the reads of their own, until it is closed
+	private static final Set<Connection> unitConnections = ConcurrentHashMap.newKeySet();
 	private static boolean timerRunning = false;
 	private static Thread timerThread;
 	
@@ -67,8 +82,16 @@ public class BLibDBC {
 				System.out.println("SQL disconnection failed (connection is closed)");
 				return false; // Return false if the connection is already closed
 			}
-			// Try closing the connection
+			// Try closing the connection, and the idle connections of the units of work
 			conn.close();
+			Connection idle;
+			while ((idle = idleConnections.poll()) != null) {
+				try {
+					idle.close();
+				} catch (SQLException e) {
+					// The connection is dropped anyway
+				}
+			}
 			return true; // Return true if disconnection is successful
 		} catch (SQLException e) {
 			// If disconnection fails, print error message and return false
@@ -77,11 +100,29 @@ public class BLibDBC {
 		}
 	}
 
+	/**
+	 * Checks if the database connection is open, without opening it.
+	 * 
+	 * @return true if the connection is open, false otherwise.
+	 */
+	public static boolean isConnected() {
+		try {
+			return instance != null && conn != null && !conn.isClosed();
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Rolls back the current transaction. If the rollback fails, attempts to
 	 * disconnect and reconnect to the database.
 	 */
 	private void rollback() {
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit != null && unit.getConnection() != null) {
+			unit.rollbackCall(); // Only the writes of the failed call, the unit goes on
+			return;
+		}
 		try {
 			conn.rollback(); // Rollback the current transaction
 		} catch (SQLException e) {
@@ -91,6 +132,154 @@ public class BLibDBC {
 		}
 	}
 
+	/**
+	 * Returns the connection the statements run on: the connection of the unit of
+	 * work open on the current thread, taken on its first use, or the shared
+	 * connection outside of a unit.
+	 * 
+	 * @return the connection.
+	 */
+	private Connection conn() {
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit == null)
+			return conn;
+		if (unit.getConnection() == null) {
+			try {
+				unit.attach(takeConnection(), BLibDBC::releaseConnection);
+			} catch (SQLException e) {
+				return conn; // The unit runs on the shared connection, committing per call
+			}
+		}
+		return unit.getConnection();
+	}
+
+	/**
+	 * Commits the writes of a call. In a unit of work the writes are kept for the
+	 * single commit of the unit.
+	 * 
+	 * @throws SQLException if the commit fails.
+	 */
+	private void commit() throws SQLException {
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit != null && unit.getConnection() != null)
+			unit.written();
+		else
+			conn.commit();
+	}
+
+	/**
+	 * Executes the statements of a write in one round trip, when the database
+	 * allows it, on the connection of the current call.
+	 * 
+	 * @param batch the statements.
+	 * @return the number of rows changed by each statement.
+	 * @throws SQLException if a statement fails.
+	 */
+	private int[] execute(StatementBatch batch) throws SQLException {
+		return batch.execute(conn(), ILTimeZone, url.contains("allowMultiQueries=true"));
+	}
+
+	/**
+	 * Takes an idle connection for a unit of work, or opens a new one. The
+	 * statements of a unit see the writes committed by the other connections as
+	 * soon as they are committed, like the statements on the shared connection.
+	 * 
+	 * @return the connection, without uncommitted writes.
+	 * @throws SQLException if a new connection fails.
+	 */
+	private Connection takeConnection() throws SQLException {
+		Connection c;
+		while ((c = idleConnections.poll()) != null) {
+			if (!c.isClosed())
+				return c;
+		}
+		c = DBMonitor.getInstance().wrap(DriverManager.getConnection(url, user, pass));
+		unitConnections.add(c);
+		c.setAutoCommit(false);
+		c.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+		return c;
+	}
+
+	/**
+	 * Counts the connections opened for the units of work that are not closed yet,
+	 * whether they are idle or in use. A connection is counted until it is closed,
+	 * by whoever closes it.
+	 * 
+	 * @return the number of open unit connections.
+	 */
+	public static int getOpenConnections() {
+		unitConnections.removeIf(BLibDBC::isClosed);
+		return unitConnections.size();
+	}
+
+	/**
+	 * @return the number of open unit connections waiting for a unit of work.
+	 */
+	public static int getIdleConnections() {
+		return (int) idleConnections.stream().filter(c -> !isClosed(c)).count();
+	}
+
+	/**
+	 * @return the number of open unit connections taken by a unit of work or a
+	 *         read of its own.
+	 */
+	public static int getInUseConnections() {
+		return Math.max(0, getOpenConnections() - getIdleConnections());
+	}
+
+	/**
+	 * Checks if a connection is closed.
+	 * 
+	 * @param c the connection.
+	 * @return true if it is closed, or if its state can't be read.
+	 */
+	private static boolean isClosed(Connection c) {
+		try {
+			return c.isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Gives the connection of a closed unit of work back, closing it if enough
+	 * connections are idle.
+	 * 
+	 * @param c the connection, without uncommitted writes.
+	 */
+	private static void releaseConnection(Connection c) {
+		if (idleConnections.size() < MAX_IDLE_CONNECTIONS && isConnected()) {
+			idleConnections.offer(c);
+			return;
+		}
+		try {
+			c.close();
+		} catch (SQLException e) {
+			// The connection is dropped anyway
+		}
+	}
+
+	/**
+	 * Ends a streamed read on a connection taken for it and gives the connection
+	 * back. A streamed result set blocks every other statement of its connection
+	 * until it is closed, so the long reads of the timer, like the overdue borrows
+	 * of the sweep, stream on a connection of their own instead of the shared one.
+	 * 
+	 * @param reader the connection of the read, closed if it can't be reused.
+	 */
+	private static void releaseReader(Connection reader) {
+		try {
+			reader.rollback(); // End the read transaction
+			releaseConnection(reader);
+		} catch (SQLException e) {
+			try {
+				reader.close();
+			} catch (SQLException e1) {
+				// The connection is dropped anyway
+			}
+		}
+	}
+
 	/**
 	 * Resets the inactivity timer. If a timer is already running, it interrupts the
 	 * current thread and starts a new one. The timer disconnects the database
@@ -124,6 +313,21 @@ public class BLibDBC {
 
 	}
 
+	/**
+	 * Connects to a BLib database other than the local MySQL BLibDB, such as an
+	 * embedded database for benchmarks. Later reconnections use the same database.
+	 * 
+	 * @param url      the JDBC URL of the database.
+	 * @param user     the user for the database connection.
+	 * @param password the password for the database connection.
+	 * @return true if the connection was successful, false otherwise.
+	 */
+	public boolean connect(String url, String user, String password) {
+		BLibDBC.url = url;
+		BLibDBC.user = user;
+		return connect(password);
+	}
+
 	/**
 	 * Connects to the BLibDB database with the given password.
 	 * 
@@ -133,8 +337,9 @@ public class BLibDBC {
 	public boolean connect(String password) {
 		pass = password; // Store the password for later use in reconnection
 		try {
-			// Try loading the MySQL JDBC driver
-			Class.forName("com.mysql.cj.jdbc.Driver").getConstructor().newInstance();
+			// Try loading the MySQL JDBC driver, other drivers are found by the DriverManager
+			if (url.startsWith("jdbc:mysql:"))
+				Class.forName("com.mysql.cj.jdbc.Driver").getConstructor().newInstance();
 			System.out.println("Driver definition succeed");
 		} catch (Exception ex) {
 			// If the driver fails to load, print error message and return false
@@ -143,11 +348,15 @@ public class BLibDBC {
 		}
 		try {
 			ILTimeZone = Calendar.getInstance(TimeZone.getTimeZone("Asia/Jerusalem"));
-			// Try connecting to the database
-			conn = DriverManager.getConnection(
-					"jdbc:mysql://localhost/BLibDB?useSSL=FALSE&serverTimezone=Asia/Jerusalem", "root", password);
+			// Try connecting to the database, through the monitor that records the statements' statistics
+			conn = DBMonitor.getInstance().wrap(DriverManager.getConnection(url, user, password));
 			conn.setAutoCommit(false); // Disable auto-commit to handle transactions manually
 			System.out.println("SQL connection succeed");
+			// Bring the schema to the latest version before any query runs
+			if (!SchemaMigrations.migrate(conn)) {
+				System.out.println("SQL schema migration failed");
+				return false;
+			}
 			return true; // Return true if connection is successful
 		} catch (Exception e) {
 			// If the connection fails, print error message and return false
@@ -156,6 +365,40 @@ public class BLibDBC {
 		}
 	}
 
+	/**
+	 * Opens a new connection to the database, besides the shared connection, for
+	 * long reads that shouldn't hold the shared connection, like an export.
+	 * 
+	 * @return the connection, the caller closes it.
+	 * @throws SQLException if the connection fails.
+	 */
+	public Connection openConnection() throws SQLException {
+		return DriverManager.getConnection(url, user, pass);
+	}
+
+	/**
+	 * Runs EXPLAIN on the statements this class ran since the last check and
+	 * prints the ones that read a whole table. The check runs on a connection of
+	 * its own, so it doesn't end the transaction of the shared connection.
+	 * 
+	 * @return the number of full table scans found.
+	 */
+	public int checkQueryPlans() {
+		Connection c;
+		try {
+			c = takeConnection();
+		} catch (SQLException e) {
+			System.out.println("query plan check failed (no connection)");
+			return 0;
+		}
+		List<String> fullScans = SchemaMigrations.checkQueryPlans(c);
+		releaseConnection(c);
+		for (String fullScan : fullScans) {
+			System.out.println(fullScan);
+		}
+		return fullScans.size();
+	}
+
 	/**
 	 * Returns the singleton instance of {@code BLibDBC}. If the instance is not
 	 * initialized, it creates and connects it in a thread-safe manner. Resets the
@@ -184,14 +427,22 @@ public class BLibDBC {
 	 *         no such title is found or if an error occurs.
 	 */
 	public BookTitle getTitleByID(int titleID) {
+		// A title already loaded by the command
+		UnitOfWork unit = UnitOfWork.current();
+		BookTitle title = unit == null ? null : unit.find(BookTitle.class, titleID);
+		if (title != null)
+			return title;
 		try {
-			pstmt = conn.prepareStatement("SELECT * FROM titles WHERE title_id = ?");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM titles WHERE title_id = ?");
 			pstmt.setInt(1, titleID); // Set the title ID parameter
 			ResultSet rs = pstmt.executeQuery();
 			// If a result is found, return a BookTitle object created from the result
 			if (rs.next()) {
-				return new BookTitle(titleID, rs.getString(2), rs.getString(3), rs.getString(4), rs.getInt(5),
+				title = new BookTitle(titleID, rs.getString(2), rs.getString(3), rs.getString(4), rs.getInt(5),
 						rs.getInt(6), rs.getString(7));
+				if (unit != null)
+					unit.register(BookTitle.class, titleID, title);
+				return title;
 			}
 			return null; // Return null if no result is found
 		} catch (SQLException e) {
@@ -210,7 +461,7 @@ public class BLibDBC {
 	public Set<BookCopy> getCopiesByTitle(BookTitle title) {
 		try {
 			// Execute SQL query
-			pstmt = conn.prepareStatement("SELECT * FROM copies WHERE title_id = ?;");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM copies WHERE title_id = ?;");
 			pstmt.setInt(1, title.getTitleID()); // Set the title ID parameter
 			ResultSet rs = pstmt.executeQuery();
 			Set<BookCopy> bookSet = new HashSet<>();
@@ -238,7 +489,7 @@ public class BLibDBC {
 		try {
 			String keywordWildcard = "%" + keyword + "%"; // Use wildcard for partial matching
 			// Execute SQL query
-			pstmt = conn.prepareStatement(
+			PreparedStatement pstmt = conn().prepareStatement(
 					"SELECT * FROM titles WHERE title_name LIKE ? OR author_name LIKE ? OR title_description LIKE ? OR genre LIKE ?;");
 			pstmt.setString(1, keywordWildcard);
 			pstmt.setString(2, keywordWildcard);
@@ -258,6 +509,87 @@ public class BLibDBC {
 		}
 	}
 
+	/**
+	 * Retrieves the whole catalog, every title with its copies, with one query for
+	 * the titles and one for the copies.
+	 * 
+	 * @return A map of every BookTitle to the set of its BookCopy objects, or null
+	 *         if an error occurs.
+	 */
+	public Map<BookTitle, Set<BookCopy>> getCatalog() {
+		try {
+			// Read all the titles
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM titles;");
+			ResultSet rs = pstmt.executeQuery();
+			Map<Integer, BookTitle> titles = new HashMap<>();
+			Map<BookTitle, Set<BookCopy>> ret = new HashMap<>();
+			while (rs.next()) {
+				BookTitle title = new BookTitle(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4),
+						rs.getInt(5), rs.getInt(6), rs.getString(7));
+				titles.put(title.getTitleID(), title);
+				ret.put(title, new HashSet<>());
+			}
+
+			// Read all the copies and add each of them to its title
+			pstmt = conn().prepareStatement("SELECT * FROM copies;");
+			rs = pstmt.executeQuery();
+			while (rs.next()) {
+				BookTitle title = titles.get(rs.getInt(1));
+				if (title != null) {
+					ret.get(title).add(new BookCopy(title, rs.getInt(2), rs.getString(3), rs.getBoolean(4)));
+				}
+			}
+			return ret; // Return the catalog
+		} catch (SQLException e) {
+			return null; // Return null if an error occurs
+		}
+	}
+
+	/**
+	 * Retrieves the due dates of all the active borrows.
+	 * 
+	 * @return A map of the copy IDs of the borrowed copies to their due dates, or
+	 *         null if an error occurs.
+	 */
+	public Map<Integer, LocalDate> getActiveDueDates() {
+		try {
+			PreparedStatement pstmt = conn().prepareStatement("SELECT copy_id, due_date FROM borrows WHERE date_of_return IS NULL;");
+			ResultSet rs = pstmt.executeQuery();
+			Map<Integer, LocalDate> ret = new HashMap<>();
+			while (rs.next()) {
+				ret.put(rs.getInt(1), rs.getDate(2, ILTimeZone).toLocalDate());
+			}
+			return ret; // Return the due dates
+		} catch (SQLException e) {
+			return null; // Return null if an error occurs
+		}
+	}
+
+	/**
+	 * Retrieves the orders that wait for a copy, in the order they were placed.
+	 * 
+	 * @param titleID The ID of the title, or null for all the titles.
+	 * @return A map of title IDs to the subscriber ID of every waiting order by
+	 *         order ID, the oldest first, or null if an error occurs.
+	 */
+	public Map<Integer, LinkedHashMap<Integer, Integer>> getWaitingOrders(Integer titleID) {
+		try {
+			PreparedStatement pstmt = conn().prepareStatement("SELECT title_id, order_id, subscriber_id FROM orders "
+					+ "WHERE copy_id IS NULL" + (titleID == null ? "" : " AND title_id = ?")
+					+ " ORDER BY order_date, order_id;");
+			if (titleID != null)
+				pstmt.setInt(1, titleID);
+			ResultSet rs = pstmt.executeQuery();
+			Map<Integer, LinkedHashMap<Integer, Integer>> ret = new HashMap<>();
+			while (rs.next()) {
+				ret.computeIfAbsent(rs.getInt(1), id -> new LinkedHashMap<>()).put(rs.getInt(2), rs.getInt(3));
+			}
+			return ret; // Return the waiting orders
+		} catch (SQLException e) {
+			return null; // Return null if an error occurs
+		}
+	}
+
 	/**
 	 * Retrieves a Subscriber object from the database based on the given subscriber
 	 * ID.
@@ -267,14 +599,22 @@ public class BLibDBC {
 	 *         null if no such subscriber is found or if an error occurs.
 	 */
 	public Subscriber getSubscriberByID(int subscriberID) {
+		// A subscriber already loaded by the command
+		UnitOfWork unit = UnitOfWork.current();
+		Subscriber sub = unit == null ? null : unit.find(Subscriber.class, subscriberID);
+		if (sub != null)
+			return sub;
 		try {
 			// Execute SQL query to fetch the subscriber by their ID
-			pstmt = conn.prepareStatement("SELECT * FROM subscribers WHERE subscriber_id = ?");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM subscribers WHERE subscriber_id = ?");
 			pstmt.setInt(1, subscriberID); // Set the subscriber ID parameter
 			ResultSet rs = pstmt.executeQuery();
 			// If a result is found, create and return a Subscriber object
 			if (rs.next()) {
-				return new Subscriber(subscriberID, rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5));
+				sub = new Subscriber(subscriberID, rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5));
+				if (unit != null)
+					unit.register(Subscriber.class, subscriberID, sub);
+				return sub;
 			}
 			return null; // Return null if no result is found
 		} catch (SQLException e) {
@@ -298,7 +638,7 @@ public class BLibDBC {
 				return null; // Return null if no book copy is found for the order
 
 			// Prepare a SQL statement to fetch the order by the given copy ID
-			pstmt = conn.prepareStatement("SELECT * FROM orders WHERE copy_id = ?");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM orders WHERE copy_id = ?");
 			pstmt.setInt(1, copyID);
 			ResultSet rs = pstmt.executeQuery(); // Execute the query and get the result set
 			// If a result is found in the database, process the order details
@@ -335,8 +675,9 @@ public class BLibDBC {
 	 * 
 	 * @param subscriberID The ID of the subscriber borrowing the book.
 	 * @param copyID       The ID of the book copy being borrowed.
-	 * @return True if the borrow process is successful, false if any error occurs
-	 *         or if the subscriber or copy doesn't exist.
+	 * @return True if the borrow process is successful, false if any error occurs,
+	 *         if the subscriber or copy doesn't exist or if the copy is already
+	 *         borrowed.
 	 */
 	public Boolean createBorrow(int subscriberID, int copyID) {
 		try {
@@ -354,44 +695,34 @@ public class BLibDBC {
 			LocalDate today = LocalDate.now();
 			LocalDate dueDate = today.plusWeeks(2);
 
-			// Insert new borrow record into the database
-			pstmt = conn.prepareStatement(
-					"INSERT INTO borrows(subscriber_id,copy_id,date_of_borrow,due_date) VALUE(?,?,?,?)");
-			pstmt.setInt(1, subscriberID);
-			pstmt.setInt(2, copyID);
-			pstmt.setDate(3, Date.valueOf(today), ILTimeZone);
-			pstmt.setDate(4, Date.valueOf(dueDate), ILTimeZone);
-			pstmt.execute();
-
-			// Update the book copy's status to borrowed
-			pstmt = conn.prepareStatement("UPDATE copies SET is_borrowed = ? WHERE copy_id = ?");
-			pstmt.setBoolean(1, true);
-			pstmt.setInt(2, copyID);
-			pstmt.execute();
-
-			// Log the borrow activity in the history table
-			pstmt = conn.prepareStatement(
-					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUE(?,?,?,?)");
-			pstmt.setInt(1, subscriberID);
-			pstmt.setString(2, "borrow");
-			pstmt.setString(3,
-					"\"%s\" borrowed by %s on %s".formatted(copy.getTitle(), sub.getName(), today.toString()));
-			pstmt.setDate(4, Date.valueOf(today), ILTimeZone);
-			pstmt.execute();
-
 			// time the execution of send message
 			LocalDateTime now = LocalDateTime.now();
 			LocalDateTime reminderTime = now.plusWeeks(2).minusDays(1);
 
-			// Create a command to send a reminder message to the subscriber about the due
-			// book
-			createCommand("sendMessage", "%s;%s;".formatted(sub.getId(), "Reminder: Book Due Tomorrow")
-					+ "dear %s,\n\nJust a reminder that the book you borrowed (\"%s\") is due tomorrow %s. Please make sure to return it by the due date.\nBraude Library"
-							.formatted(sub.getName(), copy.getTitle(), dueDate),
-					reminderTime, "%s;%s".formatted(sub.getId(), copy.getCopyID()), false);
+			// Insert the borrow, log it in the history and schedule a reminder message to
+			// the subscriber about the due book, then mark the copy as borrowed only if it
+			// is still available, all in one round trip. Of two borrows of the same copy at
+			// the same time only one changes the copy, the other undoes its inserts
+			int[] counts = execute(new StatementBatch()
+					.add("INSERT INTO borrows(subscriber_id,copy_id,date_of_borrow,due_date) VALUES(?,?,?,?)",
+							subscriberID, copyID, today, dueDate)
+					.add("INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)",
+							subscriberID, "borrow",
+							"\"%s\" borrowed by %s on %s".formatted(copy.getTitle(), sub.getName(), today.toString()),
+							today)
+					.add("INSERT INTO commands(command, arguments, time_of_execution, identifyer) VALUES(?,?,?,?)",
+							"sendMessage", "%s;%s;".formatted(sub.getId(), "Reminder: Book Due Tomorrow")
+									+ "dear %s,\n\nJust a reminder that the book you borrowed (\"%s\") is due tomorrow %s. Please make sure to return it by the due date.\nBraude Library"
+											.formatted(sub.getName(), copy.getTitle(), dueDate),
+							reminderTime, "%s;%s".formatted(sub.getId(), copy.getCopyID()))
+					.add("UPDATE copies SET is_borrowed = TRUE WHERE copy_id = ? AND is_borrowed = FALSE", copyID));
+			if (counts[3] == 0) {
+				rollback();
+				return false; // The copy is already borrowed
+			}
 
 			// Commit the transaction
-			conn.commit();
+			commit();
 			return true; // Return true if all operations succeed
 
 		} catch (SQLException e) {
@@ -408,9 +739,14 @@ public class BLibDBC {
 	 *         occurs.
 	 */
 	public BookCopy getCopyByID(int copyID) {
+		// A copy already loaded by the command
+		UnitOfWork unit = UnitOfWork.current();
+		BookCopy copy = unit == null ? null : unit.find(BookCopy.class, copyID);
+		if (copy != null)
+			return copy;
 		try {
 			// Prepare the SQL query to retrieve a book copy by its ID
-			pstmt = conn.prepareStatement("SELECT * FROM copies WHERE copy_id = ?");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM copies WHERE copy_id = ?");
 			pstmt.setInt(1, copyID); // Set the copy ID parameter
 			ResultSet rs = pstmt.executeQuery();
 			// If a result is found, create a BookCopy object
@@ -419,7 +755,10 @@ public class BLibDBC {
 				if (title == null) {
 					return null; // Return null if the title is not found
 				}
-				return new BookCopy(title, copyID, rs.getString(3), rs.getBoolean(4));
+				copy = new BookCopy(title, copyID, rs.getString(3), rs.getBoolean(4));
+				if (unit != null)
+					unit.register(BookCopy.class, copyID, copy);
+				return copy;
 			}
 			return null; // Return null if no copy is found
 		} catch (SQLException e) {
@@ -453,7 +792,7 @@ public class BLibDBC {
 			}
 
 			// Prepare the SQL query to update subscriber details
-			pstmt = conn.prepareStatement(
+			PreparedStatement pstmt = conn().prepareStatement(
 					"UPDATE subscribers SET subscriber_email = ?, subscriber_phone_number = ?  WHERE subscriber_id = ?");
 			pstmt.setString(1, newSubscriber.getEmail());
 			pstmt.setString(2, newSubscriber.getPhone());
@@ -476,8 +815,8 @@ public class BLibDBC {
 			str.append("on %s".formatted(today));
 
 			// Log the update activity in the history table
-			pstmt = conn.prepareStatement(
-					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUE(?,?,?,?)");
+			pstmt = conn().prepareStatement(
+					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)");
 			pstmt.setInt(1, newSubscriber.getId());
 			pstmt.setString(2, "update subscriber");
 			pstmt.setString(3, str.toString());
@@ -486,7 +825,7 @@ public class BLibDBC {
 			pstmt.execute(); // Execute the log insert
 
 			// Commit the transaction
-			conn.commit();
+			commit();
 			return true; // Return true if all operations succeed
 
 		} catch (SQLException e) {
@@ -510,7 +849,7 @@ public class BLibDBC {
 			LocalDate today = LocalDate.now();
 
 			// Insert the new subscriber details into the 'subscribers' table
-			pstmt = conn.prepareStatement("INSERT INTO subscribers VALUE(?,?,?,?,?)");
+			PreparedStatement pstmt = conn().prepareStatement("INSERT INTO subscribers VALUES(?,?,?,?,?)");
 			pstmt.setInt(1, subscriber.getId());
 			pstmt.setString(2, subscriber.getName());
 			pstmt.setString(3, subscriber.getPhone());
@@ -523,7 +862,7 @@ public class BLibDBC {
 
 			// Retrieve the number of active and frozen subscribers to log the registration
 			// statistics
-			pstmt = conn.prepareStatement(
+			pstmt = conn().prepareStatement(
 					"SELECT subscriber_status, COUNT(*) FROM subscribers GROUP BY subscriber_status;");
 			ResultSet rs = pstmt.executeQuery();
 
@@ -535,8 +874,8 @@ public class BLibDBC {
 			}
 
 			// Log the registration activity in the history table
-			pstmt = conn.prepareStatement(
-					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUE(?,?,?,?)");
+			pstmt = conn().prepareStatement(
+					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)");
 			pstmt.setInt(1, subscriber.getId());
 			pstmt.setString(2, "new subscriber");
 			pstmt.setString(3, "%s is now a subscriber since %s;%d;%d".formatted(subscriber.getName(), today, numActive,
@@ -545,14 +884,14 @@ public class BLibDBC {
 			pstmt.execute();// Execute the insert
 
 			// Create a new user account for the subscriber with the provided password
-			pstmt = conn.prepareStatement("INSERT INTO users VALUE (?,?,?)");
+			pstmt = conn().prepareStatement("INSERT INTO users VALUES (?,?,?)");
 			pstmt.setInt(1, subscriber.getId());
 			pstmt.setString(2, password);
 			pstmt.setString(3, "subscriber");
 			pstmt.execute();
 
 			// Commit the transaction
-			conn.commit();
+			commit();
 			return true; // Return true if all operations were successful
 		} catch (SQLException e) {
 			rollback(); // Rollback transaction if any error occurs
@@ -560,6 +899,113 @@ public class BLibDBC {
 		}
 	}
 
+	/**
+	 * Registers many new subscribers and their users in a single transaction.
+	 * 
+	 * Like {@link #registerSubscriber(Subscriber, String)}, every subscriber gets
+	 * a user and a "new subscriber" activity with the number of active and frozen
+	 * subscribers after them, but the IDs are checked with one query, the status
+	 * counts are read once, and the subscribers, users and activities are
+	 * written in three batches.
+	 * 
+	 * @param subscribers The new subscribers.
+	 * @param passwords   The password of the user of each subscriber.
+	 * @return The result of each subscriber in order, {@code null} if they were
+	 *         registered or why they weren't, or {@code null} if an error occurs,
+	 *         in which case none of them is registered.
+	 */
+	public List<String> registerSubscribers(List<Subscriber> subscribers, List<String> passwords) {
+		// Check the subscribers and the IDs that repeat in the list
+		List<String> results = new ArrayList<>();
+		Set<Integer> subIDs = new HashSet<>();
+		for (Subscriber sub : subscribers) {
+			String err = LibraryStorage.checkNewSubscriber(sub);
+			if (err == null && !subIDs.add(sub.getId()))
+				err = "The subscriber ID appears twice";
+			results.add(err);
+		}
+		if (subIDs.isEmpty())
+			return results;
+
+		try {
+			// Find the IDs that a subscriber or a user already has
+			String in = inList(subIDs.size());
+			PreparedStatement pstmt = conn().prepareStatement("SELECT subscriber_id FROM subscribers WHERE subscriber_id IN ("
+					+ in + ") UNION SELECT user_id FROM users WHERE user_id IN (" + in + ")");
+			int i = 1;
+			for (int pass = 0; pass < 2; pass++) {
+				for (int subID : subIDs) {
+					pstmt.setInt(i++, subID);
+				}
+			}
+			ResultSet rs = pstmt.executeQuery();
+			Set<Integer> taken = new HashSet<>();
+			while (rs.next()) {
+				taken.add(rs.getInt(1));
+			}
+
+			// Get the count of active and frozen subscribers once for the whole list
+			pstmt = conn().prepareStatement(
+					"SELECT subscriber_status, COUNT(*) FROM subscribers GROUP BY subscriber_status;");
+			rs = pstmt.executeQuery();
+			int numActive = 0;
+			int numFrozen = 0;
+			while (rs.next()) {
+				if (rs.getString(1).equals("active"))
+					numActive = rs.getInt(2);
+				if (rs.getString(1).equals("frozen"))
+					numFrozen = rs.getInt(2);
+			}
+
+			LocalDate today = LocalDate.now();
+			PreparedStatement subscriberRows = conn().prepareStatement("INSERT INTO subscribers VALUES(?,?,?,?,?)");
+			PreparedStatement userRows = conn().prepareStatement("INSERT INTO users VALUES (?,?,?)");
+			PreparedStatement history = conn().prepareStatement(
+					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)");
+			for (int row = 0; row < subscribers.size(); row++) {
+				Subscriber sub = subscribers.get(row);
+				if (results.get(row) != null)
+					continue;
+				if (taken.contains(sub.getId())) {
+					results.set(row, "The subscriber ID already exists");
+					continue;
+				}
+				subscriberRows.setInt(1, sub.getId());
+				subscriberRows.setString(2, sub.getName());
+				subscriberRows.setString(3, sub.getPhone());
+				subscriberRows.setString(4, sub.getEmail());
+				subscriberRows.setString(5, sub.getStatus());
+				subscriberRows.addBatch();
+
+				userRows.setInt(1, sub.getId());
+				userRows.setString(2, passwords.get(row));
+				userRows.setString(3, "subscriber");
+				userRows.addBatch();
+
+				if (sub.getStatus().equals("active"))
+					numActive++;
+				else
+					numFrozen++;
+				history.setInt(1, sub.getId());
+				history.setString(2, "new subscriber");
+				history.setString(3, "%s is now a subscriber since %s;%d;%d".formatted(sub.getName(), today, numActive,
+						numFrozen));
+				history.setDate(4, Date.valueOf(today), ILTimeZone);
+				history.addBatch();
+			}
+			subscriberRows.executeBatch();
+			userRows.executeBatch();
+			history.executeBatch();
+
+			// Commit the transaction
+			commit();
+			return results;
+		} catch (SQLException e) {
+			rollback(); // Rollback transaction if any error occurs
+			return null; // Return null if an error occurs
+		}
+	}
+
 	/**
 	 * Authenticates a user by checking their user ID and password against the
 	 * database.
@@ -572,7 +1018,7 @@ public class BLibDBC {
 	public String login(int userID, String password) {
 		try {
 			// Execute SQL query to check if the user ID and password match
-			pstmt = conn.prepareStatement("SELECT * FROM users WHERE user_id = ?");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM users WHERE user_id = ?");
 			pstmt.setInt(1, userID);
 			ResultSet rs = pstmt.executeQuery();
 
@@ -602,7 +1048,7 @@ public class BLibDBC {
 		try {
 			// Prepare the SQL query to find an active borrow record for the provided book
 			// copy
-			pstmt = conn.prepareStatement("SELECT * FROM borrows WHERE copy_id = ? AND date_of_return IS NULL");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM borrows WHERE copy_id = ? AND date_of_return IS NULL");
 			pstmt.setInt(1, copy.getCopyID());
 			ResultSet rs = pstmt.executeQuery(); // Execute the query to retrieve the result
 
@@ -648,60 +1094,44 @@ public class BLibDBC {
 			// Get today's date to log the activity
 			LocalDate today = LocalDate.now();
 
-			// Update the borrow record with the new due date
-			pstmt = conn.prepareStatement("UPDATE borrows SET due_date = ? WHERE "
-					+ "subscriber_id = ? AND copy_id = ? AND date_of_borrow = ?");
-			pstmt.setDate(1, Date.valueOf(newDueDate), ILTimeZone);
-			pstmt.setInt(2, borrow.getSubscriber().getId());
-			pstmt.setInt(3, borrow.getBook().getCopyID());
-			pstmt.setDate(4, Date.valueOf(borrow.getDateOfBorrow()), ILTimeZone);
-			pstmt.execute();
-
-			// Log the extension activity in the history table
-			pstmt = conn.prepareStatement(
-					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUE(?,?,?,?)");
-			pstmt.setInt(1, borrow.getSubscriber().getId());
+			// Update the borrow record with the new due date, log the extension in the
+			// history table, let the librarian know and move the reminder message to the
+			// day before the new due date, in one round trip
+			StatementBatch batch = new StatementBatch().add(
+					"UPDATE borrows SET due_date = ? WHERE subscriber_id = ? AND copy_id = ? AND date_of_borrow = ?",
+					newDueDate, borrow.getSubscriber().getId(), borrow.getBook().getCopyID(), borrow.getDateOfBorrow());
 
 			// If the user is librarian, the action of extending the borrow duration is
 			// logged as a "manual extension".
+			String insertHistory = "INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)";
 			if (userType.equals("subscriber")) {
-				pstmt.setString(2, "extension");
-				pstmt.setString(3, "\"%s\" extended borrow by %s on %s, the new due date is %s"
-						.formatted(borrow.getBook().getTitle(), borrow.getSubscriber().getName(), today, newDueDate));
-
+				batch.add(insertHistory, borrow.getSubscriber().getId(), "extension",
+						"\"%s\" extended borrow by %s on %s, the new due date is %s".formatted(borrow.getBook().getTitle(),
+								borrow.getSubscriber().getName(), today, newDueDate),
+						today);
+				// The subscriber made the request, send a message to the librarian
+				batch.add("INSERT INTO librarian_messages(message, time) VALUES(?,?)",
+						"the subscriber %s extended their borrow duration of %s by %d days, the new due date is %s"
+								.formatted(borrow.getSubscriber().getName(), borrow.getBook().getTitle(), days,
+										newDueDate),
+						LocalDateTime.now());
 			} else {
-				pstmt.setString(2, "manual extension");
-				pstmt.setString(3,
+				batch.add(insertHistory, borrow.getSubscriber().getId(), "manual extension",
 						"\"%s\" manually extended borrow of %s by %s on %s, the new due date is %s".formatted(
 								borrow.getBook().getTitle(), borrow.getSubscriber().getName(), userType, today,
-								newDueDate));
-			}
-			pstmt.setDate(4, Date.valueOf(today), ILTimeZone);
-			pstmt.execute();
-
-			// If the subscriber made the request, send a message to the librarian
-			if (userType.equals("subscriber")) {
-				LocalDateTime now = LocalDateTime.now();
-				pstmt = conn.prepareStatement("INSERT INTO librarian_messages(message, time) VALUE(?,?);");
-				pstmt.setString(1,
-						"the subscriber %s extended their borrow duration of %s by %d days, the new due date is %s"
-								.formatted(borrow.getSubscriber().getName(), borrow.getBook().getTitle(), days,
-										newDueDate));
-				pstmt.setTimestamp(2, Timestamp.valueOf(now), ILTimeZone);
-				pstmt.execute();
+								newDueDate),
+						today);
 			}
 
 			// Set the notification time for sending a reminder message the day before the
 			// new due date
 			LocalDateTime notification = LocalDateTime.of(newDueDate.minusDays(1), LocalTime.now());
-			pstmt = conn
-					.prepareStatement("UPDATE commands SET time_of_execution=? WHERE command = ? AND identifyer = ?");
-			pstmt.setTimestamp(1, Timestamp.valueOf(notification), ILTimeZone);
-			pstmt.setString(2, "sendMessage");
-			pstmt.setString(3, "%s;%s".formatted(borrow.getSubscriber().getId(), borrow.getBook().getCopyID()));
+			batch.add("UPDATE commands SET time_of_execution=? WHERE command = ? AND identifyer = ?", notification,
+					"sendMessage", "%s;%s".formatted(borrow.getSubscriber().getId(), borrow.getBook().getCopyID()));
+			execute(batch);
 
 			// Commit the transaction
-			conn.commit();
+			commit();
 			return true; // Return true if the extension is successful
 		} catch (SQLException e) {
 			rollback(); // Rollback transaction if any error occurs
@@ -729,7 +1159,7 @@ public class BLibDBC {
 
 		try {
 			// Query to retrieve the number of copies for the given title.
-			pstmt = conn.prepareStatement("SELECT num_of_copies FROM titles WHERE title_id = ?;");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT num_of_copies FROM titles WHERE title_id = ?;");
 			pstmt.setInt(1, title.getTitleID());
 			rs = pstmt.executeQuery();
 
@@ -741,7 +1171,7 @@ public class BLibDBC {
 			}
 
 			// Query to retrieve the total number of borrowed copies for the given title.
-			pstmt = conn.prepareStatement("SELECT sum(is_borrowed) FROM copies WHERE title_id = ? GROUP BY title_id;");
+			pstmt = conn().prepareStatement("SELECT sum(is_borrowed) FROM copies WHERE title_id = ? GROUP BY title_id;");
 			pstmt.setInt(1, title.getTitleID());
 			rs = pstmt.executeQuery();
 
@@ -753,7 +1183,7 @@ public class BLibDBC {
 			}
 
 			// Query to retrieve the number of active orders for the given title.
-			pstmt = conn.prepareStatement("SELECT num_of_orders FROM titles WHERE title_id = ?;");
+			pstmt = conn().prepareStatement("SELECT num_of_orders FROM titles WHERE title_id = ?;");
 			pstmt.setInt(1, title.getTitleID());
 			rs = pstmt.executeQuery();
 
@@ -784,87 +1214,412 @@ public class BLibDBC {
 	 *         otherwise. If an error occurs while querying the database, the method
 	 *         returns {@code null}.
 	 */
-	public Boolean isTitleOrdered(int titleID) {
+	public Boolean isTitleOrdered(int titleID) {
+		try {
+			// Prepare a query to check if there are any orders for the given title.
+			PreparedStatement pstmt = conn().prepareStatement("SELECT num_of_orders>0 FROM titles WHERE title_id = ?;");
+			pstmt.setInt(1, titleID);
+			ResultSet rs = pstmt.executeQuery();
+
+			// If the result is found, return the boolean indicating if there are orders.
+			if (rs.next())
+				return rs.getBoolean(1);
+			// If no orders exist, return false.
+			return false;
+		} catch (SQLException e) {
+			// Return null in case of an error querying the database.
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a borrowed book and updates the borrow and copy information in the
+	 * database.
+	 * 
+	 * This method updates the return date for the given book copy in the borrows
+	 * table, marks the copy as available in the copies table, and logs the return
+	 * activity in the history table. If the return is late, it records the number
+	 * of late days.
+	 * 
+	 * @param book         The book copy that is being returned.
+	 * @param isLateReturn A boolean indicating if the book is being returned late.
+	 * @return {@code true} if the book is successfully returned and the database is
+	 *         updated, {@code false} if the return process fails due to an error or
+	 *         invalid borrow data.
+	 */
+	public Boolean returnBook(BookCopy book, boolean isLateReturn) {
+		try {
+			// Get the current date for the return transaction
+			LocalDate today = LocalDate.now();
+
+			// Get the active borrow record for the given book copy
+			Borrow borrow = getCopyActiveBorrow(book);
+			if (borrow == null)
+				return false; // Return false if no active borrow is found
+
+			// Log return or late return activity
+			String type;
+			String description;
+			if (!isLateReturn) {
+				type = "return";
+				description = "\"%s\" return by %s on %s".formatted(book.getTitle(), borrow.getSubscriber().getName(),
+						today);
+			} else {
+				int late = today.compareTo(borrow.getDueDate());
+				type = "late return";
+				description = "\"%s\" late return by %s on %s late by %d days".formatted(book.getTitle(),
+						borrow.getSubscriber().getName(), today, Math.abs(late));
+			}
+
+			// Mark the copy as no longer borrowed only if it is still borrowed, update the
+			// return date in the borrows table and log the return in the history table, in
+			// one round trip. Of two returns of the same copy at the same time only one
+			// changes the copy, the other undoes its writes
+			int[] counts = execute(new StatementBatch()
+					.add("UPDATE copies SET is_borrowed = FALSE WHERE copy_id = ? AND is_borrowed = TRUE", book.getCopyID())
+					.add("UPDATE borrows SET date_of_return = ? WHERE subscriber_id = ? AND copy_id =? AND date_of_borrow = ? "
+							+ "AND date_of_return IS NULL", today, borrow.getSubscriber().getId(), book.getCopyID(),
+							borrow.getDateOfBorrow())
+					.add("INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)",
+							borrow.getSubscriber().getId(), type, description, today));
+			if (counts[0] == 0) {
+				rollback();
+				return false; // The copy was already returned
+			}
+
+			// Commit the transaction
+			commit();
+			return true; // Return true if the return is successfully processed
+
+		} catch (SQLException e) {
+			rollback(); // Rollback transaction if any error occurs
+			return false; // Return false if an error occurs
+		}
+	}
+
+	/**
+	 * Builds the placeholders of an SQL IN list.
+	 * 
+	 * @param size The number of values in the list.
+	 * @return The placeholders, separated by commas.
+	 */
+	private static String inList(int size) {
+		return String.join(",", Collections.nCopies(size, "?"));
+	}
+
+	/**
+	 * Retrieves many subscribers from the database with a single query.
+	 * 
+	 * @param subIDs The IDs of the subscribers.
+	 * @return The subscribers found by their ID.
+	 * @throws SQLException if there is a database access error.
+	 */
+	private Map<Integer, Subscriber> getSubscribersByID(Set<Integer> subIDs) throws SQLException {
+		Map<Integer, Subscriber> ret = new HashMap<>();
+		if (subIDs.isEmpty())
+			return ret;
+		PreparedStatement pstmt = conn()
+				.prepareStatement("SELECT * FROM subscribers WHERE subscriber_id IN (" + inList(subIDs.size()) + ")");
+		int i = 1;
+		for (int subID : subIDs) {
+			pstmt.setInt(i++, subID);
+		}
+		ResultSet rs = pstmt.executeQuery();
+		while (rs.next()) {
+			ret.put(rs.getInt(1),
+					new Subscriber(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5)));
+		}
+		return ret;
+	}
+
+	/**
+	 * Retrieves many book copies from the database with a single query.
+	 * 
+	 * @param copyIDs The IDs of the book copies.
+	 * @return The copies found by their copy ID, or {@code null} if an error
+	 *         occurs. IDs of copies that don't exist are left out.
+	 */
+	public Map<Integer, BookCopy> getCopiesByID(Collection<Integer> copyIDs) {
+		try {
+			Map<Integer, BookCopy> ret = new HashMap<>();
+			if (copyIDs.isEmpty())
+				return ret;
+			PreparedStatement pstmt = conn()
+					.prepareStatement("SELECT * FROM copies WHERE copy_id IN (" + inList(copyIDs.size()) + ")");
+			int i = 1;
+			for (int copyID : copyIDs) {
+				pstmt.setInt(i++, copyID);
+			}
+			ResultSet rs = pstmt.executeQuery();
+
+			// Read each title once, a stack of copies usually shares a few titles
+			Map<Integer, BookTitle> titles = new HashMap<>();
+			while (rs.next()) {
+				BookTitle title = titles.get(rs.getInt(1));
+				if (title == null) {
+					title = getTitleByID(rs.getInt(1));
+					if (title == null)
+						continue; // Skip a copy whose title is not found, like getCopyByID
+					titles.put(title.getTitleID(), title);
+				}
+				ret.put(rs.getInt(2), new BookCopy(title, rs.getInt(2), rs.getString(3), rs.getBoolean(4)));
+			}
+			return ret;
+		} catch (SQLException e) {
+			return null; // Return null if an error occurs
+		}
+	}
+
+	/**
+	 * Retrieves the active borrows of many book copies with a single query.
+	 * 
+	 * @param copies The book copies.
+	 * @return The active borrows by copy ID, or {@code null} if an error occurs.
+	 *         Copies that aren't borrowed are left out.
+	 */
+	public Map<Integer, Borrow> getCopiesActiveBorrows(Collection<BookCopy> copies) {
+		try {
+			Map<Integer, Borrow> ret = new HashMap<>();
+			if (copies.isEmpty())
+				return ret;
+			Map<Integer, BookCopy> byID = new HashMap<>();
+			for (BookCopy copy : copies) {
+				byID.put(copy.getCopyID(), copy);
+			}
+			PreparedStatement pstmt = conn().prepareStatement(
+					"SELECT * FROM borrows WHERE copy_id IN (" + inList(byID.size()) + ") AND date_of_return IS NULL");
+			int i = 1;
+			for (int copyID : byID.keySet()) {
+				pstmt.setInt(i++, copyID);
+			}
+			ResultSet rs = pstmt.executeQuery();
+			Map<Integer, Integer> subOfCopy = new HashMap<>();
+			Map<Integer, LocalDate[]> datesOfCopy = new HashMap<>();
+			while (rs.next()) {
+				subOfCopy.put(rs.getInt(3), rs.getInt(2));
+				datesOfCopy.put(rs.getInt(3), new LocalDate[] { rs.getDate(4, ILTimeZone).toLocalDate(),
+						rs.getDate(5, ILTimeZone).toLocalDate() });
+			}
+
+			// Read all the borrowing subscribers at once
+			Map<Integer, Subscriber> subs = getSubscribersByID(new HashSet<>(subOfCopy.values()));
+			for (Map.Entry<Integer, Integer> borrow : subOfCopy.entrySet()) {
+				Subscriber sub = subs.get(borrow.getValue());
+				if (sub == null)
+					continue; // Skip a borrow whose subscriber is not found, like getCopyActiveBorrow
+				LocalDate[] dates = datesOfCopy.get(borrow.getKey());
+				ret.put(borrow.getKey(), new Borrow(sub, byID.get(borrow.getKey()), dates[0], dates[1], null));
+			}
+			return ret;
+		} catch (SQLException e) {
+			return null; // Return null if an error occurs
+		}
+	}
+
+	/**
+	 * Retrieves the orders that many book copies are assigned to with a single
+	 * query.
+	 * 
+	 * @param copies The book copies.
+	 * @return The orders by copy ID, or {@code null} if an error occurs. Copies
+	 *         that aren't assigned to an order are left out.
+	 */
+	public Map<Integer, Order> getOrdersByCopies(Collection<BookCopy> copies) {
+		try {
+			Map<Integer, Order> ret = new HashMap<>();
+			if (copies.isEmpty())
+				return ret;
+			Map<Integer, BookCopy> byID = new HashMap<>();
+			for (BookCopy copy : copies) {
+				byID.put(copy.getCopyID(), copy);
+			}
+			PreparedStatement pstmt = conn()
+					.prepareStatement("SELECT * FROM orders WHERE copy_id IN (" + inList(byID.size()) + ")");
+			int i = 1;
+			for (int copyID : byID.keySet()) {
+				pstmt.setInt(i++, copyID);
+			}
+			ResultSet rs = pstmt.executeQuery();
+			List<Object[]> rows = new ArrayList<>();
+			Set<Integer> subIDs = new HashSet<>();
+			while (rs.next()) {
+				rows.add(new Object[] { rs.getInt(1), rs.getInt(2), rs.getInt(4),
+						rs.getTimestamp(5, ILTimeZone).toLocalDateTime(), rs.getDate(6, ILTimeZone).toLocalDate() });
+				subIDs.add(rs.getInt(2));
+			}
+
+			// Read all the ordering subscribers at once
+			Map<Integer, Subscriber> subs = getSubscribersByID(subIDs);
+			for (Object[] row : rows) {
+				Subscriber sub = subs.get(row[1]);
+				if (sub == null)
+					continue; // Skip an order whose subscriber is not found, like getOrderByCopy
+				BookCopy copy = byID.get(row[2]);
+				Order order = new Order((Integer) row[0], sub, copy.getTitle(), (LocalDateTime) row[3]);
+				order.setCopy(copy);
+				order.setAriveDate((LocalDate) row[4]);
+				ret.put(copy.getCopyID(), order);
+			}
+			return ret;
+		} catch (SQLException e) {
+			return null; // Return null if an error occurs
+		}
+	}
+
+	/**
+	 * Borrows many book copies for a subscriber in a single transaction.
+	 * 
+	 * Like {@link #createBorrow(int, int)}, every copy is borrowed for two weeks,
+	 * the borrow is logged in the history table and a reminder is scheduled for
+	 * the day before the due date, but all the copies are written together: one
+	 * batch of borrows, one update of the copies, one batch of activities and one
+	 * batch of reminders. The caller checks that the copies can be borrowed.
+	 * 
+	 * @param sub    The subscriber borrowing the copies.
+	 * @param copies The book copies to borrow.
+	 * @return {@code true} if all the copies were borrowed, {@code false} if an
+	 *         error occurs or one of the copies is already borrowed, in which case
+	 *         none of them is.
+	 */
+	public Boolean createBorrows(Subscriber sub, List<BookCopy> copies) {
+		if (copies.isEmpty())
+			return true;
 		try {
-			// Prepare a query to check if there are any orders for the given title.
-			pstmt = conn.prepareStatement("SELECT num_of_orders>0 FROM titles WHERE title_id = ?;");
-			pstmt.setInt(1, titleID);
-			ResultSet rs = pstmt.executeQuery();
+			// Calculate today's date and the due date (2 weeks from today)
+			LocalDate today = LocalDate.now();
+			LocalDate dueDate = today.plusWeeks(2);
+			LocalDateTime reminderTime = LocalDateTime.now().plusWeeks(2).minusDays(1);
+
+			PreparedStatement borrows = conn().prepareStatement(
+					"INSERT INTO borrows(subscriber_id,copy_id,date_of_borrow,due_date) VALUES(?,?,?,?)");
+			PreparedStatement history = conn().prepareStatement(
+					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)");
+			PreparedStatement reminders = conn().prepareStatement(
+					"INSERT INTO commands(command, arguments, time_of_execution, identifyer) VALUES(?,?,?,?)");
+			PreparedStatement update = conn()
+					.prepareStatement("UPDATE copies SET is_borrowed = TRUE WHERE copy_id IN (" + inList(copies.size())
+							+ ") AND is_borrowed = FALSE");
+			int i = 1;
+			for (BookCopy copy : copies) {
+				borrows.setInt(1, sub.getId());
+				borrows.setInt(2, copy.getCopyID());
+				borrows.setDate(3, Date.valueOf(today), ILTimeZone);
+				borrows.setDate(4, Date.valueOf(dueDate), ILTimeZone);
+				borrows.addBatch();
+
+				update.setInt(i++, copy.getCopyID());
+
+				history.setInt(1, sub.getId());
+				history.setString(2, "borrow");
+				history.setString(3,
+						"\"%s\" borrowed by %s on %s".formatted(copy.getTitle(), sub.getName(), today.toString()));
+				history.setDate(4, Date.valueOf(today), ILTimeZone);
+				history.addBatch();
+
+				reminders.setString(1, "sendMessage");
+				reminders.setString(2, "%s;%s;".formatted(sub.getId(), "Reminder: Book Due Tomorrow")
+						+ "dear %s,\n\nJust a reminder that the book you borrowed (\"%s\") is due tomorrow %s. Please make sure to return it by the due date.\nBraude Library"
+								.formatted(sub.getName(), copy.getTitle(), dueDate));
+				reminders.setTimestamp(3, Timestamp.valueOf(reminderTime), ILTimeZone);
+				reminders.setString(4, "%s;%s".formatted(sub.getId(), copy.getCopyID()));
+				reminders.addBatch();
+			}
+			// Mark the copies as borrowed only if they are all still available, before
+			// anything else is written
+			if (update.executeUpdate() != copies.size()) {
+				rollback(); // Another borrow took some of the copies
+				return false;
+			}
+			borrows.executeBatch();
+			history.executeBatch();
+			reminders.executeBatch();
+
+			// Commit the transaction
+			commit();
+			return true;
 
-			// If the result is found, return the boolean indicating if there are orders.
-			if (rs.next())
-				return rs.getBoolean(1);
-			// If no orders exist, return false.
-			return false;
 		} catch (SQLException e) {
-			// Return null in case of an error querying the database.
-			return null;
+			rollback(); // Rollback transaction if any error occurs
+			return false; // Return false if an error occurs
 		}
 	}
 
 	/**
-	 * Returns a borrowed book and updates the borrow and copy information in the
-	 * database.
+	 * Returns many borrowed book copies in a single transaction.
 	 * 
-	 * This method updates the return date for the given book copy in the borrows
-	 * table, marks the copy as available in the copies table, and logs the return
-	 * activity in the history table. If the return is late, it records the number
-	 * of late days.
+	 * Like {@link #returnBook(BookCopy, boolean)}, every borrow is closed, its copy
+	 * is marked as available and the return is logged, as a late return if the
+	 * due date has passed. The reminders of the copies returned on time are
+	 * canceled. All the borrows are written together: one update of the borrows,
+	 * one update of the copies, one batch of activities and one delete of the
+	 * reminders.
 	 * 
-	 * @param book         The book copy that is being returned.
-	 * @param isLateReturn A boolean indicating if the book is being returned late.
-	 * @return {@code true} if the book is successfully returned and the database is
-	 *         updated, {@code false} if the return process fails due to an error or
-	 *         invalid borrow data.
+	 * @param borrows The active borrows to close.
+	 * @return {@code true} if all the copies were returned, {@code false} if an
+	 *         error occurs or one of the copies is already returned, in which case
+	 *         none of them is.
 	 */
-	public Boolean returnBook(BookCopy book, boolean isLateReturn) {
+	public Boolean returnBooks(List<Borrow> borrows) {
+		if (borrows.isEmpty())
+			return true;
 		try {
 			// Get the current date for the return transaction
 			LocalDate today = LocalDate.now();
-
-			// Get the active borrow record for the given book copy
-			Borrow borrow = getCopyActiveBorrow(book);
-			if (borrow == null)
-				return false; // Return false if no active borrow is found
-
-			// Update the return date in the borrows table
-			pstmt = conn.prepareStatement(
-					"UPDATE borrows SET date_of_return = ? WHERE subscriber_id = ? AND copy_id =? AND date_of_borrow = ?;");
-			pstmt.setDate(1, Date.valueOf(today), ILTimeZone);
-			pstmt.setInt(2, borrow.getSubscriber().getId());
-			pstmt.setInt(3, book.getCopyID());
-			pstmt.setDate(4, Date.valueOf(borrow.getDateOfBorrow()), ILTimeZone);
-			pstmt.execute();
-
-			// Mark the copy as no longer borrowed in the copies table
-			pstmt = conn.prepareStatement("UPDATE copies SET is_borrowed = ? WHERE copy_id = ?;");
-			pstmt.setBoolean(1, false);
-			pstmt.setInt(2, book.getCopyID());
-			pstmt.execute();
-
-			// Log the return activity in the history table
-			pstmt = conn.prepareStatement(
-					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUE(?,?,?,?)");
-			pstmt.setInt(1, borrow.getSubscriber().getId());
-
-			// Log return or late return activity
-			if (!isLateReturn) {
-				pstmt.setString(2, "return");
-				pstmt.setString(3, "\"%s\" return by %s on %s".formatted(book.getTitle(),
-						borrow.getSubscriber().getName(), today));
-			} else {
-				int late = today.compareTo(borrow.getDueDate());
-				pstmt.setString(2, "late return");
-				pstmt.setString(3, "\"%s\" late return by %s on %s late by %d days".formatted(book.getTitle(),
-						borrow.getSubscriber().getName(), today, Math.abs(late)));
+			String in = inList(borrows.size());
+
+			// Close the borrows and free the copies
+			PreparedStatement closeBorrows = conn().prepareStatement(
+					"UPDATE borrows SET date_of_return = ? WHERE copy_id IN (" + in + ") AND date_of_return IS NULL");
+			PreparedStatement freeCopies = conn().prepareStatement(
+					"UPDATE copies SET is_borrowed = FALSE WHERE copy_id IN (" + in + ") AND is_borrowed = TRUE");
+			closeBorrows.setDate(1, Date.valueOf(today), ILTimeZone);
+			for (int i = 0; i < borrows.size(); i++) {
+				closeBorrows.setInt(i + 2, borrows.get(i).getBook().getCopyID());
+				freeCopies.setInt(i + 1, borrows.get(i).getBook().getCopyID());
+			}
+			// Free the copies only if they are all still borrowed, before anything else is
+			// written
+			if (freeCopies.executeUpdate() != borrows.size()) {
+				rollback(); // Another return took some of the copies
+				return false;
+			}
+			closeBorrows.executeUpdate();
+
+			// Log the returns and collect the reminders of the copies returned on time
+			PreparedStatement history = conn().prepareStatement(
+					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)");
+			List<String> reminders = new ArrayList<>();
+			for (Borrow borrow : borrows) {
+				history.setInt(1, borrow.getSubscriber().getId());
+				if (borrow.getDueDate().compareTo(today) >= 0) {
+					history.setString(2, "return");
+					history.setString(3, "\"%s\" return by %s on %s".formatted(borrow.getBook().getTitle(),
+							borrow.getSubscriber().getName(), today));
+					reminders.add("%s;%s".formatted(borrow.getSubscriber().getId(), borrow.getBook().getCopyID()));
+				} else {
+					int late = today.compareTo(borrow.getDueDate());
+					history.setString(2, "late return");
+					history.setString(3, "\"%s\" late return by %s on %s late by %d days".formatted(
+							borrow.getBook().getTitle(), borrow.getSubscriber().getName(), today, Math.abs(late)));
+				}
+				history.setDate(4, Date.valueOf(today), ILTimeZone);
+				history.addBatch();
+			}
+			history.executeBatch();
+
+			// Cancel the reminders of the copies returned on time
+			if (!reminders.isEmpty()) {
+				PreparedStatement cancel = conn().prepareStatement("DELETE FROM commands WHERE command = 'sendMessage' "
+						+ "AND identifyer IN (" + inList(reminders.size()) + ")");
+				for (int i = 0; i < reminders.size(); i++) {
+					cancel.setString(i + 1, reminders.get(i));
+				}
+				cancel.executeUpdate();
 			}
-
-			pstmt.setDate(4, Date.valueOf(today), ILTimeZone);
-			pstmt.execute();
 
 			// Commit the transaction
-			conn.commit();
-			return true; // Return true if the return is successfully processed
+			commit();
+			return true;
 
 		} catch (SQLException e) {
 			rollback(); // Rollback transaction if any error occurs
@@ -896,14 +1651,9 @@ public class BLibDBC {
 			if (sub == null)
 				return null;// Return null if the subscriber does not exist
 
-			// Update the subscriber's status to "frozen" in the subscribers table
-			pstmt = conn.prepareStatement("UPDATE subscribers SET subscriber_status = ? WHERE subscriber_id = ? ;");
-			pstmt.setString(1, "frozen");
-			pstmt.setInt(2, subID);
-			pstmt.execute();
-
-			// Get the count of active and frozen subscribers
-			pstmt = conn.prepareStatement(
+			// Get the count of active and frozen subscribers with a plain read, that locks
+			// no rows, and count the subscriber as frozen
+			PreparedStatement pstmt = conn().prepareStatement(
 					"SELECT subscriber_status, COUNT(*) FROM subscribers GROUP BY subscriber_status;");
 			ResultSet rs = pstmt.executeQuery();
 			int numActive = 0;
@@ -914,23 +1664,25 @@ public class BLibDBC {
 				if (rs.getString(1).equals("frozen"))
 					numFrozen = rs.getInt(2);
 			}
+			if (sub.getStatus().equals("active")) {
+				numActive--;
+				numFrozen++;
+			}
 
-			// Log the freeze Subscriber activity in the history table
-			pstmt = conn.prepareStatement(
-					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUE(?,?,?,?)");
-			pstmt.setInt(1, subID);
-			pstmt.setString(2, "freeze");
-			pstmt.setString(3, "%s got frozen on %s until %s;%d;%d".formatted(sub.getName(), today, today.plusMonths(1),
-					numActive, numFrozen));
-			pstmt.setDate(4, Date.valueOf(today), ILTimeZone);
-			pstmt.execute();
-
-			// Schedule the unfreeze action after one month
+			// Update the subscriber's status to "frozen", log the freeze in the history
+			// table and schedule the unfreeze action after one month, in one round trip
 			LocalDateTime unfreezeTime = LocalDateTime.now().plusMonths(1);
-			createCommand("unfreeze", "%d".formatted(sub.getId()), unfreezeTime, "%d".formatted(sub.getId()), false);
+			execute(new StatementBatch()
+					.add("UPDATE subscribers SET subscriber_status = ? WHERE subscriber_id = ?", "frozen", subID)
+					.add("INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)",
+							subID, "freeze", "%s got frozen on %s until %s;%d;%d".formatted(sub.getName(), today,
+									today.plusMonths(1), numActive, numFrozen),
+							today)
+					.add("INSERT INTO commands(command, arguments, time_of_execution, identifyer) VALUES(?,?,?,?)",
+							"unfreeze", "%d".formatted(sub.getId()), unfreezeTime, "%d".formatted(sub.getId())));
 
 			// Commit the transaction
-			conn.commit();
+			commit();
 			return true;
 
 		} catch (SQLException e) {
@@ -964,13 +1716,13 @@ public class BLibDBC {
 				return null;// Return null if the subscriber does not exist
 
 			// Update the subscriber's status to "active" in the subscribers table
-			pstmt = conn.prepareStatement("UPDATE subscribers SET subscriber_status = ? WHERE subscriber_id = ? ;");
+			PreparedStatement pstmt = conn().prepareStatement("UPDATE subscribers SET subscriber_status = ? WHERE subscriber_id = ? ;");
 			pstmt.setString(1, "active");
 			pstmt.setInt(2, subID);
 			pstmt.execute();
 
 			// Get the count of active and frozen subscribers
-			pstmt = conn.prepareStatement(
+			pstmt = conn().prepareStatement(
 					"SELECT subscriber_status, COUNT(*) FROM subscribers GROUP BY subscriber_status;");
 			ResultSet rs = pstmt.executeQuery();
 
@@ -984,8 +1736,8 @@ public class BLibDBC {
 			}
 
 			// Log the unfreeze Subscriber activity in the history table
-			pstmt = conn.prepareStatement(
-					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUE(?,?,?,?)");
+			pstmt = conn().prepareStatement(
+					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)");
 			pstmt.setInt(1, subID);
 			pstmt.setString(2, "unfreeze");
 			pstmt.setString(3, "%s got unfrozen on %s;%d;%d".formatted(sub.getName(), today, numActive, numFrozen));
@@ -993,7 +1745,7 @@ public class BLibDBC {
 			pstmt.setDate(4, Date.valueOf(today), ILTimeZone);
 			pstmt.execute();
 			// Commit the transaction
-			conn.commit();
+			commit();
 			return true; // Return true if the unfreeze operation was successful
 
 		} catch (SQLException e) {
@@ -1003,29 +1755,179 @@ public class BLibDBC {
 	}
 
 	/**
-	 * Retrieves the activity history of a subscriber from the history table.
+	 * Freezes, in bulk, every active subscriber who has a borrow that is still not
+	 * returned and was due on or before a given date.
 	 * 
-	 * This method fetches all activities associated with a specific subscriber from
-	 * the database, ordered by the activity date. It returns a list of
-	 * {@link Activity} objects representing each activity, or {@code null} if the
-	 * subscriber does not exist or an error occurs during the database query.
+	 * The overdue borrows are streamed from a range scan of the
+	 * (date_of_return, due_date, subscriber_id) index, so the borrows table is
+	 * read without being locked. The subscribers are then frozen in chunks, each
+	 * chunk in its own short transaction: one UPDATE for the whole chunk, and one
+	 * batch each for the freeze activities, the unfreeze commands and the emails
+	 * that notify the subscribers. Like {@link #freezeSubscriber(int)}, each
+	 * freeze activity records the number of active and frozen subscribers right
+	 * after it.
 	 * 
-	 * @param subID The ID of the subscriber whose activity history is being
-	 *              retrieved.
-	 * @return A {@link Activity} objects representing the subscriber's activity
-	 *         history, ordered by date. Returns {@code null} if the subscriber does
-	 *         not exist or if an error occurs.
+	 * @param lastDueDate The latest due date of a borrow that freezes its
+	 *                    subscriber.
+	 * @return The number of subscribers that got frozen, or {@code null} if an
+	 *         error occurs. The chunks committed before the error stay frozen.
 	 */
-	public List<Activity> getSubscriberHistory(int subID) {
+	public Integer freezeOverdueSubscribers(LocalDate lastDueDate) {
+		final int chunkSize = 1000;
+		int frozen = 0;
 		try {
-			// Fetch the subscriber based on the given ID
-			Subscriber sub = getSubscriberByID(subID);
-			if (sub == null)
+			// Collect the subscribers of the overdue borrows from the index, streamed on a
+			// connection of its own so the commands on the shared connection go on
+			Set<Integer> overdue = new HashSet<>();
+			Connection reader = takeConnection();
+			try {
+				PreparedStatement pstmt = reader.prepareStatement(
+						"SELECT subscriber_id FROM borrows WHERE date_of_return IS NULL AND due_date <= ?;");
+				pstmt.setDate(1, Date.valueOf(lastDueDate), ILTimeZone);
+				pstmt.setFetchSize(Integer.MIN_VALUE); // Stream the rows instead of loading them all
+				ResultSet rs = pstmt.executeQuery();
+				while (rs.next()) {
+					overdue.add(rs.getInt(1));
+				}
+				rs.close();
+			} finally {
+				releaseReader(reader);
+			}
+			if (overdue.isEmpty())
+				return 0;
+
+			// Get the count of active and frozen subscribers before the sweep
+			PreparedStatement pstmt = conn().prepareStatement(
+					"SELECT subscriber_status, COUNT(*) FROM subscribers GROUP BY subscriber_status;");
+			ResultSet rs = pstmt.executeQuery();
+			int numActive = 0;
+			int numFrozen = 0;
+			while (rs.next()) {
+				if (rs.getString(1).equals("active"))
+					numActive = rs.getInt(2);
+				if (rs.getString(1).equals("frozen"))
+					numFrozen = rs.getInt(2);
+			}
+
+			LocalDate today = LocalDate.now();
+			LocalDateTime now = LocalDateTime.now();
+			List<Integer> subIDs = new ArrayList<>(overdue);
+			for (int from = 0; from < subIDs.size(); from += chunkSize) {
+				List<Integer> chunk = subIDs.subList(from, Math.min(from + chunkSize, subIDs.size()));
+				String in = inList(chunk.size());
+
+				// Lock the subscribers of the chunk that are still active
+				pstmt = conn().prepareStatement("SELECT subscriber_id, subscriber_name FROM subscribers "
+						+ "WHERE subscriber_id IN (" + in + ") AND subscriber_status = 'active' FOR UPDATE;");
+				for (int i = 0; i < chunk.size(); i++) {
+					pstmt.setInt(i + 1, chunk.get(i));
+				}
+				rs = pstmt.executeQuery();
+				Map<Integer, String> names = new HashMap<>();
+				while (rs.next()) {
+					names.put(rs.getInt(1), rs.getString(2));
+				}
+				if (names.isEmpty()) {
+					commit();
+					continue;
+				}
+
+				// Freeze them all at once
+				pstmt = conn().prepareStatement("UPDATE subscribers SET subscriber_status = 'frozen' "
+						+ "WHERE subscriber_id IN (" + in + ") AND subscriber_status = 'active';");
+				for (int i = 0; i < chunk.size(); i++) {
+					pstmt.setInt(i + 1, chunk.get(i));
+				}
+				pstmt.executeUpdate();
+
+				// Log the freeze activities, schedule the unfreezes and queue the emails
+				PreparedStatement history = conn().prepareStatement(
+						"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)");
+				PreparedStatement commands = conn().prepareStatement(
+						"INSERT INTO commands(command, arguments, time_of_execution, identifyer) VALUES(?,?,?,?)");
+				for (Map.Entry<Integer, String> sub : names.entrySet()) {
+					numActive--;
+					numFrozen++;
+					history.setInt(1, sub.getKey());
+					history.setString(2, "freeze");
+					history.setString(3, "%s got frozen on %s until %s;%d;%d".formatted(sub.getValue(), today,
+							today.plusMonths(1), numActive, numFrozen));
+					history.setDate(4, Date.valueOf(today), ILTimeZone);
+					history.addBatch();
+
+					commands.setString(1, "unfreeze");
+					commands.setString(2, "%d".formatted(sub.getKey()));
+					commands.setTimestamp(3, Timestamp.valueOf(now.plusMonths(1)), ILTimeZone);
+					commands.setString(4, "%d".formatted(sub.getKey()));
+					commands.addBatch();
+
+					commands.setString(1, "sendEmail");
+					commands.setString(2,
+							MessageController.overdueFreezeEmail(sub.getKey(), sub.getValue(), today.plusMonths(1)));
+					commands.setTimestamp(3, Timestamp.valueOf(now), ILTimeZone);
+					commands.setString(4, "");
+					commands.addBatch();
+				}
+				history.executeBatch();
+				commands.executeBatch();
+
+				// Commit the chunk so its locks are held only briefly
+				commit();
+				frozen += names.size();
+			}
+			return frozen;
+
+		} catch (SQLException e) {
+			System.out.println("overdue sweep failed: " + e.getMessage());
+			rollback(); // Rollback the current chunk if any error occurs
+			return null;
+		}
+	}
+
+	/**
+	 * Retrieves one page of the activity history of a subscriber from the history
+	 * table, newest activity first.
+	 * 
+	 * The pages are keyed by the (activity date, item ID) of the last activity of
+	 * the previous page, so every page is an index range read of at most
+	 * {@code pageSize} rows no matter how deep into the history it is. The first
+	 * page is requested with a {@code null} date.
+	 * 
+	 * @param subID      The ID of the subscriber whose activity history is being
+	 *                   retrieved.
+	 * @param beforeDate The activity date of the last activity already received,
+	 *                   or {@code null} for the first page.
+	 * @param beforeID   The item ID of the last activity already received.
+	 *                   Ignored for the first page.
+	 * @param pageSize   The maximal number of activities to retrieve.
+	 * @return A list of {@link Activity} objects representing the page, ordered by
+	 *         date from the newest. An empty list means there are no more
+	 *         activities. Returns {@code null} if the subscriber does not exist or
+	 *         if an error occurs.
+	 */
+	public List<Activity> getSubscriberHistory(int subID, LocalDate beforeDate, int beforeID, int pageSize) {
+		try {
+			// Check that the subscriber exists when the first page is requested
+			if (beforeDate == null && getSubscriberByID(subID) == null)
 				return null;// Return null if the subscriber does not exist
 
-			// Prepare and execute the SQL query to fetch activities from the history table
-			pstmt = conn.prepareStatement("SELECT * FROM history WHERE subscriber_id = ? ORDER BY activity_date;");
-			pstmt.setInt(1, subID);
+			// Prepare and execute the SQL query to fetch the page from the history table
+			PreparedStatement pstmt;
+			if (beforeDate == null) {
+				pstmt = conn().prepareStatement("SELECT * FROM history WHERE subscriber_id = ? "
+						+ "ORDER BY activity_date DESC, item_id DESC LIMIT ?;");
+				pstmt.setInt(1, subID);
+				pstmt.setInt(2, pageSize);
+			} else {
+				pstmt = conn().prepareStatement("SELECT * FROM history WHERE subscriber_id = ? "
+						+ "AND (activity_date < ? OR (activity_date = ? AND item_id < ?)) "
+						+ "ORDER BY activity_date DESC, item_id DESC LIMIT ?;");
+				pstmt.setInt(1, subID);
+				pstmt.setDate(2, Date.valueOf(beforeDate), ILTimeZone);
+				pstmt.setDate(3, Date.valueOf(beforeDate), ILTimeZone);
+				pstmt.setInt(4, beforeID);
+				pstmt.setInt(5, pageSize);
+			}
 			ResultSet rs = pstmt.executeQuery();
 
 			// Create a list to store the activities
@@ -1038,10 +1940,18 @@ public class BLibDBC {
 				ret.add(activity);// Add the activity to the list
 			}
 
-			return ret;// Return the list of activities
+			// Continue into the archived years only when the table has no more activities
+			if (ret.size() < pageSize) {
+				Activity last = ret.isEmpty() ? null : ret.get(ret.size() - 1);
+				ret.addAll(HistoryArchive.getInstance().getSubscriberHistory(subID,
+						last == null ? beforeDate : last.getDate(), last == null ? beforeID : last.getId(),
+						pageSize - ret.size()));
+			}
+
+			return ret;// Return the page of activities
 
-		} catch (SQLException e) {
-			return null;// Return null if any SQL error occurs
+		} catch (SQLException | IOException e) {
+			return null;// Return null if any SQL or archive error occurs
 		}
 	}
 
@@ -1064,7 +1974,7 @@ public class BLibDBC {
 		try {
 			// Prepare SQL query to fetch commands scheduled to execute before the current
 			// time
-			pstmt = conn.prepareStatement("SELECT * FROM commands WHERE time_of_execution < ?");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM commands WHERE time_of_execution < ?");
 			pstmt.setTimestamp(1, Timestamp.valueOf(now), ILTimeZone);
 			ResultSet rs = pstmt.executeQuery();
 
@@ -1089,13 +1999,13 @@ public class BLibDBC {
 
 			// Delete the processed commands from the database
 			for (int i : commandIDs) {
-				pstmt = conn.prepareStatement("DELETE FROM commands WHERE id = ?");
+				pstmt = conn().prepareStatement("DELETE FROM commands WHERE id = ?");
 				pstmt.setInt(1, i);
 				pstmt.execute();
 			}
 
 			// Commit the transaction
-			conn.commit();
+			commit();
 			return ret;
 
 		} catch (SQLException e) {
@@ -1104,6 +2014,44 @@ public class BLibDBC {
 		}
 	}
 
+	/**
+	 * Counts the scheduled commands whose time of execution has passed.
+	 * 
+	 * @param now The current time.
+	 * @return The number of due commands, or {@code null} if an error occurs.
+	 */
+	public Integer countDueCommands(LocalDateTime now) {
+		try {
+			PreparedStatement pstmt = conn().prepareStatement("SELECT COUNT(*) FROM commands WHERE time_of_execution < ?");
+			pstmt.setTimestamp(1, Timestamp.valueOf(now), ILTimeZone);
+			ResultSet rs = pstmt.executeQuery();
+			return rs.next() ? rs.getInt(1) : 0;
+		} catch (SQLException e) {
+			return null; // Return null if an error occurs
+		}
+	}
+
+	/**
+	 * Retrieves the time of execution of the oldest due scheduled command.
+	 * 
+	 * @param now The current time.
+	 * @return The time of the oldest due command, or {@code null} if no command is
+	 *         due or an error occurs.
+	 */
+	public LocalDateTime getOldestDueCommand(LocalDateTime now) {
+		try {
+			PreparedStatement pstmt = conn().prepareStatement("SELECT MIN(time_of_execution) FROM commands WHERE time_of_execution < ?");
+			pstmt.setTimestamp(1, Timestamp.valueOf(now), ILTimeZone);
+			ResultSet rs = pstmt.executeQuery();
+			if (rs.next() && rs.getTimestamp(1, ILTimeZone) != null) {
+				return rs.getTimestamp(1, ILTimeZone).toLocalDateTime();
+			}
+			return null;
+		} catch (SQLException e) {
+			return null; // Return null if an error occurs
+		}
+	}
+
 	/**
 	 * Retrieves a list of active borrows for a specific subscriber.
 	 * 
@@ -1120,7 +2068,7 @@ public class BLibDBC {
 	public List<Borrow> getSubscriberActiveBorrows(Subscriber sub) {
 		try {
 			// Prepare SQL query to fetch active borrows for the given subscriber
-			pstmt = conn.prepareStatement("SELECT * FROM borrows WHERE subscriber_id = ? AND date_of_return IS NULL");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM borrows WHERE subscriber_id = ? AND date_of_return IS NULL");
 			pstmt.setInt(1, sub.getId());
 			ResultSet rs = pstmt.executeQuery();
 
@@ -1149,28 +2097,35 @@ public class BLibDBC {
 	}
 
 	/**
-	 * Retrieves a list of messages for the librarian, ordered by time.
+	 * Retrieves the librarian messages that arrived after a given message ID and
+	 * that the librarian has not marked as read yet, ordered by message ID.
 	 * 
-	 * This method queries the `librarian_messages` table to fetch all the messages
-	 * for the librarian, ordering them by the time of arrival. It returns the
-	 * messages as a list of strings, where each string represents a message. If an
-	 * error occurs during the database query, {@code null} is returned.
+	 * Message IDs are assigned by the database in increasing order, so a client
+	 * that remembers the last ID it has seen only receives the messages that
+	 * arrived since then instead of the whole table. If the given ID is below the
+	 * librarian's read marker, the read marker is used as the lower bound.
 	 * 
-	 * @return A list of strings representing the librarian's messages, ordered by
-	 *         time. If an error occurs, {@code null} is returned.
+	 * @param librarian The name of the librarian requesting the messages.
+	 * @param afterID   The last message ID already known to the caller (0 for
+	 *                  none).
+	 * @return A map of message IDs to messages, ordered by ID. If an error occurs,
+	 *         {@code null} is returned.
 	 */
-	public List<String> getLibrarianMessages() {
+	public Map<Integer, String> getLibrarianMessages(String librarian, int afterID) {
 		try {
-			// Prepare SQL query to fetch all librarian messages ordered by time
-			pstmt = conn.prepareStatement("SELECT message FROM librarian_messages ORDER BY time");
+			// Fetch only the messages after both the caller's cursor and the read marker
+			PreparedStatement pstmt = conn().prepareStatement("SELECT message_id, message FROM librarian_messages "
+					+ "WHERE message_id > GREATEST(?, COALESCE((SELECT last_read_id FROM librarian_message_reads "
+					+ "WHERE librarian_name = ?), 0)) ORDER BY message_id");
+			pstmt.setInt(1, afterID);
+			pstmt.setString(2, librarian);
 			ResultSet rs = pstmt.executeQuery();
 
-			// Initialize a list to store the retrieved messages
-			List<String> ret = new ArrayList<>();
+			// Keep the messages ordered by their ID
+			Map<Integer, String> ret = new TreeMap<>();
 			while (rs.next()) {
-				ret.add(rs.getString(1));
+				ret.put(rs.getInt(1), rs.getString(2));
 			}
-			// Return the list of messages
 			return ret;
 		} catch (SQLException e) {
 			// If an error occurs, return null
@@ -1179,25 +2134,53 @@ public class BLibDBC {
 	}
 
 	/**
-	 * Clears all messages from the librarian messages table.
+	 * Counts the librarian messages that the given librarian has not marked as
+	 * read yet. Only the count is sent, so it is cheap enough for the unread
+	 * messages badge that is refreshed periodically.
+	 * 
+	 * @param librarian The name of the librarian.
+	 * @return The number of unread messages, or {@code null} if an error occurs.
+	 */
+	public Integer countLibrarianMessages(String librarian) {
+		try {
+			// Count the messages after the librarian's read marker
+			PreparedStatement pstmt = conn().prepareStatement("SELECT COUNT(*) FROM librarian_messages WHERE message_id > "
+					+ "COALESCE((SELECT last_read_id FROM librarian_message_reads WHERE librarian_name = ?), 0)");
+			pstmt.setString(1, librarian);
+			ResultSet rs = pstmt.executeQuery();
+			if (rs.next()) {
+				return rs.getInt(1);
+			}
+			return 0;
+		} catch (SQLException e) {
+			// If an error occurs, return null
+			return null;
+		}
+	}
+
+	/**
+	 * Marks the librarian messages up to the given message ID as read for the
+	 * given librarian.
 	 * 
-	 * This method deletes all records from the `librarian_messages` table. It
-	 * commits the transaction if the deletion is successful, and returns
-	 * {@code true}. If an error occurs during the deletion, the transaction is
-	 * rolled back and the method returns {@code false}.
+	 * The messages themselves are kept, each librarian has their own read marker
+	 * in the `librarian_message_reads` table. The marker never moves backwards.
 	 * 
-	 * @return {@code true} if the messages were successfully cleared, {@code false}
-	 *         if an error occurred during the process.
+	 * @param librarian The name of the librarian clearing their messages.
+	 * @param lastID    The ID of the last message the librarian has seen.
+	 * @return {@code true} if the messages were successfully marked as read,
+	 *         {@code false} if an error occurred during the process.
 	 */
-	public Boolean clearLibrarianMessages() {
+	public Boolean clearLibrarianMessages(String librarian, int lastID) {
 		try {
-			// Prepare and execute SQL query to delete all messages from the
-			// librarian_messages table
-			pstmt = conn.prepareStatement("DELETE FROM librarian_messages;");
+			// Insert the read marker, or move the existing one forward
+			PreparedStatement pstmt = conn().prepareStatement("INSERT INTO librarian_message_reads(librarian_name, last_read_id) VALUES(?,?) "
+					+ "ON DUPLICATE KEY UPDATE last_read_id = GREATEST(last_read_id, VALUES(last_read_id));");
+			pstmt.setString(1, librarian);
+			pstmt.setInt(2, lastID);
 			pstmt.execute();
 
 			// Commit the transaction
-			conn.commit();
+			commit();
 			return true;
 		} catch (SQLException e) {
 			// If an error occurs, rollback the transaction and return false
@@ -1229,29 +2212,17 @@ public class BLibDBC {
 			LocalDate today = LocalDate.now();
 			LocalDateTime now = LocalDateTime.now();
 
-			// Insert order, update title orders, and log activity
-			pstmt = conn.prepareStatement("INSERT INTO orders(subscriber_id, title_id, order_date) VALUE (?,?,?);");
-			pstmt.setInt(1, subID);
-			pstmt.setInt(2, titleID);
-			pstmt.setTimestamp(3, Timestamp.valueOf(now), ILTimeZone);
-			pstmt.execute();
-
-			// Update the number of orders for the book title
-			pstmt = conn.prepareStatement("UPDATE titles SET num_of_orders = num_of_orders + 1 WHERE title_id = ?;");
-			pstmt.setInt(1, titleID);
-			pstmt.execute();
-
-			// Log the order activity in the history table
-			pstmt = conn.prepareStatement(
-					"INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUE(?,?,?,?)");
-			pstmt.setInt(1, subID);
-			pstmt.setString(2, "order");
-			pstmt.setString(3, "%s ordered the book \"%s\" on %s".formatted(sub.getName(), title, today));
-			pstmt.setDate(4, Date.valueOf(today), ILTimeZone);
-			pstmt.execute();
+			// Insert the order, update the number of orders for the book title and log the
+			// order in the history table, in one round trip
+			execute(new StatementBatch()
+					.add("INSERT INTO orders(subscriber_id, title_id, order_date) VALUES (?,?,?)", subID, titleID, now)
+					.add("UPDATE titles SET num_of_orders = num_of_orders + 1 WHERE title_id = ?", titleID)
+					.add("INSERT INTO history(subscriber_id,activity_type,activity_description,activity_date) VALUES(?,?,?,?)",
+							subID, "order", "%s ordered the book \"%s\" on %s".formatted(sub.getName(), title, today),
+							today));
 
 			// Commit the transaction
-			conn.commit();
+			commit();
 			return true;
 		} catch (SQLException e) {
 			// Rollback transaction in case of an error
@@ -1271,7 +2242,7 @@ public class BLibDBC {
 		try {
 			// Prepare the SQL query to select the sum of borrowed copies for the given book
 			// title
-			pstmt = conn.prepareStatement("SELECT sum(is_borrowed) FROM copies WHERE title_id = ? GROUP BY title_id;");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT sum(is_borrowed) FROM copies WHERE title_id = ? GROUP BY title_id;");
 			pstmt.setInt(1, title.getTitleID());
 			ResultSet rs = pstmt.executeQuery();
 			if (rs.next()) {
@@ -1296,7 +2267,7 @@ public class BLibDBC {
 		try {
 			// Prepare the SQL query to select all subscriber details from the subscribers
 			// table
-			pstmt = conn.prepareStatement("SELECT * FROM subscribers;");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM subscribers;");
 			ResultSet rs = pstmt.executeQuery();
 
 			// Initialize an empty list to store the subscriber objects
@@ -1325,7 +2296,7 @@ public class BLibDBC {
 	public List<Order> getSubscriberActiveOrders(Subscriber sub) {
 		try {
 			// Prepare the SQL query to retrieve all orders for the given subscriber
-			pstmt = conn.prepareStatement("SELECT * FROM orders WHERE subscriber_id = ? ORDER BY order_date");
+			PreparedStatement pstmt = conn().prepareStatement("SELECT * FROM orders WHERE subscriber_id = ? ORDER BY order_date");
 			pstmt.setInt(1, sub.getId());
 			ResultSet rs = pstmt.executeQuery();
 
@@ -1368,39 +2339,152 @@ public class BLibDBC {
 	 */
 	public Boolean updateOrder(BookCopy copy) {
 		try {
-			// Prepare the SQL query to fetch the first order that does not have an assigned
-			// copy
-			pstmt = conn.prepareStatement(
-					"SELECT * FROM orders WHERE title_id = ? AND copy_id is null ORDER BY order_date;");
-			pstmt.setInt(1, copy.getTitle().getTitleID());
-			ResultSet rs = pstmt.executeQuery();
+			while (true) {
+				// Prepare the SQL query to fetch the first order that does not have an
+				// assigned copy
+				PreparedStatement pstmt = conn().prepareStatement(
+						"SELECT * FROM orders WHERE title_id = ? AND copy_id is null ORDER BY order_date;");
+				pstmt.setInt(1, copy.getTitle().getTitleID());
+				ResultSet rs = pstmt.executeQuery();
+
+				// If no matching orders are found, return false
+				if (!rs.next()) {
+					return false;
+				}
+				// Retrieve the order ID of the first matching order
+				int orderID = rs.getInt(1);
+				rs.close();
+
+				// Get the current date
+				LocalDate today = LocalDate.now();
+
+				// Assign the copy only if the order is still waiting, another return of the
+				// same title may have taken it since it was read
+				pstmt = conn().prepareStatement(
+						"UPDATE orders SET copy_id = ?, arive_date = ? WHERE order_id = ? AND copy_id IS NULL;");
+				pstmt.setInt(1, copy.getCopyID());
+				pstmt.setDate(2, Date.valueOf(today), ILTimeZone);
+				pstmt.setInt(3, orderID);
+				if (pstmt.executeUpdate() == 0) {
+					continue; // Try the next waiting order
+				}
 
-			// If no matching orders are found, return false
-			if (!rs.next()) {
-				return false;
+				// Commit the transaction to persist the changes
+				commit();
+				return true;
 			}
-			// Retrieve the order ID of the first matching order
-			int orderID = rs.getInt(1);
+		} catch (SQLException e) {
+			// If an error occurs, rollback the transaction to maintain data integrity
+			rollback();
+			return false;
+		}
 
-			// Get the current date
-			LocalDate today = LocalDate.now();
+	}
 
-			// Prepare the SQL query to update the order with the copy ID and arrival date
-			pstmt = conn.prepareStatement("UPDATE orders SET copy_id = ?, arive_date = ? WHERE order_id = ?;");
+	/**
+	 * Assigns a book copy to an order and sets its arrival date, only if the order
+	 * still waits for a copy.
+	 *
+	 * @param orderID The ID of the order.
+	 * @param copy    The book copy that will be assigned to the order.
+	 * @return {@code true} if the order got the copy, {@code false} if it doesn't
+	 *         wait anymore, or {@code null} if an error occurs.
+	 */
+	public Boolean assignOrder(int orderID, BookCopy copy) {
+		try {
+			PreparedStatement pstmt = conn().prepareStatement(
+					"UPDATE orders SET copy_id = ?, arive_date = ? WHERE order_id = ? AND copy_id IS NULL;");
 			pstmt.setInt(1, copy.getCopyID());
-			pstmt.setDate(2, Date.valueOf(today), ILTimeZone);
+			pstmt.setDate(2, Date.valueOf(LocalDate.now()), ILTimeZone);
 			pstmt.setInt(3, orderID);
-			pstmt.execute();
-
-			// Commit the transaction to persist the changes
-			conn.commit();
-			return true;
+			boolean assigned = pstmt.executeUpdate() > 0;
+			commit();
+			return assigned;
 		} catch (SQLException e) {
-			// If an error occurs, rollback the transaction to maintain data integrity
 			rollback();
-			return false;
+			return null;
+		}
+	}
+
+	/**
+	 * Finds the place of a subscriber in the line of the waiting orders of a
+	 * title, with a single count of the waiting orders.
+	 *
+	 * @param titleID The ID of the title.
+	 * @param subID   The ID of the subscriber.
+	 * @return The place of the subscriber, 1 for the next order or 0 if they have
+	 *         no waiting order of the title, and the number of waiting orders, or
+	 *         null if an error occurs.
+	 */
+	public Integer[] getOrderPlace(int titleID, int subID) {
+		try {
+			// Count all the waiting orders, and the ones placed up to the subscriber's
+			PreparedStatement pstmt = conn().prepareStatement("SELECT COUNT(*), COUNT(CASE WHEN o.order_date < s.order_date "
+					+ "OR (o.order_date = s.order_date AND o.order_id <= s.order_id) THEN 1 END) FROM orders o "
+					+ "LEFT JOIN (SELECT order_id, order_date FROM orders WHERE title_id = ? AND subscriber_id = ? "
+					+ "AND copy_id IS NULL) s ON TRUE WHERE o.title_id = ? AND o.copy_id IS NULL;");
+			pstmt.setInt(1, titleID);
+			pstmt.setInt(2, subID);
+			pstmt.setInt(3, titleID);
+			ResultSet rs = pstmt.executeQuery();
+			rs.next();
+			return new Integer[] { rs.getInt(2), rs.getInt(1) };
+		} catch (SQLException e) {
+			return null; // Return null if an error occurs
 		}
+	}
 
+	/**
+	 * Reads the facts of an eligibility check with a single query of scalar
+	 * subqueries, each answered by an index, so the check costs the same however
+	 * many borrows and orders the subscriber has.
+	 *
+	 * @param subID   The ID of the subscriber.
+	 * @param titleID The ID of the title, 0 to take the title of the copy.
+	 * @param copyID  The ID of the copy, or 0 if the action has no copy.
+	 * @return The facts, or null if an error occurs.
+	 */
+	public Eligibility.Facts getEligibilityFacts(int subID, int titleID, int copyID) {
+		try {
+			PreparedStatement pstmt = conn().prepareStatement("SELECT p.title_id, "
+					+ "(SELECT subscriber_status FROM subscribers WHERE subscriber_id = p.sub_id), "
+					+ "(SELECT COUNT(*) FROM borrows b JOIN copies c ON c.copy_id = b.copy_id WHERE b.subscriber_id = p.sub_id "
+					+ "AND b.date_of_return IS NULL AND c.title_id = p.title_id), "
+					+ "(SELECT COUNT(*) FROM orders WHERE subscriber_id = p.sub_id AND title_id = p.title_id), "
+					+ "(SELECT MAX(copy_id) FROM orders WHERE subscriber_id = p.sub_id AND title_id = p.title_id), "
+					+ "(SELECT COUNT(*) FROM copies WHERE copy_id = p.copy_id), "
+					+ "(SELECT MAX(subscriber_id) FROM borrows WHERE copy_id = p.copy_id AND date_of_return IS NULL), "
+					+ "(SELECT MAX(due_date) FROM borrows WHERE copy_id = p.copy_id AND date_of_return IS NULL), "
+					+ "(SELECT MAX(subscriber_id) FROM orders WHERE copy_id = p.copy_id), "
+					+ "t.num_of_copies, t.num_of_orders, "
+					+ "(SELECT COUNT(*) FROM copies WHERE title_id = p.title_id AND is_borrowed = TRUE) "
+					+ "FROM (SELECT ? AS sub_id, ? AS copy_id, "
+					+ "COALESCE(NULLIF(?, 0), (SELECT title_id FROM copies WHERE copy_id = ?)) AS title_id) p "
+					+ "LEFT JOIN titles t ON t.title_id = p.title_id;");
+			pstmt.setInt(1, subID);
+			pstmt.setInt(2, copyID);
+			pstmt.setInt(3, titleID);
+			pstmt.setInt(4, copyID);
+			ResultSet rs = pstmt.executeQuery();
+			rs.next();
+			Eligibility.Facts facts = new Eligibility.Facts(subID, rs.getInt(1), copyID);
+			facts.status = rs.getString(2);
+			facts.titleBorrows = rs.getInt(3);
+			facts.titleOrders = rs.getInt(4);
+			facts.orderedCopy = rs.getObject(5) == null ? null : rs.getInt(5);
+			facts.copyFound = rs.getInt(6) > 0;
+			facts.copyBorrower = rs.getObject(7) == null ? null : rs.getInt(7);
+			Date due = rs.getDate(8, ILTimeZone);
+			facts.copyDueDate = due == null ? null : due.toLocalDate();
+			facts.copyOrderedBy = rs.getObject(9) == null ? null : rs.getInt(9);
+			facts.titleFound = rs.getObject(10) != null;
+			facts.numOfCopies = rs.getInt(10);
+			facts.numOfOrders = rs.getInt(11);
+			facts.borrowedCopies = rs.getInt(12);
+			return facts;
+		} catch (SQLException e) {
+			return null; // Return null if an error occurs
+		}
 	}
 
 	/**
@@ -1422,8 +2506,8 @@ public class BLibDBC {
 			boolean commit) throws SQLException {
 		try {
 			// Prepare the SQL query to insert a new command record
-			pstmt = conn.prepareStatement(
-					"INSERT INTO commands(command, arguments, time_of_execution, identifyer) VALUE(?,?,?,?)");
+			PreparedStatement pstmt = conn().prepareStatement(
+					"INSERT INTO commands(command, arguments, time_of_execution, identifyer) VALUES(?,?,?,?)");
 			pstmt.setString(1, command);
 			pstmt.setString(2, arguments);
 			pstmt.setTimestamp(3, Timestamp.valueOf(timeOfExe), ILTimeZone);
@@ -1432,7 +2516,7 @@ public class BLibDBC {
 
 			// If commit flag is true, commit the transaction
 			if (commit) {
-				conn.commit();
+				commit();
 			}
 			return true;
 
@@ -1507,14 +2591,14 @@ public class BLibDBC {
 	public Boolean cancelCommand(String command, String identifyer, boolean commit) throws SQLException {
 		try {
 			// Prepare the SQL query to delete the command from the database
-			pstmt = conn.prepareStatement("DELETE FROM commands WHERE command = ? AND identifyer = ?");
+			PreparedStatement pstmt = conn().prepareStatement("DELETE FROM commands WHERE command = ? AND identifyer = ?");
 			pstmt.setString(1, command);
 			pstmt.setString(2, identifyer);
 			pstmt.execute();
 
 			// If commit flag is true, commit the transaction
 			if (commit)
-				conn.commit();
+				commit();
 			return true;
 		} catch (Exception e) {
 			// If an error occurs and commit flag is true, perform rollback and return false
@@ -1548,17 +2632,17 @@ public class BLibDBC {
 
 			// Prepare and execute the SQL query to delete the order associated with the
 			// given copyID
-			pstmt = conn.prepareStatement("DELETE FROM orders WHERE copy_id = ?");
+			PreparedStatement pstmt = conn().prepareStatement("DELETE FROM orders WHERE copy_id = ?");
 			pstmt.setInt(1, copyID);
 			pstmt.execute();
 
 			// Prepare and execute the SQL query to decrease the number of orders for the
 			// associated book title
-			pstmt = conn.prepareStatement("UPDATE titles SET num_of_orders = num_of_orders-1 WHERE title_id = ?");
+			pstmt = conn().prepareStatement("UPDATE titles SET num_of_orders = num_of_orders-1 WHERE title_id = ?");
 			pstmt.setInt(1, copy.getTitle().getTitleID());
 			pstmt.execute();
 
-			conn.commit();
+			commit();
 			return true;
 		} catch (Exception e) {
 			// Rollback the transaction in case of any error and return false
@@ -1585,7 +2669,7 @@ public class BLibDBC {
 
 			// Prepare and execute a query to get the latest due date for borrowed copies of
 			// the title
-			pstmt = conn.prepareStatement(
+			PreparedStatement pstmt = conn().prepareStatement(
 					"SELECT due_date FROM (SELECT copy_id FROM copies WHERE title_id = ? AND is_borrowed = TRUE) AS a NATURAL JOIN borrows ORDER BY due_date DESC;");
 			pstmt.setInt(1, title.getTitleID());
 			ResultSet rs = pstmt.executeQuery();
@@ -1609,6 +2693,9 @@ public class BLibDBC {
 	 * activities. It returns the number of active/frozen subscribers for each day
 	 * in the month.
 	 * 
+	 * The archived years are read only if the history table has no status
+	 * activity from before the month.
+	 * 
 	 * @param date The reference date (any date within the target month).
 	 * @return A map where keys are the dates in the month, and values are arrays
 	 *         containing two integers: [0] - number of active subscribers, [1] -
@@ -1622,7 +2709,7 @@ public class BLibDBC {
 			Map<LocalDate, Integer[]> ret = new HashMap<>();
 
 			// Prepare the SQL query to retrieve the subscriber activity data
-			pstmt = conn.prepareStatement("SELECT h.activity_date, h.activity_description " + "FROM history h "
+			PreparedStatement pstmt = conn().prepareStatement("SELECT h.activity_date, h.activity_description " + "FROM history h "
 					+ "INNER JOIN (" + "SELECT activity_date, MAX(item_id) AS item_id " + "FROM history "
 					+ "WHERE activity_date <= ? AND activity_type IN ('new subscriber', 'freeze', 'unfreeze') "
 					+ "GROUP BY activity_date) subquery "
@@ -1632,37 +2719,70 @@ public class BLibDBC {
 			pstmt.setDate(1, Date.valueOf(date), ILTimeZone); // Set the provided date as parameter
 			ResultSet rs = pstmt.executeQuery();
 
-			Integer[] lst = new Integer[2];// Array to hold subscriber counts
-
+			LocalDate oldest = date.plusDays(1); // The oldest date read so far
 			while (rs.next()) {
-				lst[0] = Integer.parseInt(rs.getString(2).split(";")[1]); // active count
-				lst[1] = Integer.parseInt(rs.getString(2).split(";")[2]); // frozen count
-				ret.put(rs.getDate(1).toLocalDate(), lst.clone());
+				oldest = rs.getDate(1).toLocalDate();
 				// If the result is from a different month, stop processing
-				if (!rs.getDate(1).toLocalDate().getMonth().equals(curMonth)) {
-					break;
+				if (addSubscribersStatus(ret, oldest, rs.getString(2), curMonth)) {
+					return ret;
+				}
+			}
+
+			// The table ran out before the month started, continue with the archived years
+			for (int year : HistoryArchive.getInstance().getArchivedYears(oldest.getYear())) {
+				for (Activity snapshot : HistoryArchive.getInstance().getStatusSnapshots(year)) {
+					if (snapshot.getDate().isBefore(oldest)
+							&& addSubscribersStatus(ret, snapshot.getDate(), snapshot.getDescription(), curMonth)) {
+						return ret;
+					}
 				}
 			}
 			return ret; // Return the map containing subscriber statuses
-		} catch (NumberFormatException | SQLException e) {
+		} catch (NumberFormatException | SQLException | IOException e) {
 			return null; // Return null if any exception occurs
 		}
 	}
 
 	/**
-	 * Counts the number of new subscribers in a given month.
+	 * Adds the subscriber counts of one day to the subscribers status of a month.
+	 * 
+	 * @param status      The subscribers status of the month.
+	 * @param day         The day of the status activity.
+	 * @param description The description of the status activity, that ends with
+	 *                    the active and frozen subscriber counts.
+	 * @param curMonth    The month of the status.
+	 * @return {@code true} if the day is from a different month, so no older days
+	 *         are needed.
+	 */
+	private boolean addSubscribersStatus(Map<LocalDate, Integer[]> status, LocalDate day, String description,
+			Month curMonth) {
+		Integer[] lst = new Integer[2];// Array to hold subscriber counts
+		lst[0] = Integer.parseInt(description.split(";")[1]); // active count
+		lst[1] = Integer.parseInt(description.split(";")[2]); // frozen count
+		status.put(day, lst);
+		return !day.getMonth().equals(curMonth);
+	}
+
+	/**
+	 * Counts the number of new subscribers in a given month. Months of archived
+	 * years are counted from the history archive.
 	 * 
 	 * @param date The reference date (any date within the target month).
 	 * @return The number of new subscribers for the specified month.
 	 */
 	public Integer SumNewSubscriber(LocalDate date) {
-		// Format the month and year for the query
-		String dateWildCard = "%04d-%02d-%%".formatted(date.getYear(), date.getMonth().getValue());
 		try {
-			// Prepare the SQL query to count new subscribers
-			pstmt = conn.prepareStatement(
-					"SELECT count(*) FROM history where activity_date like ? and activity_type = 'new subscriber';");
-			pstmt.setString(1, dateWildCard);
+			// Count archived months from the archive file of the year
+			if (HistoryArchive.getInstance().isArchived(date.getYear())) {
+				return HistoryArchive.getInstance().countActivities(date, "new subscriber");
+			}
+
+			// Prepare the SQL query to count new subscribers with a date range of the month
+			PreparedStatement pstmt = conn().prepareStatement(
+					"SELECT count(*) FROM history where activity_date >= ? and activity_date < ? and activity_type = 'new subscriber';");
+			LocalDate firstDay = date.withDayOfMonth(1);
+			pstmt.setDate(1, Date.valueOf(firstDay), ILTimeZone);
+			pstmt.setDate(2, Date.valueOf(firstDay.plusMonths(1)), ILTimeZone);
 			ResultSet rs = pstmt.executeQuery();
 			
 			// Return the count of new subscribers
@@ -1671,12 +2791,83 @@ public class BLibDBC {
 			}
 			return 0; // Return 0 if no new subscribers are found
 
-		} catch (SQLException e) {
-			return null; // Return null in case of any SQL exceptions
+		} catch (SQLException | IOException e) {
+			return null; // Return null in case of any SQL or archive exceptions
 		}
 
 	}
 
+	/**
+	 * Moves the activities of the cold years out of the history table into the
+	 * history archive, oldest year first.
+	 * 
+	 * Every cold year is written into its archive file first and only then
+	 * deleted from the table, in small chunks so the table is not locked for
+	 * long. If an archival is stopped in the middle, the next run finishes the
+	 * deletion of the year that already has an archive file.
+	 * 
+	 * @return The number of archived activities, or {@code null} if an error
+	 *         occurs.
+	 */
+	public Integer archiveColdHistory() {
+		HistoryArchive archive = HistoryArchive.getInstance();
+		int archived = 0;
+		try {
+			// Find the oldest year in the history table
+			PreparedStatement pstmt = conn().prepareStatement("SELECT MIN(activity_date) FROM history;");
+			ResultSet rs = pstmt.executeQuery();
+			if (!rs.next() || rs.getDate(1) == null) {
+				return 0; // The history table is empty
+			}
+			int year = rs.getDate(1, ILTimeZone).toLocalDate().getYear();
+
+			for (; archive.isCold(year); year++) {
+				Date from = Date.valueOf(LocalDate.of(year, 1, 1));
+				Date to = Date.valueOf(LocalDate.of(year + 1, 1, 1));
+
+				// Write the archive file of the year if it doesn't exist yet, streamed on a
+				// connection of its own so the commands on the shared connection go on
+				if (!archive.isArchived(year)) {
+					HistoryArchive.Writer writer = archive.createWriter(year);
+					Connection reader = takeConnection();
+					try {
+						pstmt = reader.prepareStatement("SELECT item_id, subscriber_id, activity_type, "
+								+ "activity_description, activity_date FROM history WHERE activity_date >= ? "
+								+ "AND activity_date < ? ORDER BY activity_date, item_id;");
+						pstmt.setDate(1, from, ILTimeZone);
+						pstmt.setDate(2, to, ILTimeZone);
+						pstmt.setFetchSize(Integer.MIN_VALUE); // Stream the rows instead of loading the whole year
+						rs = pstmt.executeQuery();
+						while (rs.next()) {
+							writer.add(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4),
+									rs.getDate(5, ILTimeZone).toLocalDate());
+						}
+						rs.close();
+					} finally {
+						releaseReader(reader);
+					}
+					archived += writer.finish();
+					System.out.println("history of " + year + " archived");
+				}
+
+				// Delete the archived year from the table in chunks
+				pstmt = conn().prepareStatement(
+						"DELETE FROM history WHERE activity_date >= ? AND activity_date < ? LIMIT 5000;");
+				pstmt.setDate(1, from, ILTimeZone);
+				pstmt.setDate(2, to, ILTimeZone);
+				while (pstmt.executeUpdate() > 0) {
+					commit();
+				}
+				commit();
+			}
+			return archived;
+		} catch (SQLException | IOException e) {
+			System.out.println("history archival failed: " + e.getMessage());
+			rollback();
+			return null;
+		}
+	}
+
 	/**
 	 * Saves a graph's data (in binary format) to the database.
 	 * 
@@ -1689,8 +2880,8 @@ public class BLibDBC {
 
 		try {
 			// Prepare the SQL query to insert the graph data into the database
-			pstmt = conn.prepareStatement(
-					"INSERT INTO graphs (graph_type, graph_month, graph_year, graph) VALUE ( ?, ?, ?, ?);");
+			PreparedStatement pstmt = conn().prepareStatement(
+					"INSERT INTO graphs (graph_type, graph_month, graph_year, graph) VALUES ( ?, ?, ?, ?);");
 			pstmt.setString(1, graph_type);
 			pstmt.setInt(2, day.getMonthValue());
 			pstmt.setInt(3, day.getYear());
@@ -1700,7 +2891,7 @@ public class BLibDBC {
 			pstmt.setBlob(4, in);
 
 			pstmt.execute(); // Execute the insert query
-			conn.commit(); // Commit the transaction
+			commit(); // Commit the transaction
 			return true; // Return true if successful
 
 		} catch (SQLException e) {
@@ -1723,7 +2914,7 @@ public class BLibDBC {
 	public DataInputStream getGraph(int year, int month, String graphType) {
 		try {
 			// Prepare the SQL query to retrieve the graph data
-			pstmt = conn.prepareStatement(
+			PreparedStatement pstmt = conn().prepareStatement(
 					"SELECT graph FROM graphs WHERE graph_type = ? AND graph_month = ? AND graph_year = ?;");
 			pstmt.setString(1, graphType);
 			pstmt.setInt(2, month);
@@ -1758,7 +2949,7 @@ public class BLibDBC {
 			Map<String, Double[]> ret = new HashMap<>();
 			// Prepare the SQL query to calculate average borrow time and late return
 			// percentage by genre
-			pstmt = conn.prepareStatement(
+			PreparedStatement pstmt = conn().prepareStatement(
 					"SELECT genre, AVG(DATEDIFF(date_of_return, date_of_borrow)), SUM(CASE WHEN date_of_return > due_date THEN 1 ELSE 0 END)/COUNT(*)*100 FROM (titles NATURAL JOIN copies) NATURAL JOIN borrows WHERE date_of_return LIKE ? GROUP BY genre;");
 			pstmt.setString(1, dateWildCard);
 			ResultSet rs = pstmt.executeQuery();
@@ -1787,7 +2978,7 @@ public class BLibDBC {
 		String dateWildCard = "%04d-%02d-%%".formatted(date.getYear(), date.getMonth().getValue());
 		try {
 			// Prepare the SQL query to calculate the average borrow time
-			pstmt = conn.prepareStatement(
+			PreparedStatement pstmt = conn().prepareStatement(
 					"SELECT AVG(DATEDIFF(date_of_return, date_of_borrow)) FROM (titles NATURAL JOIN copies) NATURAL JOIN borrows WHERE date_of_return LIKE ?;");
 			pstmt.setString(1, dateWildCard);
 			ResultSet rs = pstmt.executeQuery();
@@ -5,11 +5,16 @@ import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.InstanceNotFoundException;
 
@@ -37,6 +42,17 @@ public class BLibServer extends AbstractServer {
 	// Instance of ReportGenerator for generating reports
 	private ReportGenerator reportGenerator;
 
+	// The maximal number of history activities sent in one page
+	private static final int MAX_HISTORY_PAGE = 200;
+
+	// The maximal number of copies of a batch borrow or return, or of subscribers of
+	// a bulk registration, written in one transaction
+	private static final int MAX_BATCH_CHUNK = 100;
+
+	// Commands that run in a unit of work, one connection and one commit for the
+	// whole command
+	private static final Set<String> UNIT_COMMANDS = Set.of("createBorrow", "return", "extend", "order");
+
 	/**
 	 * Constructs a new BLibServer object, initializes the server, and starts
 	 * listening for client connections on the specified port. It also initializes
@@ -50,17 +66,48 @@ public class BLibServer extends AbstractServer {
 		super(port); // Call the superclass constructor to initialize the server
 		listen(); // Start listening for client connections
 		reportGenerator = new ReportGenerator();
+		scheduleHistoryArchival(LocalDateTime.now());
+		scheduleOverdueSweep(LocalDateTime.now());
 		ServerTimer.start(this);
+		BLibServerMonitor.getInstance().register(this); // Expose the runtime state through JMX
+		MetricsHttpServer.startIfEnabled(); // Serve /metrics if blib.metricsPort is set
+	}
+
+	/**
+	 * Schedules the next run of the history archival job, replacing the one that
+	 * is already scheduled.
+	 *
+	 * @param time the time of the next run
+	 */
+	private void scheduleHistoryArchival(LocalDateTime time) {
+		LibraryStorage.getInstance().cancelCommand("archiveHistory", "archiveHistory");
+		LibraryStorage.getInstance().createCommand("archiveHistory", "", time, "archiveHistory");
 	}
 
 	/**
-	 * Establishes a connection to the database using the provided password.
+	 * Schedules the next run of the overdue sweep, replacing the one that is
+	 * already scheduled.
+	 *
+	 * @param time the time of the next run
+	 */
+	private void scheduleOverdueSweep(LocalDateTime time) {
+		LibraryStorage.getInstance().cancelCommand("overdueSweep", "overdueSweep");
+		LibraryStorage.getInstance().createCommand("overdueSweep", "", time, "overdueSweep");
+	}
+
+	/**
+	 * Establishes a connection to the database using the provided password. The
+	 * in-memory storage (-Dblib.storage=memory) ignores the password.
 	 *
 	 * @param password the password required for the database connection
 	 * @return true if the connection to the database is successful, false otherwise
 	 */
 	public static boolean connect(String password) {
-		return BLibDBC.getInstance().connect(password); // Call the connect method from the BLibDBC class
+		// Connect the storage of the library, the database storage also migrates its schema
+		if (!LibraryStorage.getInstance().connect(password))
+			return false;
+		LibraryStorage.getInstance().checkQueryPlans(); // Report statements that still scan whole tables
+		return true;
 	}
 
 	/**
@@ -77,6 +124,17 @@ public class BLibServer extends AbstractServer {
 				new String[] { client.getInetAddress().getHostAddress(), client.getInetAddress().getHostName() });
 	}
 
+	/**
+	 * This method is called when a client disconnects from the server. It forgets
+	 * the lock of the writes to the client.
+	 *
+	 * @param client the connection object representing the disconnected client
+	 */
+	@Override
+	protected synchronized void clientDisconnected(ConnectionToClient client) {
+		CacheInvalidator.getInstance().forget(client);
+	}
+
 	/**
 	 * Handles any exceptions that occur during communication with a client. This
 	 * method ensures that the client connection is closed if an exception is
@@ -87,6 +145,7 @@ public class BLibServer extends AbstractServer {
 	 */
 	@Override
 	protected synchronized void clientException(ConnectionToClient client, Throwable exception) {
+		CacheInvalidator.getInstance().forget(client);
 		try {
 			client.close(); // Close the client connection in case of an exception
 		} catch (IOException e) {
@@ -121,23 +180,57 @@ public class BLibServer extends AbstractServer {
 	 * @param client the client connection object. It represents the client that
 	 *               sent the message, enabling communication with the client.
 	 */
-	@SuppressWarnings("unchecked") // Suppress warnings related to type casting
 	@Override
 	protected void handleMessageFromClient(Object msg, ConnectionToClient client) {
+		String command = msg instanceof Message ? ((Message) msg).getCommand() : "unknown";
+		long start = BLibServerMonitor.getInstance().requestStarted();
+		boolean success = false;
+		// No cache invalidation is written to the client while its command is handled
+		ReentrantLock sendLock = CacheInvalidator.getInstance().sendLock(client);
+		sendLock.lock();
+		try {
+			dispatchMessage(msg, client);
+			success = true;
+		} finally {
+			sendLock.unlock();
+			// Record the request's latency for the JMX statistics
+			BLibServerMonitor.getInstance().requestFinished(command, start, success);
+		}
+	}
+
+	/**
+	 * Dispatches a client message to the handler of its command and sends the
+	 * response to the client.
+	 * 
+	 * @param msg    the message received from the client
+	 * @param client the client that sent the message
+	 */
+	@SuppressWarnings("unchecked") // Suppress warnings related to type casting
+	private void dispatchMessage(Object msg, ConnectionToClient client) {
 		System.out.println("receive message:" + msg); // Log the received message
 		LocalDate today = LocalDate.now(); // Get today's date
 		LocalDateTime now = LocalDateTime.now(); // Get current date and time
 		String err; // Variable to store error message if any
 		if (msg instanceof Message) { // If the message is of type Message
 			List<Object> args = ((Message) msg).getArguments(); // Retrieve arguments from the message
+			List<Integer> titles = new ArrayList<>();
+			List<Integer> copies = new ArrayList<>();
+			List<Integer> subscribers = new ArrayList<>();
+			UnitOfWork unit = null;
+			LockManager.Locks locks = null;
 			try {
+				// Load every entity once and commit once, the loads of the locks included
+				if (UNIT_COMMANDS.contains(((Message) msg).getCommand()))
+					unit = UnitOfWork.begin();
+				// Serialize the commands on the same titles and subscribers
+				locks = lockFor((Message) msg, titles, copies, subscribers);
 				Object ret; // Variable to store the result of database operations
 				// Switch-case to handle different types of commands
 				switch (((Message) msg).getCommand()) {
 
 				// Handle login request
 				case "login":
-					ret = BLibDBC.getInstance().login((Integer) args.get(0), (String) args.get(1)); // Perform login
+					ret = LibraryStorage.getInstance().login((Integer) args.get(0), (String) args.get(1)); // Perform login
 																									// check in database
 					if (ret != null) { // If login is successful
 						client.sendToClient(new Message("loginSuccess", (String) ret)); // Send success message with
@@ -149,7 +242,7 @@ public class BLibServer extends AbstractServer {
 
 				// Handle getSubscriber request
 				case "getSubscriber":
-					ret = BLibDBC.getInstance().getSubscriberByID((Integer) args.get(0)); // Fetch subscriber details
+					ret = LibraryStorage.getInstance().getSubscriberByID((Integer) args.get(0)); // Fetch subscriber details
 																							// from the
 					if (ret != null) { // If subscriber found
 						client.sendToClient(new Message("subscriberFound", (Subscriber) ret)); // Send subscriber
@@ -162,11 +255,13 @@ public class BLibServer extends AbstractServer {
 
 				// Handle updateSubscriber request
 				case "updateSubscriber":
-					ret = BLibDBC.getInstance().updateSubscriber((Subscriber) args.get(0), (String) args.get(1)); // Update
+					ret = LibraryStorage.getInstance().updateSubscriber((Subscriber) args.get(0), (String) args.get(1)); // Update
 					// in the database
 					// database
 					// If update is successful
 					if (((Boolean) ret) == true) { // If update is successful
+						CacheInvalidator.getInstance().changed(this, List.of(), List.of(),
+								List.of(((Subscriber) args.get(0)).getId()));
 						client.sendToClient(new Message("subscriberUpdated")); // Send success message
 					} else {
 						client.sendToClient(new Message("subscriberFailedUpdated")); // Send failure message if update
@@ -176,7 +271,7 @@ public class BLibServer extends AbstractServer {
 
 				// Handle search for book titles by keyword
 				case "getTitlesByKeyword":
-					ret = BLibDBC.getInstance().getTitlesByKeyword((String) args.get(0));// Search for book titles by
+					ret = LibraryStorage.getInstance().getTitlesByKeyword((String) args.get(0));// Search for book titles by
 																							// keyword
 					if (ret != null) { // If search is successful
 						client.sendToClient(new Message("searchResult", (Set<BookTitle>) ret)); // Send search results
@@ -187,7 +282,7 @@ public class BLibServer extends AbstractServer {
 
 				// Handle search for book copies by title
 				case "getCopiesByTitle":
-					ret = BLibDBC.getInstance().getCopiesByTitle((BookTitle) args.get(0)); // Search for book copies by
+					ret = LibraryStorage.getInstance().getCopiesByTitle((BookTitle) args.get(0)); // Search for book copies by
 																							// title
 					if (ret != null) { // If search is successful
 						client.sendToClient(new Message("searchResult", (Set<BookCopy>) ret)); // Send search results
@@ -202,7 +297,7 @@ public class BLibServer extends AbstractServer {
 					String pass = generatePassword(4);
 
 					// Register the new subscriber in the database and get the result
-					ret = BLibDBC.getInstance().registerSubscriber((Subscriber) args.get(0), pass);
+					ret = LibraryStorage.getInstance().registerSubscriber((Subscriber) args.get(0), pass);
 
 					// Send success message with the generated password if registration is
 					// successful
@@ -214,49 +309,71 @@ public class BLibServer extends AbstractServer {
 					}
 					break;
 
+				// Handle registering a list of new subscribers, such as the students of a semester
+				case "registerSubscribers":
+					client.sendToClient(new Message("success", registerSubscribers((List<Subscriber>) args.get(0))));
+					break;
+
+				// Start exporting tables to files on the server, the reply doesn't wait for the export
+				case "exportData":
+					ret = DataExporter.getInstance().start((String) args.get(0), (String) args.get(1),
+							(Boolean) args.get(2));
+					if (((String) ret).startsWith("failed: "))
+						client.sendToClient(new Message("failed", ((String) ret).substring("failed: ".length())));
+					else
+						client.sendToClient(new Message("success", ret));
+					break;
+
 				// Handle creating a new borrow request
 				case "createBorrow":
-					// Retrieve the order and subscriber data from the database
-					Order o = BLibDBC.getInstance().getOrderByCopy((Integer) args.get(1));
-					Subscriber sub = BLibDBC.getInstance().getSubscriberByID((Integer) args.get(0));
-					BookCopy copy = BLibDBC.getInstance().getCopyByID((Integer) args.get(1));
-					// Check if the subscriber can borrow the book copy
-					err = canBorrow(sub, copy);
+					// Read the subscriber, the copy and its title together and check them
+					Eligibility.Facts facts = LibraryStorage.getInstance().getEligibilityFacts((Integer) args.get(0), 0,
+							(Integer) args.get(1));
+					if (facts == null) {
+						client.sendToClient(new Message("failed", "DB error"));
+						break;
+					}
+					err = reasons(Eligibility.canBorrow(facts));
 					if (err != null) {
 						// Send failure message if borrowing conditions are not met
 						client.sendToClient(new Message("failed", err));
 						break;
 					}
 
-					if (o != null) {
-						if (o.getSubscriber().getId() != (Integer) args.get(0)) {
-							// If the copy is already ordered by another subscriber, send failure message
-							client.sendToClient(new Message("failed", "this copy is ordered")); // Send success message
-							break;
-						} else {
-							
-							// Cancel the order if the current subscriber is the one who ordered it
-							BLibDBC.getInstance().cancelCommand("cancelOrder", "%d".formatted((Integer) args.get(1)));// Canceling
-																														// the
-							execute(new Message("cancelOrder", "%d".formatted((Integer) args.get(1)))); // Canceling the order
-						}
+					if (facts.copyOrderedBy != null) {
+						// Cancel the order, the copy was assigned to the current subscriber's order
+						LibraryStorage.getInstance().cancelCommand("cancelOrder", "%d".formatted((Integer) args.get(1)));// Canceling
+																													// the
+						execute(new Message("cancelOrder", "%d".formatted((Integer) args.get(1)))); // Canceling the order
 					}
 
 					// Attempt to create the borrow record in the database
-					ret = BLibDBC.getInstance().createBorrow((Integer) args.get(0), (Integer) args.get(1)); // Create a
+					ret = LibraryStorage.getInstance().createBorrow((Integer) args.get(0), (Integer) args.get(1)); // Create a
 																											// borrow
-					if ((Boolean) ret == true) {
+					if ((Boolean) ret == true && commitUnit()) {
 						client.sendToClient(new Message("success")); // Send success message
+					} else if ((Boolean) ret == true) {
+						client.sendToClient(new Message("failed", "DB error"));
+					} else if (LibraryStorage.getInstance()
+							.getCopyActiveBorrow(LibraryStorage.getInstance().getCopyByID((Integer) args.get(1))) != null) {
+						// Another borrow took the copy since it was checked
+						client.sendToClient(new Message("failed", "The book is already borrowed"));
 					} else {
 						client.sendToClient(new Message("failed", "DB error")); // Send failure message if borrow
 																				// creation fails
 					}
 					break;
 
+				// Handle borrowing a stack of scanned copies for a subscriber
+				case "createBorrows":
+					client.sendToClient(
+							new Message("success", createBorrows((Integer) args.get(0), (List<Integer>) args.get(1))));
+					break;
+
 				// Handle fetching active borrow for a book copy
 				case "getCopyActiveBorrow":
 					// Retrieve the active borrow record for the given book copy
-					ret = BLibDBC.getInstance().getCopyActiveBorrow((BookCopy) args.get(0)); // Retrieve active borrow
+					ret = LibraryStorage.getInstance().getCopyActiveBorrow((BookCopy) args.get(0)); // Retrieve active borrow
 																								// for a book copy
 					if (ret != null) {
 						// Send the active borrow details to the client if found
@@ -270,25 +387,18 @@ public class BLibServer extends AbstractServer {
 				// Handle extend borrow duration request
 				case "extend":
 
-					if (args.get(2).equals("subscriber")) {
-						// Check if the borrow can be extended for a subscriber
-						err = canExtend((Borrow) args.get(0));
-						if (err != null) { // Check if the borrow can be extended
-							client.sendToClient(new Message("failed", err));
-							break;
-						}
-					}
-
-					// Check if the title is ordered by another subscriber and cannot be extended
-					if (BLibDBC.getInstance().getTitleAvailability(((Borrow) args.get(0)).getBook().getTitle()) < 0) {
-						client.sendToClient(new Message("failed", "this title is ordered")); // If no extension allowed,
+					// Check the borrow as it is now, not as the client last saw it. A librarian
+					// isn't limited by the status of the subscriber or the dates
+					err = canExtend((Borrow) args.get(0), args.get(2).equals("subscriber"));
+					if (err != null) {
+						client.sendToClient(new Message("failed", err));
 						break;
 					}
 
 					// Attempt to extend the borrow duration in the database
-					ret = BLibDBC.getInstance().extendDuration((Borrow) args.get(0), (Integer) args.get(1),
+					ret = LibraryStorage.getInstance().extendDuration((Borrow) args.get(0), (Integer) args.get(1),
 							(String) args.get(2)); // Extend the borrow duration
-					if ((Boolean) ret == true) {
+					if ((Boolean) ret == true && commitUnit()) {
 						client.sendToClient(new Message("success")); // Send success message
 					} else {
 						client.sendToClient(new Message("failed", "DB error")); // Send failure message
@@ -299,73 +409,51 @@ public class BLibServer extends AbstractServer {
 				// Handle return book request
 				case "return":
 					// Retrieve the active borrow for the book copy being returned
-					Borrow borrow = BLibDBC.getInstance().getCopyActiveBorrow((BookCopy) args.get(0)); // Retrieve //
+					Borrow borrow = LibraryStorage.getInstance().getCopyActiveBorrow((BookCopy) args.get(0)); // Retrieve //
 																										// active borrow
-					// Check if the title is ordered and if any actions need to be taken
-					if (BLibDBC.getInstance().isTitleOrdered(((BookCopy) args.get(0)).getTitle().getTitleID())) {
-
-						if (BLibDBC.getInstance().updateOrder((BookCopy) args.get(0))) {
-
-							Order order = BLibDBC.getInstance().getOrderByCopy(((BookCopy) args.get(0)).getCopyID());
-
-							// Send email notification to the subscriber when their ordered book arrives
-							MessageController.getInstance().sendEmail(order.getSubscriber(), "Your order has arrived!",
-									"Dear %s,\n\n".formatted(order.getSubscriber().getName())
-											+ "Your book order of \"%s\" has arrived and is ready for pickup.\n"
-													.formatted(((BookCopy) args.get(0)).getTitle())
-											+ "Please collect it within the next two days, or the order will be canceled.\n\n"
-											+ "Best regards, BLib library");
-
-							// Schedule cancellation of the order if not picked up in two days
-							BLibDBC.getInstance().createCommand("cancelOrder",
-									"%d".formatted(((BookCopy) args.get(0)).getCopyID()), now.plusDays(2),
-									"%d".formatted(((BookCopy) args.get(0)).getCopyID()));
-						}
-					}
 
 					// If no borrow record is found, send a failure message
 					if (borrow == null) {
 						client.sendToClient(new Message("failed", "No such borrowed book")); // Send failure message if
 						break;
 					}
+					// Close the borrow first. Of two returns of the same copy at the same time only
+					// one frees it, the other stops here before assigning the copy or freezing
+					boolean late = borrow.getDueDate().compareTo(today) < 0;
+					if (!LibraryStorage.getInstance().returnBook((BookCopy) args.get(0), late)) {
+						client.sendToClient(new Message("failed", "No such borrowed book"));
+						break;
+					}
+					// Check if the title is ordered and if any actions need to be taken
+					assignToOrder((BookCopy) args.get(0), now);
+
 					// If the due date is passed, process as late return and potentially freeze the
 					// subscriber
-					if (borrow.getDueDate().compareTo(today) < 0) {
-						BLibDBC.getInstance().returnBook((BookCopy) args.get(0), true);
-
+					if (late) {
 						// Freeze the subscriber if the book is significantly late
-						if (borrow.getDueDate().plusWeeks(1).compareTo(today) <= 0) {
-							if (!borrow.getSubscriber().getStatus().equalsIgnoreCase("frozen")) {
-								BLibDBC.getInstance().freezeSubscriber(borrow.getSubscriber().getId());
-								client.sendToClient(new Message("success", "Freezing account")); // Send freeze success
-																									// message
-							} else {
-								// Update freeze status if the account is already frozen
-								BLibDBC.getInstance().cancelCommand("unfreeze",
-										"%s".formatted(borrow.getSubscriber().getId()));
-								BLibDBC.getInstance().createCommand("unfreeze",
-										"%s".formatted(borrow.getSubscriber().getId()), now.plusMonths(1),
-										"%s".formatted(borrow.getSubscriber().getId()));
-								client.sendToClient(new Message("success", "Freeze updated"));
-							}
-						} else {
-							client.sendToClient(new Message("success", "The return was late")); // Send late return
-																								// success message
-						}
+						ret = lateReturn(borrow, borrow.getSubscriber().getStatus().equalsIgnoreCase("frozen"), today, now);
 					} else {
-						BLibDBC.getInstance().cancelCommand("sendMessage",
+						LibraryStorage.getInstance().cancelCommand("sendMessage",
 								"%s;%s".formatted(borrow.getSubscriber().getId(), borrow.getBook().getCopyID()));
-						BLibDBC.getInstance().returnBook((BookCopy) args.get(0), false);
-						client.sendToClient(new Message("success", "The return was successful")); // Send success
-																									// message for
-																									// regular return
+						ret = "The return was successful"; // Success message for regular return
+					}
+					if (commitUnit()) {
+						client.sendToClient(new Message("success", ret)); // Send success message
+					} else {
+						client.sendToClient(new Message("failed", "DB error"));
 					}
 					break;
 
-				// Handle retrieving subscriber history
+				// Handle returning a stack of scanned copies
+				case "returnBooks":
+					client.sendToClient(new Message("success", returnBooks((List<Integer>) args.get(0))));
+					break;
+
+				// Handle retrieving a page of subscriber history
 				case "history":
-					// Retrieve subscriber history from the database
-					ret = BLibDBC.getInstance().getSubscriberHistory((Integer) args.get(0));
+					// Retrieve the page of subscriber history after the given (date, item ID) cursor
+					ret = LibraryStorage.getInstance().getSubscriberHistory((Integer) args.get(0), (LocalDate) args.get(1),
+							(Integer) args.get(2), Math.min((Integer) args.get(3), MAX_HISTORY_PAGE));
 					if (ret != null) {
 						// Send the history data to the client if found
 						client.sendToClient(new Message("historyRetrieved", (List<Activity>) ret));
@@ -384,9 +472,9 @@ public class BLibServer extends AbstractServer {
 					}
 
 					// Attempt to create the book order in the database
-					ret = BLibDBC.getInstance().orderBook(((Subscriber) args.get(0)).getId(),
+					ret = LibraryStorage.getInstance().orderBook(((Subscriber) args.get(0)).getId(),
 							((BookTitle) args.get(1)).getTitleID());
-					if (ret != null) {
+					if (ret != null && commitUnit()) {
 						// Send success message if the order is created
 						client.sendToClient(new Message("success"));
 					} else {
@@ -395,10 +483,20 @@ public class BLibServer extends AbstractServer {
 					}
 					break;
 
+				// Handle retrieving the place of a subscriber in the line of a title's orders
+				case "getOrderPlace":
+					ret = LibraryStorage.getInstance().getOrderPlace((Integer) args.get(1), (Integer) args.get(0));
+					if (ret != null) {
+						client.sendToClient(new Message("success", ret));
+					} else {
+						client.sendToClient(new Message("failed", "DB error"));
+					}
+					break;
+
 				// Handle retrieving subscriber's active borrows
 				case "getSubscriberBorrows":
 					// Retrieve the active borrows for a subscriber
-					ret = BLibDBC.getInstance().getSubscriberActiveBorrows((Subscriber) args.get(0));
+					ret = LibraryStorage.getInstance().getSubscriberActiveBorrows((Subscriber) args.get(0));
 					if (ret != null) {
 						// Send active borrows to the client
 						client.sendToClient(new Message("success", (List<Borrow>) ret));
@@ -411,7 +509,7 @@ public class BLibServer extends AbstractServer {
 				// Handle retrieving all subscribers
 				case "getAllSubscribers":
 					// Retrieve all subscribers from the database
-					ret = BLibDBC.getInstance().getAllSubscribers();
+					ret = LibraryStorage.getInstance().getAllSubscribers();
 					if (ret != null) {
 						// Send the list of subscribers to the client
 						client.sendToClient(new Message("success", (List<Subscriber>) ret));
@@ -424,7 +522,7 @@ public class BLibServer extends AbstractServer {
 				// Handle retrieving subscriber's active orders
 				case "getSubscriberOrders":
 					// Retrieve the active orders for a subscriber
-					ret = BLibDBC.getInstance().getSubscriberActiveOrders((Subscriber) args.get(0));
+					ret = LibraryStorage.getInstance().getSubscriberActiveOrders((Subscriber) args.get(0));
 					if (ret != null) {
 						// Send the active orders to the client
 						client.sendToClient(new Message("success", (List<Order>) ret));
@@ -434,23 +532,36 @@ public class BLibServer extends AbstractServer {
 					}
 					break;
 
-				// Handle retrieving librarian messages
+				// Handle retrieving the librarian's new messages
 				case "getLibrarianMessages":
-					// Retrieve messages for the librarian
-					ret = BLibDBC.getInstance().getLibrarianMessages();
+					// Retrieve the messages after the given message ID that the librarian has not read
+					ret = LibraryStorage.getInstance().getLibrarianMessages((String) args.get(0), (Integer) args.get(1));
 					if (ret != null) {
 						// Send librarian messages to the client
-						client.sendToClient(new Message("success", (List<String>) ret));
+						client.sendToClient(new Message("success", (Map<Integer, String>) ret));
 					} else {
-						// Send failure message if no messages are found
+						// Send failure message if the messages could not be retrieved
+						client.sendToClient(new Message("failed"));
+					}
+					break;
+
+				// Handle counting the librarian's unread messages
+				case "countLibrarianMessages":
+					// Count the messages the librarian has not read
+					ret = LibraryStorage.getInstance().countLibrarianMessages((String) args.get(0));
+					if (ret != null) {
+						// Send the number of unread messages to the client
+						client.sendToClient(new Message("success", (Integer) ret));
+					} else {
+						// Send failure message if the messages could not be counted
 						client.sendToClient(new Message("failed"));
 					}
 					break;
 
 				// Handle clearing librarian messages
 				case "clearLibrarianMessages":
-					// Attempt to clear librarian messages in the database
-					ret = BLibDBC.getInstance().clearLibrarianMessages();
+					// Mark the librarian's messages as read up to the given message ID
+					ret = LibraryStorage.getInstance().clearLibrarianMessages((String) args.get(0), (Integer) args.get(1));
 					if ((Boolean) ret == true) {
 						// Send success message if messages are cleared successfully
 						client.sendToClient(new Message("success"));
@@ -463,7 +574,7 @@ public class BLibServer extends AbstractServer {
 				// Handle retrieving book copy by ID
 				case "getCopyByID":
 					// Retrieve the book copy by its ID from the database
-					ret = BLibDBC.getInstance().getCopyByID((Integer) args.get(0));
+					ret = LibraryStorage.getInstance().getCopyByID((Integer) args.get(0));
 
 					if (ret != null) {
 						// Send the book copy details to the client if found
@@ -477,7 +588,7 @@ public class BLibServer extends AbstractServer {
 				// Handle the "getTitleClosestReturnDate" command
 				case "getTitleClosestReturnDate":
 					// Retrieve the closest return date for the book title from the database
-					ret = BLibDBC.getInstance().getTitleClosestReturnDate((BookTitle) args.get(0));
+					ret = LibraryStorage.getInstance().getTitleClosestReturnDate((BookTitle) args.get(0));
 
 					if (ret != null) {
 						// Send the closest return date to the client if found
@@ -491,7 +602,7 @@ public class BLibServer extends AbstractServer {
 				// Handle the "getGraph" command
 				case "getGraph":
 					// Retrieve the graph data from the database based on the provided parameters
-					ret = BLibDBC.getInstance().getGraph((Integer) args.get(0), (Integer) args.get(1),
+					ret = LibraryStorage.getInstance().getGraph((Integer) args.get(0), (Integer) args.get(1),
 							(String) args.get(2));
 
 					if (ret != null) {
@@ -509,30 +620,140 @@ public class BLibServer extends AbstractServer {
 				}
 			} catch (IOException e) {
 				e.printStackTrace(); // Log any exceptions that occur during message handling
+			} finally {
+				try {
+					// Commit before the next command on the same titles and subscribers can start,
+					// also when the command failed with an exception
+					if (unit != null)
+						unit.close();
+				} finally {
+					if (locks != null) {
+						// Tell the clients to drop what they cached about the entities the command
+						// may have changed, once the changes are committed
+						CacheInvalidator.getInstance().changed(this, titles, copies, subscribers);
+						locks.close();
+					}
+				}
 			}
 
 		}
 
 	}
 
+	/**
+	 * Takes the locks of the titles and subscribers that a command reads, decides
+	 * and writes on, so commands on the same title or subscriber run one after the
+	 * other. The subscribers of returned copies are read before the locks are
+	 * taken, the return checks the borrow again under the locks.
+	 * 
+	 * @param msg         the message received from the client
+	 * @param titles      receives the IDs of the titles the command writes on
+	 * @param copyIDs     receives the IDs of the copies the command writes on
+	 * @param subscribers receives the IDs of the subscribers the command writes on
+	 * @return the locks, none for commands that only read or write a single row
+	 */
+	@SuppressWarnings("unchecked")
+	private LockManager.Locks lockFor(Message msg, List<Integer> titles, List<Integer> copyIDs,
+			List<Integer> subscribers) {
+		List<Object> args = msg.getArguments();
+		Map<Integer, BookCopy> copies;
+		switch (msg.getCommand()) {
+		case "createBorrow":
+			subscribers.add((Integer) args.get(0));
+			copyIDs.add((Integer) args.get(1));
+			BookCopy copy = LibraryStorage.getInstance().getCopyByID((Integer) args.get(1));
+			if (copy != null)
+				titles.add(copy.getTitle().getTitleID());
+			break;
+
+		case "createBorrows":
+			subscribers.add((Integer) args.get(0));
+			copyIDs.addAll((List<Integer>) args.get(1));
+			copies = LibraryStorage.getInstance().getCopiesByID((List<Integer>) args.get(1));
+			if (copies != null) {
+				for (BookCopy c : copies.values()) {
+					titles.add(c.getTitle().getTitleID());
+				}
+			}
+			break;
+
+		case "return":
+			BookCopy returned = (BookCopy) args.get(0);
+			titles.add(returned.getTitle().getTitleID());
+			copyIDs.add(returned.getCopyID());
+			Borrow borrow = LibraryStorage.getInstance().getCopyActiveBorrow(returned);
+			if (borrow != null)
+				subscribers.add(borrow.getSubscriber().getId());
+			break;
+
+		case "returnBooks":
+			copyIDs.addAll((List<Integer>) args.get(0));
+			copies = LibraryStorage.getInstance().getCopiesByID((List<Integer>) args.get(0));
+			if (copies != null) {
+				for (BookCopy c : copies.values()) {
+					titles.add(c.getTitle().getTitleID());
+				}
+				Map<Integer, Borrow> borrows = LibraryStorage.getInstance().getCopiesActiveBorrows(copies.values());
+				if (borrows != null) {
+					for (Borrow b : borrows.values()) {
+						subscribers.add(b.getSubscriber().getId());
+					}
+				}
+			}
+			break;
+
+		case "order":
+			Subscriber sub = (Subscriber) args.get(0);
+			BookTitle title = (BookTitle) args.get(1);
+			subscribers.add(sub == null ? null : sub.getId());
+			titles.add(title == null ? null : title.getTitleID());
+			break;
+
+		case "extend":
+			Borrow extended = (Borrow) args.get(0);
+			titles.add(extended.getBook().getTitle().getTitleID());
+			copyIDs.add(extended.getBook().getCopyID());
+			subscribers.add(extended.getSubscriber().getId());
+			break;
+
+		default:
+			return new LockManager.Locks();
+		}
+		return LockManager.getInstance().lock(titles, subscribers);
+	}
+
 	public void execute(Message msg) {
 		List<Object> args = ((Message) msg).getArguments();
 		Subscriber sub;
 		switch (msg.getCommand()) {
 		case "unfreeze":
-			BLibDBC.getInstance().unfreezeSubscriber(Integer.parseInt((String) args.get(0)));
+			LibraryStorage.getInstance().unfreezeSubscriber(Integer.parseInt((String) args.get(0)));
+			CacheInvalidator.getInstance().changed(this, List.of(), List.of(),
+					List.of(Integer.parseInt((String) args.get(0))));
 			break;
 
 		case "sendEmail":
-			sub = BLibDBC.getInstance().getSubscriberByID(Integer.parseInt((String) args.get(0)));
+			sub = LibraryStorage.getInstance().getSubscriberByID(Integer.parseInt((String) args.get(0)));
 			MessageController.getInstance().sendEmail(sub, (String) args.get(1), (String) args.get(2));
 			break;
 		case "sendMessage":
-			sub = BLibDBC.getInstance().getSubscriberByID(Integer.parseInt((String) args.get(0)));
+			sub = LibraryStorage.getInstance().getSubscriberByID(Integer.parseInt((String) args.get(0)));
 			MessageController.getInstance().sendMessage(sub, (String) args.get(1), (String) args.get(2));
 			break;
 		case "cancelOrder":
-			BLibDBC.getInstance().cancelOrder(Integer.parseInt((String) args.get(0)));
+			// Cancel under the lock of the title, like the borrows and returns of its copies
+			int copyID = Integer.parseInt((String) args.get(0));
+			BookCopy ordered = LibraryStorage.getInstance().getCopyByID(copyID);
+			LockManager.Locks locks = LockManager.getInstance()
+					.lock(ordered == null ? null : ordered.getTitle().getTitleID(), null);
+			try {
+				LibraryStorage.getInstance().cancelOrder(copyID);
+			} finally {
+				locks.close();
+			}
+			if (ordered != null)
+				CacheInvalidator.getInstance().changed(this, List.of(ordered.getTitle().getTitleID()), List.of(copyID),
+						List.of());
 			break;
 
 		case "generateGraphs":
@@ -540,48 +761,78 @@ public class BLibServer extends AbstractServer {
 					Integer.parseInt((String) args.get(1)), 1);
 			System.out.println(date);
 			byte[] data = reportGenerator.generateSubscriberStatusReport(date);
-			BLibDBC.getInstance().saveGraph(date, "subscriber status", data);
+			LibraryStorage.getInstance().saveGraph(date, "subscriber status", data);
 			data = reportGenerator.generateBorrowTimeReport(date);
-			BLibDBC.getInstance().saveGraph(date, "borrowing report", data);
+			LibraryStorage.getInstance().saveGraph(date, "borrowing report", data);
 			LocalDate today = LocalDate.now();
 			LocalDate nextMonth = LocalDate.of(today.getYear(), today.getMonthValue(), 1);
 			LocalDate timeOfNextExecution = nextMonth.plusMonths(1).minusDays(1);
-			BLibDBC.getInstance().createCommand("generateGraphs",
+			LibraryStorage.getInstance().createCommand("generateGraphs",
 					"%04d;%02d".formatted(nextMonth.getYear(), nextMonth.getMonthValue()),
 					LocalDateTime.of(timeOfNextExecution, LocalTime.of(23, 30)), "");
+			break;
 
+		case "archiveHistory":
+			// Move the cold years of the history into the archive, and run again next month
+			LibraryStorage.getInstance().archiveColdHistory();
+			scheduleHistoryArchival(LocalDateTime.of(LocalDate.now().withDayOfMonth(1).plusMonths(1), LocalTime.of(2, 0)));
+			break;
+
+		case "overdueSweep":
+			// Freeze the subscribers of the books that are overdue by a week or more, and run again tomorrow
+			Integer frozen = LibraryStorage.getInstance().freezeOverdueSubscribers(LocalDate.now().minusWeeks(1));
+			System.out.println("overdue sweep froze " + frozen + " subscribers");
+			if (frozen != null && frozen > 0)
+				CacheInvalidator.getInstance().changed(this, List.of(), List.of(), null); // Any subscriber may be frozen
+			scheduleOverdueSweep(LocalDateTime.of(LocalDate.now().plusDays(1), LocalTime.of(1, 0)));
+			break;
 		}
 	}
 
 	/**
-	 * Checks if the borrow period can be extended.
+	 * Checks if the borrow period can be extended, with the facts of the borrow
+	 * read from the storage in one query.
 	 * 
-	 * The borrow cannot be extended if: - The subscriber's status is "frozen". -
-	 * The borrow was made within the last week. - The borrow is overdue.
+	 * The borrow cannot be extended if: - The copy is no longer borrowed by the
+	 * subscriber. - The title is ordered. And, when the subscriber extends: - The
+	 * subscriber's status is "frozen". - The due date is more than a week away. -
+	 * The borrow is overdue.
 	 * 
-	 * @param borrow the borrow object to check.
-	 * @return a message explaining why the borrow can't be extended, or
-	 *         {@code null} if it can.
+	 * @param borrow       the borrow object to check.
+	 * @param bySubscriber true if the subscriber extends the borrow, false for a
+	 *                     librarian.
+	 * @return every reason the borrow can't be extended separated by new lines,
+	 *         or {@code null} if it can.
 	 */
-	private String canExtend(Borrow borrow) {
-		// Check if the subscriber's status is "frozen". If yes, they can't extend the
-		// borrow period.
-		if (borrow.getSubscriber().getStatus().equals("frozen")) {
-			return "the subscriber is frozen";
-		}
+	private String canExtend(Borrow borrow, boolean bySubscriber) {
+		Eligibility.Facts facts = LibraryStorage.getInstance().getEligibilityFacts(borrow.getSubscriber().getId(),
+				0, borrow.getBook().getCopyID());
+		if (facts == null)
+			return "DB error";
+		return reasons(Eligibility.canExtend(facts, bySubscriber));
+	}
 
-		// Check if the borrow period is less than or equal to one week. If the borrow
-		// was made within the last week,
-		// it cannot be extended.
+	/**
+	 * Commits the unit of work of the command, before its success is sent, and
+	 * publishes the catalog changes that waited for the commit.
+	 * 
+	 * @return true if the writes of the command were committed, or the command has
+	 *         no unit of work.
+	 */
+	private static boolean commitUnit() {
+		UnitOfWork unit = UnitOfWork.current();
+		return unit == null || unit.commit();
+	}
 
-		if (borrow.getDueDate().minusWeeks(1).compareTo(LocalDate.now()) >= 0) {
-			return "extention not available until %s".formatted(borrow.getDueDate().minusWeeks(1));
-		}
-		if (borrow.getDueDate().compareTo(LocalDate.now()) < 0) {
-			return "extention not available after due date";
-		}
-		// If none of the conditions above are met, the borrow can be extended.
-		return null;
+	/**
+	 * Joins the reasons an action is refused into one message.
+	 * 
+	 * @param reasons the reasons, in the order of the rules.
+	 * @return the reasons separated by new lines, or {@code null} if there are
+	 *         none.
+	 */
+	private static String reasons(List<String> reasons) {
+		return reasons.isEmpty() ? null : String.join("\n", reasons);
 	}
 
 	/**
@@ -590,7 +841,7 @@ public class BLibServer extends AbstractServer {
 	 * @param length the length of the generated password.
 	 * @return the generated password as a string of digits.
 	 */
-	private String generatePassword(int length) {
+	public static String generatePassword(int length) {
 		// Create a StringBuilder to hold the password characters.
 		StringBuilder str = new StringBuilder();
 		Random rand = new Random();
@@ -607,105 +858,337 @@ public class BLibServer extends AbstractServer {
 	 * @return a List of Message objects representing the commands.
 	 */
 	public List<Message> getCommands() {
-		// Accessing the BLibDBC singleton instance and calling the getCommands method
+		// Accessing the storage of the library and calling the getCommands method
 		// to retrieve the list of commands.
-		return BLibDBC.getInstance().getCommands();
+		return LibraryStorage.getInstance().getCommands();
 	}
 
 	/**
-	 * Checks if a subscriber can order a specific book.
+	 * Checks if a subscriber can order a specific book. The subscriber, their
+	 * borrows and orders of the title and the availability of the title are read
+	 * in one query.
 	 * 
 	 * @param sub   the subscriber attempting to order the book
 	 * @param title the book title the subscriber wants to order
-	 * @return a String message indicating the result of the check, or null if the
-	 *         order is allowed
+	 * @return every reason the order is refused separated by new lines, or null if
+	 *         the order is allowed
 	 */
 	private String canOrder(Subscriber sub, BookTitle title) {
-		// Check if the subscriber is null
-		if (sub == null) {
+		// Check if the subscriber or the book title is null
+		if (sub == null)
 			return "The subscriber is not found";
-		}
-
-		// Check if the book title is null
-		if (title == null) {
+		if (title == null)
 			return "The book is not found";
-		}
 
-		// Check if the subscriber's status is frozen
-		if (sub.getStatus().equals("frozen"))
-			return "The subscriber is frozen";
+		Eligibility.Facts facts = LibraryStorage.getInstance().getEligibilityFacts(sub.getId(), title.getTitleID(), 0);
+		if (facts == null)
+			return "DB error";
+		return reasons(Eligibility.canOrder(facts));
+	}
 
-		// Check if the subscriber has already borrowed the book
-		for (Borrow b : BLibDBC.getInstance().getSubscriberActiveBorrows(sub)) {
-			if (b.getBook().getTitle().equals(title))
-				return "This Book is already Borrowed";
+	/**
+	 * Checks if a subscriber can borrow a book copy, given the borrows and orders
+	 * that were already read for it. A batch borrow reads them once for all of its
+	 * copies, and applies the same rules as a single borrow.
+	 * 
+	 * @param sub        the subscriber who wants to borrow the book, or null.
+	 * @param copyID     the ID of the copy to be borrowed.
+	 * @param copy       the book copy to be borrowed, or null if it isn't found.
+	 * @param subBorrows the active borrows of the subscriber.
+	 * @param copyBorrow the active borrow of the copy, or null if it is available.
+	 * @param subOrders  the active orders of the subscriber.
+	 * @param copyOrder  the order the copy is assigned to, or null.
+	 * @return every reason the subscriber can't borrow the book separated by new
+	 *         lines, or null if the borrow is allowed.
+	 */
+	private String canBorrow(Subscriber sub, int copyID, BookCopy copy, List<Borrow> subBorrows, Borrow copyBorrow,
+			List<Order> subOrders, Order copyOrder) {
+		Eligibility.Facts facts = new Eligibility.Facts(sub == null ? 0 : sub.getId(),
+				copy == null ? 0 : copy.getTitle().getTitleID(), copyID);
+		facts.copyFound = copy != null;
+		if (sub != null) {
+			facts.status = sub.getStatus();
+			for (Borrow b : subBorrows) {
+				if (copy != null && b.getBook().getTitle().equals(copy.getTitle()))
+					facts.titleBorrows++;
+			}
+			for (Order o : subOrders) {
+				if (copy != null && o.getTitle().equals(copy.getTitle()) && o.getCopy() != null)
+					facts.orderedCopy = o.getCopy().getCopyID();
+			}
 		}
+		if (copyBorrow != null)
+			facts.copyBorrower = copyBorrow.getSubscriber().getId();
+		if (copyOrder != null)
+			facts.copyOrderedBy = copyOrder.getSubscriber().getId();
+		return reasons(Eligibility.canBorrow(facts));
+	}
 
-		// Check if the subscriber has already ordered the book
-		for (Order o : BLibDBC.getInstance().getSubscriberActiveOrders(sub)) {
-			if (o.getTitle().equals(title))
-				return "This Book is already ordered";
+	/**
+	 * Borrows a stack of scanned book copies for a subscriber, with the same
+	 * checks as "createBorrow" for every copy. Each chunk of
+	 * {@link #MAX_BATCH_CHUNK} copies is checked with a few set-based reads and
+	 * borrowed in a single transaction.
+	 * 
+	 * @param subID   the ID of the subscriber
+	 * @param copyIDs the IDs of the copies in scanning order, a copy scanned twice
+	 *                is borrowed once
+	 * @return the reply of each copy by copy ID in scanning order, a "success"
+	 *         message or a "failed" message with the reason, like the reply to
+	 *         "createBorrow"
+	 */
+	private LinkedHashMap<Integer, Message> createBorrows(int subID, List<Integer> copyIDs) {
+		LinkedHashMap<Integer, Message> results = new LinkedHashMap<>();
+		List<Integer> scanned = new ArrayList<>(new LinkedHashSet<>(copyIDs));
+		LocalDate today = LocalDate.now();
+
+		// Read the subscriber with their borrows and orders once for the whole stack
+		Subscriber sub = LibraryStorage.getInstance().getSubscriberByID(subID);
+		List<Borrow> subBorrows = null;
+		List<Order> subOrders = null;
+		if (sub != null) {
+			subBorrows = LibraryStorage.getInstance().getSubscriberActiveBorrows(sub);
+			subOrders = LibraryStorage.getInstance().getSubscriberActiveOrders(sub);
+			if (subBorrows != null)
+				subBorrows = new ArrayList<>(subBorrows); // The copies borrowed now are added to it
 		}
 
-		// Check if any copies of the book are currently available for borrowing
-		if (BLibDBC.getInstance().getTitleAvailability(title) > 0) {
-			return "Not all of the title copies are borrowed";
-		}
+		for (int from = 0; from < scanned.size(); from += MAX_BATCH_CHUNK) {
+			List<Integer> chunk = scanned.subList(from, Math.min(from + MAX_BATCH_CHUNK, scanned.size()));
+
+			// Read the copies, their borrows and their orders with one query each
+			Map<Integer, BookCopy> copies = LibraryStorage.getInstance().getCopiesByID(chunk);
+			Map<Integer, Borrow> copyBorrows = copies == null ? null
+					: LibraryStorage.getInstance().getCopiesActiveBorrows(copies.values());
+			Map<Integer, Order> orders = copies == null ? null
+					: LibraryStorage.getInstance().getOrdersByCopies(copies.values());
+			if (copyBorrows == null || orders == null || (sub != null && (subBorrows == null || subOrders == null))) {
+				for (int copyID : chunk) {
+					results.put(copyID, new Message("failed", "DB error"));
+				}
+				continue;
+			}
 
-		// Check if there are too many active orders for the book
-		if (BLibDBC.getInstance().getTitleAvailability(title) + BLibDBC.getInstance().getNumOfCopies(title) <= 0) {
-			return "There are too many active orders";
-		}
+			List<BookCopy> toBorrow = new ArrayList<>();
+			for (int copyID : chunk) {
+				BookCopy copy = copies.get(copyID);
+				Order o = orders.get(copyID);
+				String err = canBorrow(sub, copyID, copy, subBorrows, copyBorrows.get(copyID), subOrders, o);
+				if (err != null) {
+					results.put(copyID, new Message("failed", err));
+					continue;
+				}
 
-		// If none of the conditions apply, the order can be placed
-		return null;
+				// Cancel the order if the current subscriber is the one who ordered it
+				if (o != null) {
+					LibraryStorage.getInstance().cancelCommand("cancelOrder", "%d".formatted(copyID));
+					execute(new Message("cancelOrder", "%d".formatted(copyID)));
+				}
+				toBorrow.add(copy);
+				subBorrows.add(new Borrow(sub, copy, today, today.plusWeeks(2), null)); // Checked for the next copies
+				results.put(copyID, null); // Keeps the scanning order until the borrow is written
+			}
+
+			// Borrow the accepted copies of the chunk together. If another borrow took some
+			// of them since they were read, none is borrowed, so try again without them
+			boolean borrowed = toBorrow.isEmpty() || LibraryStorage.getInstance().createBorrows(sub, toBorrow);
+			while (!borrowed) {
+				Map<Integer, Borrow> taken = LibraryStorage.getInstance().getCopiesActiveBorrows(toBorrow);
+				if (taken == null || taken.isEmpty())
+					break; // Not a lost race
+				toBorrow.removeIf(copy -> taken.containsKey(copy.getCopyID()));
+				for (int copyID : taken.keySet()) {
+					results.put(copyID, new Message("failed", "The book is already borrowed"));
+				}
+				borrowed = toBorrow.isEmpty() || LibraryStorage.getInstance().createBorrows(sub, toBorrow);
+			}
+			for (BookCopy copy : toBorrow) {
+				results.put(copy.getCopyID(), borrowed ? new Message("success") : new Message("failed", "DB error"));
+			}
+		}
+		return results;
 	}
 
-	
 	/**
-	 * Checks if a subscriber can borrow a specific book copy.
+	 * Returns a stack of scanned book copies, with the same handling as "return"
+	 * for every copy. Each chunk of {@link #MAX_BATCH_CHUNK} copies is read with a
+	 * few set-based reads and returned in a single transaction. Then the orders
+	 * waiting for the returned titles get their copies, and the subscribers of the
+	 * late returns are frozen.
 	 * 
-	 * @param sub the subscriber attempting to borrow the book copy
-	 * @param copy the book copy the subscriber wants to borrow
-	 * @return a String message indicating the result of the check, or null if the borrow is allowed
+	 * @param copyIDs the IDs of the copies in scanning order, a copy scanned twice
+	 *                is returned once
+	 * @return the reply of each copy by copy ID in scanning order, a "success" or
+	 *         "failed" message with a text, like the reply to "return"
 	 */
-	private String canBorrow(Subscriber sub, BookCopy copy) {
-		// Check if the book copy is null
-		if (copy == null) {
-			return "The book is not found";
+	private LinkedHashMap<Integer, Message> returnBooks(List<Integer> copyIDs) {
+		LinkedHashMap<Integer, Message> results = new LinkedHashMap<>();
+		List<Integer> scanned = new ArrayList<>(new LinkedHashSet<>(copyIDs));
+		LocalDate today = LocalDate.now();
+		LocalDateTime now = LocalDateTime.now();
+		Set<Integer> frozen = new HashSet<>(); // Subscribers frozen by earlier copies of the stack
+
+		for (int from = 0; from < scanned.size(); from += MAX_BATCH_CHUNK) {
+			List<Integer> chunk = scanned.subList(from, Math.min(from + MAX_BATCH_CHUNK, scanned.size()));
+
+			// Read the copies and their active borrows with one query each
+			Map<Integer, BookCopy> copies = LibraryStorage.getInstance().getCopiesByID(chunk);
+			Map<Integer, Borrow> borrows = copies == null ? null
+					: LibraryStorage.getInstance().getCopiesActiveBorrows(copies.values());
+			if (borrows == null) {
+				for (int copyID : chunk) {
+					results.put(copyID, new Message("failed", "DB error"));
+				}
+				continue;
+			}
+
+			List<Borrow> toReturn = new ArrayList<>();
+			for (int copyID : chunk) {
+				if (!copies.containsKey(copyID)) {
+					results.put(copyID, new Message("failed", "The book is not found"));
+				} else if (!borrows.containsKey(copyID)) {
+					results.put(copyID, new Message("failed", "No such borrowed book"));
+				} else {
+					toReturn.add(borrows.get(copyID));
+					results.put(copyID, null); // Keeps the scanning order until the return is written
+				}
+			}
+
+			// Return the borrowed copies of the chunk together. If another return took some
+			// of them since they were read, none is returned, so try again without them
+			boolean returned = toReturn.isEmpty() || LibraryStorage.getInstance().returnBooks(toReturn);
+			while (!returned) {
+				List<BookCopy> books = new ArrayList<>();
+				for (Borrow borrow : toReturn) {
+					books.add(borrow.getBook());
+				}
+				Map<Integer, Borrow> still = LibraryStorage.getInstance().getCopiesActiveBorrows(books);
+				if (still == null)
+					break;
+				// A copy is gone if it isn't borrowed anymore, or was borrowed again since
+				List<Borrow> gone = new ArrayList<>();
+				for (Borrow borrow : toReturn) {
+					Borrow current = still.get(borrow.getBook().getCopyID());
+					if (current == null || current.getSubscriber().getId() != borrow.getSubscriber().getId()
+							|| !current.getDateOfBorrow().equals(borrow.getDateOfBorrow())) {
+						gone.add(borrow);
+						results.put(borrow.getBook().getCopyID(), new Message("failed", "No such borrowed book"));
+					}
+				}
+				if (gone.isEmpty())
+					break; // Not a lost race
+				toReturn.removeAll(gone);
+				returned = toReturn.isEmpty() || LibraryStorage.getInstance().returnBooks(toReturn);
+			}
+			for (Borrow borrow : toReturn) {
+				int copyID = borrow.getBook().getCopyID();
+				if (!returned) {
+					results.put(copyID, new Message("failed", "DB error"));
+					continue;
+				}
+				assignToOrder(borrow.getBook(), now);
+				if (borrow.getDueDate().compareTo(today) < 0) {
+					int subID = borrow.getSubscriber().getId();
+					boolean isFrozen = borrow.getSubscriber().getStatus().equalsIgnoreCase("frozen")
+							|| frozen.contains(subID);
+					String reply = lateReturn(borrow, isFrozen, today, now);
+					if (reply.equals("Freezing account"))
+						frozen.add(subID);
+					results.put(copyID, new Message("success", reply));
+				} else {
+					results.put(copyID, new Message("success", "The return was successful"));
+				}
+			}
 		}
-		
-		// Check if the subscriber is null
-		if (sub == null) {
-			return "The subscriber is not found";
+		return results;
+	}
+
+	/**
+	 * Registers a list of new subscribers with a generated password each. Every
+	 * chunk of {@link #MAX_BATCH_CHUNK} subscribers is registered in a single
+	 * transaction.
+	 * 
+	 * @param subscribers the new subscribers
+	 * @return the reply of each subscriber in order, a "success" message with
+	 *         their password or a "failed" message with the reason, like the reply
+	 *         to "registerSubscriber"
+	 */
+	private ArrayList<Message> registerSubscribers(List<Subscriber> subscribers) {
+		ArrayList<Message> results = new ArrayList<>();
+		for (int from = 0; from < subscribers.size(); from += MAX_BATCH_CHUNK) {
+			List<Subscriber> chunk = subscribers.subList(from, Math.min(from + MAX_BATCH_CHUNK, subscribers.size()));
+			List<String> passwords = new ArrayList<>();
+			for (int i = 0; i < chunk.size(); i++) {
+				passwords.add(generatePassword(4));
+			}
+			List<String> errors = LibraryStorage.getInstance().registerSubscribers(chunk, passwords);
+			for (int i = 0; i < chunk.size(); i++) {
+				if (errors == null)
+					results.add(new Message("failed", "DB error"));
+				else if (errors.get(i) != null)
+					results.add(new Message("failed", errors.get(i)));
+				else
+					results.add(new Message("success", passwords.get(i)));
+			}
 		}
-		
-		// Check if the subscriber's status is frozen
-		if (sub.getStatus().equals("frozen"))
-			return "The subscriber is frozen";
-
-		// Check if the subscriber has already borrowed this book
-		for (Borrow b : BLibDBC.getInstance().getSubscriberActiveBorrows(sub)) {
-			if (b.getBook().getTitle().equals(copy.getTitle()))
-				return "This Book is already Borrowed by the subscriber";
+		return results;
+	}
+
+	/**
+	 * Assigns a returned book copy to the oldest order of its title, if the title
+	 * is ordered, and tells the subscriber who ordered it that the book arrived.
+	 * The order is canceled if it isn't picked up in two days.
+	 * 
+	 * @param copy the returned book copy
+	 * @param now  the current date and time
+	 */
+	private void assignToOrder(BookCopy copy, LocalDateTime now) {
+		if (LibraryStorage.getInstance().isTitleOrdered(copy.getTitle().getTitleID())) {
+
+			if (LibraryStorage.getInstance().updateOrder(copy)) {
+
+				Order order = LibraryStorage.getInstance().getOrderByCopy(copy.getCopyID());
+
+				// Send email notification to the subscriber when their ordered book arrives
+				MessageController.getInstance().sendEmail(order.getSubscriber(), "Your order has arrived!",
+						"Dear %s,\n\n".formatted(order.getSubscriber().getName())
+								+ "Your book order of \"%s\" has arrived and is ready for pickup.\n"
+										.formatted(copy.getTitle())
+								+ "Please collect it within the next two days, or the order will be canceled.\n\n"
+								+ "Best regards, BLib library");
+
+				// Schedule cancellation of the order if not picked up in two days
+				LibraryStorage.getInstance().createCommand("cancelOrder", "%d".formatted(copy.getCopyID()),
+						now.plusDays(2), "%d".formatted(copy.getCopyID()));
+			}
 		}
-		
-		// Check if the book copy is already borrowed by someone else
-		if (BLibDBC.getInstance().getCopyActiveBorrow(copy) != null) {
-			return "This copy is already Borrowed, return it first";
+	}
+
+	/**
+	 * Handles the subscriber of a late return. A book returned a week or more
+	 * after its due date freezes the subscriber, or restarts the month of the
+	 * freeze if they are already frozen.
+	 * 
+	 * @param borrow   the borrow that was returned late
+	 * @param isFrozen true if the subscriber is already frozen
+	 * @param today    the current date
+	 * @param now      the current date and time
+	 * @return the reply to the return: "Freezing account", "Freeze updated" or
+	 *         "The return was late"
+	 */
+	private String lateReturn(Borrow borrow, boolean isFrozen, LocalDate today, LocalDateTime now) {
+		if (borrow.getDueDate().plusWeeks(1).compareTo(today) > 0) {
+			return "The return was late";
 		}
-		
-		for(Order o : BLibDBC.getInstance().getSubscriberActiveOrders(sub)) {
-			if(o.getTitle().equals(copy.getTitle())) {
-				if(o.getCopy()!=null) {
-					if (o.getCopy().getCopyID() != copy.getCopyID()) {
-						return "The subscriber has an active order on a different copy";
-					}
-				}
-			}
+		if (!isFrozen) {
+			LibraryStorage.getInstance().freezeSubscriber(borrow.getSubscriber().getId());
+			return "Freezing account";
 		}
-		// If none of the conditions apply, the borrow is allowed
-		return null;
+		// Update freeze status if the account is already frozen
+		LibraryStorage.getInstance().cancelCommand("unfreeze", "%s".formatted(borrow.getSubscriber().getId()));
+		LibraryStorage.getInstance().createCommand("unfreeze", "%s".formatted(borrow.getSubscriber().getId()),
+				now.plusMonths(1), "%s".formatted(borrow.getSubscriber().getId()));
+		return "Freeze updated";
 	}
 
 	
@@ -718,7 +1201,7 @@ public class BLibServer extends AbstractServer {
 	 */
 	public Map<LocalDate, Integer[]> getSubscribersStatusOnMonth(LocalDate date) {
 	    // Fetch the subscribers' status for the specified month from the database
-	    return BLibDBC.getInstance().getSubscribersStatusOnMonth(date);
+	    return LibraryStorage.getInstance().getSubscribersStatusOnMonth(date);
 	}
 
 	
@@ -730,7 +1213,7 @@ public class BLibServer extends AbstractServer {
 	 */
 	public int SumNewSubscriber(LocalDate t) {
 		 // Retrieve the sum of new subscribers from the database
-		Integer ret = BLibDBC.getInstance().SumNewSubscriber(t);
+		Integer ret = LibraryStorage.getInstance().SumNewSubscriber(t);
 		// If there is a result, return it; otherwise, return 0
 		if (ret != null) {
 			return ret;
@@ -746,7 +1229,7 @@ public class BLibServer extends AbstractServer {
 	 *         the borrow times for each book in the specified month
 	 */
 	public Map<String, Double[]> getBorrowTimeOnMonth(LocalDate date) {
-		return BLibDBC.getInstance().getBorrowTimeOnMonth(date);
+		return LibraryStorage.getInstance().getBorrowTimeOnMonth(date);
 	}
 
 	
@@ -757,7 +1240,7 @@ public class BLibServer extends AbstractServer {
 	 * @return the average borrow time in days for all books in the specified month, or null if no data is available
 	 */
 	public Double getAvgBorrowTimeOnMonth(LocalDate date) {
-		return BLibDBC.getInstance().getAvgBorrowTimeOnMonth(date);
+		return LibraryStorage.getInstance().getAvgBorrowTimeOnMonth(date);
 	}
 
 }
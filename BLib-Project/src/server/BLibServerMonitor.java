@@ -0,0 +1,244 @@
+package server;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The BLibServerMonitor class collects the runtime state of the server and
+ * exposes it as a JMX MBean, so the server can be watched with the standard
+ * JDK tools (jconsole, VisualVM). The server records every client request here,
+ * and the scheduler, database and notification state is read from their
+ * classes when it is requested.
+ */
+public class BLibServerMonitor implements BLibServerMonitorMBean {
+
+	public static final String OBJECT_NAME = "server:type=BLibServer";
+
+	private static volatile BLibServerMonitor instance;
+
+	private BLibServer server; // The monitored server
+	private volatile long resetTime = System.nanoTime(); // Time the statistics were reset
+
+	// Latency of each client command
+	private final Map<String, LatencyHistogram> commands = new ConcurrentHashMap<>();
+	private final LongAdder inFlight = new LongAdder(); // Requests being handled
+	private final LongAdder failed = new LongAdder(); // Requests that threw an exception
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private BLibServerMonitor() {
+	}
+
+	/**
+	 * Returns the singleton instance of {@code BLibServerMonitor}.
+	 *
+	 * @return the singleton instance of {@code BLibServerMonitor}
+	 */
+	public static BLibServerMonitor getInstance() {
+		if (instance == null) {
+			synchronized (BLibServerMonitor.class) {
+				if (instance == null) {
+					instance = new BLibServerMonitor();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Registers the monitor of a server in the platform MBean server, replacing a
+	 * monitor that was registered before.
+	 *
+	 * @param server the monitored server
+	 */
+	public void register(BLibServer server) {
+		this.server = server;
+		try {
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (mbs.isRegistered(name)) {
+				mbs.unregisterMBean(name);
+			}
+			mbs.registerMBean(this, name);
+		} catch (Exception e) {
+			System.out.println("JMX registration failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Records the start of a client request.
+	 *
+	 * @return the start time of the request, to pass to
+	 *         {@link #requestFinished(String, long, boolean)}
+	 */
+	public long requestStarted() {
+		inFlight.increment();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the end of a client request.
+	 *
+	 * @param command the command of the request
+	 * @param start   the start time returned by {@link #requestStarted()}
+	 * @param success whether the request was handled without an exception
+	 */
+	public void requestFinished(String command, long start, boolean success) {
+		inFlight.decrement();
+		if (!success)
+			failed.increment();
+		commands.computeIfAbsent(command, c -> new LatencyHistogram()).record(System.nanoTime() - start);
+	}
+
+	/**
+	 * @return the latency histogram of each client command
+	 */
+	public Map<String, LatencyHistogram> getCommandLatencies() {
+		return commands;
+	}
+
+	@Override
+	public int getConnectedClients() {
+		return server == null ? 0 : server.getNumberOfClients();
+	}
+
+	@Override
+	public long getInFlightRequests() {
+		return inFlight.sum();
+	}
+
+	@Override
+	public long getTotalRequests() {
+		long total = 0;
+		for (LatencyHistogram h : commands.values())
+			total += h.getCount();
+		return total;
+	}
+
+	@Override
+	public long getFailedRequests() {
+		return failed.sum();
+	}
+
+	@Override
+	public String[] getCommandStatistics() {
+		double seconds = Math.max(1, (System.nanoTime() - resetTime) / 1e9);
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<String, LatencyHistogram> e : commands.entrySet()) {
+			LatencyHistogram h = e.getValue();
+			lines.add(String.format("%s: %d calls, %.2f/s, mean %.2fms, p95 %.2fms, p99 %.2fms, max %.2fms", e.getKey(),
+					h.getCount(), h.getCount() / seconds, h.getMeanMillis(), h.getPercentileMillis(95),
+					h.getPercentileMillis(99), h.getMaxMillis()));
+		}
+		lines.sort(null);
+		return lines.toArray(new String[0]);
+	}
+
+	@Override
+	public String[] getLockWaitStatistics() {
+		LockManager locks = LockManager.getInstance();
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<String, LatencyHistogram> e : Map
+				.of("subscriber", locks.getSubscriberWaits(), "title", locks.getTitleWaits()).entrySet()) {
+			LatencyHistogram h = e.getValue();
+			lines.add(String.format("%s: %d waits, mean %.2fms, p95 %.2fms, p99 %.2fms, max %.2fms", e.getKey(),
+					h.getCount(), h.getMeanMillis(), h.getPercentileMillis(95), h.getPercentileMillis(99),
+					h.getMaxMillis()));
+		}
+		lines.sort(null);
+		return lines.toArray(new String[0]);
+	}
+
+	@Override
+	public int getSchedulerQueueDepth() {
+		Integer depth = LibraryStorage.getInstance().countDueCommands(LocalDateTime.now());
+		return depth == null ? -1 : depth;
+	}
+
+	@Override
+	public long getSchedulerLagSeconds() {
+		LocalDateTime now = LocalDateTime.now();
+		LocalDateTime oldest = LibraryStorage.getInstance().getOldestDueCommand(now);
+		return oldest == null ? 0 : Duration.between(oldest, now).getSeconds();
+	}
+
+	@Override
+	public String getSchedulerLastRun() {
+		LocalDateTime lastRun = ServerTimer.getLastRun();
+		return lastRun == null ? "never" : lastRun.toString();
+	}
+
+	@Override
+	public boolean isDatabaseConnected() {
+		return LibraryStorage.isInMemory() || BLibDBC.isConnected();
+	}
+
+	@Override
+	public long getDatabaseBusyStatements() {
+		return DBMonitor.getInstance().getExecuting();
+	}
+
+	@Override
+	public long getDatabaseOpenTransactionMillis() {
+		return DBMonitor.getInstance().getOpenTransactionMillis();
+	}
+
+	@Override
+	public int getDatabasePoolOpenConnections() {
+		return BLibDBC.getOpenConnections();
+	}
+
+	@Override
+	public int getDatabasePoolIdleConnections() {
+		return BLibDBC.getIdleConnections();
+	}
+
+	@Override
+	public int getDatabasePoolInUseConnections() {
+		return BLibDBC.getInUseConnections();
+	}
+
+	@Override
+	public int getNotificationBacklog() {
+		return MessageController.getInstance().getPendingMessages();
+	}
+
+	@Override
+	public void runDueCommandsNow() {
+		ServerTimer.runNow();
+	}
+
+	@Override
+	public void flushCaches() {
+		HistoryArchive.getInstance().flush();
+		if (!LibraryStorage.isInMemory() && CatalogEngine.isEnabled())
+			CatalogEngine.getInstance().reload(); // Pick up catalog changes made outside the server
+	}
+
+	@Override
+	public void resetStatistics() {
+		commands.clear();
+		failed.reset();
+		resetTime = System.nanoTime();
+	}
+
+	@Override
+	public String exportData(String tables, String format, boolean compress) {
+		return DataExporter.getInstance().start(tables, format, compress);
+	}
+
+	@Override
+	public String getExportStatus() {
+		return DataExporter.getInstance().getStatus();
+	}
+}
@@ -0,0 +1,122 @@
+package server;
+
+/**
+ * The management interface of the BLib server, exposed through JMX by
+ * {@link BLibServerMonitor} under the name "server:type=BLibServer".
+ */
+public interface BLibServerMonitorMBean {
+
+	/**
+	 * @return the number of connected clients
+	 */
+	int getConnectedClients();
+
+	/**
+	 * @return the number of client requests that are being handled right now
+	 */
+	long getInFlightRequests();
+
+	/**
+	 * @return the number of client requests handled since the server started
+	 */
+	long getTotalRequests();
+
+	/**
+	 * @return the number of client requests that failed with an exception
+	 */
+	long getFailedRequests();
+
+	/**
+	 * @return a line per client command with its count, throughput and latency
+	 */
+	String[] getCommandStatistics();
+
+	/**
+	 * @return a line per kind of lock with the time commands waited for it
+	 */
+	String[] getLockWaitStatistics();
+
+	/**
+	 * @return the number of scheduled commands whose time has passed
+	 */
+	int getSchedulerQueueDepth();
+
+	/**
+	 * @return how many seconds the oldest due scheduled command is waiting, or 0
+	 *         if no command is due
+	 */
+	long getSchedulerLagSeconds();
+
+	/**
+	 * @return the time the server timer last executed the due commands
+	 */
+	String getSchedulerLastRun();
+
+	/**
+	 * @return whether the database connection is open
+	 */
+	boolean isDatabaseConnected();
+
+	/**
+	 * @return the number of database statements that are executing right now, on
+	 *         every database connection
+	 */
+	long getDatabaseBusyStatements();
+
+	/**
+	 * @return how long the oldest open database transaction has been open in
+	 *         milliseconds
+	 */
+	long getDatabaseOpenTransactionMillis();
+
+	/**
+	 * @return the number of open database connections of the units of work, idle
+	 *         or in use
+	 */
+	int getDatabasePoolOpenConnections();
+
+	/**
+	 * @return the number of open database connections waiting for a unit of work
+	 */
+	int getDatabasePoolIdleConnections();
+
+	/**
+	 * @return the number of database connections taken by a unit of work
+	 */
+	int getDatabasePoolInUseConnections();
+
+	/**
+	 * @return the number of emails and SMS messages that were not sent yet
+	 */
+	int getNotificationBacklog();
+
+	/**
+	 * Wakes the server timer up so it executes the due commands now.
+	 */
+	void runDueCommandsNow();
+
+	/**
+	 * Drops the cached data of the server, it is read again when needed.
+	 */
+	void flushCaches();
+
+	/**
+	 * Clears the command statistics.
+	 */
+	void resetStatistics();
+
+	/**
+	 * Starts exporting tables of the database to files in the background.
+	 *
+	 * @param tables   the tables separated by commas, or "all"
+	 * @param format   csv or jsonl
+	 * @param compress whether to gzip the files
+	 * @return the directory of the files, or why the export didn't start
+	 */
+	String exportData(String tables, String format, boolean compress);
+
+	/**
+	 * @return the progress of the running export, or the result of the last one
+	 */
+	String getExportStatus();
+}
@@ -0,0 +1,123 @@
+package server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import logic.Message;
+import ocsf.server.AbstractServer;
+import ocsf.server.ConnectionToClient;
+
+/**
+ * The CacheInvalidator class tells the clients which titles, copies and
+ * subscribers changed, so they drop the replies they cached about them. Every
+ * change is pushed to all the connected clients as a message
+ * {@code ("invalidate", titleIDs, copyIDs, subscriberIDs)}, where a null list
+ * means all the entities of its kind.
+ *
+ * The messages are sent by a single background thread, after the command that
+ * made the change ended, so the server threads don't wait for slow clients.
+ * A message is never written to a client while the client's own command is
+ * being handled: the server thread of the client holds the client's send lock
+ * for the whole command, and the background thread takes it for every message.
+ */
+public class CacheInvalidator {
+	private static CacheInvalidator instance;
+
+	// Serializes the writes to each client
+	private final Map<ConnectionToClient, ReentrantLock> sendLocks = new ConcurrentHashMap<>();
+	private final ExecutorService sender = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "cache-invalidation");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Returns the single instance of CacheInvalidator.
+	 *
+	 * @return the instance of CacheInvalidator
+	 */
+	public static synchronized CacheInvalidator getInstance() {
+		if (instance == null)
+			instance = new CacheInvalidator();
+		return instance;
+	}
+
+	private CacheInvalidator() {
+	}
+
+	/**
+	 * Returns the lock of the writes to a client, held by the server thread of the
+	 * client while it handles a command.
+	 *
+	 * @param client the client
+	 * @return the lock
+	 */
+	public ReentrantLock sendLock(ConnectionToClient client) {
+		return sendLocks.computeIfAbsent(client, c -> new ReentrantLock());
+	}
+
+	/**
+	 * Forgets a client that disconnected.
+	 *
+	 * @param client the client
+	 */
+	public void forget(ConnectionToClient client) {
+		sendLocks.remove(client);
+	}
+
+	/**
+	 * Tells all the connected clients that titles, copies and subscribers
+	 * changed. Nothing is sent if no entity changed.
+	 *
+	 * @param server        the server of the clients
+	 * @param titleIDs      the IDs of the changed titles, or null for all titles
+	 * @param copyIDs       the IDs of the changed copies, or null for all copies
+	 * @param subscriberIDs the IDs of the changed subscribers, or null for all
+	 *                      subscribers
+	 */
+	public void changed(AbstractServer server, Collection<Integer> titleIDs, Collection<Integer> copyIDs,
+			Collection<Integer> subscriberIDs) {
+		if (titleIDs != null && titleIDs.isEmpty() && copyIDs != null && copyIDs.isEmpty() && subscriberIDs != null
+				&& subscriberIDs.isEmpty())
+			return;
+		Message msg = new Message("invalidate", copy(titleIDs), copy(copyIDs), copy(subscriberIDs));
+		sender.execute(() -> {
+			for (Thread thread : server.getClientConnections()) {
+				ConnectionToClient client = (ConnectionToClient) thread;
+				// A client without a lock never sent a command, it has nothing cached.
+				// Not creating one keeps a client that disconnects meanwhile forgotten
+				ReentrantLock lock = sendLocks.get(client);
+				if (lock == null)
+					continue;
+				lock.lock();
+				try {
+					client.sendToClient(msg);
+				} catch (IOException e) {
+					// The client disconnected, it has no cache left to invalidate
+				} finally {
+					lock.unlock();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return a serializable copy of the IDs without nulls, or null
+	 */
+	private static ArrayList<Integer> copy(Collection<Integer> ids) {
+		if (ids == null)
+			return null;
+		ArrayList<Integer> ret = new ArrayList<>(ids.size());
+		for (Integer id : ids) {
+			if (id != null && !ret.contains(id))
+				ret.add(id);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,73 @@
+package server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The CacheStats class counts the hits and misses of a server cache. The
+ * counters of every cache are kept by name, so the metrics endpoint can report
+ * all of them. Counting is lock free.
+ */
+public class CacheStats {
+
+	// The counters of each cache, by the cache's name
+	private static final Map<String, CacheStats> caches = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Private constructor, the counters are created by {@link #of(String)}.
+	 */
+	private CacheStats() {
+	}
+
+	/**
+	 * Returns the counters of a cache, creating them on the first call.
+	 *
+	 * @param name the name of the cache
+	 * @return the counters of the cache
+	 */
+	public static CacheStats of(String name) {
+		return caches.computeIfAbsent(name, n -> new CacheStats());
+	}
+
+	/**
+	 * @return the counters of every cache, ordered by name
+	 */
+	public static Map<String, CacheStats> getAll() {
+		return new TreeMap<>(caches);
+	}
+
+	/**
+	 * Counts a lookup that was found in the cache.
+	 */
+	public void hit() {
+		hits.increment();
+	}
+
+	/**
+	 * Counts a lookup that was not found in the cache.
+	 */
+	public void miss() {
+		misses.increment();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the ratio of lookups found in the cache, or 0 if there were none
+	 */
+	public double getHitRatio() {
+		long h = hits.sum(), total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+}
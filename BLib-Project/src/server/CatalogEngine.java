@@ -0,0 +1,824 @@
+package server;
+
+import java.io.DataInputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import logic.Activity;
+import logic.BookCopy;
+import logic.BookTitle;
+import logic.Borrow;
+import logic.Message;
+import logic.Order;
+import logic.Subscriber;
+
+/**
+ * The CatalogEngine class keeps every title and copy of the database storage in
+ * memory and serves the catalog reads (getTitleByID, getCopiesByTitle,
+ * getTitlesByKeyword, getCopyByID and the availability of titles) without the
+ * database. All the other operations are passed to {@link BLibDBC}.
+ *
+ * The catalog is an immutable snapshot that readers use without locking. The
+ * writes that change the catalog (borrows, returns, orders and canceled
+ * orders) are done in the database first. The title they changed is then
+ * reread and a new snapshot is published, once the write is committed: a
+ * write of a {@link UnitOfWork} is published when the unit commits, and not at
+ * all if it is rolled back. The writers are serialized by the engine, so
+ * readers never wait for them.
+ *
+ * The engine also keeps a {@link CopyStatusIndex} of the borrowed copies of
+ * every title, updated on borrows, returns and extensions, so the availability
+ * of a title and its return date are answered without the database as well.
+ * The {@link OrderQueues} of the waiting orders of every title give a returned
+ * copy its next order and a subscriber their place in line.
+ *
+ * The engine is used unless the `blib.catalogCache` system property is
+ * "false". The catalog is loaded when the database is connected, and reloaded
+ * by {@link #reload()} after the database was changed by anyone else.
+ */
+public class CatalogEngine implements LibraryStorage {
+
+	private static volatile CatalogEngine instance;
+
+	private final CacheStats stats = CacheStats.of("catalog");
+
+	// The published catalog, null until it is loaded
+	private volatile Snapshot snapshot;
+	// The borrowed copies and due dates of every title
+	private volatile CopyStatusIndex status = new CopyStatusIndex();
+	// True while the status index matches the database
+	private volatile boolean statusLoaded = false;
+	// The waiting orders of every title
+	private volatile OrderQueues orders = new OrderQueues();
+	// True while the order queues match the database
+	private volatile boolean ordersLoaded = false;
+
+	/**
+	 * A title with its copies, and its fields in lower case for the keyword
+	 * search.
+	 */
+	private static class TitleEntry {
+		private final BookTitle title;
+		private final Map<Integer, BookCopy> copies; // By copy ID
+		private final String[] searchFields;
+
+		private TitleEntry(BookTitle title, Set<BookCopy> copies) {
+			this.title = title;
+			Map<Integer, BookCopy> byID = new HashMap<>();
+			for (BookCopy copy : copies) {
+				byID.put(copy.getCopyID(), copy);
+			}
+			this.copies = Collections.unmodifiableMap(byID);
+			this.searchFields = new String[] { lower(title.getTitleName()), lower(title.getAuthorName()),
+					lower(title.getDescription()), lower(title.getGenre()) };
+		}
+
+		private static String lower(String field) {
+			return field == null ? "" : field.toLowerCase();
+		}
+
+		/**
+		 * Checks if a field of the title contains a lower case keyword, like the
+		 * LIKE '%keyword%' search of the case insensitive database.
+		 */
+		private boolean matches(String lowerKeyword) {
+			for (String field : searchFields) {
+				if (field.contains(lowerKeyword))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * An immutable version of the catalog.
+	 */
+	private static class Snapshot {
+		private final Map<Integer, TitleEntry> titles; // By title ID
+		private final Map<Integer, Integer> titleOfCopy; // Title ID by copy ID
+
+		private Snapshot(Map<Integer, TitleEntry> titles, Map<Integer, Integer> titleOfCopy) {
+			this.titles = Collections.unmodifiableMap(titles);
+			this.titleOfCopy = Collections.unmodifiableMap(titleOfCopy);
+		}
+
+		/**
+		 * Creates the next snapshot, with a title replaced. The copy index is shared
+		 * unless the title has a copy it doesn't know.
+		 */
+		private Snapshot with(TitleEntry entry) {
+			Map<Integer, TitleEntry> newTitles = new HashMap<>(titles);
+			newTitles.put(entry.title.getTitleID(), entry);
+			Map<Integer, Integer> newTitleOfCopy = titleOfCopy;
+			if (!titleOfCopy.keySet().containsAll(entry.copies.keySet())) {
+				newTitleOfCopy = new HashMap<>(titleOfCopy);
+				for (int copyID : entry.copies.keySet()) {
+					newTitleOfCopy.put(copyID, entry.title.getTitleID());
+				}
+			}
+			return new Snapshot(newTitles, newTitleOfCopy);
+		}
+	}
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private CatalogEngine() {
+	}
+
+	/**
+	 * Returns the singleton instance of {@code CatalogEngine}.
+	 *
+	 * @return the singleton instance of {@code CatalogEngine}
+	 */
+	public static CatalogEngine getInstance() {
+		if (instance == null) {
+			synchronized (CatalogEngine.class) {
+				if (instance == null) {
+					instance = new CatalogEngine();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @return true unless the `blib.catalogCache` system property is "false"
+	 */
+	public static boolean isEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty("blib.catalogCache"));
+	}
+
+	/**
+	 * The database storage, looked up on every call since it is replaced after it
+	 * disconnects for inactivity.
+	 */
+	private LibraryStorage storage() {
+		return BLibDBC.getInstance();
+	}
+
+	/**
+	 * Loads the whole catalog from the database and publishes it.
+	 *
+	 * @return true if the catalog was loaded, false if the database failed
+	 */
+	public synchronized boolean reload() {
+		Map<BookTitle, Set<BookCopy>> catalog = storage().getCatalog();
+		if (catalog == null)
+			return false;
+		Map<Integer, TitleEntry> titles = new HashMap<>();
+		Map<Integer, Integer> titleOfCopy = new HashMap<>();
+		for (Map.Entry<BookTitle, Set<BookCopy>> e : catalog.entrySet()) {
+			TitleEntry entry = new TitleEntry(e.getKey(), e.getValue());
+			titles.put(e.getKey().getTitleID(), entry);
+			for (int copyID : entry.copies.keySet()) {
+				titleOfCopy.put(copyID, e.getKey().getTitleID());
+			}
+		}
+		snapshot = new Snapshot(titles, titleOfCopy);
+
+		// Index the borrowed copies of every title with the due dates of their borrows
+		CopyStatusIndex newStatus = new CopyStatusIndex();
+		Map<Integer, LocalDate> dueDates = storage().getActiveDueDates();
+		if (dueDates != null) {
+			for (TitleEntry entry : titles.values()) {
+				newStatus.setTitle(entry.title.getTitleID(), new HashSet<>(entry.copies.values()), dueDates);
+			}
+		}
+		status = newStatus; // Readers keep using the old index until the new one is complete
+		statusLoaded = dueDates != null;
+
+		// Line up the waiting orders of every title
+		OrderQueues newOrders = new OrderQueues();
+		Map<Integer, LinkedHashMap<Integer, Integer>> waiting = storage().getWaitingOrders(null);
+		if (waiting != null) {
+			for (Map.Entry<Integer, LinkedHashMap<Integer, Integer>> e : waiting.entrySet()) {
+				newOrders.setTitle(e.getKey(), e.getValue());
+			}
+		}
+		orders = newOrders;
+		ordersLoaded = waiting != null;
+		System.out.println("catalog loaded: " + titles.size() + " titles, " + titleOfCopy.size() + " copies");
+		return true;
+	}
+
+	/**
+	 * Rereads a title and its copies from the database and publishes a snapshot
+	 * with them. If they can't be read, the snapshot is dropped and the catalog is
+	 * loaded again on the next read.
+	 *
+	 * @param titleID the ID of the title
+	 */
+	private synchronized void refreshTitle(int titleID) {
+		if (snapshot == null)
+			return;
+		BookTitle title = storage().getTitleByID(titleID);
+		Set<BookCopy> copies = title == null ? null : storage().getCopiesByTitle(title);
+		if (copies == null) {
+			snapshot = null;
+			return;
+		}
+		TitleEntry entry = new TitleEntry(title, copies);
+		snapshot = snapshot.with(entry);
+
+		// Index the title again if its copies changed, with the due dates it already has
+		if (statusLoaded && !status.hasTitle(titleID, entry.copies.keySet())) {
+			Map<Integer, LocalDate> dueDates = status.getDueDates(titleID);
+			for (BookCopy copy : copies) {
+				if (copy.isBorrowed() && !dueDates.containsKey(copy.getCopyID())) {
+					Borrow borrow = storage().getCopyActiveBorrow(copy);
+					if (borrow != null)
+						dueDates.put(copy.getCopyID(), borrow.getDueDate());
+				}
+			}
+			status.setTitle(titleID, copies, dueDates);
+		}
+	}
+
+	/**
+	 * Rereads the waiting orders of a title and lines them up again. If they can't
+	 * be read, the order queues aren't used until the catalog is loaded again.
+	 *
+	 * @param titleID the ID of the title
+	 */
+	private synchronized void refreshOrders(int titleID) {
+		Map<Integer, LinkedHashMap<Integer, Integer>> waiting = storage().getWaitingOrders(titleID);
+		if (waiting == null) {
+			ordersLoaded = false;
+			return;
+		}
+		orders.setTitle(titleID, waiting.getOrDefault(titleID, new LinkedHashMap<>()));
+	}
+
+	/**
+	 * Rereads the title of a copy, see {@link #refreshTitle(int)}.
+	 *
+	 * @param copyID the ID of the copy
+	 */
+	private void refreshCopy(int copyID) {
+		Snapshot s = snapshot;
+		Integer titleID = s == null ? null : s.titleOfCopy.get(copyID);
+		if (titleID != null) {
+			refreshTitle(titleID);
+		} else if (s != null) {
+			reload(); // A copy the catalog doesn't know, someone else changed the database
+		}
+	}
+
+	/**
+	 * Refreshes the titles of many copies, each title once.
+	 *
+	 * @param copies the copies whose borrow or order status changed
+	 */
+	private void refreshTitles(Collection<BookCopy> copies) {
+		Set<Integer> titleIDs = new HashSet<>();
+		for (BookCopy copy : copies) {
+			if (titleIDs.add(copy.getTitle().getTitleID()))
+				refreshCopy(copy.getCopyID());
+		}
+	}
+
+	/**
+	 * Applies a change of the catalog, the status index or the order queues once
+	 * the write it follows is committed: when the unit of work open on the thread
+	 * commits, or right away outside of a unit, where every write commits on its
+	 * own.
+	 *
+	 * @param change the change
+	 */
+	private static void afterCommit(Runnable change) {
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit != null)
+			unit.afterCommit(change);
+		else
+			change.run();
+	}
+
+	/**
+	 * Repairs the catalog, the status index or the order queues if the writes of
+	 * the unit of work open on the thread are rolled back. Outside of a unit every
+	 * write commits on its own, and there is nothing to repair.
+	 *
+	 * @param repair the repair
+	 */
+	private static void afterRollback(Runnable repair) {
+		UnitOfWork unit = UnitOfWork.current();
+		if (unit != null)
+			unit.afterRollback(repair);
+	}
+
+	/**
+	 * Rereads the waiting orders of a title after a write of them failed, once the
+	 * unit of work open on the thread ends, or right away outside of a unit.
+	 *
+	 * @param titleID the ID of the title
+	 */
+	private void refreshOrdersAfterUnit(int titleID) {
+		afterCommit(() -> refreshOrders(titleID));
+		afterRollback(() -> refreshOrders(titleID));
+	}
+
+	/**
+	 * Retrieves a copy from the catalog, counting the hit or the miss.
+	 *
+	 * @param copyID the ID of the copy
+	 * @return the copy, or null if the catalog doesn't have it
+	 */
+	private BookCopy getCachedCopy(int copyID) {
+		Snapshot s = snapshot();
+		Integer titleID = s == null ? null : s.titleOfCopy.get(copyID);
+		if (titleID != null) {
+			stats.hit();
+			return s.titles.get(titleID).copies.get(copyID);
+		}
+		stats.miss();
+		return null;
+	}
+
+	/**
+	 * Retrieves a title of the catalog.
+	 *
+	 * @param titleID the ID of the title
+	 * @return the title with its copies, or null if the catalog doesn't have it
+	 */
+	private TitleEntry titleEntry(int titleID) {
+		Snapshot s = snapshot();
+		return s == null ? null : s.titles.get(titleID);
+	}
+
+	/**
+	 * Returns the published snapshot, loading the catalog if it isn't loaded.
+	 *
+	 * @return the snapshot, or null if the catalog can't be loaded
+	 */
+	private Snapshot snapshot() {
+		Snapshot s = snapshot;
+		if (s == null) {
+			synchronized (this) {
+				if (snapshot == null)
+					reload();
+				s = snapshot;
+			}
+		}
+		return s;
+	}
+
+	@Override
+	public boolean connect(String password) {
+		if (!storage().connect(password))
+			return false;
+		reload(); // Load the catalog while the server starts
+		return true;
+	}
+
+	@Override
+	public boolean disconnect() {
+		return storage().disconnect(); // The catalog stays loaded for the guests
+	}
+
+	@Override
+	public int checkQueryPlans() {
+		return storage().checkQueryPlans();
+	}
+
+	@Override
+	public BookTitle getTitleByID(int titleID) {
+		Snapshot s = snapshot();
+		TitleEntry entry = s == null ? null : s.titles.get(titleID);
+		if (entry != null) {
+			stats.hit();
+			return entry.title;
+		}
+		stats.miss();
+		return storage().getTitleByID(titleID);
+	}
+
+	@Override
+	public Set<BookCopy> getCopiesByTitle(BookTitle title) {
+		Snapshot s = snapshot();
+		TitleEntry entry = s == null ? null : s.titles.get(title.getTitleID());
+		if (entry != null) {
+			stats.hit();
+			return new HashSet<>(entry.copies.values());
+		}
+		stats.miss();
+		return storage().getCopiesByTitle(title);
+	}
+
+	@Override
+	public Set<BookTitle> getTitlesByKeyword(String keyword) {
+		Snapshot s = snapshot();
+		if (s == null) {
+			stats.miss();
+			return storage().getTitlesByKeyword(keyword);
+		}
+		stats.hit();
+		String lower = keyword.toLowerCase();
+		Set<BookTitle> bookSet = new HashSet<>();
+		for (TitleEntry entry : s.titles.values()) {
+			if (entry.matches(lower))
+				bookSet.add(entry.title);
+		}
+		return bookSet;
+	}
+
+	@Override
+	public Map<BookTitle, Set<BookCopy>> getCatalog() {
+		Snapshot s = snapshot();
+		if (s == null)
+			return null;
+		Map<BookTitle, Set<BookCopy>> ret = new HashMap<>();
+		for (TitleEntry entry : s.titles.values()) {
+			ret.put(entry.title, new HashSet<>(entry.copies.values()));
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<Integer, LocalDate> getActiveDueDates() {
+		return storage().getActiveDueDates();
+	}
+
+	@Override
+	public Map<Integer, LinkedHashMap<Integer, Integer>> getWaitingOrders(Integer titleID) {
+		return storage().getWaitingOrders(titleID);
+	}
+
+	@Override
+	public Subscriber getSubscriberByID(int subscriberID) {
+		return storage().getSubscriberByID(subscriberID);
+	}
+
+	@Override
+	public Order getOrderByCopy(int copyID) {
+		return storage().getOrderByCopy(copyID);
+	}
+
+	@Override
+	public Boolean createBorrow(int subscriberID, int copyID) {
+		Boolean ret = storage().createBorrow(subscriberID, copyID);
+		if (Boolean.TRUE.equals(ret)) {
+			afterCommit(() -> {
+				refreshCopy(copyID);
+				BookCopy copy = getCopyByID(copyID);
+				Borrow borrow = copy == null ? null : storage().getCopyActiveBorrow(copy);
+				if (borrow != null)
+					status.borrowed(copyID, borrow.getDueDate());
+			});
+		}
+		return ret;
+	}
+
+	@Override
+	public BookCopy getCopyByID(int copyID) {
+		BookCopy copy = getCachedCopy(copyID);
+		return copy != null ? copy : storage().getCopyByID(copyID);
+	}
+
+	@Override
+	public Boolean updateSubscriber(Subscriber newSubscriber, String userType) {
+		return storage().updateSubscriber(newSubscriber, userType);
+	}
+
+	@Override
+	public Boolean registerSubscriber(Subscriber subscriber, String password) {
+		return storage().registerSubscriber(subscriber, password);
+	}
+
+	@Override
+	public List<String> registerSubscribers(List<Subscriber> subscribers, List<String> passwords) {
+		return storage().registerSubscribers(subscribers, passwords);
+	}
+
+	@Override
+	public String login(int userID, String password) {
+		return storage().login(userID, password);
+	}
+
+	@Override
+	public Borrow getCopyActiveBorrow(BookCopy copy) {
+		return storage().getCopyActiveBorrow(copy);
+	}
+
+	@Override
+	public Boolean extendDuration(Borrow borrow, int days, String userType) {
+		Boolean ret = storage().extendDuration(borrow, days, userType);
+		if (Boolean.TRUE.equals(ret)) // Move the due date
+			afterCommit(() -> status.borrowed(borrow.getBook().getCopyID(), borrow.getDueDate().plusDays(days)));
+		return ret;
+	}
+
+	@Override
+	public Integer getTitleAvailability(BookTitle title) {
+		TitleEntry entry = titleEntry(title.getTitleID());
+		if (entry == null || !statusLoaded) {
+			stats.miss();
+			return storage().getTitleAvailability(title);
+		}
+		stats.hit();
+		// Copies minus borrowed copies minus orders, null for a title without copies
+		Integer borrowed = status.countBorrowed(title.getTitleID());
+		if (borrowed == null)
+			return null;
+		return entry.title.getNumOfCopies() - borrowed - entry.title.getNumOfOrders();
+	}
+
+	@Override
+	public Boolean isTitleOrdered(int titleID) {
+		TitleEntry entry = titleEntry(titleID);
+		if (entry == null) {
+			stats.miss();
+			return storage().isTitleOrdered(titleID);
+		}
+		stats.hit();
+		return entry.title.getNumOfOrders() > 0;
+	}
+
+	@Override
+	public Boolean returnBook(BookCopy book, boolean isLateReturn) {
+		Boolean ret = storage().returnBook(book, isLateReturn);
+		if (Boolean.TRUE.equals(ret)) {
+			afterCommit(() -> {
+				refreshCopy(book.getCopyID());
+				status.returned(book.getCopyID());
+			});
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<Integer, BookCopy> getCopiesByID(Collection<Integer> copyIDs) {
+		Map<Integer, BookCopy> ret = new HashMap<>();
+		Set<Integer> missing = new HashSet<>();
+		for (int copyID : copyIDs) {
+			BookCopy copy = getCachedCopy(copyID);
+			if (copy != null)
+				ret.put(copyID, copy);
+			else
+				missing.add(copyID);
+		}
+		// Read the copies the catalog doesn't know with a single query
+		if (!missing.isEmpty()) {
+			Map<Integer, BookCopy> read = storage().getCopiesByID(missing);
+			if (read == null)
+				return null;
+			ret.putAll(read);
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<Integer, Borrow> getCopiesActiveBorrows(Collection<BookCopy> copies) {
+		return storage().getCopiesActiveBorrows(copies);
+	}
+
+	@Override
+	public Map<Integer, Order> getOrdersByCopies(Collection<BookCopy> copies) {
+		return storage().getOrdersByCopies(copies);
+	}
+
+	@Override
+	public Boolean createBorrows(Subscriber sub, List<BookCopy> copies) {
+		Boolean ret = storage().createBorrows(sub, copies);
+		if (Boolean.TRUE.equals(ret)) {
+			afterCommit(() -> {
+				refreshTitles(copies);
+				Map<Integer, Borrow> borrows = storage().getCopiesActiveBorrows(copies);
+				if (borrows != null) {
+					for (Borrow borrow : borrows.values()) {
+						status.borrowed(borrow.getBook().getCopyID(), borrow.getDueDate());
+					}
+				}
+			});
+		}
+		return ret;
+	}
+
+	@Override
+	public Boolean returnBooks(List<Borrow> borrows) {
+		Boolean ret = storage().returnBooks(borrows);
+		if (Boolean.TRUE.equals(ret)) {
+			afterCommit(() -> {
+				List<BookCopy> copies = new ArrayList<>();
+				for (Borrow borrow : borrows) {
+					copies.add(borrow.getBook());
+					status.returned(borrow.getBook().getCopyID());
+				}
+				refreshTitles(copies);
+			});
+		}
+		return ret;
+	}
+
+	@Override
+	public Boolean freezeSubscriber(int subID) {
+		return storage().freezeSubscriber(subID);
+	}
+
+	@Override
+	public Boolean unfreezeSubscriber(int subID) {
+		return storage().unfreezeSubscriber(subID);
+	}
+
+	@Override
+	public Integer freezeOverdueSubscribers(LocalDate lastDueDate) {
+		return storage().freezeOverdueSubscribers(lastDueDate);
+	}
+
+	@Override
+	public List<Activity> getSubscriberHistory(int subID, LocalDate beforeDate, int beforeID, int pageSize) {
+		return storage().getSubscriberHistory(subID, beforeDate, beforeID, pageSize);
+	}
+
+	@Override
+	public List<Message> getCommands() {
+		return storage().getCommands();
+	}
+
+	@Override
+	public Integer countDueCommands(LocalDateTime now) {
+		return storage().countDueCommands(now);
+	}
+
+	@Override
+	public LocalDateTime getOldestDueCommand(LocalDateTime now) {
+		return storage().getOldestDueCommand(now);
+	}
+
+	@Override
+	public List<Borrow> getSubscriberActiveBorrows(Subscriber sub) {
+		return storage().getSubscriberActiveBorrows(sub);
+	}
+
+	@Override
+	public Map<Integer, String> getLibrarianMessages(String librarian, int afterID) {
+		return storage().getLibrarianMessages(librarian, afterID);
+	}
+
+	@Override
+	public Integer countLibrarianMessages(String librarian) {
+		return storage().countLibrarianMessages(librarian);
+	}
+
+	@Override
+	public Boolean clearLibrarianMessages(String librarian, int lastID) {
+		return storage().clearLibrarianMessages(librarian, lastID);
+	}
+
+	@Override
+	public Boolean orderBook(int subID, int titleID) {
+		Boolean ret = storage().orderBook(subID, titleID);
+		if (Boolean.TRUE.equals(ret)) {
+			afterCommit(() -> {
+				refreshTitle(titleID); // The number of orders of the title changed
+				refreshOrders(titleID);
+			});
+		}
+		return ret;
+	}
+
+	@Override
+	public Integer getNumOfCopies(BookTitle title) {
+		if (titleEntry(title.getTitleID()) == null || !statusLoaded) {
+			stats.miss();
+			return storage().getNumOfCopies(title);
+		}
+		stats.hit();
+		return status.countBorrowed(title.getTitleID());
+	}
+
+	@Override
+	public List<Subscriber> getAllSubscribers() {
+		return storage().getAllSubscribers();
+	}
+
+	@Override
+	public List<Order> getSubscriberActiveOrders(Subscriber sub) {
+		return storage().getSubscriberActiveOrders(sub);
+	}
+
+	@Override
+	public Boolean updateOrder(BookCopy copy) {
+		if (!ordersLoaded)
+			return storage().updateOrder(copy);
+		// Assign the copy to the head of the line of its title. The orders leave the
+		// line once the assignment is committed, and the line is read again if it
+		// isn't
+		int titleID = copy.getTitle().getTitleID();
+		afterRollback(() -> refreshOrders(titleID));
+		for (int orderID : orders.waiting(titleID)) {
+			Boolean assigned = storage().assignOrder(orderID, copy);
+			if (assigned == null) {
+				refreshOrdersAfterUnit(titleID);
+				return false;
+			}
+			afterCommit(() -> orders.poll(titleID, orderID)); // Assigned now, or didn't wait anymore
+			if (assigned)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Boolean assignOrder(int orderID, BookCopy copy) {
+		int titleID = copy.getTitle().getTitleID();
+		Boolean ret = storage().assignOrder(orderID, copy);
+		if (ret == null) {
+			refreshOrdersAfterUnit(titleID);
+		} else {
+			afterRollback(() -> refreshOrders(titleID));
+			afterCommit(() -> orders.poll(titleID, orderID));
+		}
+		return ret;
+	}
+
+	@Override
+	public Integer[] getOrderPlace(int titleID, int subID) {
+		if (!ordersLoaded) {
+			stats.miss();
+			return storage().getOrderPlace(titleID, subID);
+		}
+		stats.hit();
+		return new Integer[] { orders.place(titleID, subID), orders.length(titleID) };
+	}
+
+	@Override
+	public Eligibility.Facts getEligibilityFacts(int subID, int titleID, int copyID) {
+		return storage().getEligibilityFacts(subID, titleID, copyID);
+	}
+
+	@Override
+	public Boolean createCommand(String command, String arguments, LocalDateTime timeOfExe, String identifyer) {
+		return storage().createCommand(command, arguments, timeOfExe, identifyer);
+	}
+
+	@Override
+	public Boolean cancelCommand(String command, String identifyer) {
+		return storage().cancelCommand(command, identifyer);
+	}
+
+	@Override
+	public Boolean cancelOrder(int copyID) {
+		Boolean ret = storage().cancelOrder(copyID);
+		if (Boolean.TRUE.equals(ret))
+			afterCommit(() -> refreshCopy(copyID)); // The number of orders of the title changed
+		return ret;
+	}
+
+	@Override
+	public LocalDate getTitleClosestReturnDate(BookTitle title) {
+		if (titleEntry(title.getTitleID()) == null || !statusLoaded) {
+			stats.miss();
+			return storage().getTitleClosestReturnDate(title);
+		}
+		// Only a title without an available copy has a return date
+		Integer availability = getTitleAvailability(title);
+		if (availability == null || availability > 0)
+			return null;
+		return status.getReturnDate(title.getTitleID());
+	}
+
+	@Override
+	public Map<LocalDate, Integer[]> getSubscribersStatusOnMonth(LocalDate date) {
+		return storage().getSubscribersStatusOnMonth(date);
+	}
+
+	@Override
+	public Integer SumNewSubscriber(LocalDate date) {
+		return storage().SumNewSubscriber(date);
+	}
+
+	@Override
+	public Integer archiveColdHistory() {
+		return storage().archiveColdHistory();
+	}
+
+	@Override
+	public Boolean saveGraph(LocalDate day, String graph_type, byte[] data) {
+		return storage().saveGraph(day, graph_type, data);
+	}
+
+	@Override
+	public DataInputStream getGraph(int year, int month, String graphType) {
+		return storage().getGraph(year, month, graphType);
+	}
+
+	@Override
+	public Map<String, Double[]> getBorrowTimeOnMonth(LocalDate date) {
+		return storage().getBorrowTimeOnMonth(date);
+	}
+
+	@Override
+	public Double getAvgBorrowTimeOnMonth(LocalDate date) {
+		return storage().getAvgBorrowTimeOnMonth(date);
+	}
+}
@@ -0,0 +1,203 @@
+package server;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import logic.BookCopy;
+
+/**
+ * The CopyStatusIndex class keeps, for every title, a bitmap of its borrowed
+ * copies and a heap of the due dates of its active borrows. It answers how many
+ * copies of a title are borrowed and the return date shown for a title with no
+ * available copy without reading the copies and borrows tables.
+ *
+ * {@link CatalogEngine} builds the index when it loads the catalog and updates
+ * it on every borrow, return and extension. Each title is locked on its own,
+ * for the short time of an update or an answer.
+ */
+public class CopyStatusIndex {
+
+	/**
+	 * The borrow status of the copies of a single title.
+	 */
+	private static class TitleStatus {
+		private final Map<Integer, Integer> bitOfCopy = new HashMap<>(); // Bit of each copy ID
+		private final BitSet borrowed = new BitSet(); // Set bits are the borrowed copies
+		private final Map<Integer, LocalDate> dueOfCopy = new HashMap<>(); // Due date of each borrowed copy
+		// Due dates of the borrowed copies, the latest first like getTitleClosestReturnDate
+		private final PriorityQueue<LocalDate> dueDates = new PriorityQueue<>(Comparator.reverseOrder());
+		private int numBorrowed; // Cardinality of the bitmap
+
+		/**
+		 * Marks a copy as borrowed until a due date.
+		 */
+		private void borrow(int copyID, LocalDate dueDate) {
+			Integer bit = bitOfCopy.get(copyID);
+			if (bit == null)
+				return;
+			if (!borrowed.get(bit)) {
+				borrowed.set(bit);
+				numBorrowed++;
+			}
+			setDueDate(copyID, dueDate);
+		}
+
+		/**
+		 * Marks a copy as returned.
+		 */
+		private void giveBack(int copyID) {
+			Integer bit = bitOfCopy.get(copyID);
+			if (bit == null || !borrowed.get(bit))
+				return;
+			borrowed.clear(bit);
+			numBorrowed--;
+			setDueDate(copyID, null);
+		}
+
+		/**
+		 * Replaces the due date of a borrowed copy in the heap.
+		 */
+		private void setDueDate(int copyID, LocalDate dueDate) {
+			LocalDate old = dueDate == null ? dueOfCopy.remove(copyID) : dueOfCopy.put(copyID, dueDate);
+			if (old != null)
+				dueDates.remove(old); // Removes one occurrence, other copies may share the date
+			if (dueDate != null)
+				dueDates.add(dueDate);
+		}
+	}
+
+	// Status of each title by title ID
+	private final Map<Integer, TitleStatus> titles = new ConcurrentHashMap<>();
+	// Title ID of each copy ID
+	private final Map<Integer, Integer> titleOfCopy = new ConcurrentHashMap<>();
+
+	/**
+	 * Replaces the status of a title.
+	 *
+	 * @param titleID  the ID of the title
+	 * @param copies   the copies of the title
+	 * @param dueDates the due dates of the active borrows by copy ID, copies that
+	 *                 aren't in it are available
+	 */
+	public void setTitle(int titleID, Set<BookCopy> copies, Map<Integer, LocalDate> dueDates) {
+		TitleStatus status = new TitleStatus();
+		for (BookCopy copy : copies) {
+			status.bitOfCopy.put(copy.getCopyID(), status.bitOfCopy.size());
+			titleOfCopy.put(copy.getCopyID(), titleID);
+		}
+		for (BookCopy copy : copies) {
+			LocalDate dueDate = dueDates.get(copy.getCopyID());
+			if (dueDate != null)
+				status.borrow(copy.getCopyID(), dueDate);
+		}
+		titles.put(titleID, status);
+	}
+
+	/**
+	 * Checks if the index has a title.
+	 *
+	 * @param titleID the ID of the title
+	 * @param copies  the copies the title should have
+	 * @return true if the title is indexed with exactly these copies
+	 */
+	public boolean hasTitle(int titleID, Set<Integer> copies) {
+		TitleStatus status = titles.get(titleID);
+		if (status == null)
+			return false;
+		synchronized (status) {
+			return status.bitOfCopy.keySet().equals(copies);
+		}
+	}
+
+	/**
+	 * Retrieves the due dates of the borrowed copies of a title.
+	 *
+	 * @param titleID the ID of the title
+	 * @return the due dates by copy ID, empty if the title isn't indexed
+	 */
+	public Map<Integer, LocalDate> getDueDates(int titleID) {
+		TitleStatus status = titles.get(titleID);
+		if (status == null)
+			return Collections.emptyMap();
+		synchronized (status) {
+			return new HashMap<>(status.dueOfCopy);
+		}
+	}
+
+	/**
+	 * Marks a copy as borrowed, or moves its due date after an extension.
+	 *
+	 * @param copyID  the ID of the copy
+	 * @param dueDate the due date of the borrow
+	 */
+	public void borrowed(int copyID, LocalDate dueDate) {
+		TitleStatus status = statusOfCopy(copyID);
+		if (status != null) {
+			synchronized (status) {
+				status.borrow(copyID, dueDate);
+			}
+		}
+	}
+
+	/**
+	 * Marks a copy as returned.
+	 *
+	 * @param copyID the ID of the copy
+	 */
+	public void returned(int copyID) {
+		TitleStatus status = statusOfCopy(copyID);
+		if (status != null) {
+			synchronized (status) {
+				status.giveBack(copyID);
+			}
+		}
+	}
+
+	/**
+	 * Counts the borrowed copies of a title.
+	 *
+	 * @param titleID the ID of the title
+	 * @return the number of borrowed copies, or null if the title isn't indexed
+	 *         or has no copies (like the SUM of the database)
+	 */
+	public Integer countBorrowed(int titleID) {
+		TitleStatus status = titles.get(titleID);
+		if (status == null)
+			return null;
+		synchronized (status) {
+			return status.bitOfCopy.isEmpty() ? null : status.numBorrowed;
+		}
+	}
+
+	/**
+	 * Retrieves the latest due date of the borrowed copies of a title, the date
+	 * getTitleClosestReturnDate reports.
+	 *
+	 * @param titleID the ID of the title
+	 * @return the due date, or null if no copy is borrowed
+	 */
+	public LocalDate getReturnDate(int titleID) {
+		TitleStatus status = titles.get(titleID);
+		if (status == null)
+			return null;
+		synchronized (status) {
+			return status.dueDates.peek();
+		}
+	}
+
+	/**
+	 * @return the status of the title of a copy, or null if the copy isn't
+	 *         indexed
+	 */
+	private TitleStatus statusOfCopy(int copyID) {
+		Integer titleID = titleOfCopy.get(copyID);
+		return titleID == null ? null : titles.get(titleID);
+	}
+}
@@ -0,0 +1,397 @@
+package server;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The DBMonitor class instruments the JDBC objects of {@link BLibDBC}. It wraps
+ * the database connection so that every prepared statement records, per SQL
+ * template, its number of executions, the rows it returned or changed and a
+ * histogram of its latency.
+ *
+ * Statements slower than the `blib.slowQueryMs` system property (default 100)
+ * are written with their bound parameters to the slow query log (the
+ * `blib.slowQueryLog` property, default "slow-query.log"). Transactions that
+ * were open longer than the `blib.longTxMs` property (default 1000) when they
+ * were committed or rolled back are logged there as well.
+ *
+ * The parameters of the last execution of every template are kept until
+ * {@link SchemaMigrations#checkQueryPlans} explains the template with them.
+ */
+public class DBMonitor {
+
+	private static final int RECENT_LOG_SIZE = 50; // Number of slow log entries kept in memory
+
+	private static volatile DBMonitor instance;
+
+	private final long slowQueryNanos = Long.getLong("blib.slowQueryMs", 100) * 1_000_000;
+	private final long longTxNanos = Long.getLong("blib.longTxMs", 1000) * 1_000_000;
+	private final String slowQueryLog = System.getProperty("blib.slowQueryLog", "slow-query.log");
+
+	// Statistics of each SQL template
+	private final Map<String, StatementStats> stats = new ConcurrentHashMap<>();
+	// The latest slow log entries, newest last
+	private final Deque<String> recentLog = new ArrayDeque<>();
+	// Number of statements that are executing right now
+	private final LongAdder executing = new LongAdder();
+	// The monitored connections that aren't closed
+	private final Set<ConnectionHandler> connections = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The statistics of a single SQL template.
+	 */
+	public static class StatementStats {
+		private final String sql;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder rows = new LongAdder();
+		// Parameters of the last execution, kept until the plan of the statement is checked
+		private volatile Map<Integer, Object> sampleParams = Collections.emptyMap();
+		private final AtomicBoolean planChecked = new AtomicBoolean();
+
+		private StatementStats(String sql) {
+			this.sql = sql;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		public long getRows() {
+			return rows.sum();
+		}
+
+		/**
+		 * @return the parameters the statement was last executed with by index, null
+		 *         for an SQL NULL
+		 */
+		public Map<Integer, Object> getSampleParams() {
+			return sampleParams;
+		}
+
+		/**
+		 * @return true if the plan of the statement was checked
+		 */
+		boolean isPlanChecked() {
+			return planChecked.get();
+		}
+
+		/**
+		 * Marks the plan of the statement as checked.
+		 *
+		 * @return true if it wasn't checked before
+		 */
+		boolean markPlanChecked() {
+			return planChecked.compareAndSet(false, true);
+		}
+	}
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private DBMonitor() {
+	}
+
+	/**
+	 * Returns the singleton instance of {@code DBMonitor}.
+	 *
+	 * @return the singleton instance of {@code DBMonitor}
+	 */
+	public static DBMonitor getInstance() {
+		if (instance == null) {
+			synchronized (DBMonitor.class) {
+				if (instance == null) {
+					instance = new DBMonitor();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Wraps a database connection so that the statements it prepares are
+	 * monitored.
+	 *
+	 * @param conn the connection to monitor
+	 * @return the monitored connection
+	 */
+	public Connection wrap(Connection conn) {
+		ConnectionHandler handler = new ConnectionHandler(conn);
+		connections.add(handler);
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, handler);
+	}
+
+	/**
+	 * Retrieves the statistics of the SQL templates, ordered by the total time
+	 * spent executing them.
+	 *
+	 * @return the statistics of each executed SQL template
+	 */
+	public List<StatementStats> getStatementStats() {
+		List<StatementStats> list = new ArrayList<>(stats.values());
+		list.sort((a, b) -> Double.compare(b.latency.getTotalMillis(), a.latency.getTotalMillis()));
+		return list;
+	}
+
+	/**
+	 * Retrieves the latest entries of the slow query log.
+	 *
+	 * @return the latest slow log entries, newest first
+	 */
+	public List<String> getRecentSlowLog() {
+		synchronized (recentLog) {
+			List<String> list = new ArrayList<>(recentLog);
+			Collections.reverse(list);
+			return list;
+		}
+	}
+
+	/**
+	 * @return the number of statements that are executing right now
+	 */
+	public long getExecuting() {
+		return executing.sum();
+	}
+
+	/**
+	 * @return how long the oldest open transaction of the monitored connections
+	 *         has been open in milliseconds, or 0 if no transaction is open
+	 */
+	public long getOpenTransactionMillis() {
+		long oldest = 0;
+		long now = System.nanoTime();
+		for (ConnectionHandler c : connections) {
+			long start = c.txStart;
+			if (start != 0)
+				oldest = Math.max(oldest, (now - start) / 1_000_000);
+		}
+		return oldest;
+	}
+
+	/**
+	 * Clears the collected statistics.
+	 */
+	public void reset() {
+		stats.clear();
+		synchronized (recentLog) {
+			recentLog.clear();
+		}
+	}
+
+	/**
+	 * Builds a text report of the statement statistics and the latest slow log
+	 * entries.
+	 *
+	 * @return the report
+	 */
+	public String getReport() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("executing: " + getExecuting() + ", oldest open transaction: " + getOpenTransactionMillis() + "ms\n\n");
+		for (StatementStats s : getStatementStats()) {
+			LatencyHistogram l = s.latency;
+			sb.append(String.format("%d calls, %d rows, total %.1fms%n", l.getCount(), s.getRows(), l.getTotalMillis()));
+			sb.append(String.format("p50 %.2fms p95 %.2fms p99 %.2fms max %.2fms%n", l.getPercentileMillis(50),
+					l.getPercentileMillis(95), l.getPercentileMillis(99), l.getMaxMillis()));
+			sb.append(s.sql + "\n\n");
+		}
+		List<String> slow = getRecentSlowLog();
+		if (!slow.isEmpty()) {
+			sb.append("slow log:\n");
+			for (String entry : slow) {
+				sb.append(entry + "\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Records an execution of a statement.
+	 *
+	 * @param s      the statistics of the SQL template
+	 * @param params the bound parameters
+	 * @param nanos  the execution time
+	 * @param rows   the number of changed rows, or 0 for queries (their rows are
+	 *               counted as they are read)
+	 */
+	private void record(StatementStats s, Map<Integer, Object> params, long nanos, long rows) {
+		s.latency.record(nanos);
+		s.rows.add(rows);
+		if (!s.planChecked.get())
+			s.sampleParams = new TreeMap<>(params);
+		if (nanos >= slowQueryNanos) {
+			log(String.format("%s slow query %.1fms: %s %s", LocalDateTime.now(), nanos / 1_000_000.0, s.sql,
+					params.values()));
+		}
+	}
+
+	/**
+	 * Writes an entry to the slow query log and keeps it in memory.
+	 *
+	 * @param entry the log entry
+	 */
+	private void log(String entry) {
+		synchronized (recentLog) {
+			recentLog.addLast(entry);
+			if (recentLog.size() > RECENT_LOG_SIZE)
+				recentLog.removeFirst();
+			try (PrintWriter out = new PrintWriter(new FileWriter(slowQueryLog, true))) {
+				out.println(entry);
+			} catch (IOException e) {
+				System.out.println("failed to write the slow query log");
+			}
+		}
+	}
+
+	/**
+	 * Invokes a method on the wrapped object and unwraps its exception.
+	 */
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Wraps the statements of a connection and tracks its transaction.
+	 */
+	private class ConnectionHandler implements InvocationHandler {
+		private final Connection conn;
+		// Start of the transaction of the connection, 0 if no transaction is open
+		private volatile long txStart = 0;
+
+		private ConnectionHandler(Connection conn) {
+			this.conn = conn;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			// A rollback to a savepoint doesn't end the transaction
+			if (name.equals("commit") || (name.equals("rollback") && args == null) || name.equals("close")) {
+				// The transaction ends, flag it if it was open for too long
+				long start = txStart;
+				txStart = 0;
+				if (name.equals("close"))
+					connections.remove(this);
+				if (start != 0 && System.nanoTime() - start >= longTxNanos) {
+					log(String.format("%s long transaction %dms, ended by %s", LocalDateTime.now(),
+							(System.nanoTime() - start) / 1_000_000, name));
+				}
+			}
+			Object result = DBMonitor.invoke(conn, method, args);
+			if (name.equals("prepareStatement") && result instanceof PreparedStatement) {
+				String sql = ((String) args[0]).trim().replaceAll("\\s+", " ");
+				if (sql.startsWith("EXPLAIN "))
+					return result; // The plan check, not a statement of the library
+				StatementStats s = stats.computeIfAbsent(sql, StatementStats::new);
+				return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+						new Class<?>[] { PreparedStatement.class }, new StatementHandler((PreparedStatement) result, s, this));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Times the executions of a statement and keeps its bound parameters.
+	 */
+	private class StatementHandler implements InvocationHandler {
+		private final PreparedStatement pstmt;
+		private final StatementStats stats;
+		private final Map<Integer, Object> params = new TreeMap<>(); // Bound parameters by index
+		private final ConnectionHandler connection; // The connection whose transaction the statement runs in
+
+		private StatementHandler(PreparedStatement pstmt, StatementStats stats, ConnectionHandler connection) {
+			this.pstmt = pstmt;
+			this.stats = stats;
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+
+			// Keep the bound parameters for the slow query log and the plan check
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+				params.put((Integer) args[0], name.equals("setNull") ? null : args[1]); // Not the SQL type of a NULL
+				return DBMonitor.invoke(pstmt, method, args);
+			}
+			if (name.equals("clearParameters")) {
+				params.clear();
+			}
+			if (!name.startsWith("execute")) {
+				Object result = DBMonitor.invoke(pstmt, method, args);
+				return name.equals("getResultSet") ? wrapResultSet(result) : result;
+			}
+
+			// An execution, time it
+			if (connection.txStart == 0)
+				connection.txStart = System.nanoTime();
+			executing.increment();
+			long start = System.nanoTime();
+			Object result;
+			try {
+				result = DBMonitor.invoke(pstmt, method, args);
+			} finally {
+				executing.decrement();
+			}
+			long nanos = System.nanoTime() - start;
+
+			long rows = 0;
+			if (result instanceof Integer) {
+				rows = (Integer) result;
+			} else if (result instanceof Long) {
+				rows = (Long) result;
+			} else if (result instanceof int[]) {
+				for (int count : (int[]) result)
+					rows += Math.max(count, 0);
+			} else if (result instanceof Boolean && !(Boolean) result) {
+				rows = Math.max(pstmt.getUpdateCount(), 0);
+			}
+			record(stats, params, nanos, rows);
+			return wrapResultSet(result);
+		}
+
+		/**
+		 * Wraps a result set so that the rows read from it are counted.
+		 */
+		private Object wrapResultSet(Object result) {
+			if (!(result instanceof ResultSet))
+				return result;
+			ResultSet rs = (ResultSet) result;
+			return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+					(proxy, method, args) -> {
+						Object value = DBMonitor.invoke(rs, method, args);
+						if (method.getName().equals("next") && Boolean.TRUE.equals(value)) {
+							stats.rows.increment();
+						}
+						return value;
+					});
+		}
+	}
+}
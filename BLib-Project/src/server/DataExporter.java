@@ -0,0 +1,304 @@
+package server;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The DataExporter class dumps whole tables of the database into files for the
+ * auditors, however large the tables are, in constant memory:
+ * <ul>
+ * <li>every table is read with a forward-only, read-only cursor that streams
+ * its rows instead of loading them,</li>
+ * <li>every row is written as it is read, through fixed size buffers, to a file
+ * channel, optionally gzip compressed,</li>
+ * <li>all the tables are read in one read-only transaction, so they are a
+ * consistent snapshot of the same moment.</li>
+ * </ul>
+ * An export runs on its own thread and its own database connection, so the
+ * server keeps serving the clients on the shared connection while it runs. One
+ * export runs at a time.
+ *
+ * The files are written to a new directory under the export directory (the
+ * blib.exportDir system property, default "exports"), one file per table:
+ * CSV with a header row, or JSON Lines with an object per row. The history
+ * years that were moved to the {@link HistoryArchive} are not in the database
+ * and are not exported, their archive files are already compressed per year.
+ */
+public class DataExporter {
+	// Tables that can be exported, the users table with the passwords is left out
+	public static final List<String> TABLES = List.of("titles", "copies", "subscribers", "borrows", "history");
+
+	private static final int BUFFER_SIZE = 64 * 1024; // Bytes of each write buffer
+	private static final int PROGRESS_ROWS = 100_000; // Rows between progress updates
+
+	private static DataExporter instance;
+
+	private final AtomicBoolean running = new AtomicBoolean(); // Whether an export is running
+	private volatile String status = "no export since the server started";
+
+	/**
+	 * Returns the single instance of DataExporter.
+	 *
+	 * @return the instance of DataExporter
+	 */
+	public static synchronized DataExporter getInstance() {
+		if (instance == null)
+			instance = new DataExporter();
+		return instance;
+	}
+
+	private DataExporter() {
+	}
+
+	/**
+	 * @return the progress of the running export, or the result of the last one
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * Starts exporting tables in the background.
+	 *
+	 * @param tables   the tables to export separated by commas, or "all"
+	 * @param format   csv or jsonl
+	 * @param compress whether to gzip the files
+	 * @return the directory the files are written to, or an error message that
+	 *         starts with "failed: "
+	 */
+	public String start(String tables, String format, boolean compress) {
+		List<String> names = new ArrayList<>();
+		if (tables == null || tables.isBlank() || tables.trim().equalsIgnoreCase("all")) {
+			names.addAll(TABLES);
+		} else {
+			for (String name : tables.split(",")) {
+				name = name.trim().toLowerCase();
+				if (!TABLES.contains(name)) // The names are put in the queries, only known tables are allowed
+					return "failed: unknown table " + name;
+				if (!names.contains(name))
+					names.add(name);
+			}
+		}
+		boolean json = "jsonl".equalsIgnoreCase(format);
+		if (!json && !"csv".equalsIgnoreCase(format))
+			return "failed: unknown format " + format;
+		if (LibraryStorage.isInMemory())
+			return "failed: the server has no database";
+		if (!running.compareAndSet(false, true))
+			return "failed: an export is already running";
+
+		File dir = new File(System.getProperty("blib.exportDir", "exports"),
+				"export-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			running.set(false);
+			return "failed: can't create " + dir;
+		}
+		status = "starting the export to " + dir;
+		Thread thread = new Thread(() -> {
+			try {
+				export(names, dir, json, compress);
+			} finally {
+				running.set(false);
+			}
+		}, "data-export");
+		thread.setDaemon(true);
+		thread.start();
+		return dir.getPath();
+	}
+
+	/**
+	 * Exports the tables in one read-only transaction on a connection of its own.
+	 */
+	private void export(List<String> names, File dir, boolean json, boolean compress) {
+		long start = System.nanoTime();
+		long total = 0;
+		try (Connection conn = BLibDBC.getInstance().openConnection()) {
+			conn.setReadOnly(true);
+			conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ); // One snapshot for all the tables
+			conn.setAutoCommit(false);
+			// MySQL streams the rows one by one only with this fetch size, other drivers use it as a hint
+			int fetchSize = conn.getMetaData().getDatabaseProductName().equals("MySQL") ? Integer.MIN_VALUE : 1000;
+			for (String table : names) {
+				File file = new File(dir, table + (json ? ".jsonl" : ".csv") + (compress ? ".gz" : ""));
+				total += exportTable(conn, fetchSize, table, file, json, compress);
+			}
+			conn.commit();
+			status = "finished exporting %d rows to %s in %.1fs".formatted(total, dir,
+					(System.nanoTime() - start) / 1e9);
+		} catch (SQLException | IOException e) {
+			status = "failed after %d rows: %s".formatted(total, e.getMessage());
+		}
+		System.out.println("export " + status);
+	}
+
+	/**
+	 * Streams the rows of a table into a file.
+	 *
+	 * @return the number of rows exported
+	 */
+	private long exportTable(Connection conn, int fetchSize, String table, File file, boolean json, boolean compress)
+			throws SQLException, IOException {
+		long rows = 0;
+		try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			stmt.setFetchSize(fetchSize);
+			OutputStream out = Channels.newOutputStream(channel);
+			if (compress)
+				out = new GZIPOutputStream(out, BUFFER_SIZE);
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+
+			ResultSet rs = stmt.executeQuery("SELECT * FROM " + table + ";");
+			ResultSetMetaData meta = rs.getMetaData();
+			int count = meta.getColumnCount();
+			String[] names = new String[count];
+			int[] types = new int[count];
+			for (int i = 0; i < count; i++) {
+				names[i] = meta.getColumnLabel(i + 1);
+				types[i] = meta.getColumnType(i + 1);
+			}
+			if (!json) {
+				// The header row
+				for (int i = 0; i < count; i++) {
+					if (i > 0)
+						writer.write(',');
+					writeCsv(writer, names[i]);
+				}
+				writer.write('\n');
+			}
+			while (rs.next()) {
+				if (json)
+					writeJsonRow(writer, rs, names, types);
+				else
+					writeCsvRow(writer, rs, count);
+				if (++rows % PROGRESS_ROWS == 0)
+					status = "exporting %s: %d rows".formatted(table, rows);
+			}
+			rs.close();
+			writer.close(); // Flushes the buffers and finishes the gzip stream
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes a row as CSV, a NULL is an empty field.
+	 */
+	private static void writeCsvRow(Writer writer, ResultSet rs, int count) throws SQLException, IOException {
+		for (int i = 1; i <= count; i++) {
+			if (i > 1)
+				writer.write(',');
+			String value = rs.getString(i);
+			if (value != null)
+				writeCsv(writer, value);
+		}
+		writer.write('\n');
+	}
+
+	/**
+	 * Writes a CSV field, quoted if it has a comma, a quote or a new line.
+	 */
+	private static void writeCsv(Writer writer, String value) throws IOException {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			writer.write(value);
+			return;
+		}
+		writer.write('"');
+		writer.write(value.replace("\"", "\"\""));
+		writer.write('"');
+	}
+
+	/**
+	 * Writes a row as a JSON object on one line. Numbers and booleans are written
+	 * as JSON numbers and booleans, everything else as strings.
+	 */
+	private static void writeJsonRow(Writer writer, ResultSet rs, String[] names, int[] types)
+			throws SQLException, IOException {
+		writer.write('{');
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				writer.write(',');
+			writeJsonString(writer, names[i]);
+			writer.write(':');
+			String value;
+			switch (types[i]) {
+			case Types.BIT:
+			case Types.BOOLEAN:
+				boolean bool = rs.getBoolean(i + 1);
+				value = rs.wasNull() ? null : Boolean.toString(bool);
+				break;
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				value = rs.getString(i + 1);
+				break;
+			default:
+				value = rs.getString(i + 1);
+				if (value != null) {
+					writeJsonString(writer, value);
+					continue;
+				}
+			}
+			writer.write(value == null ? "null" : value);
+		}
+		writer.write("}\n");
+	}
+
+	/**
+	 * Writes a JSON string with its quotes and escapes.
+	 */
+	private static void writeJsonString(Writer writer, String value) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				writer.write("\\\"");
+				break;
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					writer.write("\\u%04x".formatted((int) c));
+				else
+					writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+}
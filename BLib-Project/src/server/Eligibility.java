@@ -0,0 +1,157 @@
+package server;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The Eligibility class decides if a subscriber can borrow a copy, order a
+ * title or extend a borrow. The rules of every action are predicates on a
+ * {@link Facts} record, which the storage reads with a single query (or from
+ * its memory), so a check costs the same however many borrows and orders the
+ * subscriber has. Every rule is evaluated, and all the reasons the action is
+ * refused are returned, in the order of the rules.
+ */
+public class Eligibility {
+
+	/**
+	 * The facts about a subscriber, a title and a copy that the rules need, read
+	 * together by {@link LibraryStorage#getEligibilityFacts(int, int, int)}.
+	 */
+	public static class Facts {
+		final int subscriberID;
+		int titleID; // The title of the copy when it was given as 0
+		final int copyID; // 0 when the action has no copy
+		String status; // Status of the subscriber, null if they aren't found
+		boolean titleFound;
+		boolean copyFound;
+		int titleBorrows; // Active borrows of the subscriber of copies of the title
+		int titleOrders; // Orders of the subscriber of the title
+		Integer orderedCopy; // Copy assigned to the subscriber's order of the title
+		Integer copyBorrower; // Subscriber of the active borrow of the copy
+		LocalDate copyDueDate; // Due date of the active borrow of the copy
+		Integer copyOrderedBy; // Subscriber of the order the copy is assigned to
+		int numOfCopies; // Copies of the title
+		int numOfOrders; // Orders of the title
+		int borrowedCopies; // Borrowed copies of the title
+
+		public Facts(int subscriberID, int titleID, int copyID) {
+			this.subscriberID = subscriberID;
+			this.titleID = titleID;
+			this.copyID = copyID;
+		}
+
+		private boolean isFrozen() {
+			return "frozen".equals(status);
+		}
+
+		/**
+		 * @return the copies of the title that are neither borrowed nor promised to
+		 *         an order, negative if there are more orders than free copies
+		 */
+		private int availability() {
+			return numOfCopies - borrowedCopies - numOfOrders;
+		}
+	}
+
+	/**
+	 * A rule that refuses an action when its predicate holds.
+	 */
+	private static class Rule {
+		private final Predicate<Facts> fails;
+		private final Function<Facts, String> reason;
+		private final boolean subscriberOnly; // Only checked when the subscriber acts, not a librarian
+
+		private Rule(Predicate<Facts> fails, Function<Facts, String> reason, boolean subscriberOnly) {
+			this.fails = fails;
+			this.reason = reason;
+			this.subscriberOnly = subscriberOnly;
+		}
+	}
+
+	private static final List<Rule> BORROW_RULES = List.of(
+			rule(f -> !f.copyFound, "The book is not found"),
+			rule(f -> f.status == null, "The subscriber is not found"),
+			rule(Facts::isFrozen, "The subscriber is frozen"),
+			rule(f -> f.titleBorrows > 0, "This Book is already Borrowed by the subscriber"),
+			rule(f -> f.copyBorrower != null, "This copy is already Borrowed, return it first"),
+			rule(f -> f.orderedCopy != null && f.orderedCopy != f.copyID,
+					"The subscriber has an active order on a different copy"),
+			rule(f -> f.copyOrderedBy != null && f.copyOrderedBy != f.subscriberID, "this copy is ordered"));
+
+	private static final List<Rule> ORDER_RULES = List.of(
+			rule(f -> f.status == null, "The subscriber is not found"),
+			rule(f -> !f.titleFound, "The book is not found"),
+			rule(Facts::isFrozen, "The subscriber is frozen"),
+			rule(f -> f.titleBorrows > 0, "This Book is already Borrowed"),
+			rule(f -> f.titleOrders > 0, "This Book is already ordered"),
+			rule(f -> f.titleFound && f.availability() > 0, "Not all of the title copies are borrowed"),
+			// The availability plus the borrowed copies, the sum the check always made
+			rule(f -> f.titleFound && f.availability() + f.borrowedCopies <= 0, "There are too many active orders"));
+
+	private static final List<Rule> EXTEND_RULES = List.of(
+			rule(f -> f.copyBorrower == null || f.copyBorrower != f.subscriberID, "No such borrowed book"),
+			new Rule(Facts::isFrozen, f -> "the subscriber is frozen", true),
+			new Rule(f -> f.copyDueDate != null && f.copyDueDate.minusWeeks(1).compareTo(LocalDate.now()) >= 0,
+					f -> "extention not available until %s".formatted(f.copyDueDate.minusWeeks(1)), true),
+			new Rule(f -> f.copyDueDate != null && f.copyDueDate.compareTo(LocalDate.now()) < 0,
+					f -> "extention not available after due date", true),
+			rule(f -> f.availability() < 0, "this title is ordered"));
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private Eligibility() {
+	}
+
+	/**
+	 * Checks if a subscriber can borrow a copy.
+	 *
+	 * @param facts the facts of the subscriber, the title of the copy and the copy
+	 * @return the reasons the borrow is refused, empty if it is allowed
+	 */
+	public static List<String> canBorrow(Facts facts) {
+		return evaluate(BORROW_RULES, facts, true);
+	}
+
+	/**
+	 * Checks if a subscriber can order a title.
+	 *
+	 * @param facts the facts of the subscriber and the title, without a copy
+	 * @return the reasons the order is refused, empty if it is allowed
+	 */
+	public static List<String> canOrder(Facts facts) {
+		return evaluate(ORDER_RULES, facts, true);
+	}
+
+	/**
+	 * Checks if a borrow can be extended.
+	 *
+	 * @param facts        the facts of the borrowing subscriber, the title and the
+	 *                     borrowed copy
+	 * @param bySubscriber true if the subscriber extends, false for a librarian,
+	 *                     who isn't limited by the dates or the status
+	 * @return the reasons the extension is refused, empty if it is allowed
+	 */
+	public static List<String> canExtend(Facts facts, boolean bySubscriber) {
+		return evaluate(EXTEND_RULES, facts, bySubscriber);
+	}
+
+	/**
+	 * @return the reasons of the rules that fail
+	 */
+	private static List<String> evaluate(List<Rule> rules, Facts facts, boolean bySubscriber) {
+		List<String> reasons = new ArrayList<>();
+		for (Rule rule : rules) {
+			if ((bySubscriber || !rule.subscriberOnly) && rule.fails.test(facts))
+				reasons.add(rule.reason.apply(facts));
+		}
+		return reasons;
+	}
+
+	private static Rule rule(Predicate<Facts> fails, String reason) {
+		return new Rule(fails, f -> reason, false);
+	}
+}
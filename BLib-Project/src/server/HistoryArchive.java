@@ -0,0 +1,427 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import logic.Activity;
+
+/**
+ * The HistoryArchive class keeps the cold part of the history table in local
+ * archive files, one file per year. Years that are older than the hot period
+ * are moved out of the database by the archival job, so the history table only
+ * holds the recent years.
+ *
+ * Every archive file stores its rows column by column, and every column is
+ * compressed on its own. A query reads only the columns it needs, for example
+ * counting new subscribers reads the activity type and date columns and skips
+ * the descriptions. The rows of a file are ordered by (activity date, item ID).
+ */
+public class HistoryArchive {
+	// Number of years that stay in the database, including the current year
+	public static final int HOT_YEARS = 2;
+
+	private static final int MAGIC = 0x424C4841; // "BLHA"
+	private static final int VERSION = 1;
+
+	// Column names of the archive files
+	private static final String ITEM_ID = "item_id";
+	private static final String SUBSCRIBER_ID = "subscriber_id";
+	private static final String ACTIVITY_TYPE = "activity_type";
+	private static final String ACTIVITY_DESCRIPTION = "activity_description";
+	private static final String ACTIVITY_DATE = "activity_date";
+
+	private static HistoryArchive instance;
+
+	private File dir; // Directory of the archive files
+	private NavigableSet<Integer> archivedYears = new ConcurrentSkipListSet<>(); // Years that have an archive file
+	private Map<String, SoftReference<Object>> columns = new ConcurrentHashMap<>(); // Decoded columns by "year/column"
+
+	/**
+	 * Returns the single instance of HistoryArchive.
+	 *
+	 * @return the single instance of HistoryArchive.
+	 */
+	public static synchronized HistoryArchive getInstance() {
+		if (!(instance instanceof HistoryArchive)) {
+			instance = new HistoryArchive();
+		}
+		return instance;
+	}
+
+	/**
+	 * Private constructor that finds the archive directory and the years that were
+	 * already archived. The directory is taken from the "blib.historyArchive"
+	 * system property, and defaults to "history-archive" in the working directory.
+	 */
+	private HistoryArchive() {
+		dir = new File(System.getProperty("blib.historyArchive", "history-archive"));
+		dir.mkdirs();
+		File[] files = dir.listFiles((d, name) -> name.matches("history_\\d{4}\\.bha"));
+		if (files != null) {
+			for (File f : files) {
+				archivedYears.add(Integer.parseInt(f.getName().substring(8, 12)));
+			}
+		}
+	}
+
+	/**
+	 * Checks if a year is old enough to be moved out of the database.
+	 *
+	 * @param year the year to check
+	 * @return true if the year is older than the hot period
+	 */
+	public boolean isCold(int year) {
+		return year <= LocalDate.now().getYear() - HOT_YEARS;
+	}
+
+	/**
+	 * Checks if a year has an archive file.
+	 *
+	 * @param year the year to check
+	 * @return true if the activities of the year are archived
+	 */
+	public boolean isArchived(int year) {
+		return archivedYears.contains(year);
+	}
+
+	/**
+	 * Returns the archived years up to a given year, newest first.
+	 *
+	 * @param upTo the newest year to return
+	 * @return the archived years that are not newer than the given year
+	 */
+	public NavigableSet<Integer> getArchivedYears(int upTo) {
+		return archivedYears.headSet(upTo, true).descendingSet();
+	}
+
+	/**
+	 * Drops the decoded columns that are kept in memory. They are read again from
+	 * the archive files when needed.
+	 */
+	public void flush() {
+		columns.clear();
+	}
+
+	/**
+	 * Creates a writer for the archive file of a year. The rows must be added
+	 * ordered by (activity date, item ID).
+	 *
+	 * @param year the year of the archived activities
+	 * @return a writer for the archive file of the year
+	 */
+	public Writer createWriter(int year) {
+		return new Writer(year);
+	}
+
+	/**
+	 * Retrieves one page of the archived activities of a subscriber, newest
+	 * first, that come before the given (date, item ID) cursor.
+	 *
+	 * @param subID      the ID of the subscriber
+	 * @param beforeDate the date of the last activity already received, or null to
+	 *                   start from the newest archived activity
+	 * @param beforeID   the item ID of the last activity already received
+	 * @param pageSize   the maximal number of activities to retrieve
+	 * @return the page of activities, ordered by date from the newest
+	 * @throws IOException if an archive file can't be read
+	 */
+	public List<Activity> getSubscriberHistory(int subID, LocalDate beforeDate, int beforeID, int pageSize)
+			throws IOException {
+		List<Activity> ret = new ArrayList<>();
+		int fromYear = beforeDate == null ? Integer.MAX_VALUE : beforeDate.getYear();
+		for (int year : getArchivedYears(fromYear)) {
+			int[] subscribers = (int[]) readColumn(year, SUBSCRIBER_ID);
+			int[] items = (int[]) readColumn(year, ITEM_ID);
+			short[] days = (short[]) readColumn(year, ACTIVITY_DATE);
+			String[] types = null; // Read only when the subscriber has activities in the year
+			String[] descriptions = null;
+			int beforeDay = beforeDate == null || beforeDate.getYear() != year ? Integer.MAX_VALUE
+					: beforeDate.getDayOfYear();
+
+			// Walk the year backwards, the rows are ordered by (date, item ID)
+			for (int i = subscribers.length - 1; i >= 0 && ret.size() < pageSize; i--) {
+				if (subscribers[i] != subID)
+					continue;
+				if (days[i] > beforeDay || (days[i] == beforeDay && items[i] >= beforeID))
+					continue;
+				if (types == null) {
+					types = (String[]) readColumn(year, ACTIVITY_TYPE);
+					descriptions = (String[]) readColumn(year, ACTIVITY_DESCRIPTION);
+				}
+				ret.add(new Activity(items[i], types[i], descriptions[i].split(";")[0],
+						LocalDate.ofYearDay(year, days[i])));
+			}
+			if (ret.size() == pageSize)
+				break;
+		}
+		return ret;
+	}
+
+	/**
+	 * Retrieves the last subscriber status activity ("new subscriber", "freeze" or
+	 * "unfreeze") of every day of an archived year, newest first. The description
+	 * of every returned activity holds the active and frozen subscriber counts.
+	 *
+	 * @param year the archived year
+	 * @return the last status activity of every day that has one
+	 * @throws IOException if the archive file can't be read
+	 */
+	public List<Activity> getStatusSnapshots(int year) throws IOException {
+		List<Activity> ret = new ArrayList<>();
+		if (!isArchived(year))
+			return ret;
+		String[] types = (String[]) readColumn(year, ACTIVITY_TYPE);
+		short[] days = (short[]) readColumn(year, ACTIVITY_DATE);
+		int[] items = (int[]) readColumn(year, ITEM_ID);
+		String[] descriptions = null;
+		int lastDay = -1;
+		for (int i = types.length - 1; i >= 0; i--) {
+			if (days[i] == lastDay)
+				continue; // A later status activity of the same day was already taken
+			if (types[i].equals("new subscriber") || types[i].equals("freeze") || types[i].equals("unfreeze")) {
+				if (descriptions == null)
+					descriptions = (String[]) readColumn(year, ACTIVITY_DESCRIPTION);
+				ret.add(new Activity(items[i], types[i], descriptions[i], LocalDate.ofYearDay(year, days[i])));
+				lastDay = days[i];
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Counts the archived activities of a given type in a month.
+	 *
+	 * @param date any date within the month
+	 * @param type the activity type to count
+	 * @return the number of activities of the type in the month
+	 * @throws IOException if the archive file can't be read
+	 */
+	public int countActivities(LocalDate date, String type) throws IOException {
+		int year = date.getYear();
+		if (!isArchived(year))
+			return 0;
+		String[] types = (String[]) readColumn(year, ACTIVITY_TYPE);
+		short[] days = (short[]) readColumn(year, ACTIVITY_DATE);
+		int from = date.withDayOfMonth(1).getDayOfYear();
+		int to = date.withDayOfMonth(date.lengthOfMonth()).getDayOfYear();
+		int count = 0;
+		for (int i = 0; i < types.length; i++) {
+			if (days[i] >= from && days[i] <= to && types[i].equals(type))
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a decoded column of an archive file, reading it from the file if it
+	 * is not in memory.
+	 *
+	 * @param year   the archived year
+	 * @param column the name of the column
+	 * @return the values of the column: int[] for IDs, short[] for the day of the
+	 *         year and String[] for texts
+	 * @throws IOException if the archive file can't be read
+	 */
+	private Object readColumn(int year, String column) throws IOException {
+		String key = year + "/" + column;
+		SoftReference<Object> ref = columns.get(key);
+		Object values = ref == null ? null : ref.get();
+		if (values != null) {
+			CacheStats.of("history_archive").hit();
+			return values;
+		}
+		CacheStats.of("history_archive").miss();
+
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileOf(year)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != year)
+				throw new IOException("bad history archive " + fileOf(year));
+			int rows = in.readInt();
+			int numOfColumns = in.readInt();
+			for (int c = 0; c < numOfColumns; c++) {
+				String name = in.readUTF();
+				byte[] data = new byte[in.readInt()];
+				if (!name.equals(column)) {
+					in.skipNBytes(data.length); // Only the requested column is decoded
+					continue;
+				}
+				in.readFully(data);
+				values = decode(name, rows,
+						new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data))));
+				columns.put(key, new SoftReference<>(values));
+				return values;
+			}
+		}
+		throw new IOException("column " + column + " is missing in " + fileOf(year));
+	}
+
+	/**
+	 * Decodes the values of a column.
+	 *
+	 * @param name the name of the column
+	 * @param rows the number of rows
+	 * @param in   the uncompressed column data
+	 * @return the values of the column
+	 * @throws IOException if the column data is broken
+	 */
+	private Object decode(String name, int rows, DataInputStream in) throws IOException {
+		switch (name) {
+		case ITEM_ID:
+		case SUBSCRIBER_ID:
+			int[] ints = new int[rows];
+			for (int i = 0; i < rows; i++)
+				ints[i] = in.readInt();
+			return ints;
+		case ACTIVITY_DATE:
+			short[] days = new short[rows];
+			for (int i = 0; i < rows; i++)
+				days[i] = in.readShort();
+			return days;
+		case ACTIVITY_TYPE:
+			// The few activity types are kept in a dictionary, each row holds a code
+			String[] dictionary = new String[in.readUnsignedByte()];
+			for (int i = 0; i < dictionary.length; i++)
+				dictionary[i] = in.readUTF();
+			String[] types = new String[rows];
+			for (int i = 0; i < rows; i++)
+				types[i] = dictionary[in.readUnsignedByte()];
+			return types;
+		default:
+			String[] texts = new String[rows];
+			for (int i = 0; i < rows; i++)
+				texts[i] = in.readUTF();
+			return texts;
+		}
+	}
+
+	/**
+	 * Returns the archive file of a year.
+	 *
+	 * @param year the archived year
+	 * @return the archive file of the year
+	 */
+	private File fileOf(int year) {
+		return new File(dir, "history_%04d.bha".formatted(year));
+	}
+
+	/**
+	 * Writes the activities of one year into an archive file. Every column is
+	 * compressed into its own buffer while the rows are added, and the file is
+	 * written and moved into place only when {@link #finish()} is called, so a
+	 * failed archival never leaves a partial archive file.
+	 */
+	public class Writer {
+		private int year; // The archived year
+		private int rows = 0; // Number of rows added
+		private Map<String, Byte> typeCodes = new HashMap<>(); // Dictionary of the activity types
+		private List<String> typeNames = new ArrayList<>();
+		private ByteArrayOutputStream[] buffers = new ByteArrayOutputStream[5];
+		private DataOutputStream[] outs = new DataOutputStream[5];
+
+		/**
+		 * Creates a writer for the archive file of a year.
+		 *
+		 * @param year the archived year
+		 */
+		private Writer(int year) {
+			this.year = year;
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i] = new ByteArrayOutputStream();
+				outs[i] = new DataOutputStream(new DeflaterOutputStream(buffers[i]));
+			}
+		}
+
+		/**
+		 * Adds an activity to the archive.
+		 *
+		 * @param itemID       the item ID of the activity
+		 * @param subscriberID the ID of the subscriber
+		 * @param type         the activity type
+		 * @param description  the full activity description
+		 * @param date         the activity date
+		 * @throws IOException if the row can't be encoded
+		 */
+		public void add(int itemID, int subscriberID, String type, String description, LocalDate date)
+				throws IOException {
+			Byte code = typeCodes.get(type);
+			if (code == null) {
+				if (typeNames.size() == 255)
+					throw new IOException("too many activity types");
+				code = (byte) typeNames.size();
+				typeCodes.put(type, code);
+				typeNames.add(type);
+			}
+			outs[0].writeInt(itemID);
+			outs[1].writeInt(subscriberID);
+			outs[2].writeByte(code);
+			outs[3].writeUTF(description);
+			outs[4].writeShort(date.getDayOfYear());
+			rows++;
+		}
+
+		/**
+		 * Writes the archive file and registers the year as archived.
+		 *
+		 * @return the number of archived rows
+		 * @throws IOException if the archive file can't be written
+		 */
+		public int finish() throws IOException {
+			for (DataOutputStream out : outs)
+				out.close();
+
+			// The dictionary of the activity types precedes the type codes
+			ByteArrayOutputStream typeColumn = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(typeColumn))) {
+				out.writeByte(typeNames.size());
+				for (String name : typeNames)
+					out.writeUTF(name);
+				try (InflaterInputStream codes = new InflaterInputStream(
+						new ByteArrayInputStream(buffers[2].toByteArray()))) {
+					codes.transferTo(out);
+				}
+			}
+			buffers[2] = typeColumn;
+
+			// Write into a temporary file and move it into place
+			File tmp = new File(dir, fileOf(year).getName() + ".tmp");
+			String[] names = { ITEM_ID, SUBSCRIBER_ID, ACTIVITY_TYPE, ACTIVITY_DESCRIPTION, ACTIVITY_DATE };
+			try (FileOutputStream file = new FileOutputStream(tmp);
+					DataOutputStream out = new DataOutputStream(file)) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(year);
+				out.writeInt(rows);
+				out.writeInt(names.length);
+				for (int i = 0; i < names.length; i++) {
+					out.writeUTF(names[i]);
+					out.writeInt(buffers[i].size());
+					buffers[i].writeTo(out);
+				}
+				out.flush();
+				file.getFD().sync();
+			}
+			Files.move(tmp.toPath(), fileOf(year).toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			archivedYears.add(year);
+			return rows;
+		}
+	}
+}
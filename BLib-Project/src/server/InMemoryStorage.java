@@ -0,0 +1,1122 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import logic.Activity;
+import logic.BookCopy;
+import logic.BookTitle;
+import logic.Borrow;
+import logic.Message;
+import logic.Order;
+import logic.Subscriber;
+
+/**
+ * The InMemoryStorage class keeps the library in concurrent maps in the memory
+ * of the server, for small branch deployments and fast test runs. Nothing is
+ * persisted, the library is empty when the server starts until it is filled
+ * with {@link #addTitle}, {@link #addCopy}, {@link #addUser} and the regular
+ * operations.
+ *
+ * Every access path of {@link BLibDBC} has an index here, so no operation
+ * scans a whole table except the keyword search and the monthly reports.
+ * Reads don't lock, operations that change the library are synchronized on
+ * the storage so each of them is applied as a whole, like a transaction.
+ * The history descriptions and scheduled commands are the same as those of the
+ * database storage.
+ */
+public class InMemoryStorage implements LibraryStorage {
+
+	private static volatile InMemoryStorage instance;
+
+	/**
+	 * A row of the titles table.
+	 */
+	private static class TitleRow {
+		private final int id;
+		private final String name;
+		private final String author;
+		private final String description;
+		private final String genre;
+		private volatile int numOfOrders;
+		private volatile int numOfCopies;
+
+		private TitleRow(int id, String name, String author, String description, String genre) {
+			this.id = id;
+			this.name = name;
+			this.author = author;
+			this.description = description;
+			this.genre = genre;
+		}
+	}
+
+	/**
+	 * A row of the copies table.
+	 */
+	private static class CopyRow {
+		private final int titleID;
+		private final int copyID;
+		private final String shelf;
+		private volatile boolean borrowed;
+
+		private CopyRow(int titleID, int copyID, String shelf) {
+			this.titleID = titleID;
+			this.copyID = copyID;
+			this.shelf = shelf;
+		}
+	}
+
+	/**
+	 * A row of the subscribers table.
+	 */
+	private static class SubscriberRow {
+		private final int id;
+		private final String name;
+		private volatile String phone;
+		private volatile String email;
+		private volatile String status;
+
+		private SubscriberRow(int id, String name, String phone, String email, String status) {
+			this.id = id;
+			this.name = name;
+			this.phone = phone;
+			this.email = email;
+			this.status = status;
+		}
+	}
+
+	/**
+	 * A row of the borrows table.
+	 */
+	private static class BorrowRow {
+		private final int subscriberID;
+		private final int copyID;
+		private final LocalDate dateOfBorrow;
+		private volatile LocalDate dueDate;
+		private volatile LocalDate dateOfReturn;
+
+		private BorrowRow(int subscriberID, int copyID, LocalDate dateOfBorrow, LocalDate dueDate) {
+			this.subscriberID = subscriberID;
+			this.copyID = copyID;
+			this.dateOfBorrow = dateOfBorrow;
+			this.dueDate = dueDate;
+		}
+	}
+
+	/**
+	 * A row of the orders table.
+	 */
+	private static class OrderRow {
+		private final int id;
+		private final int subscriberID;
+		private final int titleID;
+		private final LocalDateTime orderDate;
+		private volatile int copyID; // 0 until a copy is assigned
+		private volatile LocalDate ariveDate;
+
+		private OrderRow(int id, int subscriberID, int titleID, LocalDateTime orderDate) {
+			this.id = id;
+			this.subscriberID = subscriberID;
+			this.titleID = titleID;
+			this.orderDate = orderDate;
+		}
+	}
+
+	/**
+	 * A row of the history table.
+	 */
+	private static class HistoryRow {
+		private final int id;
+		private final String type;
+		private final String description;
+		private final LocalDate date;
+
+		private HistoryRow(int id, String type, String description, LocalDate date) {
+			this.id = id;
+			this.type = type;
+			this.description = description;
+			this.date = date;
+		}
+	}
+
+	/**
+	 * A row of the commands table.
+	 */
+	private static class CommandRow {
+		private final int id;
+		private final String command;
+		private final String arguments;
+		private final LocalDateTime time;
+		private final String identifyer;
+
+		private CommandRow(int id, String command, String arguments, LocalDateTime time, String identifyer) {
+			this.id = id;
+			this.command = command;
+			this.arguments = arguments;
+			this.time = time;
+			this.identifyer = identifyer;
+		}
+	}
+
+	// History of a subscriber ordered by date and ID, like the (subscriber_id, activity_date) index
+	private static final Comparator<HistoryRow> HISTORY_ORDER = Comparator.comparing((HistoryRow h) -> h.date)
+			.thenComparingInt(h -> h.id);
+	// Commands ordered by their time of execution
+	private static final Comparator<CommandRow> COMMAND_ORDER = Comparator.comparing((CommandRow c) -> c.time)
+			.thenComparingInt(c -> c.id);
+
+	// Tables
+	private final Map<Integer, TitleRow> titles = new ConcurrentHashMap<>();
+	private final Map<Integer, CopyRow> copies = new ConcurrentHashMap<>();
+	private final Map<Integer, SubscriberRow> subscribers = new ConcurrentHashMap<>();
+	private final Map<Integer, String[]> users = new ConcurrentHashMap<>(); // {password, role} by user ID
+	private final ConcurrentLinkedQueue<BorrowRow> borrows = new ConcurrentLinkedQueue<>();
+	private final ConcurrentSkipListMap<Integer, String> librarianMessages = new ConcurrentSkipListMap<>();
+	private final Map<String, Integer> librarianReads = new ConcurrentHashMap<>(); // Read marker by librarian
+	private final Map<String, byte[]> graphs = new ConcurrentHashMap<>(); // By "type;year;month"
+
+	// Indexes
+	private final Map<Integer, Set<Integer>> copiesByTitle = new ConcurrentHashMap<>();
+	private final Map<Integer, BorrowRow> activeBorrowByCopy = new ConcurrentHashMap<>();
+	private final Map<Integer, Set<BorrowRow>> activeBorrowsBySubscriber = new ConcurrentHashMap<>();
+	private final Map<Integer, OrderRow> orderByCopy = new ConcurrentHashMap<>();
+	private final Map<Integer, List<OrderRow>> ordersByTitle = new ConcurrentHashMap<>(); // Oldest first
+	private final Map<Integer, List<OrderRow>> ordersBySubscriber = new ConcurrentHashMap<>(); // Oldest first
+	private final Map<Integer, NavigableSet<HistoryRow>> historyBySubscriber = new ConcurrentHashMap<>();
+	// The last subscriber status activity of every day
+	private final ConcurrentSkipListMap<LocalDate, HistoryRow> statusByDay = new ConcurrentSkipListMap<>();
+	private final Map<YearMonth, Integer> newSubscribersByMonth = new ConcurrentHashMap<>();
+	private final Map<String, Integer> statusCounts = new ConcurrentHashMap<>(); // Subscribers by status
+	private final TreeSet<CommandRow> commandsByTime = new TreeSet<>(COMMAND_ORDER); // Guarded by this
+
+	// Generated IDs
+	private final AtomicInteger nextOrderID = new AtomicInteger(1);
+	private final AtomicInteger nextHistoryID = new AtomicInteger(1);
+	private final AtomicInteger nextCommandID = new AtomicInteger(1);
+	private final AtomicInteger nextMessageID = new AtomicInteger(1);
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private InMemoryStorage() {
+	}
+
+	/**
+	 * Returns the singleton instance of {@code InMemoryStorage}.
+	 *
+	 * @return the singleton instance of {@code InMemoryStorage}
+	 */
+	public static InMemoryStorage getInstance() {
+		if (instance == null) {
+			synchronized (InMemoryStorage.class) {
+				if (instance == null) {
+					instance = new InMemoryStorage();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * There is nothing to connect to, the password is ignored.
+	 */
+	@Override
+	public boolean connect(String password) {
+		return true;
+	}
+
+	/**
+	 * There is nothing to disconnect from, the library stays in memory.
+	 */
+	@Override
+	public boolean disconnect() {
+		return true;
+	}
+
+	/**
+	 * Every access path has an index, so there is nothing to report.
+	 */
+	@Override
+	public int checkQueryPlans() {
+		return 0;
+	}
+
+	/**
+	 * Adds a title to the catalog.
+	 *
+	 * @param title the title, its number of orders and copies are ignored
+	 * @return true if the title was added, false if its ID is taken
+	 */
+	public synchronized boolean addTitle(BookTitle title) {
+		TitleRow row = new TitleRow(title.getTitleID(), title.getTitleName(), title.getAuthorName(),
+				title.getDescription(), title.getGenre());
+		if (titles.putIfAbsent(row.id, row) != null)
+			return false;
+		copiesByTitle.put(row.id, ConcurrentHashMap.newKeySet());
+		return true;
+	}
+
+	/**
+	 * Adds a copy of a title to the catalog.
+	 *
+	 * @param titleID the ID of the title
+	 * @param copyID  the ID of the copy
+	 * @param shelf   the shelf of the copy
+	 * @return true if the copy was added, false if the title doesn't exist or the
+	 *         copy ID is taken
+	 */
+	public synchronized boolean addCopy(int titleID, int copyID, String shelf) {
+		TitleRow title = titles.get(titleID);
+		if (title == null || copies.putIfAbsent(copyID, new CopyRow(titleID, copyID, shelf)) != null)
+			return false;
+		copiesByTitle.get(titleID).add(copyID);
+		title.numOfCopies++;
+		return true;
+	}
+
+	/**
+	 * Adds a user, such as a librarian.
+	 *
+	 * @param userID   the ID of the user
+	 * @param password the password of the user
+	 * @param role     "subscriber" or the librarian's name
+	 * @return true if the user was added, false if the ID is taken
+	 */
+	public boolean addUser(int userID, String password, String role) {
+		return users.putIfAbsent(userID, new String[] { password, role }) == null;
+	}
+
+	/**
+	 * Creates the title object of a title row.
+	 */
+	private BookTitle toTitle(TitleRow row) {
+		return new BookTitle(row.id, row.name, row.author, row.description, row.numOfOrders, row.numOfCopies,
+				row.genre);
+	}
+
+	/**
+	 * Creates the subscriber object of a subscriber row.
+	 */
+	private Subscriber toSubscriber(SubscriberRow row) {
+		return new Subscriber(row.id, row.name, row.phone, row.email, row.status);
+	}
+
+	/**
+	 * Creates the borrow object of an active borrow row.
+	 */
+	private Borrow toBorrow(BorrowRow row, Subscriber sub, BookCopy copy) {
+		return new Borrow(sub, copy, row.dateOfBorrow, row.dueDate, null);
+	}
+
+	/**
+	 * Creates the order object of an order row.
+	 */
+	private Order toOrder(OrderRow row, Subscriber sub, BookTitle title) {
+		Order order = new Order(row.id, sub, title, row.orderDate);
+		if (row.copyID != 0) {
+			order.setCopy(getCopyByID(row.copyID));
+			order.setAriveDate(row.ariveDate);
+		}
+		return order;
+	}
+
+	/**
+	 * Adds an activity to the history and its indexes.
+	 */
+	private void addHistory(int subID, String type, String description, LocalDate date) {
+		HistoryRow row = new HistoryRow(nextHistoryID.getAndIncrement(), type, description, date);
+		historyBySubscriber.computeIfAbsent(subID, id -> new ConcurrentSkipListSet<>(HISTORY_ORDER)).add(row);
+		if (type.equals("new subscriber") || type.equals("freeze") || type.equals("unfreeze")) {
+			statusByDay.put(date, row); // The newest status activity of the day wins, like MAX(item_id)
+		}
+		if (type.equals("new subscriber")) {
+			newSubscribersByMonth.merge(YearMonth.from(date), 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Changes the status of a subscriber and the status counts.
+	 */
+	private void setStatus(SubscriberRow row, String status) {
+		if (row.status != null)
+			statusCounts.merge(row.status, -1, Integer::sum);
+		statusCounts.merge(status, 1, Integer::sum);
+		row.status = status;
+	}
+
+	/**
+	 * Adds a scheduled command.
+	 */
+	private void addCommand(String command, String arguments, LocalDateTime timeOfExe, String identifyer) {
+		commandsByTime.add(new CommandRow(nextCommandID.getAndIncrement(), command, arguments, timeOfExe, identifyer));
+	}
+
+	@Override
+	public BookTitle getTitleByID(int titleID) {
+		TitleRow row = titles.get(titleID);
+		return row == null ? null : toTitle(row);
+	}
+
+	@Override
+	public Set<BookCopy> getCopiesByTitle(BookTitle title) {
+		Set<BookCopy> bookSet = new HashSet<>();
+		for (int copyID : copiesByTitle.getOrDefault(title.getTitleID(), Set.of())) {
+			CopyRow row = copies.get(copyID);
+			bookSet.add(new BookCopy(title, row.copyID, row.shelf, row.borrowed));
+		}
+		return bookSet;
+	}
+
+	@Override
+	public Set<BookTitle> getTitlesByKeyword(String keyword) {
+		// Match like the LIKE '%keyword%' search of the case insensitive database
+		String lower = keyword.toLowerCase();
+		Set<BookTitle> bookSet = new HashSet<>();
+		for (TitleRow row : titles.values()) {
+			if (contains(row.name, lower) || contains(row.author, lower) || contains(row.description, lower)
+					|| contains(row.genre, lower)) {
+				bookSet.add(toTitle(row));
+			}
+		}
+		return bookSet;
+	}
+
+	/**
+	 * Checks if a field contains a lower case keyword, ignoring case.
+	 */
+	private static boolean contains(String field, String lowerKeyword) {
+		return field != null && field.toLowerCase().contains(lowerKeyword);
+	}
+
+	@Override
+	public Map<BookTitle, Set<BookCopy>> getCatalog() {
+		Map<BookTitle, Set<BookCopy>> ret = new HashMap<>();
+		for (TitleRow row : titles.values()) {
+			BookTitle title = toTitle(row);
+			ret.put(title, getCopiesByTitle(title));
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<Integer, LocalDate> getActiveDueDates() {
+		Map<Integer, LocalDate> ret = new HashMap<>();
+		for (BorrowRow row : activeBorrowByCopy.values()) {
+			ret.put(row.copyID, row.dueDate);
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<Integer, LinkedHashMap<Integer, Integer>> getWaitingOrders(Integer titleID) {
+		Map<Integer, LinkedHashMap<Integer, Integer>> ret = new HashMap<>();
+		for (Map.Entry<Integer, List<OrderRow>> e : ordersByTitle.entrySet()) {
+			if (titleID != null && !titleID.equals(e.getKey()))
+				continue;
+			for (OrderRow row : e.getValue()) {
+				if (row.copyID == 0)
+					ret.computeIfAbsent(e.getKey(), id -> new LinkedHashMap<>()).put(row.id, row.subscriberID);
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public Subscriber getSubscriberByID(int subscriberID) {
+		SubscriberRow row = subscribers.get(subscriberID);
+		return row == null ? null : toSubscriber(row);
+	}
+
+	@Override
+	public Order getOrderByCopy(int copyID) {
+		BookCopy copy = getCopyByID(copyID);
+		if (copy == null)
+			return null;
+		OrderRow row = orderByCopy.get(copyID);
+		if (row == null)
+			return null;
+		Subscriber sub = getSubscriberByID(row.subscriberID);
+		if (sub == null)
+			return null;
+		Order order = new Order(row.id, sub, copy.getTitle(), row.orderDate);
+		order.setCopy(copy);
+		order.setAriveDate(row.ariveDate);
+		return order;
+	}
+
+	@Override
+	public synchronized Boolean createBorrow(int subscriberID, int copyID) {
+		Subscriber sub = getSubscriberByID(subscriberID);
+		if (sub == null)
+			return false;
+		BookCopy copy = getCopyByID(copyID);
+		if (copy == null || copies.get(copyID).borrowed)
+			return false; // The copy doesn't exist or is already borrowed
+
+		// Borrow the copy for two weeks
+		LocalDate today = LocalDate.now();
+		LocalDate dueDate = today.plusWeeks(2);
+		BorrowRow row = new BorrowRow(subscriberID, copyID, today, dueDate);
+		borrows.add(row);
+		activeBorrowByCopy.put(copyID, row);
+		activeBorrowsBySubscriber.computeIfAbsent(subscriberID, id -> ConcurrentHashMap.newKeySet()).add(row);
+		copies.get(copyID).borrowed = true;
+
+		addHistory(subscriberID, "borrow", "\"%s\" borrowed by %s on %s".formatted(copy.getTitle(), sub.getName(),
+				today.toString()), today);
+
+		// Remind the subscriber the day before the due date
+		addCommand("sendMessage", "%s;%s;".formatted(sub.getId(), "Reminder: Book Due Tomorrow")
+				+ "dear %s,\n\nJust a reminder that the book you borrowed (\"%s\") is due tomorrow %s. Please make sure to return it by the due date.\nBraude Library"
+						.formatted(sub.getName(), copy.getTitle(), dueDate),
+				LocalDateTime.now().plusWeeks(2).minusDays(1), "%s;%s".formatted(sub.getId(), copy.getCopyID()));
+		return true;
+	}
+
+	@Override
+	public BookCopy getCopyByID(int copyID) {
+		CopyRow row = copies.get(copyID);
+		if (row == null)
+			return null;
+		BookTitle title = getTitleByID(row.titleID);
+		if (title == null)
+			return null;
+		return new BookCopy(title, copyID, row.shelf, row.borrowed);
+	}
+
+	@Override
+	public synchronized Boolean updateSubscriber(Subscriber newSubscriber, String userType) {
+		LocalDate today = LocalDate.now();
+		SubscriberRow row = subscribers.get(newSubscriber.getId());
+		if (row == null)
+			return false;
+
+		// Describe the changes the same way as the database storage
+		StringBuilder str = new StringBuilder();
+		if (userType.equalsIgnoreCase("subscriber")) {
+			str.append(newSubscriber.getName() + " updated their details: ");
+		} else {
+			str.append(userType + " updated " + newSubscriber.getName() + "'s details: ");
+		}
+		if (!newSubscriber.getEmail().equals(row.email)) {
+			str.append("changed email from %s to %s ".formatted(row.email, newSubscriber.getEmail()));
+		}
+		if (!newSubscriber.getPhone().equals(row.phone)) {
+			str.append("changed phone from %s to %s ".formatted(row.phone, newSubscriber.getPhone()));
+		}
+		str.append("on %s".formatted(today));
+
+		row.email = newSubscriber.getEmail();
+		row.phone = newSubscriber.getPhone();
+		addHistory(newSubscriber.getId(), "update subscriber", str.toString(), today);
+		return true;
+	}
+
+	@Override
+	public synchronized Boolean registerSubscriber(Subscriber subscriber, String password) {
+		// The subscriber and user IDs are primary keys
+		if (subscribers.containsKey(subscriber.getId()) || users.containsKey(subscriber.getId()))
+			return false;
+		LocalDate today = LocalDate.now();
+		SubscriberRow row = new SubscriberRow(subscriber.getId(), subscriber.getName(), subscriber.getPhone(),
+				subscriber.getEmail(), subscriber.getStatus());
+		subscribers.put(row.id, row);
+		if (row.status != null)
+			statusCounts.merge(row.status, 1, Integer::sum);
+
+		addHistory(subscriber.getId(), "new subscriber",
+				"%s is now a subscriber since %s;%d;%d".formatted(subscriber.getName(), today,
+						statusCounts.getOrDefault("active", 0), statusCounts.getOrDefault("frozen", 0)),
+				today);
+		users.put(subscriber.getId(), new String[] { password, "subscriber" });
+		return true;
+	}
+
+	@Override
+	public synchronized List<String> registerSubscribers(List<Subscriber> subscribers, List<String> passwords) {
+		List<String> results = new ArrayList<>();
+		for (int i = 0; i < subscribers.size(); i++) {
+			String err = LibraryStorage.checkNewSubscriber(subscribers.get(i));
+			if (err == null && !registerSubscriber(subscribers.get(i), passwords.get(i)))
+				err = "The subscriber ID already exists";
+			results.add(err);
+		}
+		return results;
+	}
+
+	@Override
+	public String login(int userID, String password) {
+		String[] user = users.get(userID);
+		if (user != null && password.equals(user[0]))
+			return user[1];
+		return null;
+	}
+
+	@Override
+	public Borrow getCopyActiveBorrow(BookCopy copy) {
+		BorrowRow row = activeBorrowByCopy.get(copy.getCopyID());
+		if (row == null)
+			return null;
+		Subscriber sub = getSubscriberByID(row.subscriberID);
+		if (sub == null)
+			return null;
+		return toBorrow(row, sub, copy);
+	}
+
+	@Override
+	public synchronized Boolean extendDuration(Borrow borrow, int days, String userType) {
+		LocalDate newDueDate = borrow.getDueDate().plusDays(days);
+		LocalDate today = LocalDate.now();
+
+		// Update the borrow the request was made for, if it is still the active one
+		BorrowRow row = activeBorrowByCopy.get(borrow.getBook().getCopyID());
+		if (row != null && row.subscriberID == borrow.getSubscriber().getId()
+				&& row.dateOfBorrow.equals(borrow.getDateOfBorrow())) {
+			row.dueDate = newDueDate;
+		}
+
+		// If the user is librarian, the extension is logged as a "manual extension"
+		if (userType.equals("subscriber")) {
+			addHistory(borrow.getSubscriber().getId(), "extension",
+					"\"%s\" extended borrow by %s on %s, the new due date is %s".formatted(borrow.getBook().getTitle(),
+							borrow.getSubscriber().getName(), today, newDueDate),
+					today);
+
+			// Let the librarians know about the extension
+			librarianMessages.put(nextMessageID.getAndIncrement(),
+					"the subscriber %s extended their borrow duration of %s by %d days, the new due date is %s"
+							.formatted(borrow.getSubscriber().getName(), borrow.getBook().getTitle(), days, newDueDate));
+		} else {
+			addHistory(borrow.getSubscriber().getId(), "manual extension",
+					"\"%s\" manually extended borrow of %s by %s on %s, the new due date is %s".formatted(
+							borrow.getBook().getTitle(), borrow.getSubscriber().getName(), userType, today, newDueDate),
+					today);
+		}
+		return true;
+	}
+
+	@Override
+	public Integer getTitleAvailability(BookTitle title) {
+		TitleRow row = titles.get(title.getTitleID());
+		Integer borrowed = getNumOfCopies(title);
+		if (row == null || borrowed == null)
+			return null;
+		return row.numOfCopies - borrowed - row.numOfOrders;
+	}
+
+	@Override
+	public Boolean isTitleOrdered(int titleID) {
+		TitleRow row = titles.get(titleID);
+		return row != null && row.numOfOrders > 0;
+	}
+
+	@Override
+	public synchronized Boolean returnBook(BookCopy book, boolean isLateReturn) {
+		LocalDate today = LocalDate.now();
+		Borrow borrow = getCopyActiveBorrow(book);
+		if (borrow == null)
+			return false;
+
+		// Close the borrow and free the copy
+		BorrowRow row = activeBorrowByCopy.remove(book.getCopyID());
+		row.dateOfReturn = today;
+		activeBorrowsBySubscriber.get(row.subscriberID).remove(row);
+		copies.get(book.getCopyID()).borrowed = false;
+
+		if (!isLateReturn) {
+			addHistory(row.subscriberID, "return",
+					"\"%s\" return by %s on %s".formatted(book.getTitle(), borrow.getSubscriber().getName(), today),
+					today);
+		} else {
+			int late = today.compareTo(borrow.getDueDate());
+			addHistory(row.subscriberID, "late return", "\"%s\" late return by %s on %s late by %d days"
+					.formatted(book.getTitle(), borrow.getSubscriber().getName(), today, Math.abs(late)), today);
+		}
+		return true;
+	}
+
+	@Override
+	public Map<Integer, BookCopy> getCopiesByID(Collection<Integer> copyIDs) {
+		Map<Integer, BookCopy> ret = new HashMap<>();
+		for (int copyID : copyIDs) {
+			BookCopy copy = getCopyByID(copyID);
+			if (copy != null)
+				ret.put(copyID, copy);
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<Integer, Borrow> getCopiesActiveBorrows(Collection<BookCopy> copies) {
+		Map<Integer, Borrow> ret = new HashMap<>();
+		for (BookCopy copy : copies) {
+			Borrow borrow = getCopyActiveBorrow(copy);
+			if (borrow != null)
+				ret.put(copy.getCopyID(), borrow);
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<Integer, Order> getOrdersByCopies(Collection<BookCopy> copies) {
+		Map<Integer, Order> ret = new HashMap<>();
+		for (BookCopy copy : copies) {
+			Order order = getOrderByCopy(copy.getCopyID());
+			if (order != null)
+				ret.put(copy.getCopyID(), order);
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized Boolean createBorrows(Subscriber sub, List<BookCopy> copies) {
+		if (!subscribers.containsKey(sub.getId()))
+			return false;
+		for (BookCopy copy : copies) {
+			CopyRow row = this.copies.get(copy.getCopyID());
+			if (row == null || row.borrowed)
+				return false; // Check them all first, so none is borrowed
+		}
+		for (BookCopy copy : copies) {
+			createBorrow(sub.getId(), copy.getCopyID());
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized Boolean returnBooks(List<Borrow> borrows) {
+		LocalDate today = LocalDate.now();
+		for (Borrow borrow : borrows) {
+			if (!activeBorrowByCopy.containsKey(borrow.getBook().getCopyID()))
+				return false; // Check them all first, so none is returned
+		}
+		for (Borrow borrow : borrows) {
+			boolean late = borrow.getDueDate().compareTo(today) < 0;
+			returnBook(borrow.getBook(), late);
+			if (!late)
+				cancelCommand("sendMessage",
+						"%s;%s".formatted(borrow.getSubscriber().getId(), borrow.getBook().getCopyID()));
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized Boolean freezeSubscriber(int subID) {
+		LocalDate today = LocalDate.now();
+		SubscriberRow row = subscribers.get(subID);
+		if (row == null)
+			return null;
+		setStatus(row, "frozen");
+		addHistory(subID, "freeze",
+				"%s got frozen on %s until %s;%d;%d".formatted(row.name, today, today.plusMonths(1),
+						statusCounts.getOrDefault("active", 0), statusCounts.getOrDefault("frozen", 0)),
+				today);
+
+		// Unfreeze the subscriber after one month
+		addCommand("unfreeze", "%d".formatted(subID), LocalDateTime.now().plusMonths(1), "%d".formatted(subID));
+		return true;
+	}
+
+	@Override
+	public synchronized Boolean unfreezeSubscriber(int subID) {
+		LocalDate today = LocalDate.now();
+		SubscriberRow row = subscribers.get(subID);
+		if (row == null)
+			return null;
+		setStatus(row, "active");
+		addHistory(subID, "unfreeze", "%s got unfrozen on %s;%d;%d".formatted(row.name, today,
+				statusCounts.getOrDefault("active", 0), statusCounts.getOrDefault("frozen", 0)), today);
+		return true;
+	}
+
+	@Override
+	public synchronized Integer freezeOverdueSubscribers(LocalDate lastDueDate) {
+		LocalDate today = LocalDate.now();
+		LocalDateTime now = LocalDateTime.now();
+		int frozen = 0;
+		for (BorrowRow borrow : activeBorrowByCopy.values()) {
+			SubscriberRow row = subscribers.get(borrow.subscriberID);
+			if (borrow.dueDate.isAfter(lastDueDate) || row == null || !"active".equals(row.status))
+				continue;
+			setStatus(row, "frozen");
+			addHistory(row.id, "freeze",
+					"%s got frozen on %s until %s;%d;%d".formatted(row.name, today, today.plusMonths(1),
+							statusCounts.getOrDefault("active", 0), statusCounts.getOrDefault("frozen", 0)),
+					today);
+			addCommand("unfreeze", "%d".formatted(row.id), now.plusMonths(1), "%d".formatted(row.id));
+			addCommand("sendEmail", MessageController.overdueFreezeEmail(row.id, row.name, today.plusMonths(1)), now,
+					"");
+			frozen++;
+		}
+		return frozen;
+	}
+
+	@Override
+	public List<Activity> getSubscriberHistory(int subID, LocalDate beforeDate, int beforeID, int pageSize) {
+		if (beforeDate == null && !subscribers.containsKey(subID))
+			return null;
+		NavigableSet<HistoryRow> history = historyBySubscriber.getOrDefault(subID, new TreeSet<>(HISTORY_ORDER));
+
+		// Walk back from the last activity already received, newest first
+		if (beforeDate != null) {
+			history = history.headSet(new HistoryRow(beforeID, null, null, beforeDate), false);
+		}
+		List<Activity> ret = new ArrayList<>();
+		for (HistoryRow row : history.descendingSet()) {
+			if (ret.size() >= pageSize)
+				break;
+			ret.add(new Activity(row.id, row.type, row.description.split(";")[0], row.date));
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized List<Message> getCommands() {
+		LocalDateTime now = LocalDateTime.now();
+		List<Message> ret = new ArrayList<>();
+
+		// Remove the due commands, they are the head of the time order
+		while (!commandsByTime.isEmpty() && commandsByTime.first().time.isBefore(now)) {
+			CommandRow row = commandsByTime.pollFirst();
+			Message msg = new Message(row.command);
+			for (String arg : row.arguments.split(";")) {
+				msg.addArgument(arg);
+			}
+			ret.add(msg);
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized Integer countDueCommands(LocalDateTime now) {
+		int count = 0;
+		for (CommandRow row : commandsByTime) {
+			if (!row.time.isBefore(now))
+				break;
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized LocalDateTime getOldestDueCommand(LocalDateTime now) {
+		if (commandsByTime.isEmpty() || !commandsByTime.first().time.isBefore(now))
+			return null;
+		return commandsByTime.first().time;
+	}
+
+	@Override
+	public List<Borrow> getSubscriberActiveBorrows(Subscriber sub) {
+		List<Borrow> ret = new ArrayList<>();
+		for (BorrowRow row : activeBorrowsBySubscriber.getOrDefault(sub.getId(), Set.of())) {
+			BookCopy copy = getCopyByID(row.copyID);
+			if (copy == null)
+				return null;
+			ret.add(toBorrow(row, sub, copy));
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<Integer, String> getLibrarianMessages(String librarian, int afterID) {
+		int from = Math.max(afterID, librarianReads.getOrDefault(librarian, 0));
+		return new TreeMap<>(librarianMessages.tailMap(from, false));
+	}
+
+	@Override
+	public Integer countLibrarianMessages(String librarian) {
+		return librarianMessages.tailMap(librarianReads.getOrDefault(librarian, 0), false).size();
+	}
+
+	@Override
+	public Boolean clearLibrarianMessages(String librarian, int lastID) {
+		// The read marker never moves backwards
+		librarianReads.merge(librarian, lastID, Math::max);
+		return true;
+	}
+
+	@Override
+	public synchronized Boolean orderBook(int subID, int titleID) {
+		Subscriber sub = getSubscriberByID(subID);
+		if (sub == null)
+			return false;
+		TitleRow title = titles.get(titleID);
+		if (title == null)
+			return false;
+		LocalDate today = LocalDate.now();
+
+		OrderRow row = new OrderRow(nextOrderID.getAndIncrement(), subID, titleID, LocalDateTime.now());
+		ordersByTitle.computeIfAbsent(titleID, id -> new CopyOnWriteArrayList<>()).add(row);
+		ordersBySubscriber.computeIfAbsent(subID, id -> new CopyOnWriteArrayList<>()).add(row);
+		title.numOfOrders++;
+		addHistory(subID, "order",
+				"%s ordered the book \"%s\" on %s".formatted(sub.getName(), toTitle(title), today), today);
+		return true;
+	}
+
+	@Override
+	public Integer getNumOfCopies(BookTitle title) {
+		Set<Integer> copyIDs = copiesByTitle.get(title.getTitleID());
+		if (copyIDs == null || copyIDs.isEmpty())
+			return null; // Like the database, a title without copies has no sum
+		int borrowed = 0;
+		for (int copyID : copyIDs) {
+			if (copies.get(copyID).borrowed)
+				borrowed++;
+		}
+		return borrowed;
+	}
+
+	@Override
+	public List<Subscriber> getAllSubscribers() {
+		List<Subscriber> ret = new ArrayList<>();
+		for (SubscriberRow row : subscribers.values()) {
+			ret.add(toSubscriber(row));
+		}
+		return ret;
+	}
+
+	@Override
+	public List<Order> getSubscriberActiveOrders(Subscriber sub) {
+		List<Order> ret = new ArrayList<>();
+		for (OrderRow row : ordersBySubscriber.getOrDefault(sub.getId(), List.of())) {
+			BookTitle title = getTitleByID(row.titleID);
+			if (title == null) {
+				System.out.println("title id " + row.titleID + " not found");
+				return null;
+			}
+			ret.add(toOrder(row, sub, title));
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized Boolean updateOrder(BookCopy copy) {
+		// Assign the copy to the oldest order that is still waiting
+		for (OrderRow row : ordersByTitle.getOrDefault(copy.getTitle().getTitleID(), List.of())) {
+			if (row.copyID == 0) {
+				row.copyID = copy.getCopyID();
+				row.ariveDate = LocalDate.now();
+				orderByCopy.put(row.copyID, row);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized Boolean assignOrder(int orderID, BookCopy copy) {
+		for (OrderRow row : ordersByTitle.getOrDefault(copy.getTitle().getTitleID(), List.of())) {
+			if (row.id == orderID) {
+				if (row.copyID != 0)
+					return false;
+				row.copyID = copy.getCopyID();
+				row.ariveDate = LocalDate.now();
+				orderByCopy.put(row.copyID, row);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Integer[] getOrderPlace(int titleID, int subID) {
+		int place = 0;
+		int waiting = 0;
+		for (OrderRow row : ordersByTitle.getOrDefault(titleID, List.of())) {
+			if (row.copyID == 0) {
+				waiting++;
+				if (row.subscriberID == subID)
+					place = waiting;
+			}
+		}
+		return new Integer[] { place, waiting };
+	}
+
+	@Override
+	public Eligibility.Facts getEligibilityFacts(int subID, int titleID, int copyID) {
+		CopyRow copy = copies.get(copyID);
+		if (titleID == 0 && copy != null)
+			titleID = copy.titleID;
+		Eligibility.Facts facts = new Eligibility.Facts(subID, titleID, copyID);
+		SubscriberRow sub = subscribers.get(subID);
+		facts.status = sub == null ? null : sub.status;
+		for (BorrowRow row : activeBorrowsBySubscriber.getOrDefault(subID, Set.of())) {
+			CopyRow borrowed = copies.get(row.copyID);
+			if (borrowed != null && borrowed.titleID == titleID)
+				facts.titleBorrows++;
+		}
+		for (OrderRow row : ordersBySubscriber.getOrDefault(subID, List.of())) {
+			if (row.titleID == titleID) {
+				facts.titleOrders++;
+				if (row.copyID != 0)
+					facts.orderedCopy = row.copyID;
+			}
+		}
+		facts.copyFound = copy != null;
+		BorrowRow borrow = activeBorrowByCopy.get(copyID);
+		if (borrow != null) {
+			facts.copyBorrower = borrow.subscriberID;
+			facts.copyDueDate = borrow.dueDate;
+		}
+		OrderRow order = orderByCopy.get(copyID);
+		facts.copyOrderedBy = order == null ? null : order.subscriberID;
+		TitleRow title = titles.get(titleID);
+		facts.titleFound = title != null;
+		if (title != null) {
+			facts.numOfCopies = title.numOfCopies;
+			facts.numOfOrders = title.numOfOrders;
+		}
+		for (int id : copiesByTitle.getOrDefault(titleID, Set.of())) {
+			CopyRow row = copies.get(id);
+			if (row != null && row.borrowed)
+				facts.borrowedCopies++;
+		}
+		return facts;
+	}
+
+	@Override
+	public synchronized Boolean createCommand(String command, String arguments, LocalDateTime timeOfExe,
+			String identifyer) {
+		addCommand(command, arguments, timeOfExe, identifyer);
+		return true;
+	}
+
+	@Override
+	public synchronized Boolean cancelCommand(String command, String identifyer) {
+		commandsByTime.removeIf(row -> row.command.equals(command) && row.identifyer.equals(identifyer));
+		return true;
+	}
+
+	@Override
+	public synchronized Boolean cancelOrder(int copyID) {
+		BookCopy copy = getCopyByID(copyID);
+		if (copy == null)
+			return null;
+		OrderRow row = orderByCopy.remove(copyID);
+		if (row != null) {
+			ordersByTitle.get(row.titleID).remove(row);
+			ordersBySubscriber.get(row.subscriberID).remove(row);
+		}
+		titles.get(copy.getTitle().getTitleID()).numOfOrders--;
+		return true;
+	}
+
+	@Override
+	public LocalDate getTitleClosestReturnDate(BookTitle title) {
+		Integer availability = getTitleAvailability(title);
+		if (availability == null || availability > 0)
+			return null;
+
+		// The latest due date of the borrowed copies, like the database storage
+		LocalDate ret = null;
+		for (int copyID : copiesByTitle.getOrDefault(title.getTitleID(), Set.of())) {
+			BorrowRow row = activeBorrowByCopy.get(copyID);
+			if (row != null && (ret == null || row.dueDate.isAfter(ret)))
+				ret = row.dueDate;
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<LocalDate, Integer[]> getSubscribersStatusOnMonth(LocalDate date) {
+		Month curMonth = date.getMonth();
+		date = LocalDate.of(date.getYear(), curMonth, 1).plusMonths(1).minusDays(1); // The last day of the month
+		Map<LocalDate, Integer[]> ret = new HashMap<>();
+
+		// Walk back from the end of the month until a day of an earlier month
+		for (HistoryRow row : statusByDay.headMap(date, true).descendingMap().values()) {
+			Integer[] lst = new Integer[2];
+			lst[0] = Integer.parseInt(row.description.split(";")[1]); // active count
+			lst[1] = Integer.parseInt(row.description.split(";")[2]); // frozen count
+			ret.put(row.date, lst);
+			if (!row.date.getMonth().equals(curMonth))
+				break;
+		}
+		return ret;
+	}
+
+	@Override
+	public Integer SumNewSubscriber(LocalDate date) {
+		return newSubscribersByMonth.getOrDefault(YearMonth.from(date), 0);
+	}
+
+	/**
+	 * The history is never stored, so there is nothing to archive.
+	 */
+	@Override
+	public Integer archiveColdHistory() {
+		return 0;
+	}
+
+	@Override
+	public Boolean saveGraph(LocalDate day, String graph_type, byte[] data) {
+		// The first saved graph of a month is the one that is read, like in the database
+		graphs.putIfAbsent("%s;%d;%d".formatted(graph_type, day.getYear(), day.getMonthValue()), data.clone());
+		return true;
+	}
+
+	@Override
+	public DataInputStream getGraph(int year, int month, String graphType) {
+		byte[] data = graphs.get("%s;%d;%d".formatted(graphType, year, month));
+		return data == null ? null : new DataInputStream(new ByteArrayInputStream(data));
+	}
+
+	@Override
+	public Map<String, Double[]> getBorrowTimeOnMonth(LocalDate date) {
+		YearMonth month = YearMonth.from(date);
+		Map<String, long[]> sums = new HashMap<>(); // {days, late returns, borrows} by genre
+		for (BorrowRow row : borrows) {
+			if (row.dateOfReturn == null || !YearMonth.from(row.dateOfReturn).equals(month))
+				continue;
+			String genre = titles.get(copies.get(row.copyID).titleID).genre;
+			long[] sum = sums.computeIfAbsent(genre, g -> new long[3]);
+			sum[0] += ChronoUnit.DAYS.between(row.dateOfBorrow, row.dateOfReturn);
+			sum[1] += row.dateOfReturn.isAfter(row.dueDate) ? 1 : 0;
+			sum[2]++;
+		}
+		Map<String, Double[]> ret = new HashMap<>();
+		for (Map.Entry<String, long[]> e : sums.entrySet()) {
+			long[] sum = e.getValue();
+			ret.put(e.getKey(), new Double[] { (double) sum[0] / sum[2], (double) sum[1] / sum[2] * 100 });
+		}
+		return ret;
+	}
+
+	@Override
+	public Double getAvgBorrowTimeOnMonth(LocalDate date) {
+		YearMonth month = YearMonth.from(date);
+		long days = 0;
+		long count = 0;
+		for (BorrowRow row : borrows) {
+			if (row.dateOfReturn != null && YearMonth.from(row.dateOfReturn).equals(month)) {
+				days += ChronoUnit.DAYS.between(row.dateOfBorrow, row.dateOfReturn);
+				count++;
+			}
+		}
+		return count == 0 ? 0.0 : (double) days / count;
+	}
+}
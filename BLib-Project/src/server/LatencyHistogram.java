@@ -0,0 +1,126 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class records latencies into logarithmic buckets, the
+ * bucket of a latency is the number of bits of its value in microseconds.
+ * Recording is lock free, so it can be called from any thread, and the
+ * percentiles it reports are accurate up to a factor of two.
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 40; // Enough for latencies of over a week in microseconds
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS); // Number of latencies in each bucket
+	private final LongAdder count = new LongAdder(); // Number of recorded latencies
+	private final LongAdder totalNanos = new LongAdder(); // Sum of the recorded latencies
+	private final AtomicLongArray max = new AtomicLongArray(1); // Highest recorded latency in nanoseconds
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.increment();
+		totalNanos.add(nanos);
+
+		// Raise the maximum if this latency is higher
+		long curMax;
+		while (nanos > (curMax = max.get(0)) && !max.compareAndSet(0, curMax, nanos))
+			;
+	}
+
+	/**
+	 * @return the number of buckets
+	 */
+	public static int getBuckets() {
+		return BUCKETS;
+	}
+
+	/**
+	 * Returns the upper bound of a bucket, every latency in the bucket is below it.
+	 *
+	 * @param bucket the index of the bucket
+	 * @return the upper bound in milliseconds
+	 */
+	public static double getBucketUpperMillis(int bucket) {
+		return (1L << bucket) / 1000.0;
+	}
+
+	/**
+	 * @return the number of latencies in each bucket
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * @return the number of recorded latencies
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the sum of the recorded latencies in milliseconds
+	 */
+	public double getTotalMillis() {
+		return totalNanos.sum() / 1_000_000.0;
+	}
+
+	/**
+	 * @return the average recorded latency in milliseconds, or 0 if nothing was
+	 *         recorded
+	 */
+	public double getMeanMillis() {
+		long n = count.sum();
+		return n == 0 ? 0 : getTotalMillis() / n;
+	}
+
+	/**
+	 * @return the highest recorded latency in milliseconds
+	 */
+	public double getMaxMillis() {
+		return max.get(0) / 1_000_000.0;
+	}
+
+	/**
+	 * Estimates a percentile of the recorded latencies as the upper bound of the
+	 * bucket that contains it.
+	 *
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the estimated latency in milliseconds, or 0 if nothing was recorded
+	 */
+	public double getPercentileMillis(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0)
+			return 0;
+
+		// Find the bucket where the rank of the percentile falls
+		long rank = (long) Math.ceil(n * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				// Bucket i holds latencies below 2^i microseconds
+				return Math.min(getBucketUpperMillis(i), getMaxMillis());
+			}
+		}
+		return getMaxMillis();
+	}
+}
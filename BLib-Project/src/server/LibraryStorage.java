@@ -0,0 +1,595 @@
+package server;
+
+import java.io.DataInputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import logic.Activity;
+import logic.BookCopy;
+import logic.BookTitle;
+import logic.Borrow;
+import logic.Message;
+import logic.Order;
+import logic.Subscriber;
+
+/**
+ * The LibraryStorage interface declares the data operations the server runs on
+ * the library, independently of where the library is stored.
+ *
+ * {@link BLibDBC} stores the library in the MySQL BLibDB database and
+ * {@link InMemoryStorage} keeps it in the memory of the server. The storage is
+ * chosen by the `blib.storage` system property: "memory" for the in-memory
+ * storage, anything else (the default) for the database. The catalog of the
+ * database is served from memory by {@link CatalogEngine}.
+ *
+ * Every operation reports a failure the way the database storage always did,
+ * by returning {@code null} or {@code false}.
+ */
+public interface LibraryStorage {
+
+	/**
+	 * Returns the storage chosen by the `blib.storage` system property. The
+	 * instance is looked up on every call, since the database storage is replaced
+	 * after it disconnects for inactivity.
+	 *
+	 * @return the storage of the library
+	 */
+	static LibraryStorage getInstance() {
+		if (isInMemory())
+			return InMemoryStorage.getInstance();
+		if (CatalogEngine.isEnabled())
+			return CatalogEngine.getInstance();
+		return BLibDBC.getInstance();
+	}
+
+	/**
+	 * @return true if the library is kept in memory instead of the database
+	 */
+	static boolean isInMemory() {
+		return "memory".equalsIgnoreCase(System.getProperty("blib.storage"));
+	}
+
+	/**
+	 * Checks a new subscriber of a bulk registration against the limits of the
+	 * subscribers table.
+	 *
+	 * @param sub the new subscriber
+	 * @return why the subscriber can't be registered, or null if they can
+	 */
+	static String checkNewSubscriber(Subscriber sub) {
+		if (sub == null || sub.getId() <= 0)
+			return "Invalid subscriber ID";
+		if (sub.getName() == null || sub.getName().isBlank())
+			return "Missing name";
+		if (sub.getName().length() > 255 || (sub.getEmail() != null && sub.getEmail().length() > 255))
+			return "Name or email longer than 255 characters";
+		if (sub.getPhone() != null && sub.getPhone().length() > 20)
+			return "Phone number longer than 20 characters";
+		if (!"active".equals(sub.getStatus()) && !"frozen".equals(sub.getStatus()))
+			return "Invalid status";
+		return null;
+	}
+
+	/**
+	 * Connects the storage with the given password.
+	 *
+	 * @param password the password of the storage.
+	 * @return true if the connection was successful, false otherwise.
+	 */
+	boolean connect(String password);
+
+	/**
+	 * Disconnects the storage.
+	 *
+	 * @return true if the disconnection was successful, false otherwise.
+	 */
+	boolean disconnect();
+
+	/**
+	 * Reports the operations of the storage that read all of their data.
+	 *
+	 * @return the number of operations that read all of their data.
+	 */
+	int checkQueryPlans();
+
+	/**
+	 * Retrieves a title by its ID.
+	 *
+	 * @param titleID The ID of the title.
+	 * @return The title, or null if it isn't found or an error occurs.
+	 */
+	BookTitle getTitleByID(int titleID);
+
+	/**
+	 * Retrieves the copies of a title.
+	 *
+	 * @param title The title.
+	 * @return The copies of the title, or null if an error occurs.
+	 */
+	Set<BookCopy> getCopiesByTitle(BookTitle title);
+
+	/**
+	 * Retrieves the titles whose name, author, description or genre contains a
+	 * keyword.
+	 *
+	 * @param keyword The keyword.
+	 * @return The matching titles, or null if an error occurs.
+	 */
+	Set<BookTitle> getTitlesByKeyword(String keyword);
+
+	/**
+	 * Retrieves the whole catalog, every title with its copies.
+	 *
+	 * @return The copies of every title, or null if an error occurs.
+	 */
+	Map<BookTitle, Set<BookCopy>> getCatalog();
+
+	/**
+	 * Retrieves the due dates of all the active borrows.
+	 *
+	 * @return The due date of every borrowed copy by copy ID, or null if an error
+	 *         occurs.
+	 */
+	Map<Integer, LocalDate> getActiveDueDates();
+
+	/**
+	 * Retrieves the orders that wait for a copy, in the order they were placed.
+	 *
+	 * @param titleID The ID of the title, or null for all the titles.
+	 * @return The subscriber ID of every waiting order by order ID, the oldest
+	 *         first, by title ID, or null if an error occurs.
+	 */
+	Map<Integer, LinkedHashMap<Integer, Integer>> getWaitingOrders(Integer titleID);
+
+	/**
+	 * Retrieves a subscriber by their ID.
+	 *
+	 * @param subscriberID The ID of the subscriber.
+	 * @return The subscriber, or null if they aren't found or an error occurs.
+	 */
+	Subscriber getSubscriberByID(int subscriberID);
+
+	/**
+	 * Retrieves the order a copy was assigned to.
+	 *
+	 * @param copyID The ID of the copy.
+	 * @return The order, or null if it isn't found or an error occurs.
+	 */
+	Order getOrderByCopy(int copyID);
+
+	/**
+	 * Borrows a copy for two weeks, logs the borrow and schedules a reminder the
+	 * day before the due date. The copy is taken only if it is still available,
+	 * so of two borrows of the same copy at the same time only one succeeds.
+	 *
+	 * @param subscriberID The ID of the subscriber.
+	 * @param copyID       The ID of the copy.
+	 * @return True if the borrow was created, false otherwise.
+	 */
+	Boolean createBorrow(int subscriberID, int copyID);
+
+	/**
+	 * Retrieves a copy by its ID.
+	 *
+	 * @param copyID The ID of the copy.
+	 * @return The copy, or null if it isn't found or an error occurs.
+	 */
+	BookCopy getCopyByID(int copyID);
+
+	/**
+	 * Updates the email and phone of a subscriber and logs the changes.
+	 *
+	 * @param newSubscriber The subscriber with the new details.
+	 * @param userType      "subscriber" or the name of the librarian.
+	 * @return True if the subscriber was updated, false otherwise.
+	 */
+	Boolean updateSubscriber(Subscriber newSubscriber, String userType);
+
+	/**
+	 * Registers a new subscriber and their user.
+	 *
+	 * @param subscriber The new subscriber.
+	 * @param password   The password of the new user.
+	 * @return True if the subscriber was registered, false otherwise.
+	 */
+	Boolean registerSubscriber(Subscriber subscriber, String password);
+
+	/**
+	 * Registers many new subscribers and their users at once. The subscribers
+	 * that pass {@link #checkNewSubscriber(Subscriber)} and whose ID is free are
+	 * registered together, the others are reported.
+	 *
+	 * @param subscribers The new subscribers.
+	 * @param passwords   The password of the user of each subscriber.
+	 * @return The result of each subscriber in order, null if they were
+	 *         registered or why they weren't, or null if an error occurs, in
+	 *         which case none of them is registered.
+	 */
+	List<String> registerSubscribers(List<Subscriber> subscribers, List<String> passwords);
+
+	/**
+	 * Authenticates a user.
+	 *
+	 * @param userID   The ID of the user.
+	 * @param password The password of the user.
+	 * @return "subscriber" or the librarian's name, or null if the authentication
+	 *         fails.
+	 */
+	String login(int userID, String password);
+
+	/**
+	 * Retrieves the active borrow of a copy.
+	 *
+	 * @param copy The copy.
+	 * @return The active borrow, or null if there is none or an error occurs.
+	 */
+	Borrow getCopyActiveBorrow(BookCopy copy);
+
+	/**
+	 * Extends the due date of a borrow and logs the extension.
+	 *
+	 * @param borrow   The borrow.
+	 * @param days     The number of days to extend by.
+	 * @param userType "subscriber" or the name of the librarian.
+	 * @return True if the borrow was extended, false otherwise.
+	 */
+	Boolean extendDuration(Borrow borrow, int days, String userType);
+
+	/**
+	 * Calculates the availability of a title: the number of copies minus the
+	 * borrowed copies and the orders.
+	 *
+	 * @param title The title.
+	 * @return The availability, or null if the title isn't found or an error
+	 *         occurs.
+	 */
+	Integer getTitleAvailability(BookTitle title);
+
+	/**
+	 * Checks if a title has orders.
+	 *
+	 * @param titleID The ID of the title.
+	 * @return True if the title has orders, or null if an error occurs.
+	 */
+	Boolean isTitleOrdered(int titleID);
+
+	/**
+	 * Returns a borrowed copy and logs the return. The copy is freed only if it is
+	 * still borrowed, so of two returns of the same copy at the same time only one
+	 * succeeds.
+	 *
+	 * @param book         The copy.
+	 * @param isLateReturn True if the copy is returned after its due date.
+	 * @return True if the copy was returned, false otherwise.
+	 */
+	Boolean returnBook(BookCopy book, boolean isLateReturn);
+
+	/**
+	 * Retrieves many copies at once.
+	 *
+	 * @param copyIDs The IDs of the copies.
+	 * @return The copies by copy ID, without the IDs that don't exist, or null if
+	 *         an error occurs.
+	 */
+	Map<Integer, BookCopy> getCopiesByID(Collection<Integer> copyIDs);
+
+	/**
+	 * Retrieves the active borrows of many copies at once.
+	 *
+	 * @param copies The copies.
+	 * @return The active borrows by copy ID, without the copies that aren't
+	 *         borrowed, or null if an error occurs.
+	 */
+	Map<Integer, Borrow> getCopiesActiveBorrows(Collection<BookCopy> copies);
+
+	/**
+	 * Retrieves the orders that many copies are assigned to at once.
+	 *
+	 * @param copies The copies.
+	 * @return The orders by copy ID, without the copies that aren't assigned to
+	 *         an order, or null if an error occurs.
+	 */
+	Map<Integer, Order> getOrdersByCopies(Collection<BookCopy> copies);
+
+	/**
+	 * Borrows many copies for a subscriber for two weeks, all or none. The caller
+	 * checks that the copies can be borrowed, and none is borrowed if one of them
+	 * was taken since.
+	 *
+	 * @param sub    The subscriber.
+	 * @param copies The copies to borrow.
+	 * @return True if the copies were borrowed, false otherwise.
+	 */
+	Boolean createBorrows(Subscriber sub, List<BookCopy> copies);
+
+	/**
+	 * Returns many borrowed copies, all or none. A borrow returned after its due
+	 * date is logged as a late return, and the reminders of the copies returned
+	 * on time are canceled. None is returned if one of them was returned since it
+	 * was read.
+	 *
+	 * @param borrows The active borrows to close.
+	 * @return True if the copies were returned, false otherwise.
+	 */
+	Boolean returnBooks(List<Borrow> borrows);
+
+	/**
+	 * Freezes a subscriber for a month and schedules their unfreeze.
+	 *
+	 * @param subID The ID of the subscriber.
+	 * @return True if the subscriber was frozen, false if an error occurs, or null
+	 *         if the subscriber doesn't exist.
+	 */
+	Boolean freezeSubscriber(int subID);
+
+	/**
+	 * Unfreezes a subscriber.
+	 *
+	 * @param subID The ID of the subscriber.
+	 * @return True if the subscriber was unfrozen, false if an error occurs, or
+	 *         null if the subscriber doesn't exist.
+	 */
+	Boolean unfreezeSubscriber(int subID);
+
+	/**
+	 * Freezes every active subscriber with a borrow that is not returned and was
+	 * due on or before a date, schedules their unfreeze and queues an email to
+	 * each of them.
+	 *
+	 * @param lastDueDate The latest due date of a borrow that freezes its
+	 *                    subscriber.
+	 * @return The number of frozen subscribers, or null if an error occurs.
+	 */
+	Integer freezeOverdueSubscribers(LocalDate lastDueDate);
+
+	/**
+	 * Retrieves one page of the history of a subscriber, newest activity first.
+	 *
+	 * @param subID      The ID of the subscriber.
+	 * @param beforeDate The date of the last activity already received, or null
+	 *                   for the first page.
+	 * @param beforeID   The ID of the last activity already received.
+	 * @param pageSize   The maximal number of activities.
+	 * @return The page, or null if the subscriber doesn't exist or an error
+	 *         occurs.
+	 */
+	List<Activity> getSubscriberHistory(int subID, LocalDate beforeDate, int beforeID, int pageSize);
+
+	/**
+	 * Retrieves and removes the scheduled commands that are due.
+	 *
+	 * @return The due commands, or null if an error occurs.
+	 */
+	List<Message> getCommands();
+
+	/**
+	 * Counts the scheduled commands that are due.
+	 *
+	 * @param now The current time.
+	 * @return The number of due commands, or null if an error occurs.
+	 */
+	Integer countDueCommands(LocalDateTime now);
+
+	/**
+	 * Retrieves the time of the oldest due command.
+	 *
+	 * @param now The current time.
+	 * @return The time of the oldest due command, or null if none is due or an
+	 *         error occurs.
+	 */
+	LocalDateTime getOldestDueCommand(LocalDateTime now);
+
+	/**
+	 * Retrieves the active borrows of a subscriber.
+	 *
+	 * @param sub The subscriber.
+	 * @return The active borrows, or null if an error occurs.
+	 */
+	List<Borrow> getSubscriberActiveBorrows(Subscriber sub);
+
+	/**
+	 * Retrieves the messages after a message ID that a librarian hasn't read.
+	 *
+	 * @param librarian The name of the librarian.
+	 * @param afterID   The last message ID already known (0 for none).
+	 * @return The messages by their IDs, or null if an error occurs.
+	 */
+	Map<Integer, String> getLibrarianMessages(String librarian, int afterID);
+
+	/**
+	 * Counts the messages a librarian hasn't read.
+	 *
+	 * @param librarian The name of the librarian.
+	 * @return The number of unread messages, or null if an error occurs.
+	 */
+	Integer countLibrarianMessages(String librarian);
+
+	/**
+	 * Marks the messages up to a message ID as read by a librarian.
+	 *
+	 * @param librarian The name of the librarian.
+	 * @param lastID    The ID of the last message the librarian has seen.
+	 * @return True if the messages were marked, false otherwise.
+	 */
+	Boolean clearLibrarianMessages(String librarian, int lastID);
+
+	/**
+	 * Orders a title for a subscriber and logs the order.
+	 *
+	 * @param subID   The ID of the subscriber.
+	 * @param titleID The ID of the title.
+	 * @return True if the title was ordered, false otherwise.
+	 */
+	Boolean orderBook(int subID, int titleID);
+
+	/**
+	 * Counts the borrowed copies of a title.
+	 *
+	 * @param title The title.
+	 * @return The number of borrowed copies, or null if the title has no copies
+	 *         or an error occurs.
+	 */
+	Integer getNumOfCopies(BookTitle title);
+
+	/**
+	 * Retrieves all the subscribers.
+	 *
+	 * @return The subscribers, or null if an error occurs.
+	 */
+	List<Subscriber> getAllSubscribers();
+
+	/**
+	 * Retrieves the orders of a subscriber, oldest first.
+	 *
+	 * @param sub The subscriber.
+	 * @return The orders, or null if an error occurs.
+	 */
+	List<Order> getSubscriberActiveOrders(Subscriber sub);
+
+	/**
+	 * Assigns a returned copy to the oldest waiting order of its title.
+	 *
+	 * @param copy The copy.
+	 * @return True if an order got the copy, false otherwise.
+	 */
+	Boolean updateOrder(BookCopy copy);
+
+	/**
+	 * Assigns a copy to an order, if the order still waits for a copy.
+	 *
+	 * @param orderID The ID of the order.
+	 * @param copy    The copy.
+	 * @return True if the order got the copy, false if it doesn't wait anymore, or
+	 *         null if an error occurs.
+	 */
+	Boolean assignOrder(int orderID, BookCopy copy);
+
+	/**
+	 * Finds the place of a subscriber in the line of the waiting orders of a
+	 * title.
+	 *
+	 * @param titleID The ID of the title.
+	 * @param subID   The ID of the subscriber.
+	 * @return The place of the subscriber, 1 for the next order or 0 if they have
+	 *         no waiting order of the title, and the number of waiting orders, or
+	 *         null if an error occurs.
+	 */
+	Integer[] getOrderPlace(int titleID, int subID);
+
+	/**
+	 * Reads together everything {@link Eligibility} needs to decide on a borrow,
+	 * an order or an extension: the subscriber's status and their borrows and
+	 * orders of the title, the active borrow and the order of the copy, and the
+	 * copies, borrowed copies and orders of the title.
+	 *
+	 * @param subID   The ID of the subscriber.
+	 * @param titleID The ID of the title, 0 to take the title of the copy.
+	 * @param copyID  The ID of the copy, or 0 if the action has no copy.
+	 * @return The facts, or null if an error occurs.
+	 */
+	Eligibility.Facts getEligibilityFacts(int subID, int titleID, int copyID);
+
+	/**
+	 * Schedules a command.
+	 *
+	 * @param command    The command.
+	 * @param arguments  The arguments of the command, separated by ';'.
+	 * @param timeOfExe  The time of execution.
+	 * @param identifyer The identifier of the command.
+	 * @return True if the command was scheduled, false otherwise.
+	 */
+	Boolean createCommand(String command, String arguments, LocalDateTime timeOfExe, String identifyer);
+
+	/**
+	 * Cancels the scheduled commands with a command and identifier.
+	 *
+	 * @param command    The command.
+	 * @param identifyer The identifier of the command.
+	 * @return True if the commands were canceled, false otherwise.
+	 */
+	Boolean cancelCommand(String command, String identifyer);
+
+	/**
+	 * Cancels the order a copy was assigned to.
+	 *
+	 * @param copyID The ID of the copy.
+	 * @return True if the order was canceled, false if an error occurs, or null if
+	 *         the copy isn't found.
+	 */
+	Boolean cancelOrder(int copyID);
+
+	/**
+	 * Retrieves the closest return date of a title that has no available copy.
+	 *
+	 * @param title The title.
+	 * @return The return date, or null if a copy is available or an error occurs.
+	 */
+	LocalDate getTitleClosestReturnDate(BookTitle title);
+
+	/**
+	 * Retrieves the number of active and frozen subscribers on every day of a
+	 * month that had a status change.
+	 *
+	 * @param date Any date within the month.
+	 * @return The [active, frozen] counts by date, or null if an error occurs.
+	 */
+	Map<LocalDate, Integer[]> getSubscribersStatusOnMonth(LocalDate date);
+
+	/**
+	 * Counts the new subscribers of a month.
+	 *
+	 * @param date Any date within the month.
+	 * @return The number of new subscribers, or null if an error occurs.
+	 */
+	Integer SumNewSubscriber(LocalDate date);
+
+	/**
+	 * Archives the history of the cold years.
+	 *
+	 * @return The number of archived activities, or null if an error occurs.
+	 */
+	Integer archiveColdHistory();
+
+	/**
+	 * Saves a graph of a month.
+	 *
+	 * @param day        Any date within the month.
+	 * @param graph_type The type of the graph.
+	 * @param data       The graph.
+	 * @return True if the graph was saved, false otherwise.
+	 */
+	Boolean saveGraph(LocalDate day, String graph_type, byte[] data);
+
+	/**
+	 * Retrieves a saved graph of a month.
+	 *
+	 * @param year      The year.
+	 * @param month     The month.
+	 * @param graphType The type of the graph.
+	 * @return The graph, or null if it isn't found or an error occurs.
+	 */
+	DataInputStream getGraph(int year, int month, String graphType);
+
+	/**
+	 * Retrieves the average borrow time and the percentage of late returns of
+	 * every genre for the borrows returned in a month.
+	 *
+	 * @param date Any date within the month.
+	 * @return [average borrow time, late return percentage] by genre, or null if
+	 *         an error occurs.
+	 */
+	Map<String, Double[]> getBorrowTimeOnMonth(LocalDate date);
+
+	/**
+	 * Retrieves the average borrow time of the borrows returned in a month.
+	 *
+	 * @param date Any date within the month.
+	 * @return The average borrow time in days, or null if an error occurs.
+	 */
+	Double getAvgBorrowTimeOnMonth(LocalDate date);
+}
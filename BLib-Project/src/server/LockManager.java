@@ -0,0 +1,144 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The LockManager class serializes the server flows that read, decide and
+ * write on the same titles or subscribers, like a borrow that checks the copy
+ * and the orders of its title before writing.
+ *
+ * OCSF already hands the commands of the clients to the server one at a time
+ * (AbstractServer.receiveMessageFromClient is synchronized), so the locks don't
+ * make client commands run in parallel. They order the client commands with the
+ * flows of the {@link ServerTimer} thread, like the cancellation of an order
+ * that wasn't picked up, which run outside of the server's monitor.
+ *
+ * The IDs are spread over a fixed number of lock stripes per kind, so the
+ * memory doesn't grow with the library. A flow takes all its locks at once, the
+ * title stripes and then the subscriber stripes, each in ascending order, so
+ * two flows never wait for each other in a cycle. The locks are reentrant, a
+ * flow that runs another flow, like a borrow that cancels an order, takes the
+ * same locks again. The time spent waiting is recorded per kind.
+ */
+public class LockManager {
+	private static final int STRIPE_BITS = 6; // 64 stripes of each kind
+
+	/**
+	 * The locks taken by a flow, released by closing it.
+	 */
+	public static class Locks implements AutoCloseable {
+		private final List<ReentrantLock> held = new ArrayList<>();
+
+		@Override
+		public void close() {
+			// Release in the reverse order of taking
+			for (int i = held.size() - 1; i >= 0; i--) {
+				held.get(i).unlock();
+			}
+			held.clear();
+		}
+	}
+
+	private static LockManager instance;
+
+	private final ReentrantLock[] titleLocks = newStripes();
+	private final ReentrantLock[] subscriberLocks = newStripes();
+	private final LatencyHistogram titleWaits = new LatencyHistogram(); // Time waited for title locks
+	private final LatencyHistogram subscriberWaits = new LatencyHistogram(); // Time waited for subscriber locks
+
+	/**
+	 * Returns the single instance of LockManager.
+	 *
+	 * @return the instance of LockManager
+	 */
+	public static synchronized LockManager getInstance() {
+		if (instance == null)
+			instance = new LockManager();
+		return instance;
+	}
+
+	private LockManager() {
+	}
+
+	/**
+	 * Takes the locks of titles and subscribers, waiting until each of them is
+	 * free. Null IDs are ignored.
+	 *
+	 * @param titleIDs      the IDs of the titles
+	 * @param subscriberIDs the IDs of the subscribers
+	 * @return the locks, to be closed when the flow ends
+	 */
+	public Locks lock(Collection<Integer> titleIDs, Collection<Integer> subscriberIDs) {
+		Locks locks = new Locks();
+		take(locks, titleLocks, stripes(titleIDs), titleWaits);
+		take(locks, subscriberLocks, stripes(subscriberIDs), subscriberWaits);
+		return locks;
+	}
+
+	/**
+	 * Takes the locks of a title and a subscriber.
+	 *
+	 * @param titleID      the ID of the title, or null
+	 * @param subscriberID the ID of the subscriber, or null
+	 * @return the locks, to be closed when the flow ends
+	 */
+	public Locks lock(Integer titleID, Integer subscriberID) {
+		List<Integer> titles = new ArrayList<>(1);
+		List<Integer> subscribers = new ArrayList<>(1);
+		titles.add(titleID);
+		subscribers.add(subscriberID);
+		return lock(titles, subscribers);
+	}
+
+	/**
+	 * @return the time flows waited for title locks
+	 */
+	public LatencyHistogram getTitleWaits() {
+		return titleWaits;
+	}
+
+	/**
+	 * @return the time flows waited for subscriber locks
+	 */
+	public LatencyHistogram getSubscriberWaits() {
+		return subscriberWaits;
+	}
+
+	/**
+	 * Takes the locks of stripes in ascending order and records the total wait.
+	 */
+	private static void take(Locks locks, ReentrantLock[] stripes, TreeSet<Integer> indexes, LatencyHistogram waits) {
+		if (indexes.isEmpty())
+			return;
+		long start = System.nanoTime();
+		for (int i : indexes) {
+			stripes[i].lock();
+			locks.held.add(stripes[i]);
+		}
+		waits.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * @return the stripes of IDs in ascending order, without repetitions
+	 */
+	private static TreeSet<Integer> stripes(Collection<Integer> ids) {
+		TreeSet<Integer> ret = new TreeSet<>();
+		for (Integer id : ids) {
+			if (id != null)
+				ret.add((id * 0x9E3779B9) >>> (32 - STRIPE_BITS)); // Spreads consecutive IDs over the stripes
+		}
+		return ret;
+	}
+
+	private static ReentrantLock[] newStripes() {
+		ReentrantLock[] stripes = new ReentrantLock[1 << STRIPE_BITS];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+		return stripes;
+	}
+}
@@ -1,7 +1,9 @@
 package server;
 
+import java.time.LocalDate;
 import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.Authenticator;
 import javax.mail.Message;
@@ -22,6 +24,7 @@ public class MessageController {
 
 	private Session session;
 	private static MessageController instance;
+	private final AtomicInteger pending = new AtomicInteger(); // Messages that were not sent yet
 
 	/**
 	 * Singleton pattern to ensure only one instance of MessageController.
@@ -63,6 +66,32 @@ public class MessageController {
 		session = Session.getInstance(props, auth);
 	}
 
+	/**
+	 * Retrieves the number of emails and SMS messages that are still being sent.
+	 * 
+	 * @return the number of pending messages.
+	 */
+	public int getPendingMessages() {
+		return pending.get();
+	}
+
+	/**
+	 * Builds the arguments of a scheduled "sendEmail" command that tells a
+	 * subscriber their account got frozen for an overdue book. The arguments are
+	 * separated by ';', so the text contains none.
+	 * 
+	 * @param subID the ID of the subscriber.
+	 * @param name  the name of the subscriber.
+	 * @param until the date the account gets unfrozen.
+	 * @return the arguments of the command.
+	 */
+	public static String overdueFreezeEmail(int subID, String name, LocalDate until) {
+		return "%d;%s;%s".formatted(subID, "Your account has been frozen", "Dear %s,\n\n".formatted(name)
+				+ "Your account has been frozen until %s because a borrowed book is more than a week overdue.\n"
+						.formatted(until)
+				+ "Please return it to the library as soon as possible.\n\n" + "Best regards, BLib library");
+	}
+
 	/**
 	 * Sends a message (both email and SMS) to the subscriber.
 	 * 
@@ -103,8 +132,11 @@ public class MessageController {
 			} catch (MessagingException mex) {
 				System.out.println("send failed, exception: " + mex);
 				mex.printStackTrace();
+			} finally {
+				pending.decrementAndGet();
 			}
 		});
+		pending.incrementAndGet();
 		t.start();
 	}
 
@@ -126,7 +158,9 @@ public class MessageController {
 				e.printStackTrace();
 			}
 			System.out.println("SMS sent");
+			pending.decrementAndGet();
 		});
+		pending.incrementAndGet();
 		t.start();
 	}
 }
@@ -0,0 +1,216 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The MetricsHttpServer class serves the server's metrics in the Prometheus
+ * text format at /metrics. It is started only when the `blib.metricsPort`
+ * system property is set.
+ *
+ * The metrics are read from the lock-free counters of
+ * {@link BLibServerMonitor}, {@link DBMonitor}, {@link CacheStats},
+ * {@link LockManager} and {@link MessageController}, so a scrape never blocks the handling of client
+ * requests.
+ */
+public class MetricsHttpServer {
+
+	private static HttpServer httpServer; // The running listener, null if it wasn't started
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private MetricsHttpServer() {
+	}
+
+	/**
+	 * Starts the metrics listener if the `blib.metricsPort` system property is set.
+	 *
+	 * @return true if the listener was started
+	 */
+	public static synchronized boolean startIfEnabled() {
+		Integer port = Integer.getInteger("blib.metricsPort");
+		if (port == null || httpServer != null)
+			return false;
+		try {
+			httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+			httpServer.createContext("/metrics", MetricsHttpServer::handle);
+			// A single daemon thread is enough for scrapes and doesn't keep the JVM alive
+			httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "metrics-http");
+				t.setDaemon(true);
+				return t;
+			}));
+			httpServer.start();
+			System.out.println("metrics served on port " + port);
+			return true;
+		} catch (IOException e) {
+			System.out.println("metrics listener failed: " + e.getMessage());
+			httpServer = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Stops the metrics listener.
+	 */
+	public static synchronized void stop() {
+		if (httpServer != null) {
+			httpServer.stop(0);
+			httpServer = null;
+		}
+	}
+
+	/**
+	 * Answers a scrape with the current metrics.
+	 *
+	 * @param exchange the HTTP request and response
+	 * @throws IOException if the response can't be sent
+	 */
+	private static void handle(HttpExchange exchange) throws IOException {
+		byte[] body = render().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * Renders all the metrics in the Prometheus text format.
+	 *
+	 * @return the metrics
+	 */
+	public static String render() {
+		StringBuilder sb = new StringBuilder();
+		BLibServerMonitor monitor = BLibServerMonitor.getInstance();
+
+		// Client requests
+		gauge(sb, "blib_connected_clients", "Connected clients", monitor.getConnectedClients());
+		gauge(sb, "blib_requests_in_flight", "Client requests being handled", monitor.getInFlightRequests());
+		counter(sb, "blib_requests_failed_total", "Client requests that failed", monitor.getFailedRequests());
+		header(sb, "blib_command_duration_seconds", "Latency of client commands", "histogram");
+		for (Map.Entry<String, LatencyHistogram> e : monitor.getCommandLatencies().entrySet()) {
+			histogram(sb, "blib_command_duration_seconds", "command", e.getKey(), e.getValue());
+		}
+
+		// Database statements
+		header(sb, "blib_db_statement_duration_seconds", "Latency of database statements", "histogram");
+		for (DBMonitor.StatementStats s : DBMonitor.getInstance().getStatementStats()) {
+			histogram(sb, "blib_db_statement_duration_seconds", "sql", s.getSql(), s.getLatency());
+		}
+		header(sb, "blib_db_statement_rows_total", "Rows returned or changed by database statements", "counter");
+		for (DBMonitor.StatementStats s : DBMonitor.getInstance().getStatementStats()) {
+			sb.append("blib_db_statement_rows_total{sql=\"" + escape(s.getSql()) + "\"} " + s.getRows() + "\n");
+		}
+		gauge(sb, "blib_db_busy_statements", "Database statements executing", DBMonitor.getInstance().getExecuting());
+		gauge(sb, "blib_db_open_transaction_seconds", "Age of the oldest open database transaction",
+				DBMonitor.getInstance().getOpenTransactionMillis() / 1000.0);
+		header(sb, "blib_db_pool_connections", "Open database connections of the units of work", "gauge");
+		sb.append("blib_db_pool_connections{state=\"idle\"} " + monitor.getDatabasePoolIdleConnections() + "\n");
+		sb.append("blib_db_pool_connections{state=\"in_use\"} " + monitor.getDatabasePoolInUseConnections() + "\n");
+
+		// Locks of titles and subscribers
+		header(sb, "blib_lock_wait_seconds", "Time commands waited for the locks of titles and subscribers",
+				"histogram");
+		histogram(sb, "blib_lock_wait_seconds", "kind", "title", LockManager.getInstance().getTitleWaits());
+		histogram(sb, "blib_lock_wait_seconds", "kind", "subscriber", LockManager.getInstance().getSubscriberWaits());
+
+		// Caches
+		header(sb, "blib_cache_hits_total", "Cache lookups found in the cache", "counter");
+		for (Map.Entry<String, CacheStats> e : CacheStats.getAll().entrySet()) {
+			sb.append("blib_cache_hits_total{cache=\"" + e.getKey() + "\"} " + e.getValue().getHits() + "\n");
+		}
+		header(sb, "blib_cache_misses_total", "Cache lookups not found in the cache", "counter");
+		for (Map.Entry<String, CacheStats> e : CacheStats.getAll().entrySet()) {
+			sb.append("blib_cache_misses_total{cache=\"" + e.getKey() + "\"} " + e.getValue().getMisses() + "\n");
+		}
+		header(sb, "blib_cache_hit_ratio", "Ratio of cache lookups found in the cache", "gauge");
+		for (Map.Entry<String, CacheStats> e : CacheStats.getAll().entrySet()) {
+			sb.append("blib_cache_hit_ratio{cache=\"" + e.getKey() + "\"} " + e.getValue().getHitRatio() + "\n");
+		}
+
+		// Notifications
+		gauge(sb, "blib_notification_queue", "Emails and SMS messages not sent yet",
+				MessageController.getInstance().getPendingMessages());
+
+		// JVM
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		gauge(sb, "jvm_heap_used_bytes", "Used heap memory", heap.getUsed());
+		gauge(sb, "jvm_heap_committed_bytes", "Committed heap memory", heap.getCommitted());
+		gauge(sb, "jvm_heap_max_bytes", "Maximal heap memory", heap.getMax());
+		header(sb, "jvm_gc_collections_total", "Garbage collections", "counter");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sb.append("jvm_gc_collections_total{gc=\"" + escape(gc.getName()) + "\"} " + gc.getCollectionCount() + "\n");
+		}
+		header(sb, "jvm_gc_collection_seconds_total", "Time spent in garbage collections", "counter");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sb.append("jvm_gc_collection_seconds_total{gc=\"" + escape(gc.getName()) + "\"} "
+					+ gc.getCollectionTime() / 1000.0 + "\n");
+		}
+		gauge(sb, "jvm_threads", "Live threads", ManagementFactory.getThreadMXBean().getThreadCount());
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the HELP and TYPE lines of a metric.
+	 */
+	private static void header(StringBuilder sb, String name, String help, String type) {
+		sb.append("# HELP " + name + " " + help + "\n");
+		sb.append("# TYPE " + name + " " + type + "\n");
+	}
+
+	/**
+	 * Appends a gauge metric without labels.
+	 */
+	private static void gauge(StringBuilder sb, String name, String help, double value) {
+		header(sb, name, help, "gauge");
+		sb.append(name + " " + value + "\n");
+	}
+
+	/**
+	 * Appends a counter metric without labels.
+	 */
+	private static void counter(StringBuilder sb, String name, String help, long value) {
+		header(sb, name, help, "counter");
+		sb.append(name + " " + value + "\n");
+	}
+
+	/**
+	 * Appends the cumulative buckets, sum and count of a latency histogram. Empty
+	 * buckets above the highest recorded latency are left out.
+	 */
+	private static void histogram(StringBuilder sb, String name, String label, String value, LatencyHistogram h) {
+		String labels = label + "=\"" + escape(value) + "\"";
+		long[] counts = h.getBucketCounts();
+		int last = counts.length - 1;
+		while (last > 0 && counts[last] == 0)
+			last--;
+		long cumulative = 0;
+		for (int i = 0; i <= last; i++) {
+			cumulative += counts[i];
+			sb.append(name + "_bucket{" + labels + ",le=\"" + LatencyHistogram.getBucketUpperMillis(i) / 1000.0
+					+ "\"} " + cumulative + "\n");
+		}
+		sb.append(name + "_bucket{" + labels + ",le=\"+Inf\"} " + cumulative + "\n");
+		sb.append(name + "_sum{" + labels + "} " + h.getTotalMillis() / 1000.0 + "\n");
+		sb.append(name + "_count{" + labels + "} " + cumulative + "\n");
+	}
+
+	/**
+	 * Escapes a label value.
+	 */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
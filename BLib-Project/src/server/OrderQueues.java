@@ -0,0 +1,135 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The OrderQueues class keeps, for every title, the orders that wait for a
+ * copy in the order they were placed. The next order of a returned copy, the
+ * number of waiting orders and the place of a subscriber in line are answered
+ * in constant time, without reading the orders table.
+ *
+ * {@link CatalogEngine} builds the queues when it loads the catalog, rebuilds
+ * the queue of a title when an order of it is placed and removes an order once
+ * the assignment of a copy to it is committed. Each title is locked on its own, for the short time
+ * of an update or an answer.
+ */
+public class OrderQueues {
+
+	/**
+	 * The waiting orders of a single title. Orders leave only from the head, so
+	 * the place of an order is its sequence number minus the one of the head.
+	 */
+	private static class TitleQueue {
+		private final ArrayDeque<Integer> orders = new ArrayDeque<>(); // Order IDs, the oldest first
+		private final Map<Integer, Long> seqOfOrder = new HashMap<>(); // Sequence number of each order ID
+		private final Map<Integer, Integer> orderOfSubscriber = new HashMap<>(); // Waiting order ID by subscriber ID
+		private final Map<Integer, Integer> subscriberOfOrder = new HashMap<>(); // Subscriber ID by order ID
+		private long headSeq; // Sequence number of the head order
+		private long nextSeq; // Sequence number of the next order added
+
+		private void add(int orderID, int subscriberID) {
+			orders.addLast(orderID);
+			seqOfOrder.put(orderID, nextSeq++);
+			orderOfSubscriber.put(subscriberID, orderID);
+			subscriberOfOrder.put(orderID, subscriberID);
+		}
+
+		private void poll() {
+			Integer orderID = orders.pollFirst();
+			if (orderID == null)
+				return;
+			seqOfOrder.remove(orderID);
+			orderOfSubscriber.remove(subscriberOfOrder.remove(orderID));
+			headSeq++;
+		}
+	}
+
+	// Queue of each title ID with waiting orders
+	private final Map<Integer, TitleQueue> titles = new ConcurrentHashMap<>();
+
+	/**
+	 * Replaces the waiting orders of a title.
+	 *
+	 * @param titleID the ID of the title
+	 * @param orders  the subscriber ID of every waiting order by order ID, the
+	 *                oldest first
+	 */
+	public void setTitle(int titleID, Map<Integer, Integer> orders) {
+		TitleQueue queue = new TitleQueue();
+		for (Map.Entry<Integer, Integer> e : orders.entrySet()) {
+			queue.add(e.getKey(), e.getValue());
+		}
+		titles.put(titleID, queue);
+	}
+
+	/**
+	 * Retrieves the waiting orders of a title, the next order first.
+	 *
+	 * @param titleID the ID of the title
+	 * @return the IDs of the orders, empty if no order waits
+	 */
+	public List<Integer> waiting(int titleID) {
+		TitleQueue queue = titles.get(titleID);
+		if (queue == null)
+			return new ArrayList<>();
+		synchronized (queue) {
+			return new ArrayList<>(queue.orders);
+		}
+	}
+
+	/**
+	 * Removes the next order of a title, after a copy was assigned to it.
+	 *
+	 * @param titleID the ID of the title
+	 * @param orderID the ID of the order, nothing is removed if it isn't the next
+	 *                order
+	 */
+	public void poll(int titleID, int orderID) {
+		TitleQueue queue = titles.get(titleID);
+		if (queue == null)
+			return;
+		synchronized (queue) {
+			Integer head = queue.orders.peekFirst();
+			if (head != null && head == orderID)
+				queue.poll();
+		}
+	}
+
+	/**
+	 * Counts the waiting orders of a title.
+	 *
+	 * @param titleID the ID of the title
+	 * @return the number of waiting orders
+	 */
+	public int length(int titleID) {
+		TitleQueue queue = titles.get(titleID);
+		if (queue == null)
+			return 0;
+		synchronized (queue) {
+			return queue.orders.size();
+		}
+	}
+
+	/**
+	 * Finds the place of a subscriber in the line of a title.
+	 *
+	 * @param titleID      the ID of the title
+	 * @param subscriberID the ID of the subscriber
+	 * @return the place, 1 for the next order, or 0 if the subscriber has no
+	 *         waiting order of the title
+	 */
+	public int place(int titleID, int subscriberID) {
+		TitleQueue queue = titles.get(titleID);
+		if (queue == null)
+			return 0;
+		synchronized (queue) {
+			Integer orderID = queue.orderOfSubscriber.get(subscriberID);
+			return orderID == null ? 0 : (int) (queue.seqOfOrder.get(orderID) - queue.headSeq + 1);
+		}
+	}
+}
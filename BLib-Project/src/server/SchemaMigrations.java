@@ -0,0 +1,355 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The SchemaMigrations class owns the schema of the BLibDB database. It holds
+ * an ordered list of versioned migrations and applies the ones that were not
+ * applied yet when the server starts. The applied versions are recorded in the
+ * `schema_version` table.
+ *
+ * Every migration is idempotent: tables are created only if they don't exist
+ * and columns and indexes are added only if the JDBC metadata doesn't list them
+ * already, so a migration that was stopped in the middle (MySQL commits every
+ * DDL statement on its own) can simply run again.
+ *
+ * The class also holds a check that runs EXPLAIN on the statements that
+ * {@link BLibDBC} ran and reports the ones that still scan a whole table.
+ */
+public class SchemaMigrations {
+
+	/**
+	 * A step of the schema that is applied on the database connection.
+	 */
+	private interface Step {
+		void apply(Connection conn) throws SQLException;
+	}
+
+	/**
+	 * A versioned migration of the schema.
+	 */
+	private static class Migration {
+		private int version; // The version the schema has after the migration
+		private String description; // What the migration does
+		private Step step; // The changes of the migration
+
+		private Migration(int version, String description, Step step) {
+			this.version = version;
+			this.description = description;
+			this.step = step;
+		}
+	}
+
+	// The migrations, ordered by version. New migrations are added at the end.
+	private static final List<Migration> MIGRATIONS = List.of(
+			new Migration(1, "baseline tables", SchemaMigrations::baseline),
+			new Migration(2, "librarian message IDs and read markers", SchemaMigrations::librarianMessages),
+			new Migration(3, "indexes of the BLibDBC access paths", SchemaMigrations::accessPathIndexes),
+			new Migration(4, "index of the overdue borrows", SchemaMigrations::overdueBorrowsIndex),
+			new Migration(5, "index of the titles by name and author", SchemaMigrations::titleNameIndex));
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private SchemaMigrations() {
+	}
+
+	/**
+	 * Applies the migrations that were not applied yet, in order of version.
+	 *
+	 * @param conn the database connection, with auto-commit disabled
+	 * @return true if the schema is at the latest version, false if a migration
+	 *         failed
+	 */
+	public static boolean migrate(Connection conn) {
+		try {
+			execute(conn, "CREATE TABLE IF NOT EXISTS schema_version (version INT NOT NULL PRIMARY KEY, "
+					+ "description VARCHAR(255) NOT NULL, applied_on DATETIME NOT NULL);");
+			int current = getVersion(conn);
+
+			for (Migration migration : MIGRATIONS) {
+				if (migration.version <= current)
+					continue; // Already applied
+				System.out.println("applying schema migration " + migration.version + ": " + migration.description);
+				migration.step.apply(conn);
+
+				// Record the applied version together with the migration's changes
+				PreparedStatement pstmt = conn.prepareStatement(
+						"INSERT INTO schema_version(version, description, applied_on) VALUES(?,?,?);");
+				pstmt.setInt(1, migration.version);
+				pstmt.setString(2, migration.description);
+				pstmt.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+				pstmt.execute();
+				conn.commit();
+			}
+			return true;
+		} catch (SQLException e) {
+			System.out.println("schema migration failed: " + e.getMessage());
+			try {
+				conn.rollback();
+			} catch (SQLException ex) {
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Retrieves the latest applied schema version.
+	 *
+	 * @param conn the database connection
+	 * @return the latest applied version, or 0 if no migration was applied
+	 * @throws SQLException if the version can't be read
+	 */
+	public static int getVersion(Connection conn) throws SQLException {
+		ResultSet rs = conn.prepareStatement("SELECT MAX(version) FROM schema_version;").executeQuery();
+		return rs.next() ? rs.getInt(1) : 0;
+	}
+
+	/**
+	 * Migration 1: creates the tables of the library, if they don't exist.
+	 *
+	 * @param conn the database connection
+	 * @throws SQLException if a table can't be created
+	 */
+	private static void baseline(Connection conn) throws SQLException {
+		execute(conn, "CREATE TABLE IF NOT EXISTS titles (title_id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+				+ "title_name VARCHAR(255) NOT NULL, author_name VARCHAR(255) NOT NULL, title_description TEXT, "
+				+ "num_of_orders INT NOT NULL DEFAULT 0, num_of_copies INT NOT NULL DEFAULT 0, genre VARCHAR(45));");
+		execute(conn, "CREATE TABLE IF NOT EXISTS copies (title_id INT NOT NULL, "
+				+ "copy_id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, shelf VARCHAR(45), "
+				+ "is_borrowed TINYINT(1) NOT NULL DEFAULT 0);");
+		execute(conn, "CREATE TABLE IF NOT EXISTS subscribers (subscriber_id INT NOT NULL PRIMARY KEY, "
+				+ "subscriber_name VARCHAR(255) NOT NULL, subscriber_phone_number VARCHAR(20), "
+				+ "subscriber_email VARCHAR(255), subscriber_status VARCHAR(10) NOT NULL DEFAULT 'active');");
+		execute(conn, "CREATE TABLE IF NOT EXISTS users (user_id INT NOT NULL PRIMARY KEY, "
+				+ "password VARCHAR(45) NOT NULL, role VARCHAR(45) NOT NULL);");
+		execute(conn, "CREATE TABLE IF NOT EXISTS borrows (borrow_id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+				+ "subscriber_id INT NOT NULL, copy_id INT NOT NULL, date_of_borrow DATE NOT NULL, "
+				+ "due_date DATE NOT NULL, date_of_return DATE);");
+		execute(conn, "CREATE TABLE IF NOT EXISTS orders (order_id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+				+ "subscriber_id INT NOT NULL, title_id INT NOT NULL, copy_id INT, order_date DATETIME NOT NULL, "
+				+ "arive_date DATE);");
+		execute(conn, "CREATE TABLE IF NOT EXISTS history (item_id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+				+ "subscriber_id INT NOT NULL, activity_type VARCHAR(45) NOT NULL, activity_description TEXT, "
+				+ "activity_date DATE NOT NULL);");
+		execute(conn, "CREATE TABLE IF NOT EXISTS commands (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+				+ "command VARCHAR(45) NOT NULL, arguments TEXT, time_of_execution DATETIME NOT NULL, "
+				+ "identifyer VARCHAR(255));");
+		execute(conn, "CREATE TABLE IF NOT EXISTS librarian_messages (message TEXT NOT NULL, time DATETIME NOT NULL);");
+		execute(conn, "CREATE TABLE IF NOT EXISTS graphs (graph_id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+				+ "graph_type VARCHAR(45) NOT NULL, graph_month INT NOT NULL, graph_year INT NOT NULL, graph LONGBLOB);");
+	}
+
+	/**
+	 * Migration 2: adds the increasing `message_id` column to the librarian
+	 * messages and creates the table of each librarian's read marker.
+	 *
+	 * @param conn the database connection
+	 * @throws SQLException if the column or the table can't be created
+	 */
+	private static void librarianMessages(Connection conn) throws SQLException {
+		if (!columnExists(conn, "librarian_messages", "message_id")) {
+			execute(conn, "ALTER TABLE librarian_messages ADD COLUMN message_id INT NOT NULL AUTO_INCREMENT UNIQUE FIRST;");
+		}
+		execute(conn, "CREATE TABLE IF NOT EXISTS librarian_message_reads ("
+				+ "librarian_name VARCHAR(45) NOT NULL PRIMARY KEY, last_read_id INT NOT NULL DEFAULT 0);");
+	}
+
+	/**
+	 * Migration 3: creates the indexes of the access paths used by
+	 * {@link BLibDBC}.
+	 *
+	 * @param conn the database connection
+	 * @throws SQLException if an index can't be created
+	 */
+	private static void accessPathIndexes(Connection conn) throws SQLException {
+		// Active borrow of a copy, and active borrows of a subscriber
+		createIndex(conn, "borrows", "idx_borrows_copy_return", "copy_id, date_of_return");
+		createIndex(conn, "borrows", "idx_borrows_subscriber_return", "subscriber_id, date_of_return");
+		// Copies of a title
+		createIndex(conn, "copies", "idx_copies_title", "title_id");
+		// Waiting orders of a title, the order of a copy and the orders of a subscriber
+		createIndex(conn, "orders", "idx_orders_title_copy_date", "title_id, copy_id, order_date");
+		createIndex(conn, "orders", "idx_orders_copy", "copy_id");
+		createIndex(conn, "orders", "idx_orders_subscriber_date", "subscriber_id, order_date");
+		// Due commands, and commands canceled or updated by their identifier
+		createIndex(conn, "commands", "idx_commands_time", "time_of_execution");
+		createIndex(conn, "commands", "idx_commands_command_identifyer", "command, identifyer");
+		// History pages of a subscriber, status reports and the archival of old years
+		createIndex(conn, "history", "idx_history_subscriber_date", "subscriber_id, activity_date");
+		createIndex(conn, "history", "idx_history_type_date", "activity_type, activity_date");
+		createIndex(conn, "history", "idx_history_date", "activity_date");
+		// Saved report graphs
+		createIndex(conn, "graphs", "idx_graphs_type_year_month", "graph_type, graph_year, graph_month");
+	}
+
+	/**
+	 * Migration 4: creates the index the overdue sweep reads the overdue borrows
+	 * from. It covers the subscriber IDs, so the sweep reads only the index.
+	 *
+	 * @param conn the database connection
+	 * @throws SQLException if the index can't be created
+	 */
+	private static void overdueBorrowsIndex(Connection conn) throws SQLException {
+		createIndex(conn, "borrows", "idx_borrows_return_due", "date_of_return, due_date, subscriber_id");
+	}
+
+	/**
+	 * Migration 5: creates the index the catalog importer finds the titles that
+	 * are already in the catalog with.
+	 *
+	 * @param conn the database connection
+	 * @throws SQLException if the index can't be created
+	 */
+	private static void titleNameIndex(Connection conn) throws SQLException {
+		createIndex(conn, "titles", "idx_titles_name_author", "title_name, author_name");
+	}
+
+	/**
+	 * Runs EXPLAIN on the statements that {@link DBMonitor} recorded since the
+	 * last check, with the parameters they were last executed with, and finds the
+	 * statements that read a whole table. Every statement is checked once, so the
+	 * check can run again as the server runs statements it didn't run yet. A
+	 * statement that wasn't executed with all its parameters yet is checked again
+	 * on the next run.
+	 *
+	 * The statements of a batch sent in one query are explained one by one. Only
+	 * the SELECT, INSERT, UPDATE and DELETE statements are explained. A whole
+	 * table read is the access type ALL in the `type` column of the EXPLAIN output
+	 * of MySQL, the plans of a database without this column aren't checked.
+	 *
+	 * The keyword search, the list of all subscribers and the subscriber status
+	 * counts read whole tables by design, they are reported as well.
+	 *
+	 * @param conn the database connection
+	 * @return a line for every table that a statement reads fully
+	 */
+	public static List<String> checkQueryPlans(Connection conn) {
+		List<String> fullScans = new ArrayList<>();
+		for (DBMonitor.StatementStats stats : DBMonitor.getInstance().getStatementStats()) {
+			if (stats.isPlanChecked())
+				continue;
+			List<String> found = new ArrayList<>(); // The full scans of this statement
+			boolean complete = true; // Every statement of the batch was explained, or has no plan
+			List<Object> params = new ArrayList<>(stats.getSampleParams().values());
+			int next = 0; // The first parameter of the next statement of the batch
+			for (String sql : stats.getSql().split(";")) {
+				sql = sql.trim();
+				int count = (int) sql.chars().filter(c -> c == '?').count();
+				List<Object> own = params.subList(Math.min(next, params.size()),
+						Math.min(next + count, params.size()));
+				next += count;
+				String verb = sql.split(" ", 2)[0].toUpperCase();
+				if (!List.of("SELECT", "INSERT", "UPDATE", "DELETE").contains(verb))
+					continue; // Not a statement with a plan
+				if (own.size() < count) {
+					complete = false; // It wasn't executed with all its parameters yet, check it later
+					continue;
+				}
+				try {
+					PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + sql);
+					for (int i = 0; i < own.size(); i++) {
+						pstmt.setObject(i + 1, own.get(i));
+					}
+					ResultSet rs = pstmt.executeQuery();
+					if (!hasColumn(rs, "type"))
+						continue;
+					while (rs.next()) {
+						// An access type of ALL means the whole table is read
+						if ("ALL".equals(rs.getString("type"))) {
+							found.add("full scan of " + rs.getString("table") + " in: " + sql);
+						}
+					}
+				} catch (SQLException e) {
+					found.add("EXPLAIN failed (" + e.getMessage() + ") for: " + sql);
+				}
+			}
+			// Report the statement once, even if another check explained it meanwhile
+			if (complete && stats.markPlanChecked())
+				fullScans.addAll(found);
+		}
+		try {
+			conn.rollback(); // EXPLAIN doesn't change anything, end the read transaction
+		} catch (SQLException e) {
+		}
+		return fullScans;
+	}
+
+	/**
+	 * Checks if a result set has a column.
+	 *
+	 * @param rs     the result set
+	 * @param column the label of the column
+	 * @return true if the result set has the column
+	 * @throws SQLException if the metadata can't be read
+	 */
+	private static boolean hasColumn(ResultSet rs, String column) throws SQLException {
+		ResultSetMetaData meta = rs.getMetaData();
+		for (int i = 1; i <= meta.getColumnCount(); i++) {
+			if (column.equalsIgnoreCase(meta.getColumnLabel(i)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates an index if a table doesn't have an index with the same name.
+	 *
+	 * @param conn    the database connection
+	 * @param table   the indexed table
+	 * @param name    the name of the index
+	 * @param columns the indexed columns, separated by commas
+	 * @throws SQLException if the index can't be created
+	 */
+	private static void createIndex(Connection conn, String table, String name, String columns) throws SQLException {
+		// Embedded databases may store the names in upper case, so both cases are checked
+		for (String t : new String[] { table, table.toUpperCase() }) {
+			ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), null, t, false, false);
+			while (rs.next()) {
+				if (name.equalsIgnoreCase(rs.getString("INDEX_NAME")))
+					return; // The index already exists
+			}
+		}
+		execute(conn, "CREATE INDEX " + name + " ON " + table + " (" + columns + ");");
+	}
+
+	/**
+	 * Checks if a table has a column.
+	 *
+	 * @param conn   the database connection
+	 * @param table  the table
+	 * @param column the column
+	 * @return true if the column exists
+	 * @throws SQLException if the table's columns can't be read
+	 */
+	private static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+		// Embedded databases may store the names in upper case, so both cases are checked
+		for (String t : new String[] { table, table.toUpperCase() }) {
+			ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, t, null);
+			while (rs.next()) {
+				if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME")))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Executes a schema statement.
+	 *
+	 * @param conn the database connection
+	 * @param sql  the statement
+	 * @throws SQLException if the statement fails
+	 */
+	private static void execute(Connection conn, String sql) throws SQLException {
+		conn.prepareStatement(sql).execute();
+	}
+}
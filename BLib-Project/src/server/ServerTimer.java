@@ -1,5 +1,6 @@
 package server;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 import logic.Message;
@@ -15,6 +16,7 @@ public class ServerTimer implements Runnable {
 	private BLibServer server; // Reference to the server instance
 	private static ServerTimer instance = null; // Singleton instance
 	private int delayMinutes = 30; // Delay time in minutes between command checks
+	private static volatile LocalDateTime lastRun = null; // Time the commands were last checked
 
 	/**
 	 * Starts the ServerTimer if it hasn't been started yet.
@@ -28,6 +30,25 @@ public class ServerTimer implements Runnable {
 		}
 	}
 
+	/**
+	 * Wakes the timer thread up so it checks and executes the due commands now
+	 * instead of at the end of its delay.
+	 */
+	public static void runNow() {
+		if (instance instanceof ServerTimer) {
+			instance.t.interrupt();
+		}
+	}
+
+	/**
+	 * Retrieves the time the timer last checked the due commands.
+	 *
+	 * @return the time of the last check, or null if the timer didn't run yet
+	 */
+	public static LocalDateTime getLastRun() {
+		return lastRun;
+	}
+
 	/**
 	 * Private constructor for ServerTimer that initializes the server and starts
 	 * the timer thread.
@@ -50,6 +71,7 @@ public class ServerTimer implements Runnable {
 	public void run() {
 		while (true) {
 			System.out.println("server timer running");
+			lastRun = LocalDateTime.now();
 			// check relevant commands
 			List<Message> list = server.getCommands();
 
@@ -58,6 +80,8 @@ public class ServerTimer implements Runnable {
 				for (Message msg : list) {
 					server.execute(msg);
 				}
+			// Check the plans of the statements that ran for the first time since the last check
+			LibraryStorage.getInstance().checkQueryPlans();
 			// sleep for delayMinutes minutes
 			try {
 				Thread.sleep(delayMinutes * 60 * 1000); // sleep
@@ -0,0 +1,103 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * The StatementBatch class sends the different statements of a library
+ * operation, like the update of a copy and the inserts of its history and
+ * reminder, to the database in a single round trip.
+ *
+ * When the connection allows multiple statements in one query (the MySQL
+ * allowMultiQueries option of the URL), the statements are joined into one
+ * prepared statement and their parameters are bound in order. Otherwise they
+ * are executed one after the other, with the same results.
+ */
+class StatementBatch {
+	private final List<String> sqls = new ArrayList<>();
+	private final List<Object[]> params = new ArrayList<>();
+
+	/**
+	 * Adds a statement to the batch.
+	 *
+	 * @param sql    the statement, without a terminating ';'
+	 * @param params the parameters of the statement: Integer, String, Boolean,
+	 *               LocalDate or LocalDateTime, null for an SQL NULL
+	 * @return this batch
+	 */
+	StatementBatch add(String sql, Object... params) {
+		sqls.add(sql);
+		this.params.add(params);
+		return this;
+	}
+
+	/**
+	 * Executes the statements of the batch in the order they were added, in the
+	 * current transaction of the connection.
+	 *
+	 * @param conn         the connection
+	 * @param zone         the calendar of the dates and times
+	 * @param multiQueries whether the connection allows multiple statements in
+	 *                     one query
+	 * @return the number of rows changed by each statement
+	 * @throws SQLException if a statement fails, the statements before it were
+	 *                      executed
+	 */
+	int[] execute(Connection conn, Calendar zone, boolean multiQueries) throws SQLException {
+		int[] counts = new int[sqls.size()];
+		if (!multiQueries || sqls.size() == 1) {
+			for (int i = 0; i < sqls.size(); i++) {
+				PreparedStatement pstmt = conn.prepareStatement(sqls.get(i));
+				bind(pstmt, 1, params.get(i), zone);
+				counts[i] = pstmt.executeUpdate();
+			}
+			return counts;
+		}
+
+		PreparedStatement pstmt = conn.prepareStatement(String.join("; ", sqls));
+		int index = 1;
+		for (Object[] p : params) {
+			index = bind(pstmt, index, p, zone);
+		}
+		pstmt.execute();
+		// Every statement updates, so each result is an update count
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = pstmt.getUpdateCount();
+			pstmt.getMoreResults();
+		}
+		return counts;
+	}
+
+	/**
+	 * Binds the parameters of a statement from an index.
+	 *
+	 * @return the index after the parameters
+	 */
+	private static int bind(PreparedStatement pstmt, int index, Object[] params, Calendar zone) throws SQLException {
+		for (Object param : params) {
+			if (param == null)
+				pstmt.setNull(index, Types.NULL);
+			else if (param instanceof Integer)
+				pstmt.setInt(index, (Integer) param);
+			else if (param instanceof Boolean)
+				pstmt.setBoolean(index, (Boolean) param);
+			else if (param instanceof LocalDate)
+				pstmt.setDate(index, Date.valueOf((LocalDate) param), zone);
+			else if (param instanceof LocalDateTime)
+				pstmt.setTimestamp(index, Timestamp.valueOf((LocalDateTime) param), zone);
+			else
+				pstmt.setString(index, param.toString());
+			index++;
+		}
+		return index;
+	}
+}
@@ -0,0 +1,258 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The UnitOfWork class is the scope of a single client command on the server
+ * thread that runs it. While a unit is open:
+ * <ul>
+ * <li>an identity map returns the subscribers, copies and titles that were
+ * already loaded in the command by their IDs, instead of loading them
+ * again,</li>
+ * <li>{@link BLibDBC} runs all the statements of the command on one connection
+ * of its own, in one transaction. A storage call that used to commit marks a
+ * savepoint instead, and a failed call rolls back to the last savepoint, so it
+ * still undoes only its own writes,</li>
+ * <li>the transaction is committed once, by {@link #commit()} before the
+ * command replies, or when the unit is closed,</li>
+ * <li>the changes of the shared in-memory state that follow the writes, like
+ * the catalog snapshot of {@link CatalogEngine}, wait for that commit, so
+ * other commands never see writes that may still be rolled back.</li>
+ * </ul>
+ * The identity map is cleared whenever the command writes, the loaded entities
+ * may have changed. A storage without a database ignores the unit.
+ */
+public class UnitOfWork implements AutoCloseable {
+	private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+	private static final CacheStats stats = CacheStats.of("identityMap");
+
+	// Entities loaded in the unit by type and ID
+	private final Map<Class<?>, Map<Integer, Object>> loaded = new HashMap<>();
+	private Connection connection; // Connection of the unit, null until the database is first used
+	private Consumer<Connection> release; // Gives the connection back when the unit closes
+	private Savepoint savepoint; // Point after the last storage call that wrote
+	private boolean broken; // Whether the connection failed and must not be reused
+	// Changes of the in-memory state, applied once the writes they follow are committed
+	private final List<Runnable> afterCommit = new ArrayList<>();
+	// Repairs of the in-memory state, applied if the writes are rolled back instead
+	private final List<Runnable> afterRollback = new ArrayList<>();
+
+	/**
+	 * Private constructor, units are opened by {@link #begin()}.
+	 */
+	private UnitOfWork() {
+	}
+
+	/**
+	 * Opens a unit of work on the current thread.
+	 *
+	 * @return the unit, to be closed when the command ends, or null if a unit is
+	 *         already open on the thread, which the command joins
+	 */
+	public static UnitOfWork begin() {
+		if (current.get() != null)
+			return null;
+		UnitOfWork unit = new UnitOfWork();
+		current.set(unit);
+		return unit;
+	}
+
+	/**
+	 * @return the unit of work open on the current thread, or null
+	 */
+	public static UnitOfWork current() {
+		return current.get();
+	}
+
+	/**
+	 * Finds an entity that was already loaded in the unit.
+	 *
+	 * @param type the type of the entity
+	 * @param id   the ID of the entity
+	 * @return the entity, or null if it wasn't loaded
+	 */
+	public <T> T find(Class<T> type, int id) {
+		Map<Integer, Object> entities = loaded.get(type);
+		Object entity = entities == null ? null : entities.get(id);
+		if (entity == null) {
+			stats.miss();
+			return null;
+		}
+		stats.hit();
+		return type.cast(entity);
+	}
+
+	/**
+	 * Keeps a loaded entity for the next loads of the unit.
+	 *
+	 * @param type   the type of the entity
+	 * @param id     the ID of the entity
+	 * @param entity the entity, nothing is kept if it is null
+	 */
+	public <T> void register(Class<T> type, int id, T entity) {
+		if (entity != null)
+			loaded.computeIfAbsent(type, t -> new HashMap<>()).put(id, entity);
+	}
+
+	/**
+	 * Applies a change of the in-memory state once the writes of the unit are
+	 * committed. The change is dropped if they are rolled back. A storage call
+	 * registers the change after it wrote, so a later call that is rolled back to
+	 * its savepoint keeps it.
+	 *
+	 * @param change the change
+	 */
+	public void afterCommit(Runnable change) {
+		afterCommit.add(change);
+	}
+
+	/**
+	 * Applies a repair of the in-memory state if the writes of the unit are rolled
+	 * back, instead of being committed.
+	 *
+	 * @param repair the repair, like reading again what the writes changed
+	 */
+	public void afterRollback(Runnable repair) {
+		afterRollback.add(repair);
+	}
+
+	/**
+	 * @return the connection of the unit, or null if it has none yet
+	 */
+	Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Gives the unit its connection, in a transaction that nothing was written to.
+	 *
+	 * @param connection the connection
+	 * @param release    gives the connection back to be reused, unless it failed
+	 */
+	void attach(Connection connection, Consumer<Connection> release) {
+		this.connection = connection;
+		this.release = release;
+	}
+
+	/**
+	 * Ends a storage call that wrote, instead of committing it.
+	 *
+	 * @throws SQLException if the savepoint can't be set
+	 */
+	void written() throws SQLException {
+		loaded.clear();
+		savepoint = connection.setSavepoint();
+	}
+
+	/**
+	 * Undoes the writes of a failed storage call, back to the end of the last call
+	 * that wrote.
+	 */
+	void rollbackCall() {
+		loaded.clear();
+		try {
+			if (savepoint != null) {
+				connection.rollback(savepoint); // The writes of the earlier calls and their changes stay
+				return;
+			}
+			connection.rollback();
+		} catch (SQLException e) {
+			broken = true; // Rolled back by closing the connection
+		}
+		rolledBack();
+	}
+
+	/**
+	 * Commits the writes of the unit, and ends its transaction.
+	 *
+	 * @return true if the writes were committed, or the unit has no connection
+	 */
+	public boolean commit() {
+		if (connection == null) {
+			committed(); // The storage committed every call
+			return true;
+		}
+		savepoint = null;
+		try {
+			if (broken)
+				throw new SQLException("the connection of the unit failed");
+			connection.commit();
+		} catch (SQLException e) {
+			try {
+				connection.rollback();
+			} catch (SQLException e1) {
+				broken = true;
+			}
+			rolledBack();
+			return false;
+		}
+		committed();
+		return true;
+	}
+
+	/**
+	 * Applies the changes that waited for the commit.
+	 */
+	private void committed() {
+		loaded.clear(); // The changes read what was committed
+		afterRollback.clear();
+		List<Runnable> changes = new ArrayList<>(afterCommit);
+		afterCommit.clear();
+		for (Runnable change : changes) {
+			try {
+				change.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace(); // The writes are committed anyway
+			}
+		}
+	}
+
+	/**
+	 * Drops the changes that waited for the commit and applies the repairs.
+	 */
+	private void rolledBack() {
+		loaded.clear();
+		afterCommit.clear();
+		List<Runnable> repairs = new ArrayList<>(afterRollback);
+		afterRollback.clear();
+		for (Runnable repair : repairs) {
+			try {
+				repair.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Commits the writes that weren't committed yet, gives the connection back and
+	 * ends the unit on the current thread.
+	 */
+	@Override
+	public void close() {
+		try {
+			if (!commit())
+				System.out.println("unit of work: the commit failed, the writes were rolled back");
+			if (connection != null) {
+				if (broken) {
+					try {
+						connection.close();
+					} catch (SQLException e) {
+						// The connection is dropped anyway
+					}
+				} else {
+					release.accept(connection);
+				}
+			}
+		} finally {
+			current.remove();
+		}
+	}
+}
@@ -0,0 +1,643 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CatalogImporter class loads a catalog of titles and their copies into the
+ * BLib database from a file, however large, in constant memory. The file is
+ * read as a stream:
+ * <ul>
+ * <li>rows are validated, and the invalid ones are reported with their line
+ * number and skipped,</li>
+ * <li>a title that appears twice in the file, or that the database already has
+ * (same name and author, ignoring case), is imported once,</li>
+ * <li>the rows are grouped into chunks, and every chunk is written by one of a
+ * few parallel workers in its own transaction, with JDBC batches that the
+ * default MySQL URL sends as multi-row inserts,</li>
+ * <li>`num_of_copies` of every title is the number of copies imported with
+ * it.</li>
+ * </ul>
+ * The progress is printed every few seconds, and the number of the last line
+ * whose chunk and all the chunks before it are committed is saved in a
+ * checkpoint file next to the input. If the import fails, running it again
+ * continues after that line, and the titles of the chunks that were committed
+ * after it are found in the database and skipped. The checkpoint file is
+ * deleted when the import finishes.
+ *
+ * Two formats are read:
+ * <ul>
+ * <li>CSV with a header row. The columns are title_name and author_name, and
+ * optionally genre, title_description and either shelves (the shelf of every
+ * copy, separated by '|') or copies (a number of copies without a shelf).
+ * Quoted fields may contain commas, quotes ("") and new lines.</li>
+ * <li>A MARC-like line format, of records separated by blank lines, where every
+ * line is a tag and a value: 245 the title, 100 the author, 655 the genre, 520
+ * the description and 852 the shelf of a copy (once per copy). Other tags are
+ * ignored.</li>
+ * </ul>
+ * A server that is running while the import runs serves the new titles after
+ * its caches are flushed (the flushCaches operation of its MBean).
+ *
+ * Usage: {@code java tools.CatalogImporter <file>}. Configuration is read from
+ * system properties:
+ * <ul>
+ * <li>import.url, import.user, import.dbPassword - the database (default the
+ * local MySQL BLibDB)</li>
+ * <li>import.format - csv or marc (default marc for .mrk and .marc files, csv
+ * otherwise)</li>
+ * <li>import.threads - the number of parallel workers (default 4)</li>
+ * <li>import.chunk - the number of titles in a chunk (default 1000)</li>
+ * </ul>
+ */
+public class CatalogImporter {
+
+	private static final int MAX_REPORTED_ERRORS = 100; // Invalid rows reported one by one
+	private static final long PROGRESS_INTERVAL = 5_000_000_000L; // Nanoseconds between progress lines
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final int threads = Integer.getInteger("import.threads", 4);
+	private final int chunkSize = Integer.getInteger("import.chunk", 1000);
+
+	// The progress of the import
+	private long titles; // Titles imported
+	private long copies; // Copies imported
+	private long duplicates; // Rows skipped as titles that were already imported
+	private long invalid; // Rows skipped as invalid
+	private long start; // Start time in nanoseconds
+	private long lastProgress; // Time of the last progress line in nanoseconds
+	private SQLException failure; // The first failure of a worker
+
+	// The checkpoint: chunks are numbered in file order, and every chunk up to the
+	// watermark is committed
+	private Path checkpoint;
+	private int nextToCommit; // Number of the first chunk that is not committed
+	private final TreeSet<Integer> committedAhead = new TreeSet<>(); // Committed chunks after it
+	private final Map<Integer, Long> lastLineOfChunk = new HashMap<>();
+
+	/**
+	 * A title read from the file, with the shelves of its copies.
+	 */
+	private static class Row {
+		private String name;
+		private String author;
+		private String genre;
+		private String description;
+		private List<String> shelves = new ArrayList<>(); // A null shelf is a copy without a shelf
+		private long line; // Last line of the row in the file
+		private String invalid; // Why the row couldn't be parsed, or null
+
+		/**
+		 * @return the key of the title, its name and author ignoring case
+		 */
+		private String key() {
+			return name.toLowerCase() + '\n' + author.toLowerCase();
+		}
+
+		/**
+		 * @return why the row can't be imported, or null if it is valid
+		 */
+		private String validate() {
+			if (invalid != null)
+				return invalid;
+			if (name == null || name.isEmpty())
+				return "missing title_name";
+			if (author == null || author.isEmpty())
+				return "missing author_name";
+			if (name.length() > 255 || author.length() > 255)
+				return "title_name or author_name longer than 255 characters";
+			if (genre != null && genre.length() > 45)
+				return "genre longer than 45 characters";
+			for (String shelf : shelves) {
+				if (shelf != null && shelf.length() > 45)
+					return "shelf longer than 45 characters";
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The reader of the rows of a file in one of the formats.
+	 */
+	private interface RowReader {
+		/**
+		 * @return the next row, or null at the end of the file
+		 * @throws IOException if the file can't be read or is malformed
+		 */
+		Row next() throws IOException;
+	}
+
+	/**
+	 * Creates an importer into a database.
+	 *
+	 * @param url      the JDBC URL of the database
+	 * @param user     the database user
+	 * @param password the password of the database user
+	 */
+	public CatalogImporter(String url, String user, String password) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.out.println("usage: java tools.CatalogImporter <file>");
+			return;
+		}
+		String url = System.getProperty("import.url",
+				"jdbc:mysql://localhost/BLibDB?useSSL=FALSE&serverTimezone=Asia/Jerusalem&rewriteBatchedStatements=true");
+		CatalogImporter importer = new CatalogImporter(url, System.getProperty("import.user", "root"),
+				System.getProperty("import.dbPassword", ""));
+		String name = args[0].toLowerCase();
+		String format = System.getProperty("import.format",
+				name.endsWith(".mrk") || name.endsWith(".marc") ? "marc" : "csv");
+		if (!importer.importFile(new File(args[0]), format.equals("marc"))) {
+			System.out.println("the import failed, run it again to continue from the checkpoint");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Imports a file into the catalog, continuing an import of the file that
+	 * failed if it has a checkpoint.
+	 *
+	 * @param file   the file to import
+	 * @param isMarc true for the MARC-like format, false for CSV
+	 * @return true if the whole file was imported, false if a chunk failed
+	 * @throws IOException  if the file can't be read or is malformed
+	 * @throws SQLException if the database can't be connected
+	 */
+	public boolean importFile(File file, boolean isMarc) throws IOException, SQLException {
+		checkpoint = Path.of(file.getPath() + ".checkpoint");
+		long resumeAfter = Files.exists(checkpoint) ? Long.parseLong(Files.readString(checkpoint).trim()) : 0;
+		if (resumeAfter > 0)
+			System.out.println("continuing after line " + resumeAfter);
+
+		// Every worker writes its chunks on a connection of its own
+		BlockingQueue<Connection> connections = new ArrayBlockingQueue<>(threads);
+		for (int i = 0; i < threads; i++) {
+			Connection conn = DriverManager.getConnection(url, user, password);
+			conn.setAutoCommit(false);
+			connections.add(conn);
+		}
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		Semaphore inFlight = new Semaphore(threads * 2); // Bounds the chunks held in memory
+		LongHashSet seen = new LongHashSet(); // Keys of the titles read so far
+
+		start = lastProgress = System.nanoTime();
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			RowReader reader = isMarc ? marcReader(in) : csvReader(in);
+			List<Row> chunk = new ArrayList<>();
+			int chunkNumber = 0;
+			Row row;
+			while ((row = reader.next()) != null && !hasFailed()) {
+				if (row.line <= resumeAfter)
+					continue; // Imported before the checkpoint
+				String err = row.validate();
+				if (err != null) {
+					reportInvalid(row.line, err);
+					continue;
+				}
+				if (!seen.add(hash(row.key()))) {
+					countDuplicates(1); // The file has the title twice
+					continue;
+				}
+				chunk.add(row);
+				if (chunk.size() == chunkSize) {
+					submit(workers, connections, inFlight, chunkNumber++, chunk);
+					chunk = new ArrayList<>();
+				}
+			}
+			if (!chunk.isEmpty() && !hasFailed())
+				submit(workers, connections, inFlight, chunkNumber++, chunk);
+		} finally {
+			workers.shutdown();
+			try {
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			for (Connection conn : connections) {
+				conn.close();
+			}
+		}
+
+		printProgress();
+		if (hasFailed()) {
+			System.out.println("import failed: " + failure.getMessage());
+			return false;
+		}
+		Files.deleteIfExists(checkpoint);
+		return true;
+	}
+
+	/**
+	 * Hands a chunk to a worker, waiting while too many chunks are in flight.
+	 */
+	private void submit(ExecutorService workers, BlockingQueue<Connection> connections, Semaphore inFlight,
+			int chunkNumber, List<Row> chunk) {
+		inFlight.acquireUninterruptibly();
+		synchronized (this) {
+			lastLineOfChunk.put(chunkNumber, chunk.get(chunk.size() - 1).line);
+		}
+		workers.execute(() -> {
+			Connection conn = connections.remove();
+			try {
+				writeChunk(conn, chunk);
+				committed(chunkNumber);
+			} catch (SQLException e) {
+				try {
+					conn.rollback();
+				} catch (SQLException ignored) {
+				}
+				failed(e);
+			} finally {
+				connections.add(conn);
+				inFlight.release();
+			}
+		});
+	}
+
+	/**
+	 * Writes a chunk of titles with their copies in one transaction, skipping the
+	 * titles that the database already has.
+	 *
+	 * @param conn  the connection of the worker
+	 * @param chunk the titles to write
+	 * @throws SQLException if the chunk can't be written
+	 */
+	private void writeChunk(Connection conn, List<Row> chunk) throws SQLException {
+		// Find the titles of the chunk that are already in the database
+		PreparedStatement pstmt = conn.prepareStatement("SELECT title_name, author_name FROM titles WHERE title_name IN ("
+				+ String.join(",", Collections.nCopies(chunk.size(), "?")) + ")");
+		for (int i = 0; i < chunk.size(); i++) {
+			pstmt.setString(i + 1, chunk.get(i).name);
+		}
+		ResultSet rs = pstmt.executeQuery();
+		Set<String> existing = new HashSet<>();
+		while (rs.next()) {
+			existing.add(rs.getString(1).toLowerCase() + '\n' + rs.getString(2).toLowerCase());
+		}
+		List<Row> rows = new ArrayList<>();
+		for (Row row : chunk) {
+			if (!existing.contains(row.key()))
+				rows.add(row);
+		}
+		if (rows.isEmpty()) {
+			conn.commit();
+			countDuplicates(chunk.size());
+			return;
+		}
+
+		// Insert the titles with the number of their copies, and get their IDs
+		pstmt = conn.prepareStatement("INSERT INTO titles(title_name,author_name,title_description,num_of_orders,"
+				+ "num_of_copies,genre) VALUES(?,?,?,0,?,?)", Statement.RETURN_GENERATED_KEYS);
+		for (Row row : rows) {
+			pstmt.setString(1, row.name);
+			pstmt.setString(2, row.author);
+			pstmt.setString(3, row.description);
+			pstmt.setInt(4, row.shelves.size());
+			pstmt.setString(5, row.genre);
+			pstmt.addBatch();
+		}
+		pstmt.executeBatch();
+		rs = pstmt.getGeneratedKeys();
+
+		// Insert the copies of every title
+		PreparedStatement copyRows = conn
+				.prepareStatement("INSERT INTO copies(title_id,shelf,is_borrowed) VALUES(?,?,FALSE)");
+		int numOfCopies = 0;
+		for (Row row : rows) {
+			if (!rs.next())
+				throw new SQLException("missing generated title IDs");
+			for (String shelf : row.shelves) {
+				copyRows.setInt(1, rs.getInt(1));
+				copyRows.setString(2, shelf);
+				copyRows.addBatch();
+				numOfCopies++;
+			}
+		}
+		copyRows.executeBatch();
+		conn.commit();
+
+		synchronized (this) {
+			titles += rows.size();
+			copies += numOfCopies;
+			duplicates += chunk.size() - rows.size();
+		}
+	}
+
+	/**
+	 * Records a committed chunk, advances the checkpoint over the chunks that are
+	 * committed in file order, and prints the progress every few seconds.
+	 */
+	private synchronized void committed(int chunkNumber) {
+		committedAhead.add(chunkNumber);
+		long lastLine = -1;
+		while (!committedAhead.isEmpty() && committedAhead.first() == nextToCommit) {
+			committedAhead.pollFirst();
+			lastLine = lastLineOfChunk.remove(nextToCommit++);
+		}
+		if (lastLine >= 0) {
+			try {
+				Files.writeString(checkpoint, Long.toString(lastLine));
+			} catch (IOException e) {
+				System.out.println("can't write the checkpoint: " + e.getMessage());
+			}
+		}
+		if (System.nanoTime() - lastProgress >= PROGRESS_INTERVAL)
+			printProgress();
+	}
+
+	/**
+	 * Records the failure of a worker. The reader stops at the next row.
+	 */
+	private synchronized void failed(SQLException e) {
+		if (failure == null)
+			failure = e;
+	}
+
+	private synchronized boolean hasFailed() {
+		return failure != null;
+	}
+
+	private synchronized void countDuplicates(long rows) {
+		duplicates += rows;
+	}
+
+	/**
+	 * Reports an invalid row, one by one up to {@link #MAX_REPORTED_ERRORS}.
+	 */
+	private synchronized void reportInvalid(long line, String err) {
+		if (++invalid <= MAX_REPORTED_ERRORS)
+			System.out.println("line " + line + ": " + err);
+	}
+
+	/**
+	 * Prints the number of imported rows and the throughput.
+	 */
+	private synchronized void printProgress() {
+		lastProgress = System.nanoTime();
+		double seconds = (lastProgress - start) / 1e9;
+		System.out.printf("%d titles, %d copies, %d duplicates, %d invalid in %.1fs (%.0f titles/s)%n", titles, copies,
+				duplicates, invalid, seconds, titles / Math.max(seconds, 1e-9));
+	}
+
+	/**
+	 * Creates the reader of a CSV file with a header row.
+	 *
+	 * @param in the file
+	 * @return the reader of the rows
+	 * @throws IOException if the header can't be read or misses a column
+	 */
+	private static RowReader csvReader(BufferedReader in) throws IOException {
+		long[] line = { 0 };
+		List<String> header = readCsvRecord(in, line);
+		if (header == null)
+			return () -> null;
+		Map<String, Integer> columns = new HashMap<>();
+		for (int i = 0; i < header.size(); i++) {
+			columns.put(header.get(i).trim().toLowerCase(), i);
+		}
+		if (!columns.containsKey("title_name") || !columns.containsKey("author_name"))
+			throw new IOException("the header must have the title_name and author_name columns");
+
+		return () -> {
+			List<String> fields;
+			do {
+				fields = readCsvRecord(in, line);
+			} while (fields != null && fields.size() == 1 && fields.get(0).isBlank()); // Skip empty lines
+			if (fields == null)
+				return null;
+			Row row = new Row();
+			row.line = line[0];
+			row.name = field(fields, columns, "title_name");
+			row.author = field(fields, columns, "author_name");
+			row.genre = emptyToNull(field(fields, columns, "genre"));
+			row.description = emptyToNull(field(fields, columns, "title_description"));
+			String shelves = field(fields, columns, "shelves");
+			String count = field(fields, columns, "copies");
+			if (shelves != null && !shelves.isEmpty()) {
+				for (String shelf : shelves.split("\\|")) {
+					row.shelves.add(shelf.trim());
+				}
+			} else if (count != null && !count.isEmpty()) {
+				try {
+					for (int i = Integer.parseInt(count); i > 0; i--) {
+						row.shelves.add(null);
+					}
+				} catch (NumberFormatException e) {
+					row.invalid = "copies is not a number";
+				}
+			}
+			return row;
+		};
+	}
+
+	/**
+	 * @return the trimmed value of a column of a CSV record, or null if the file
+	 *         or the record doesn't have the column
+	 */
+	private static String field(List<String> fields, Map<String, Integer> columns, String column) {
+		Integer i = columns.get(column);
+		return i == null || i >= fields.size() ? null : fields.get(i).trim();
+	}
+
+	/**
+	 * @return the value, or null if it is empty
+	 */
+	private static String emptyToNull(String value) {
+		return value == null || value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * Reads a record of a CSV file, which spans more than a line if a quoted
+	 * field has new lines.
+	 *
+	 * @param in   the file
+	 * @param line the number of the last line read, updated
+	 * @return the fields of the record, or null at the end of the file
+	 * @throws IOException if the file can't be read or ends in a quoted field
+	 */
+	static List<String> readCsvRecord(BufferedReader in, long[] line) throws IOException {
+		String text = in.readLine();
+		if (text == null)
+			return null;
+		line[0]++;
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0;; i++) {
+			if (i == text.length()) {
+				if (!quoted)
+					break;
+				// A quoted field continues on the next line
+				text = in.readLine();
+				if (text == null)
+					throw new IOException("line " + line[0] + ": unterminated quoted field");
+				line[0]++;
+				field.append('\n');
+				i = -1;
+				continue;
+			}
+			char c = text.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+					field.append('"'); // An escaped quote
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/**
+	 * Creates the reader of a file in the MARC-like line format.
+	 *
+	 * @param in the file
+	 * @return the reader of the rows
+	 */
+	private static RowReader marcReader(BufferedReader in) {
+		long[] line = { 0 };
+		return () -> {
+			Row row = null;
+			String text;
+			while ((text = in.readLine()) != null) {
+				line[0]++;
+				text = text.trim();
+				if (text.isEmpty()) {
+					if (row != null)
+						break; // The end of the record
+					continue;
+				}
+				if (row == null)
+					row = new Row();
+				row.line = line[0];
+				int space = text.indexOf(' ');
+				String tag = space < 0 ? text : text.substring(0, space);
+				String value = space < 0 ? "" : text.substring(space + 1).trim();
+				switch (tag) {
+				case "245":
+					row.name = value;
+					break;
+				case "100":
+					row.author = value;
+					break;
+				case "655":
+					row.genre = value;
+					break;
+				case "520":
+					row.description = value;
+					break;
+				case "852":
+					row.shelves.add(value.isEmpty() ? null : value);
+					break;
+				}
+			}
+			return row;
+		};
+	}
+
+	/**
+	 * @return a 64-bit hash of a title key
+	 */
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L; // FNV-1a
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * A set of longs in an open addressing table, 8 bytes a title instead of the
+	 * few dozens of a set of strings. Two titles with the same 64-bit hash would be
+	 * taken for duplicates, which is unlikely enough to ignore.
+	 */
+	private static class LongHashSet {
+		private long[] table = new long[1 << 16];
+		private boolean hasZero; // Zero marks an empty slot, so it is kept aside
+		private int size;
+
+		/**
+		 * @return true if the value was added, false if the set already had it
+		 */
+		private boolean add(long value) {
+			if (value == 0) {
+				boolean added = !hasZero;
+				hasZero = true;
+				return added;
+			}
+			if (size * 2 >= table.length)
+				grow();
+			int i = slot(value, table.length);
+			while (table[i] != 0) {
+				if (table[i] == value)
+					return false;
+				i = (i + 1) & (table.length - 1);
+			}
+			table[i] = value;
+			size++;
+			return true;
+		}
+
+		private void grow() {
+			long[] old = table;
+			table = new long[old.length * 2];
+			for (long value : old) {
+				if (value != 0) {
+					int i = slot(value, table.length);
+					while (table[i] != 0) {
+						i = (i + 1) & (table.length - 1);
+					}
+					table[i] = value;
+				}
+			}
+		}
+
+		private static int slot(long value, int length) {
+			int h = (int) (value ^ (value >>> 32)) * 0x9E3779B9;
+			return (h ^ (h >>> 16)) & (length - 1);
+		}
+	}
+}
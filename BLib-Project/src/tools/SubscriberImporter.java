@@ -0,0 +1,181 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import logic.Subscriber;
+import server.BLibDBC;
+import server.BLibServer;
+
+/**
+ * The SubscriberImporter class registers a file of new subscribers, such as the
+ * students of a new semester, through the bulk registration of
+ * {@link BLibDBC}. Every subscriber gets a generated password, like a
+ * subscriber registered by a librarian.
+ *
+ * The file is read as a stream and registered in chunks, each in a single
+ * transaction with batched writes of the subscribers, users and activities.
+ * The result of every row is written to a report next to the file
+ * ({@code <file>.report.csv}): the line, the subscriber ID, "registered" with
+ * the password, or "failed" with the reason.
+ *
+ * The file is CSV with a header row. The columns are subscriber_id and
+ * subscriber_name, and optionally subscriber_phone_number, subscriber_email and
+ * subscriber_status (default active).
+ *
+ * Usage: {@code java tools.SubscriberImporter <file>}. Configuration is read
+ * from system properties:
+ * <ul>
+ * <li>import.url, import.user, import.dbPassword - the database (default the
+ * local MySQL BLibDB)</li>
+ * <li>import.chunk - the number of subscribers in a chunk (default 1000)</li>
+ * </ul>
+ */
+public class SubscriberImporter {
+
+	private final int chunkSize = Integer.getInteger("import.chunk", 1000);
+	private BufferedWriter report;
+	private long registered; // Subscribers registered
+	private long failed; // Rows that were not registered
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.out.println("usage: java tools.SubscriberImporter <file>");
+			return;
+		}
+		String url = System.getProperty("import.url",
+				"jdbc:mysql://localhost/BLibDB?useSSL=FALSE&serverTimezone=Asia/Jerusalem&rewriteBatchedStatements=true");
+		if (!BLibDBC.getInstance().connect(url, System.getProperty("import.user", "root"),
+				System.getProperty("import.dbPassword", ""))) {
+			System.exit(1);
+		}
+		try {
+			new SubscriberImporter().importFile(new File(args[0]));
+		} finally {
+			BLibDBC.getInstance().disconnect();
+		}
+	}
+
+	/**
+	 * Registers the subscribers of a file and writes the report of every row.
+	 *
+	 * @param file the file to import
+	 * @throws IOException if the file can't be read or is malformed, or the report
+	 *                     can't be written
+	 */
+	public void importFile(File file) throws IOException {
+		long start = System.nanoTime();
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+				BufferedWriter out = Files.newBufferedWriter(Path.of(file.getPath() + ".report.csv"),
+						StandardCharsets.UTF_8)) {
+			report = out;
+			report.write("line,subscriber_id,result,details\n");
+
+			long[] line = { 0 };
+			List<String> header = CatalogImporter.readCsvRecord(in, line);
+			if (header == null)
+				return;
+			Map<String, Integer> columns = new HashMap<>();
+			for (int i = 0; i < header.size(); i++) {
+				columns.put(header.get(i).trim().toLowerCase(), i);
+			}
+			if (!columns.containsKey("subscriber_id") || !columns.containsKey("subscriber_name"))
+				throw new IOException("the header must have the subscriber_id and subscriber_name columns");
+
+			List<Subscriber> chunk = new ArrayList<>();
+			List<Long> lines = new ArrayList<>();
+			List<String> fields;
+			while ((fields = CatalogImporter.readCsvRecord(in, line)) != null) {
+				if (fields.size() == 1 && fields.get(0).isBlank())
+					continue; // Skip empty lines
+				String id = field(fields, columns, "subscriber_id");
+				String status = field(fields, columns, "subscriber_status");
+				Subscriber sub;
+				try {
+					sub = new Subscriber(Integer.parseInt(id), field(fields, columns, "subscriber_name"),
+							field(fields, columns, "subscriber_phone_number"), field(fields, columns, "subscriber_email"),
+							status == null ? "active" : status.toLowerCase());
+				} catch (NumberFormatException e) {
+					write(line[0], id, "Invalid subscriber ID", null);
+					continue;
+				}
+				chunk.add(sub);
+				lines.add(line[0]);
+				if (chunk.size() == chunkSize) {
+					registerChunk(chunk, lines);
+					chunk.clear();
+					lines.clear();
+				}
+			}
+			registerChunk(chunk, lines);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d registered, %d failed in %.1fs (%.0f subscribers/s)%n", registered, failed, seconds,
+				registered / Math.max(seconds, 1e-9));
+	}
+
+	/**
+	 * Registers a chunk of subscribers and reports every one of them.
+	 */
+	private void registerChunk(List<Subscriber> chunk, List<Long> lines) throws IOException {
+		if (chunk.isEmpty())
+			return;
+		List<String> passwords = new ArrayList<>();
+		for (int i = 0; i < chunk.size(); i++) {
+			passwords.add(BLibServer.generatePassword(4));
+		}
+		List<String> errors = BLibDBC.getInstance().registerSubscribers(chunk, passwords);
+		for (int i = 0; i < chunk.size(); i++) {
+			String err = errors == null ? "DB error" : errors.get(i);
+			write(lines.get(i), Integer.toString(chunk.get(i).getId()), err, err == null ? passwords.get(i) : null);
+		}
+		System.out.println(registered + " registered");
+	}
+
+	/**
+	 * Writes the report of a row.
+	 *
+	 * @param line     the line of the row
+	 * @param id       the subscriber ID of the row
+	 * @param err      why the row failed, or null if it was registered
+	 * @param password the password of a registered subscriber
+	 */
+	private void write(long line, String id, String err, String password) throws IOException {
+		if (err == null)
+			registered++;
+		else
+			failed++;
+		report.write("%d,%s,%s,%s\n".formatted(line, quote(id), err == null ? "registered" : "failed",
+				quote(err == null ? password : err)));
+	}
+
+	/**
+	 * @return the trimmed value of a column of a CSV record, or null if it is
+	 *         empty or the file or the record doesn't have the column
+	 */
+	private static String field(List<String> fields, Map<String, Integer> columns, String column) {
+		Integer i = columns.get(column);
+		String value = i == null || i >= fields.size() ? null : fields.get(i).trim();
+		return value == null || value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * @return a value quoted for CSV if it has a comma, a quote or a new line
+	 */
+	private static String quote(String value) {
+		if (value == null)
+			return "";
+		if (value.contains(",") || value.contains("\"") || value.contains("\n"))
+			return '"' + value.replace("\"", "\"\"") + '"';
+		return value;
+	}
+}